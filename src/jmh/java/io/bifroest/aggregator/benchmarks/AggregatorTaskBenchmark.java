@@ -0,0 +1,116 @@
+package io.bifroest.aggregator.benchmarks;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.bifroest.commons.statistics.eventbus.EventBusImpl;
+import io.bifroest.commons.statistics.eventbus.EventBusManager;
+import io.bifroest.commons.statistics.eventbus.EventBusManager.EventBusForce;
+import io.bifroest.aggregator.systems.AggregatorEnvironment;
+import io.bifroest.aggregator.systems.aggregation.AggregatorTask;
+import io.bifroest.aggregator.systems.aggregation.Cascade;
+import io.bifroest.aggregator.systems.aggregation.CheckpointStore;
+import io.bifroest.aggregator.systems.aggregation.LevelSettings;
+import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
+import io.bifroest.aggregator.systems.cassandra.CassandraSettings;
+import io.bifroest.aggregator.systems.cassandra.InMemoryClusterWrapper;
+import io.bifroest.aggregator.systems.cassandra.ThrottleSettings;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * Aggregates a whole table into the next level against the in-memory
+ * keyspace: listing the names, reading and decoding every series, aggregating
+ * it and writing the result. The source is kept, so every invocation
+ * aggregates the same table again.
+ *
+ * columnar=false measures handleMetrics, columnar=true the primitive kernels
+ * for comparison.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime } )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( 1 )
+public class AggregatorTaskBenchmark {
+    @Param( { "100", "1000" } )
+    public int names;
+
+    @Param( { "288" } )
+    public int points;
+
+    @Param( { "false", "true" } )
+    public boolean columnar;
+
+    private AggregatorEnvironment environment;
+    private CassandraAccessLayer database;
+    private RetentionTable source;
+    private RetentionLevel target;
+    private LevelSettings levelSettings;
+    private ExecutorService shardPool;
+
+    @Setup
+    public void fillTable() {
+        EventBusManager.setEventBus( new EventBusImpl(), EventBusForce.VROOM );
+
+        RetentionLevel level = new RetentionLevel( "precise", 5 * 60, 3, 60 * 60 * 24, "hourly" );
+        target = new RetentionLevel( "hourly", 60 * 60, 2, 60 * 60 * 24 * 7, null );
+        source = new RetentionTable( level, 20000 );
+
+        InMemoryClusterWrapper cluster = new InMemoryClusterWrapper();
+        cluster.keyspace().createTable( source );
+        long start = source.getInterval().start();
+        long step = Math.max( 1, level.blockSize() / points );
+        for ( int name = 0; name < names; name++ ) {
+            long[] timestamps = new long[points];
+            double[] values = new double[points];
+            for ( int i = 0; i < points; i++ ) {
+                timestamps[i] = start + i * step;
+                values[i] = name + Math.sin( i );
+            }
+            cluster.keyspace().insertPoints( source, String.format( "servers.web%04d.cpu.user", name ), timestamps, values );
+        }
+
+        database = new CassandraAccessLayer( cluster, StubRetentions.of( StubRetentions.builtIn( "average" ), level, target ), false,
+                CassandraSettings.builder().throttle( ThrottleSettings.disabled() ).build() );
+        database.open();
+        environment = mock( AggregatorEnvironment.class, withSettings().stubOnly() );
+        when( environment.cassandraAccessLayer() ).thenReturn( database );
+        when( environment.retentions() ).thenReturn( StubRetentions.of( StubRetentions.builtIn( "average" ), level, target ) );
+
+        levelSettings = LevelSettings.builder().columnar( columnar ).build();
+        shardPool = Executors.newFixedThreadPool( 1 );
+    }
+
+    @TearDown
+    public void close() {
+        shardPool.shutdown();
+        database.close();
+    }
+
+    @Benchmark
+    public void aggregateTable() {
+        new AggregatorTask<AggregatorEnvironment>( environment, source, Optional.of( target ), levelSettings, CheckpointStore.inMemory(),
+                () -> false, Cascade.disabled(), shardPool, true ).run();
+    }
+}
@@ -0,0 +1,75 @@
+package io.bifroest.aggregator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.bifroest.commons.model.Metric;
+import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
+import io.bifroest.aggregator.systems.cassandra.CassandraSettings;
+import io.bifroest.aggregator.systems.cassandra.InMemoryClusterWrapper;
+import io.bifroest.aggregator.systems.cassandra.ThrottleSettings;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * Decodes the rows of one metric into Metric instances, the way every
+ * aggregation by name reads its source. The rows are created once, so only
+ * the decoding and the request bookkeeping of the access layer are measured.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class MetricDecodingBenchmark {
+    private static final String NAME = "servers.web01.cpu.user";
+
+    @Param( { "60", "1440", "10080" } )
+    public int points;
+
+    private CassandraAccessLayer database;
+    private RetentionTable table;
+
+    @Setup
+    public void fillTable() {
+        RetentionLevel level = new RetentionLevel( "precise", 60, 2, 60 * 60 * 24 * 7, null );
+        table = new RetentionTable( level, 2900 );
+
+        InMemoryClusterWrapper cluster = new InMemoryClusterWrapper();
+        cluster.keyspace().createTable( table );
+        long start = table.getInterval().start();
+        for ( int i = 0; i < points; i++ ) {
+            cluster.keyspace().insertPoint( table, NAME, start + i * 60, Math.sin( i ) );
+        }
+
+        database = new CassandraAccessLayer( cluster, StubRetentions.of( StubRetentions.builtIn( "last" ), level ), false,
+                CassandraSettings.builder().throttle( ThrottleSettings.disabled() ).build() );
+        database.open();
+    }
+
+    @TearDown
+    public void close() {
+        database.close();
+    }
+
+    @Benchmark
+    public void loadUnorderedMetrics( Blackhole blackhole ) {
+        for ( Metric metric : database.loadUnorderedMetrics( table, NAME ) ) {
+            blackhole.consume( metric );
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package io.bifroest.aggregator.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.bifroest.commons.model.Metric;
+import io.bifroest.retentions.Aggregator;
+import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * Aggregates one series of a source table into the buckets of the next level
+ * with every built-in function, as handleMetrics does for each name.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class RetentionAggregateBenchmark {
+    private static final String NAME = "servers.web01.cpu.user";
+
+    @Param( { "average", "last", "max", "min", "sum" } )
+    public String function;
+
+    @Param( { "60", "1440", "10080" } )
+    public int points;
+
+    private RetentionConfiguration retentions;
+    private RetentionTable source;
+    private RetentionLevel target;
+    private List<Metric> metrics;
+
+    @Setup
+    public void createSeries() {
+        RetentionLevel level = new RetentionLevel( "precise", 60, 2, 60 * 60 * 24 * 7, "hourly" );
+        target = new RetentionLevel( "hourly", 60 * 60, 2, 60 * 60 * 24 * 7 * 4, null );
+        source = new RetentionTable( level, 2900 );
+        retentions = StubRetentions.of( StubRetentions.builtIn( function ), level, target );
+
+        // spread over the whole block, so every bucket of the target gets points
+        long start = source.getInterval().start();
+        long step = Math.max( 1, level.blockSize() / points );
+        metrics = new ArrayList<>( points );
+        for ( int i = 0; i < points; i++ ) {
+            metrics.add( new Metric( NAME, start + i * step, Math.sin( i ) ) );
+        }
+    }
+
+    @Benchmark
+    public Collection<Metric> aggregate() {
+        return Aggregator.aggregate( NAME, metrics, source.getInterval(), target.frequency(), retentions );
+    }
+}
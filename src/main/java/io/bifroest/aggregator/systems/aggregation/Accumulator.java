@@ -0,0 +1,17 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+/**
+ * The mergeable state of one slot of a partial aggregate: the value so far,
+ * the number of points folded into it and the time of the latest of them.
+ */
+final class Accumulator {
+    double value;
+    long count;
+    long latest;
+
+    Accumulator( double value, long count, long latest ) {
+        this.value = value;
+        this.count = count;
+        this.latest = latest;
+    }
+}
@@ -0,0 +1,174 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import io.bifroest.commons.statistics.aggregation.AverageAggregation;
+import io.bifroest.commons.statistics.aggregation.LastAggregation;
+import io.bifroest.commons.statistics.aggregation.MaxAggregation;
+import io.bifroest.commons.statistics.aggregation.MinAggregation;
+import io.bifroest.commons.statistics.aggregation.SumAggregation;
+
+/**
+ * Primitive implementations of the built-in aggregation functions. Every
+ * kernel folds a whole column of points into the buckets in one loop.
+ */
+enum AggregationKernel {
+    LAST {
+        @Override
+        void accumulate( long[] timestamps, double[] values, int count, Buckets buckets ) {
+            for ( int i = 0; i < count; i++ ) {
+                int b = buckets.indexOf( timestamps[i] );
+                if ( b >= 0 && ( buckets.counts[b]++ == 0 || timestamps[i] >= buckets.latest[b] ) ) {
+                    buckets.values[b] = values[i];
+                    buckets.latest[b] = timestamps[i];
+                }
+            }
+        }
+    },
+    MAX {
+        @Override
+        void accumulate( long[] timestamps, double[] values, int count, Buckets buckets ) {
+            for ( int i = 0; i < count; i++ ) {
+                int b = buckets.indexOf( timestamps[i] );
+                if ( b >= 0 && ( buckets.counts[b]++ == 0 || values[i] > buckets.values[b] ) ) {
+                    buckets.values[b] = values[i];
+                }
+            }
+        }
+    },
+    MIN {
+        @Override
+        void accumulate( long[] timestamps, double[] values, int count, Buckets buckets ) {
+            for ( int i = 0; i < count; i++ ) {
+                int b = buckets.indexOf( timestamps[i] );
+                if ( b >= 0 && ( buckets.counts[b]++ == 0 || values[i] < buckets.values[b] ) ) {
+                    buckets.values[b] = values[i];
+                }
+            }
+        }
+    },
+    SUM {
+        @Override
+        void accumulate( long[] timestamps, double[] values, int count, Buckets buckets ) {
+            for ( int i = 0; i < count; i++ ) {
+                int b = buckets.indexOf( timestamps[i] );
+                if ( b >= 0 ) {
+                    buckets.values[b] = buckets.counts[b]++ == 0 ? values[i] : buckets.values[b] + values[i];
+                }
+            }
+        }
+    },
+    AVERAGE {
+        @Override
+        void accumulate( long[] timestamps, double[] values, int count, Buckets buckets ) {
+            SUM.accumulate( timestamps, values, count, buckets );
+        }
+
+        @Override
+        double finish( double value, long count ) {
+            return value / count;
+        }
+    };
+
+    /**
+     * @return the kernel computing the same as the given aggregation function, if there is one
+     */
+    static Optional<AggregationKernel> forFunction( Object function ) {
+        // exact classes only, a subclass may aggregate differently
+        Class<?> type = function == null ? null : function.getClass();
+        if ( type == LastAggregation.class ) {
+            return Optional.of( LAST );
+        } else if ( type == MaxAggregation.class ) {
+            return Optional.of( MAX );
+        } else if ( type == MinAggregation.class ) {
+            return Optional.of( MIN );
+        } else if ( type == SumAggregation.class ) {
+            return Optional.of( SUM );
+        } else if ( type == AverageAggregation.class ) {
+            return Optional.of( AVERAGE );
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    abstract void accumulate( long[] timestamps, double[] values, int count, Buckets buckets );
+
+    /**
+     * Folds the state of another accumulator into the given one.
+     */
+    void combine( Accumulator into, double value, long count, long latest ) {
+        switch ( this ) {
+            case LAST:
+                if ( latest >= into.latest ) {
+                    into.value = value;
+                }
+                break;
+            case MAX:
+                into.value = Math.max( into.value, value );
+                break;
+            case MIN:
+                into.value = Math.min( into.value, value );
+                break;
+            default:
+                into.value += value;
+                break;
+        }
+        into.count += count;
+        into.latest = Math.max( into.latest, latest );
+    }
+
+    /**
+     * @return the aggregated value of a bucket holding count points
+     */
+    double finish( double value, long count ) {
+        return value;
+    }
+
+    /**
+     * The target slots covering the source interval. Points outside the interval are ignored.
+     */
+    static final class Buckets {
+        long start;
+        long end;
+        long firstSlot;
+        long frequency;
+        int size;
+        double[] values = new double[0];
+        long[] latest = new long[0];
+        int[] counts = new int[0];
+
+        void reset( long start, long end, long frequency ) {
+            this.start = start;
+            this.end = end;
+            this.frequency = frequency;
+            this.firstSlot = start - Math.floorMod( start, frequency );
+            this.size = (int)( ( end - 1 - firstSlot ) / frequency ) + 1;
+            if ( counts.length < size ) {
+                values = new double[size];
+                latest = new long[size];
+                counts = new int[size];
+            } else {
+                Arrays.fill( counts, 0, size, 0 );
+            }
+        }
+
+        /**
+         * Gives up buckets for more than maxRetained slots, they are allocated again by the next reset.
+         */
+        void trim( int maxRetained ) {
+            if ( counts.length > maxRetained ) {
+                values = new double[0];
+                latest = new long[0];
+                counts = new int[0];
+            }
+        }
+
+        int indexOf( long timestamp ) {
+            if ( timestamp < start || timestamp >= end ) {
+                return -1;
+            }
+            return (int)( ( timestamp - firstSlot ) / frequency );
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+import io.bifroest.commons.statistics.units.parse.DurationParser;
+import io.bifroest.aggregator.systems.coordination.CoordinationSettings;
+import io.bifroest.retentions.RetentionLevel;
+
+/**
+ * The aggregator config block, with optional settings per retention level:
+ *
+ * <pre>
+ * "aggregator" : {
+ *     "executor" : "fixed",
+ *     "poolsize" : 5,
+ *     "shard-poolsize" : 8,
+ *     "frequency" : "1m",
+ *     "shutdown-timeout" : "1m",
+ *     "checkpoint-directory" : "/var/lib/bifroest/checkpoints",
+ *     "coordination" : { "node-id" : "aggregator-1", "lease-duration" : "5m" },
+ *     "planning" : { "sample-fraction" : 0.01, "runs" : 24, "run-every" : "1h" },
+ *     "level-defaults" : { "read-mode" : "per-name", "read-ahead" : 4, "fetch-size" : 1000, "names-per-checkpoint" : 10000, "progress-interval" : "1s" },
+ *     "levels" : {
+ *         "minutely" : { "read-mode" : "token-range", "token-ranges" : 256, "scan-parallelism" : 4, "ranges-per-checkpoint" : 16, "distributed" : true },
+ *         "hourly" : { "columnar" : true, "cascade" : true, "shard-threshold" : 100000, "aggregate-after" : "15m", "trace-names" : true }
+ *     }
+ * }
+ * </pre>
+ *
+ * The pace of the Cassandra requests is set by the throttle in the cassandra config block.
+ * With the virtual executor, poolsize and shard-poolsize are ignored and the units of every
+ * table run in parallel unless their level sets a shard-threshold, so max-outstanding-requests
+ * in the cassandra block bounds the concurrency.
+ * Without a checkpoint-directory, interrupted tables are aggregated from the start again.
+ * Cascading levels keep their partial aggregates in the cascade subdirectory of the checkpoint-directory.
+ * Levels with aggregate-after aggregate a block once it is closed for that long and its sources
+ * are aggregated, and only drop the table when it expires.
+ * With a coordination block, several nodes share the keyspace and every table is aggregated
+ * by the node holding its lease, see CoordinationSettings. Cascades need all sources on one
+ * node, so they cannot be combined with it. The tables of distributed levels are shared by all
+ * nodes instead, each node claims groups of ranges-per-checkpoint token ranges of them.
+ * Tasks report their progress once per progress-interval, levels with trace-names also
+ * send an event for every aggregated name.
+ * With a planning block, the first run estimates the cost of the next runs once before it
+ * aggregates, see PlanningSettings.
+ */
+public final class AggregationSettings {
+    private static final int DEFAULT_POOLSIZE = 10;
+    private static final int DEFAULT_SHARD_POOLSIZE = Runtime.getRuntime().availableProcessors();
+    private static final Duration DEFAULT_SHUTDOWN_TIMEOUT = Duration.ofMinutes( 1 );
+    private static final Duration DEFAULT_FREQUENCY = Duration.ofMinutes( 1 );
+
+    private static final Logger log = LogManager.getLogger();
+    private static final DurationParser parser = new DurationParser();
+
+    private final ExecutorMode executorMode;
+    private final int poolsize;
+    private final int shardPoolsize;
+    private final Duration shutdownTimeout;
+    private final Optional<Path> checkpointDirectory;
+    private final Optional<CoordinationSettings> coordination;
+    private final LevelSettings levelDefaults;
+    private final Map<String, LevelSettings> levels;
+    private final Optional<PlanningSettings> planning;
+
+    public AggregationSettings( ExecutorMode executorMode, int poolsize, int shardPoolsize, Duration shutdownTimeout, Optional<Path> checkpointDirectory,
+            Optional<CoordinationSettings> coordination, LevelSettings levelDefaults, Map<String, LevelSettings> levels ) {
+        this( executorMode, poolsize, shardPoolsize, shutdownTimeout, checkpointDirectory, coordination, levelDefaults, levels, Optional.empty() );
+    }
+
+    public AggregationSettings( ExecutorMode executorMode, int poolsize, int shardPoolsize, Duration shutdownTimeout, Optional<Path> checkpointDirectory,
+            Optional<CoordinationSettings> coordination, LevelSettings levelDefaults, Map<String, LevelSettings> levels,
+            Optional<PlanningSettings> planning ) {
+        boolean cascade = levelDefaults.cascade() || levels.values().stream().anyMatch( LevelSettings::cascade );
+        if ( !checkpointDirectory.isPresent() && cascade ) {
+            throw new IllegalArgumentException( "cascade requires a checkpoint-directory to keep the partial aggregates in" );
+        }
+        if ( coordination.isPresent() && cascade ) {
+            throw new IllegalArgumentException( "cascade cannot be used with coordination, the partial aggregates only live on one node" );
+        }
+        if ( !coordination.isPresent() && ( levelDefaults.distributed() || levels.values().stream().anyMatch( LevelSettings::distributed ) ) ) {
+            throw new IllegalArgumentException( "distributed levels require a coordination block" );
+        }
+        this.executorMode = executorMode;
+        this.poolsize = poolsize;
+        this.shardPoolsize = shardPoolsize;
+        this.shutdownTimeout = shutdownTimeout;
+        this.checkpointDirectory = checkpointDirectory;
+        this.coordination = coordination;
+        this.levelDefaults = levelDefaults;
+        this.levels = Collections.unmodifiableMap( new HashMap<>( levels ) );
+        this.planning = planning;
+    }
+
+    public static AggregationSettings fromConfig( JSONObject config ) {
+        if ( config.has( "sleep-after-each-table" ) ) {
+            log.warn( "sleep-after-each-table is ignored, requests are paced by the throttle of the cassandra block instead" );
+        }
+
+        ExecutorMode executorMode = config.has( "executor" ) ? ExecutorMode.parse( config.getString( "executor" ) ) : ExecutorMode.FIXED;
+
+        // virtual threads are cheap, so every unit of work gets one
+        LevelSettings builtInDefaults = executorMode == ExecutorMode.VIRTUAL
+                ? LevelSettings.builder().shardThreshold( 1 ).build()
+                : LevelSettings.defaults();
+        LevelSettings levelDefaults = config.has( "level-defaults" )
+                ? LevelSettings.fromConfig( config.getJSONObject( "level-defaults" ), builtInDefaults )
+                : builtInDefaults;
+
+        Map<String, LevelSettings> levels = new HashMap<>();
+        JSONObject levelsConfig = config.optJSONObject( "levels" );
+        if ( levelsConfig != null && levelsConfig.length() > 0 ) {
+            for ( String levelName : JSONObject.getNames( levelsConfig ) ) {
+                levels.put( levelName, LevelSettings.fromConfig( levelsConfig.getJSONObject( levelName ), levelDefaults ) );
+            }
+        }
+
+        return new AggregationSettings(
+                executorMode,
+                config.optInt( "poolsize", DEFAULT_POOLSIZE ),
+                config.optInt( "shard-poolsize", DEFAULT_SHARD_POOLSIZE ),
+                config.has( "shutdown-timeout" ) ? parser.parse( config.getString( "shutdown-timeout" ) ) : DEFAULT_SHUTDOWN_TIMEOUT,
+                config.has( "checkpoint-directory" ) ? Optional.of( Paths.get( config.getString( "checkpoint-directory" ) ) ) : Optional.empty(),
+                config.has( "coordination" ) ? Optional.of( CoordinationSettings.fromConfig( config.getJSONObject( "coordination" ) ) ) : Optional.empty(),
+                levelDefaults,
+                levels,
+                config.has( "planning" )
+                        ? Optional.of( PlanningSettings.fromConfig( config.getJSONObject( "planning" ),
+                                config.has( "frequency" ) ? parser.parse( config.getString( "frequency" ) ) : DEFAULT_FREQUENCY ) )
+                        : Optional.empty() );
+    }
+
+    public ExecutorMode executorMode() {
+        return executorMode;
+    }
+
+    public int poolsize() {
+        return poolsize;
+    }
+
+    /**
+     * How many units of tables above their level's shard-threshold run in parallel.
+     */
+    public int shardPoolsize() {
+        return shardPoolsize;
+    }
+
+    /**
+     * How long a shutdown waits for the running tasks to reach their next checkpoint before interrupting them.
+     */
+    public Duration shutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    public Optional<Path> checkpointDirectory() {
+        return checkpointDirectory;
+    }
+
+    /**
+     * @return empty if this node aggregates the keyspace alone
+     */
+    public Optional<CoordinationSettings> coordination() {
+        return coordination;
+    }
+
+    /**
+     * @return whether any level cascades
+     */
+    public boolean cascadeEnabled() {
+        return levelDefaults.cascade() || levels.values().stream().anyMatch( LevelSettings::cascade );
+    }
+
+    /**
+     * @return empty unless the aggregator only plans
+     */
+    public Optional<PlanningSettings> planning() {
+        return planning;
+    }
+
+    public LevelSettings forLevel( RetentionLevel level ) {
+        return levels.getOrDefault( level.name(), levelDefaults );
+    }
+}
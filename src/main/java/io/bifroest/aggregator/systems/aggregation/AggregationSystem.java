@@ -22,8 +22,6 @@ import io.bifroest.retentions.bootloader.EnvironmentWithRetentionStrategy;
 @MetaInfServices
 public class AggregationSystem<E extends EnvironmentWithJSONConfiguration & EnvironmentWithRetentionStrategy & EnvironmentWithCassandra>
         implements Subsystem<E> {
-    private static final int DEFAULT_POOLSIZE = 10;
-
     private static final Logger log = LogManager.getLogger();
     private static final DurationParser parser = new DurationParser();
 
@@ -48,11 +46,9 @@ public class AggregationSystem<E extends EnvironmentWithJSONConfiguration & Envi
     @Override
     public void boot( final E environment ) {
         JSONObject config = environment.getConfiguration().getJSONObject( "aggregator" );
-        int poolsize = config.optInt( "poolsize", DEFAULT_POOLSIZE );
         Duration frequency = parser.parse( config.getString( "frequency" ) );
-        Duration sleepAfterEachTable = parser.parse( config.getString( "sleep-after-each-table" ) );
 
-        aggregator = new Aggregator<E>( environment, poolsize, sleepAfterEachTable );
+        aggregator = new Aggregator<E>( environment, AggregationSettings.fromConfig( config ) );
         task = TaskRunner.runRepeated( aggregator, "Aggregator", Duration.ZERO, frequency, false );
     }
 
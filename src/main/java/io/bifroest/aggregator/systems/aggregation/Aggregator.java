@@ -1,26 +1,50 @@
 package io.bifroest.aggregator.systems.aggregation;
 
+import java.nio.file.Path;
 import java.time.Clock;
-import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import io.bifroest.commons.statistics.eventbus.EventBusManager;
+import io.bifroest.aggregator.systems.aggregation.statistics.AggregationBacklogEvent;
 import io.bifroest.aggregator.systems.aggregation.statistics.AggregationFinishedEvent;
 import io.bifroest.aggregator.systems.aggregation.statistics.AggregationStartedEvent;
 import io.bifroest.aggregator.systems.aggregation.statistics.SingleAggregationSubmitted;
 import io.bifroest.aggregator.systems.aggregation.statistics.SingleAggregationTerminated;
+import io.bifroest.aggregator.systems.aggregation.statistics.TaskOutcome;
+import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
 import io.bifroest.aggregator.systems.cassandra.EnvironmentWithCassandra;
+import io.bifroest.aggregator.systems.coordination.CassandraLeaseStore;
+import io.bifroest.aggregator.systems.coordination.CassandraUnitRegistry;
+import io.bifroest.aggregator.systems.coordination.LeaseCoordinator;
+import io.bifroest.aggregator.systems.coordination.SharedTable;
+import io.bifroest.aggregator.systems.coordination.UnitRegistry;
 import io.bifroest.commons.configuration.EnvironmentWithJSONConfiguration;
+import io.bifroest.retentions.RetentionConfiguration;
 import io.bifroest.retentions.RetentionLevel;
 import io.bifroest.retentions.RetentionTable;
 import io.bifroest.retentions.bootloader.EnvironmentWithRetentionStrategy;
@@ -30,20 +54,59 @@ public class Aggregator<E extends EnvironmentWithCassandra & EnvironmentWithRete
 
     private final E environment;
     private final ExecutorService executor;
-    private final Duration sleepAfterEachTable;
+    private final ExecutorService shardPool;
+    private final AggregationSettings settings;
+    private final CheckpointStore checkpoints;
+    private final CostModel costs;
+    private final LeaseCoordinator leases;
+    private final UnitRegistry units;
 
     private volatile boolean running;
+    // with a planning block, the first run plans the next runs before aggregating
+    private volatile boolean planned;
 
-    public Aggregator( E environment, int poolsize, Duration sleepAfterEachTable ) {
+    public Aggregator( E environment, AggregationSettings settings ) {
         this.environment = environment;
-        this.executor = Executors.newFixedThreadPool( poolsize );
-        this.sleepAfterEachTable = sleepAfterEachTable;
+        if ( settings.executorMode() == ExecutorMode.VIRTUAL ) {
+            this.executor = VirtualThreads.newPerTaskExecutor();
+            this.shardPool = VirtualThreads.newPerTaskExecutor();
+        } else {
+            // queued tables are taken by priority, see schedule
+            this.executor = PrioritizedTask.newFixedPool( settings.poolsize() );
+            // plain threads, the shards block on Cassandra
+            this.shardPool = Executors.newFixedThreadPool( settings.shardPoolsize() );
+        }
+        this.settings = settings;
+        this.checkpoints = new CheckpointStore( settings.checkpointDirectory() );
+        this.costs = CostModel.open( settings.checkpointDirectory() );
+        if ( settings.coordination().isPresent() ) {
+            environment.cassandraAccessLayer().createCoordinationTables();
+            this.leases = new LeaseCoordinator( new CassandraLeaseStore( environment.cassandraAccessLayer() ), settings.coordination().get() );
+            this.units = new CassandraUnitRegistry( environment.cassandraAccessLayer() );
+        } else {
+            this.leases = LeaseCoordinator.uncoordinated();
+            this.units = null;
+        }
     }
 
+    /**
+     * Lets the running tasks stop at their next checkpoint, and interrupts
+     * those that do not get there within the shutdown timeout.
+     */
     public void shutdown() throws InterruptedException {
         running = false;
         executor.shutdown();
-        executor.awaitTermination( Long.MAX_VALUE, TimeUnit.SECONDS );
+        if ( !executor.awaitTermination( settings.shutdownTimeout().toMillis(), TimeUnit.MILLISECONDS ) ) {
+            log.warn( "Aggregation tasks did not reach a checkpoint within {}, interrupting them", settings.shutdownTimeout() );
+            executor.shutdownNow();
+        }
+        // the tasks wait for their shards, so only shards of interrupted tasks are still running
+        shardPool.shutdown();
+        if ( !shardPool.awaitTermination( settings.shutdownTimeout().toMillis(), TimeUnit.MILLISECONDS ) ) {
+            log.warn( "Shards did not reach a checkpoint within {}, interrupting them", settings.shutdownTimeout() );
+            shardPool.shutdownNow();
+        }
+        leases.shutdown();
     }
 
     @Override
@@ -53,17 +116,35 @@ public class Aggregator<E extends EnvironmentWithCassandra & EnvironmentWithRete
             EventBusManager.synchronousFire( new AggregationStartedEvent( System.currentTimeMillis() ) );
 
             environment.getConfigurationLoader().loadConfiguration();
+            environment.cassandraAccessLayer().loadTables();
             long now = System.currentTimeMillis() / 1000;
-
-            for ( RetentionLevel level : environment.retentions().getTopologicalSort() ) {
-                handleLevel( level, environment.retentions().getNextLevel( level ), now );
-
-                // Check for shutdown
+            if ( settings.planning().isPresent() && !planned ) {
+                planned = true;
+                new CapacityPlanner( environment.retentions(), environment.cassandraAccessLayer(), settings, settings.planning().get(), costs,
+                        () -> !running ).report( now );
                 if ( !running ) {
                     EventBusManager.synchronousFire( new AggregationFinishedEvent( System.currentTimeMillis(), false ) );
                     return;
                 }
             }
+            Cascade cascade = openCascade( now );
+
+            // Wait until all tables are done
+            for ( CompletableFuture<TaskOutcome> task : schedule( now, cascade ) ) {
+                try {
+                    task.get();
+                } catch( ExecutionException e ) {
+                    log.warn( "Aggregation Interrupted", e );
+                }
+            }
+            costs.save();
+
+            // Check for shutdown
+            if ( !running ) {
+                EventBusManager.synchronousFire( new AggregationFinishedEvent( System.currentTimeMillis(), false ) );
+                return;
+            }
+            cascade.flushCompleted( environment.cassandraAccessLayer(), now );
 
             EventBusManager.synchronousFire( new AggregationFinishedEvent( System.currentTimeMillis(), true ) );
         } catch( Exception e ) {
@@ -72,42 +153,368 @@ public class Aggregator<E extends EnvironmentWithCassandra & EnvironmentWithRete
         }
     }
 
-    private void handleLevel( RetentionLevel current, Optional<RetentionLevel> next, long now ) {
-        log.entry( current, next, now );
-
-        Collection<Future<?>> futures = new ArrayList<>();
+    private Cascade openCascade( long now ) {
+        if ( !settings.checkpointDirectory().isPresent() ) {
+            return Cascade.disabled();
+        }
+        Path directory = settings.checkpointDirectory().get().resolve( "cascade" );
+        if ( !settings.cascadeEnabled() ) {
+            Cascade.reset( directory );
+            return Cascade.disabled();
+        }
+        return Cascade.open( directory, environment.retentions(), cascadeOrigins( environment.retentions(), settings ), now );
+    }
 
-        for ( RetentionTable table : environment.cassandraAccessLayer().loadTables() ) {
+    /**
+     * A cascading level feeds every level from its next one on, so those cannot cascade themselves.
+     * The tables of those levels are dropped without being read once the cascade covered them,
+     * so none of them may have a source besides the level below it on the chain.
+     */
+    static Set<String> cascadeOrigins( RetentionConfiguration retentions, AggregationSettings settings ) {
+        Map<String, Integer> sources = new HashMap<>();
+        for ( RetentionLevel level : retentions.getTopologicalSort() ) {
+            retentions.getNextLevel( level ).ifPresent( next -> sources.merge( next.name(), 1, Integer::sum ) );
+        }
 
-            // Skip any uninteresting tables
-            if ( !current.equals( table.level() ) ) {
-                log.trace( "Skipping {} due to level.", table );
+        Set<String> origins = new HashSet<>();
+        Set<String> fed = new HashSet<>();
+        for ( RetentionLevel level : retentions.getTopologicalSort() ) {
+            if ( !settings.forLevel( level ).cascade() ) {
                 continue;
-
-            } else if ( table.block() > current.indexOf( now ) - current.blocks() ) {
-                log.trace( "Skipping {} due to time. table.block={}, current.indexOf(now)={}, current.blocks()={}",
-                        table, table.block(), current.indexOf( now ), current.blocks() );
+            }
+            if ( fed.contains( level.name() ) ) {
+                log.warn( "Ignoring cascade of {}, it is fed by the cascade of a lower level", level );
+                continue;
+            }
+            Optional<RetentionLevel> shared = Optional.empty();
+            for ( Optional<RetentionLevel> above = retentions.getNextLevel( level ); above.isPresent() && !shared.isPresent();
+                    above = retentions.getNextLevel( above.get() ) ) {
+                if ( sources.get( above.get().name() ) > 1 ) {
+                    shared = above;
+                }
+            }
+            if ( shared.isPresent() ) {
+                log.warn( "Ignoring cascade of {}, {} is fed by other levels as well, whose aggregates the cascade would drop", level, shared.get() );
                 continue;
+            }
+            origins.add( level.name() );
+            for ( Optional<RetentionLevel> above = retentions.getNextLevel( level ); above.isPresent(); above = retentions.getNextLevel( above.get() ) ) {
+                fed.add( above.get().name() );
+            }
+        }
+        return origins;
+    }
+
+    /**
+     * Submits every table that is old enough. Instead of waiting for whole levels,
+     * a table starts as soon as the tables of the levels below writing into it are
+     * done, including the tables this run is going to create.
+     *
+     * Among the tables ready to run, the one with the least slack goes first: the
+     * time left until its aggregates expire in the next level, minus how long it is
+     * expected to take. So tables close to expiry and big tables start early, and a
+     * table that others wait for inherits their deadlines.
+     *
+     * With coordination, a table only runs while this node holds its lease. Tables
+     * held by another node are left to it, and so are the tables they write into.
+     * The tables of distributed levels are started by every node, which then lease
+     * their units one by one.
+     *
+     * Once the shutdown began, tables that did not start yet are reported as stopped
+     * without touching them, including those whose dependencies are still running.
+     */
+    private List<CompletableFuture<TaskOutcome>> schedule( long now, Cascade cascade ) {
+        List<PlannedTable> planned = plan( now, cascade );
+
+        // a table has to be done before the tables writing from it into the next level can start
+        for ( int i = planned.size() - 1; i >= 0; i-- ) {
+            PlannedTable dependent = planned.get( i );
+            for ( PlannedTable dependency : dependent.dependencies ) {
+                dependency.latestFinish = Math.min( dependency.latestFinish, dependent.latestFinish - dependent.cost );
+            }
+        }
+        reportBacklog( planned, now );
+
+        List<CompletableFuture<TaskOutcome>> tasks = new ArrayList<>();
+        for ( PlannedTable table : planned ) {
+            double slack = table.slack( now );
+            CompletableFuture<?>[] dependencies = new CompletableFuture<?>[table.dependencies.size()];
+            for ( int i = 0; i < dependencies.length; i++ ) {
+                dependencies[i] = table.dependencies.get( i ).future;
+            }
+            table.future = CompletableFuture.allOf( dependencies )
+                    .handle( ( result, failure ) -> null )
+                    .thenApplyAsync( ignored -> runLeased( table ), task -> executor.execute( new PrioritizedTask( task, slack, table.sequence ) ) )
+                    .whenComplete( ( outcome, failure ) -> EventBusManager.fire(
+                            new SingleAggregationTerminated( Clock.systemUTC(), outcomeOf( outcome, failure ) ) ) );
+            EventBusManager.fire( new SingleAggregationSubmitted( Clock.systemUTC() ) );
+            tasks.add( table.future );
+        }
+        return tasks;
+    }
+
+    /**
+     * Tables the executor rejected after the shutdown began were stopped, not failed.
+     */
+    private TaskOutcome outcomeOf( TaskOutcome outcome, Throwable failure ) {
+        if ( failure == null ) {
+            return outcome;
+        }
+        return running ? TaskOutcome.FAILED : TaskOutcome.STOPPED;
+    }
+
+    private TaskOutcome runLeased( PlannedTable table ) {
+        // tables queued or waiting for their dependencies when the shutdown began
+        if ( !running ) {
+            log.info( "Not aggregating {}, shutting down", table.table );
+            return TaskOutcome.STOPPED;
+        }
+        if ( table.dependencies.stream().anyMatch( dependency -> dependency.leftToOthers ) ) {
+            log.info( "Not aggregating {}, another node is still writing into it", table.table );
+            table.leftToOthers = true;
+            return TaskOutcome.LEFT_TO_OTHERS;
+        }
+        if ( !table.lease.acquire() ) {
+            log.info( "Not aggregating {}, another node holds it", table.table );
+            table.leftToOthers = true;
+            return TaskOutcome.LEFT_TO_OTHERS;
+        }
+        try {
+            // the node that held it before might have dropped it since this run loaded the tables
+            if ( leases.isCoordinated() && !environment.cassandraAccessLayer().refreshTable( table.table ) ) {
+                log.info( "Not aggregating {}, another node was done with it", table.table );
+                return TaskOutcome.SKIPPED;
+            }
+            return table.run.get();
+        } finally {
+            table.lease.release();
+        }
+    }
+
+    /**
+     * @return every table to aggregate in this run with its dependencies, in topological order of the levels
+     */
+    private List<PlannedTable> plan( long now, Cascade cascade ) {
+        RetentionConfiguration retentions = environment.retentions();
+        CassandraAccessLayer database = environment.cassandraAccessLayer();
+
+        Map<String, List<RetentionLevel>> sourceLevels = new HashMap<>();
+        for ( RetentionLevel level : retentions.getTopologicalSort() ) {
+            retentions.getNextLevel( level ).ifPresent( next -> sourceLevels.computeIfAbsent( next.name(), n -> new ArrayList<>() ).add( level ) );
+        }
+
+        // a single request for the estimates of all tables
+        Map<String, Long> estimates = database.estimateNames();
+        Map<String, NavigableMap<Long, PlannedTable>> scheduled = new HashMap<>();
+        Map<String, NavigableSet<Long>> written = new HashMap<>();
+        List<PlannedTable> planned = new ArrayList<>();
+
+        for ( RetentionLevel current : retentions.getTopologicalSort() ) {
+            Optional<RetentionLevel> next = retentions.getNextLevel( current );
+            NavigableMap<Long, PlannedTable> scheduledOfLevel = scheduled.computeIfAbsent( current.name(), n -> new TreeMap<>() );
+
+            Set<Long> existing = new HashSet<>();
+            for ( RetentionTable table : database.loadTables( current ) ) {
+                existing.add( table.block() );
+            }
+            NavigableSet<Long> blocks = new TreeSet<>( existing );
+            blocks.addAll( written.getOrDefault( current.name(), Collections.emptyNavigableSet() ) );
+
+            LevelSettings levelSettings = settings.forLevel( current );
+            List<RetentionLevel> sourcesOfLevel = sourceLevels.getOrDefault( current.name(), Collections.emptyList() );
+
+            for ( long block : blocks ) {
+                RetentionTable table = new RetentionTable( current, block );
+                boolean expired = block <= current.indexOf( now ) - current.blocks();
+
+                if ( !running ) {
+                    log.info( "Not submitting more tables of {}, shutting down", current );
+                    break;
+
+                // Blocks are ordered, so all remaining tables are too young as well
+                } else if ( !expired && !isClosed( table, levelSettings, now ) ) {
+                    log.trace( "Skipping {} and younger due to time. table.block={}, current.indexOf(now)={}, current.blocks()={}",
+                            table, block, current.indexOf( now ), current.blocks() );
+                    break;
+
+                } else if ( !expired && ( !next.isPresent() || checkpoints.isAggregated( table ) ) ) {
+                    continue;
+
+                } else if ( !expired && !sourcesAggregated( table, sourcesOfLevel, scheduled ) ) {
+                    log.trace( "Not aggregating {} early, the levels below still have to write into it", table );
+                    continue;
+                }
 
-            } else {
                 log.trace( "Submitting " + table );
-                futures.add( executor.submit( new AggregatorTask<E>( environment, table, next, sleepAfterEachTable ) ) );
-                EventBusManager.fire( new SingleAggregationSubmitted( Clock.systemUTC() ) );
+                // the tables of distributed levels run on every node at once, their units are leased instead
+                LeaseCoordinator.Lease lease = levelSettings.distributed()
+                        ? LeaseCoordinator.uncoordinated().leaseOf( table.tableName() )
+                        : leases.leaseOf( table.tableName() );
+                Function<String, SharedTable> share = levelSettings.distributed()
+                        ? layout -> leases.share( table.tableName(), layout, units )
+                        : layout -> SharedTable.local();
+                AggregatorTask<E> task = new AggregatorTask<E>( environment, table, next, levelSettings, checkpoints, () -> !running || lease.isLost(),
+                        cascade, shardPool, !expired, share, lease );
+                boolean createdByThisRun = !existing.contains( block );
+                // tables without a next level, or whose aggregates are already written, are only dropped
+                boolean dropOnly = !next.isPresent() || checkpoints.isAggregated( table ) || cascade.isCovered( table );
+                OptionalLong names = dropOnly || createdByThisRun ? OptionalLong.empty() : CassandraAccessLayer.namesOf( estimates, table );
+
+                Supplier<TaskOutcome> run = () -> {
+                    // the tables below might not have had any data for it, or another node was done with it first
+                    if ( !database.tableExists( table ) ) {
+                        log.trace( "Skipping {}, it does not exist (any more)", table );
+                        return TaskOutcome.SKIPPED;
+                    }
+                    // a source that failed is still there, it writes the rest of its points when it expires
+                    if ( !expired && !sourcesAggregated( table, sourcesOfLevel, Collections.emptyMap() ) ) {
+                        log.info( "Not aggregating {} early, a table below it was not aggregated", table );
+                        return TaskOutcome.SKIPPED;
+                    }
+                    long started = System.nanoTime();
+                    task.run();
+                    // tables that stopped half way or failed would make the next estimates too low
+                    if ( !dropOnly && task.outcome() == TaskOutcome.DONE ) {
+                        costs.record( current, names, ( System.nanoTime() - started ) / 1e9 );
+                    }
+                    return task.outcome();
+                };
+                PlannedTable plannedTable = new PlannedTable( table, planned.size(), dropOnly ? 0 : costs.estimate( current, names ),
+                        deadlineOf( table, next ), dependenciesOf( table, sourcesOfLevel, scheduled ), lease, run );
+
+                scheduledOfLevel.put( block, plannedTable );
+                planned.add( plannedTable );
+                next.ifPresent( level -> written.computeIfAbsent( level.name(), n -> new TreeSet<>() ).add( table.getInterval().start() / level.blockSize() ) );
             }
         }
+        return planned;
+    }
+
+    /**
+     * @return in seconds, when the block of the next level the table writes into expires
+     */
+    private static long deadlineOf( RetentionTable table, Optional<RetentionLevel> next ) {
+        return next.map( level -> ( table.getInterval().start() / level.blockSize() + level.blocks() ) * level.blockSize() ).orElse( Long.MAX_VALUE );
+    }
+
+    /**
+     * Simulates the tables running in the order of their slack, and reports
+     * the ones expected to finish only after their aggregates expired.
+     */
+    private void reportBacklog( List<PlannedTable> planned, long now ) {
+        List<PlannedTable> order = new ArrayList<>( planned );
+        order.sort( Comparator.comparingDouble( ( PlannedTable table ) -> table.slack( now ) ).thenComparingInt( table -> table.sequence ) );
 
-        // Wait until all threads are done
-        for ( Future<?> future : futures ) {
-            try {
-                future.get();
-                EventBusManager.fire( new SingleAggregationTerminated( Clock.systemUTC(), true ) );
-            } catch( InterruptedException | ExecutionException e ) {
-                EventBusManager.fire( new SingleAggregationTerminated( Clock.systemUTC(), false ) );
-                log.warn( "Aggregation Interrupted", e );
+        int workers = settings.executorMode() == ExecutorMode.FIXED ? settings.poolsize() : planned.size();
+        PriorityQueue<Double> idleAt = new PriorityQueue<>();
+        for ( int i = 0; i < Math.min( workers, planned.size() ); i++ ) {
+            idleAt.add( 0.0 );
+        }
+
+        Map<PlannedTable, Double> finishedAt = new HashMap<>();
+        List<RetentionTable> atRisk = new ArrayList<>();
+        double total = 0;
+        for ( PlannedTable table : order ) {
+            double ready = 0;
+            for ( PlannedTable dependency : table.dependencies ) {
+                ready = Math.max( ready, finishedAt.getOrDefault( dependency, 0.0 ) );
+            }
+            double finished = Math.max( idleAt.poll(), ready ) + table.cost;
+            idleAt.add( finished );
+            finishedAt.put( table, finished );
+            total = Math.max( total, finished );
+            if ( now + finished > table.deadline ) {
+                atRisk.add( table.table );
             }
         }
 
-        log.exit();
+        EventBusManager.fire( new AggregationBacklogEvent( Instant.now(), planned.size(), Math.round( total ), atRisk.size() ) );
+        if ( !atRisk.isEmpty() ) {
+            log.warn( "{} of {} tables are not expected to be aggregated before their aggregates expire, losing their data: {}",
+                    atRisk.size(), planned.size(), atRisk.subList( 0, Math.min( 10, atRisk.size() ) ) );
+        }
+    }
+
+    /**
+     * @return whether the level aggregates early and the block has been closed for its grace period
+     */
+    private static boolean isClosed( RetentionTable table, LevelSettings levelSettings, long now ) {
+        return levelSettings.aggregateAfter().map( grace -> table.getInterval().end() + grace.getSeconds() <= now ).orElse( false );
+    }
+
+    /**
+     * A table can only be aggregated early once every table of the levels below overlapping it is
+     * aggregated, or is scheduled before it in this run. Otherwise the rest of their points
+     * would only arrive when they expire.
+     */
+    private boolean sourcesAggregated( RetentionTable table, List<RetentionLevel> sourceLevels,
+            Map<String, NavigableMap<Long, PlannedTable>> scheduled ) {
+        CassandraAccessLayer database = environment.cassandraAccessLayer();
+        for ( RetentionLevel source : sourceLevels ) {
+            NavigableMap<Long, PlannedTable> scheduledOfSource = scheduled.getOrDefault( source.name(), Collections.emptyNavigableMap() );
+            long first = table.getInterval().start() / source.blockSize();
+            long last = ( table.getInterval().end() - 1 ) / source.blockSize();
+            for ( long block = first; block <= last; block++ ) {
+                RetentionTable sourceTable = new RetentionTable( source, block );
+                if ( !scheduledOfSource.containsKey( block ) && database.tableExists( sourceTable ) && !checkpoints.isAggregated( sourceTable ) ) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
+    /**
+     * @return the scheduled tables of the source levels overlapping the table
+     */
+    private static List<PlannedTable> dependenciesOf( RetentionTable table, List<RetentionLevel> sourceLevels,
+            Map<String, NavigableMap<Long, PlannedTable>> scheduled ) {
+        List<PlannedTable> dependencies = new ArrayList<>();
+        for ( RetentionLevel source : sourceLevels ) {
+            NavigableMap<Long, PlannedTable> scheduledOfSource = scheduled.get( source.name() );
+            if ( scheduledOfSource != null ) {
+                long first = table.getInterval().start() / source.blockSize();
+                long last = ( table.getInterval().end() - 1 ) / source.blockSize();
+                dependencies.addAll( scheduledOfSource.subMap( first, true, last, true ).values() );
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * A table of this run, with what the scheduler knows about it.
+     */
+    private static final class PlannedTable {
+        final RetentionTable table;
+        final int sequence;
+        // in seconds
+        final double cost;
+        // in seconds, when its aggregates expire in the next level
+        final long deadline;
+        final List<PlannedTable> dependencies;
+        final LeaseCoordinator.Lease lease;
+        final Supplier<TaskOutcome> run;
+
+        // in seconds, when it must be done so it and the tables waiting for it make their deadlines
+        double latestFinish;
+        CompletableFuture<TaskOutcome> future;
+        // set when another node holds the table or one it depends on
+        volatile boolean leftToOthers;
+
+        PlannedTable( RetentionTable table, int sequence, double cost, long deadline, List<PlannedTable> dependencies, LeaseCoordinator.Lease lease,
+                Supplier<TaskOutcome> run ) {
+            this.table = table;
+            this.sequence = sequence;
+            this.cost = cost;
+            this.deadline = deadline;
+            this.dependencies = dependencies;
+            this.lease = lease;
+            this.run = run;
+            this.latestFinish = deadline;
+        }
+
+        double slack( long now ) {
+            return latestFinish - now - cost;
+        }
+    }
 }
@@ -1,20 +1,42 @@
 package io.bifroest.aggregator.systems.aggregation;
 
+import java.io.IOException;
 import java.time.Clock;
-import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.datastax.driver.core.exceptions.DriverException;
+import com.google.common.util.concurrent.MoreExecutors;
 import io.bifroest.commons.model.Metric;
 import io.bifroest.commons.statistics.eventbus.EventBusManager;
 import io.bifroest.aggregator.systems.aggregation.statistics.AggregationEvent;
+import io.bifroest.aggregator.systems.aggregation.statistics.AggregationPhase;
+import io.bifroest.aggregator.systems.aggregation.statistics.TaskOutcome;
 import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
 import io.bifroest.aggregator.systems.cassandra.EnvironmentWithCassandra;
+import io.bifroest.aggregator.systems.cassandra.TokenRange;
+import io.bifroest.aggregator.systems.cassandra.WriteWindow;
+import io.bifroest.aggregator.systems.coordination.LeaseCoordinator;
+import io.bifroest.aggregator.systems.coordination.SharedTable;
+import io.bifroest.aggregator.systems.statistics.LatencyHistogram;
 import io.bifroest.retentions.RetentionLevel;
 import io.bifroest.retentions.RetentionTable;
 import io.bifroest.retentions.bootloader.EnvironmentWithRetentionStrategy;
@@ -22,41 +44,608 @@ import io.bifroest.retentions.bootloader.EnvironmentWithRetentionStrategy;
 public class AggregatorTask<E extends EnvironmentWithCassandra & EnvironmentWithRetentionStrategy> implements Runnable {
     private static final Logger log = LogManager.getLogger();
     private static final Clock clock = Clock.systemUTC();
+    // chunks submitted to the shard pool and not joined yet, bounds the names read ahead of the pool
+    private static final int MAX_QUEUED_SHARDS = 64;
 
     private final E environment;
     private final RetentionTable table;
     private final Optional<RetentionLevel> nextLevel;
-    private final Duration sleepAfter;
+    private final LevelSettings levelSettings;
+    private final CheckpointStore checkpoints;
+    private final BooleanSupplier stopRequested;
+    private final Cascade cascade;
+    private final ExecutorService shardPool;
+    private final boolean keepSource;
+    private final Function<String, SharedTable> share;
+    // of the whole table, uncoordinated unless a coordinated node runs the task
+    private final LeaseCoordinator.Lease lease;
+    private final EnumMap<AggregationPhase, LatencyHistogram> phases = new EnumMap<>( AggregationPhase.class );
 
-    public AggregatorTask( E environment, RetentionTable table, Optional<RetentionLevel> nextLevel, Duration sleepAfter ) {
+    // null unless the table collects partial aggregates for the cascade
+    private CascadeContribution contribution;
+    private TableProgress progress;
+    // shared by every thread writing for this task
+    private WriteWindow writes;
+    // set by any unit whose aggregates could not be written
+    private volatile boolean writesFailed;
+    private volatile TaskOutcome outcome = TaskOutcome.FAILED;
+
+    public AggregatorTask( E environment, RetentionTable table, Optional<RetentionLevel> nextLevel ) {
+        this( environment, table, nextLevel, LevelSettings.defaults() );
+    }
+
+    public AggregatorTask( E environment, RetentionTable table, Optional<RetentionLevel> nextLevel, LevelSettings levelSettings ) {
+        this( environment, table, nextLevel, levelSettings, CheckpointStore.inMemory(), () -> false );
+    }
+
+    /**
+     * @param stopRequested polled at every checkpoint, the task stops there once it returns true
+     */
+    public AggregatorTask( E environment, RetentionTable table, Optional<RetentionLevel> nextLevel, LevelSettings levelSettings,
+            CheckpointStore checkpoints, BooleanSupplier stopRequested ) {
+        this( environment, table, nextLevel, levelSettings, checkpoints, stopRequested, Cascade.disabled() );
+    }
+
+    public AggregatorTask( E environment, RetentionTable table, Optional<RetentionLevel> nextLevel, LevelSettings levelSettings,
+            CheckpointStore checkpoints, BooleanSupplier stopRequested, Cascade cascade ) {
+        this( environment, table, nextLevel, levelSettings, checkpoints, stopRequested, cascade, MoreExecutors.sameThreadExecutor() );
+    }
+
+    /**
+     * @param shardPool runs the units of tables above the shard threshold in parallel, its threads block on Cassandra
+     */
+    public AggregatorTask( E environment, RetentionTable table, Optional<RetentionLevel> nextLevel, LevelSettings levelSettings,
+            CheckpointStore checkpoints, BooleanSupplier stopRequested, Cascade cascade, ExecutorService shardPool ) {
+        this( environment, table, nextLevel, levelSettings, checkpoints, stopRequested, cascade, shardPool, false );
+    }
+
+    /**
+     * @param keepSource aggregate the table before it expires, it is only dropped by a later task
+     */
+    public AggregatorTask( E environment, RetentionTable table, Optional<RetentionLevel> nextLevel, LevelSettings levelSettings,
+            CheckpointStore checkpoints, BooleanSupplier stopRequested, Cascade cascade, ExecutorService shardPool, boolean keepSource ) {
+        this( environment, table, nextLevel, levelSettings, checkpoints, stopRequested, cascade, shardPool, keepSource, layout -> SharedTable.local() );
+    }
+
+    /**
+     * @param share the units of the table with the given layout, shared with the other nodes for distributed levels
+     */
+    public AggregatorTask( E environment, RetentionTable table, Optional<RetentionLevel> nextLevel, LevelSettings levelSettings,
+            CheckpointStore checkpoints, BooleanSupplier stopRequested, Cascade cascade, ExecutorService shardPool, boolean keepSource,
+            Function<String, SharedTable> share ) {
+        this( environment, table, nextLevel, levelSettings, checkpoints, stopRequested, cascade, shardPool, keepSource, share,
+                LeaseCoordinator.uncoordinated().leaseOf( table.tableName() ) );
+    }
+
+    /**
+     * @param lease held by the caller while the task runs, confirmed right before the table is dropped
+     */
+    public AggregatorTask( E environment, RetentionTable table, Optional<RetentionLevel> nextLevel, LevelSettings levelSettings,
+            CheckpointStore checkpoints, BooleanSupplier stopRequested, Cascade cascade, ExecutorService shardPool, boolean keepSource,
+            Function<String, SharedTable> share, LeaseCoordinator.Lease lease ) {
         this.environment = Objects.requireNonNull( environment );
         this.table = Objects.requireNonNull( table );
         this.nextLevel = nextLevel;
-        this.sleepAfter = sleepAfter;
+        this.levelSettings = Objects.requireNonNull( levelSettings );
+        this.checkpoints = Objects.requireNonNull( checkpoints );
+        this.stopRequested = Objects.requireNonNull( stopRequested );
+        this.cascade = Objects.requireNonNull( cascade );
+        this.shardPool = Objects.requireNonNull( shardPool );
+        this.keepSource = keepSource;
+        this.share = Objects.requireNonNull( share );
+        this.lease = Objects.requireNonNull( lease );
+        for ( AggregationPhase phase : AggregationPhase.values() ) {
+            phases.put( phase, phase.of( table.level() ) );
+        }
+    }
+
+    /**
+     * @return how the last run ended, FAILED until it ran
+     */
+    public TaskOutcome outcome() {
+        return outcome;
     }
 
     @Override
     public void run() {
+        outcome = TaskOutcome.FAILED;
+        writesFailed = false;
+        if ( stopRequested.getAsBoolean() ) {
+            log.info( "Not aggregating table {}, shutting down", table );
+            outcome = TaskOutcome.STOPPED;
+            return;
+        }
         log.info( "Aggregating from table {} to level {}", table, nextLevel );
 
         try {
-            if ( nextLevel.isPresent() ) {
-                for ( String name : environment.cassandraAccessLayer().loadMetricNames( table ) ) {
-                    handleMetrics( table, nextLevel.get(), name );
+            progress = new TableProgress( table, nextLevel.isPresent() ? targetTable( nextLevel.get() ) : table, levelSettings.progressInterval(),
+                    EventBusManager::fire );
+            CassandraAccessLayer database = environment.cassandraAccessLayer();
+            writes = database.newWriteWindow();
+            TableCheckpoint checkpoint = checkpoints.open( table, checkpointLayout() );
+            SharedTable shared = share.apply( checkpointLayout() );
+            if ( cascade.isCovered( table ) ) {
+                log.info( "The aggregates of {} were written by the cascade, dropping it", table );
+                if ( !dropTable( database ) ) {
+                    outcome = TaskOutcome.STOPPED;
+                    return;
+                }
+                cascade.coveredTableDropped( table );
+                checkpoint.remove();
+                outcome = TaskOutcome.DONE;
+                return;
+            }
+            if ( checkpoints.isAggregated( table ) ) {
+                if ( !keepSource ) {
+                    log.info( "{} was aggregated before, dropping it", table );
+                    if ( !dropTable( database ) ) {
+                        outcome = TaskOutcome.STOPPED;
+                        return;
+                    }
+                    checkpoints.aggregatedTableDropped( table );
                 }
+                checkpoint.remove();
+                outcome = TaskOutcome.DONE;
+                return;
             }
-            environment.cassandraAccessLayer().dropTable( table );
 
-            Thread.sleep( sleepAfter.toMillis() );
+            if ( nextLevel.isPresent() ) {
+                RetentionTable target = targetTable( nextLevel.get() );
+                if ( cascade.isOrigin( table.level() ) ) {
+                    Optional<RetentionLevel> cascadeLevel = environment.retentions().getNextLevel( nextLevel.get() );
+                    if ( cascadeLevel.isPresent() ) {
+                        contribution = cascade.contributionOf( table, cascadeLevel.get(), checkpoint );
+                    }
+                }
+
+                boolean finished = levelSettings.readMode() == ReadMode.TOKEN_RANGE
+                        ? aggregateByTokenRange( database, target, checkpoint, shared )
+                        : aggregateByName( database, target, checkpoint );
+                if ( !finished ) {
+                    outcome = unfinished();
+                    return;
+                }
+                if ( contribution != null ) {
+                    cascade.sourceFinished( contribution );
+                }
+            }
+            if ( keepSource ) {
+                log.info( "Aggregated {} early, keeping it until it expires", table );
+                checkpoints.markAggregated( table );
+                checkpoint.remove();
+                outcome = TaskOutcome.DONE;
+                return;
+            }
+            if ( shared.isShared() ) {
+                dropShared( database, shared );
+            } else if ( !dropTable( database ) ) {
+                outcome = TaskOutcome.STOPPED;
+                return;
+            }
+            checkpoint.remove();
+            outcome = TaskOutcome.DONE;
 
         } catch( DriverException e ) {
             log.warn( "A problem with Cassandra occured", e );
         } catch( Exception e ) {
             log.warn( "A totally unexpected exception occured", e );
+        } finally {
+            // null if the target level does not fit the level of the table
+            if ( progress != null ) {
+                progress.finish();
+            }
+        }
+    }
+
+    /**
+     * A task that did not get through all of its units either failed to write, was stopped, or left units to other nodes.
+     */
+    private TaskOutcome unfinished() {
+        if ( writesFailed ) {
+            return TaskOutcome.FAILED;
         }
+        return stopRequested.getAsBoolean() ? TaskOutcome.STOPPED : TaskOutcome.LEFT_TO_OTHERS;
     }
 
-    private void handleMetrics( RetentionTable source, RetentionLevel targetLevel, String name ) {
+    /**
+     * Every node that finds all units done gets here, only the one holding the table lease drops it.
+     */
+    private void dropShared( CassandraAccessLayer database, SharedTable shared ) {
+        LeaseCoordinator.Lease lease = shared.claimTable();
+        if ( lease == null ) {
+            log.info( "Another node is dropping {}", table );
+            return;
+        }
+        try {
+            if ( database.refreshTable( table ) ) {
+                dropTable( database );
+            }
+            shared.forget();
+        } finally {
+            lease.release();
+        }
+    }
+
+    /**
+     * @return false if the table was kept, since another node took its lease and might be aggregating it
+     */
+    private boolean dropTable( CassandraAccessLayer database ) {
+        if ( !lease.confirm() ) {
+            log.warn( "Not dropping {}, this node no longer holds its lease", table );
+            return false;
+        }
+        long start = System.nanoTime();
+        database.dropTable( table );
+        record( AggregationPhase.DROP, start );
+        return true;
+    }
+
+    private void createTarget( CassandraAccessLayer database, RetentionTable target ) {
+        if ( database.tableExists( target ) ) {
+            return;
+        }
+        long start = System.nanoTime();
+        database.createTableIfNecessary( target );
+        record( AggregationPhase.CREATE, start );
+    }
+
+    private void record( AggregationPhase phase, long start ) {
+        recordNanos( phase, System.nanoTime() - start );
+    }
+
+    private void recordNanos( AggregationPhase phase, long nanos ) {
+        phases.get( phase ).record( nanos );
+        progress.phase( phase, nanos );
+    }
+
+    private void nameAggregated( String name, RetentionTable target, int aggregated ) {
+        progress.nameAggregated( name, aggregated );
+        if ( levelSettings.traceNames() ) {
+            EventBusManager.fire( new AggregationEvent( clock.instant(), name, target, aggregated ) );
+        }
+    }
+
+    private String checkpointLayout() {
+        if ( levelSettings.readMode() == ReadMode.TOKEN_RANGE ) {
+            return "token-range " + levelSettings.tokenRanges() + " " + levelSettings.rangesPerCheckpoint();
+        } else {
+            return "per-name " + levelSettings.namesPerCheckpoint();
+        }
+    }
+
+    /**
+     * Aggregates chunks of names-per-checkpoint names. Names come in token order,
+     * which does not change while the source table is no longer written to.
+     *
+     * The chunks of the first shard-threshold names are aggregated while the
+     * names are read. Once the table turns out to hold more, the following
+     * chunks are aggregated in parallel on the shard pool, with at most
+     * MAX_QUEUED_SHARDS of them submitted at a time, so the names are still
+     * read as they are needed.
+     *
+     * @return false if the task stopped before aggregating all names
+     */
+    private boolean aggregateByName( CassandraAccessLayer database, RetentionTable target, TableCheckpoint checkpoint )
+            throws InterruptedException, IOException {
+        Iterator<String> names = database.loadMetricNames( table ).iterator();
+        Deque<Future<Boolean>> shards = new ArrayDeque<>();
+        boolean sharded = false;
+        long seen = 0;
+
+        for ( int unit = 0; names.hasNext(); unit++ ) {
+            List<String> chunk = new ArrayList<>();
+            while ( chunk.size() < levelSettings.namesPerCheckpoint() && names.hasNext() ) {
+                chunk.add( names.next() );
+            }
+            seen += chunk.size();
+            if ( checkpoint.isCompleted( unit ) ) {
+                continue;
+            }
+
+            int thisUnit = unit;
+            Callable<Boolean> work = () -> aggregateNames( database, target, checkpoint, thisUnit, chunk );
+            if ( levelSettings.shardThreshold() <= 0 || seen <= levelSettings.shardThreshold() ) {
+                if ( !call( work ) ) {
+                    return false;
+                }
+                continue;
+            }
+            if ( !sharded ) {
+                log.info( "Sharding {}, it holds more than {} names", table, levelSettings.shardThreshold() );
+                sharded = true;
+            }
+            if ( !submitShard( shards, work ) ) {
+                return false;
+            }
+        }
+        return joinShards( shards, 0 );
+    }
+
+    private boolean aggregateNames( CassandraAccessLayer database, RetentionTable target, TableCheckpoint checkpoint, int unit, List<String> chunk )
+            throws InterruptedException, IOException {
+        if ( levelSettings.columnar() ) {
+            for ( String name : chunk ) {
+                handlePoints( database, target, unit, name );
+            }
+        } else if ( levelSettings.readAhead() > 0 ) {
+            handleMetricsWithReadAhead( database, target, unit, chunk.iterator() );
+        } else {
+            for ( String name : chunk ) {
+                Iterable<Metric> metrics = levelSettings.fetchSize() > 0
+                        ? database.loadUnorderedMetrics( table, name, levelSettings.fetchSize() )
+                        : database.loadUnorderedMetrics( table, name );
+                handleMetrics( table, target, unit, name, metrics );
+            }
+        }
+        return reachCheckpoint( database, target, checkpoint, unit, chunk.get( chunk.size() - 1 ) );
+    }
+
+    /**
+     * Scans groups of ranges-per-checkpoint token ranges.
+     *
+     * The names found in the first group are extrapolated to the whole ring, if
+     * that exceeds shard-threshold the remaining groups are scanned in parallel
+     * on the shard pool.
+     *
+     * Units of a shared table are only scanned while this node holds their
+     * lease, units done or held by other nodes are skipped. A unit is only
+     * recorded as done if its lease is still held at its checkpoint.
+     *
+     * @return false if the task stopped before scanning all ranges, or other nodes still have units to do
+     */
+    private boolean aggregateByTokenRange( CassandraAccessLayer database, RetentionTable target, TableCheckpoint checkpoint, SharedTable shared )
+            throws InterruptedException, IOException {
+        List<TokenRange> ranges = TokenRange.splitRing( levelSettings.tokenRanges() );
+        int rangesPerCheckpoint = levelSettings.rangesPerCheckpoint();
+        int units = ( ranges.size() + rangesPerCheckpoint - 1 ) / rangesPerCheckpoint;
+        Deque<Future<Boolean>> shards = new ArrayDeque<>();
+        boolean sampled = false;
+        boolean sharded = false;
+        AtomicBoolean heldByOthers = new AtomicBoolean();
+        shared.refresh();
+
+        for ( int unit = 0; unit < units; unit++ ) {
+            if ( checkpoint.isCompleted( unit ) ) {
+                // this node might have stopped before recording it
+                shared.completed( unit );
+                continue;
+            }
+            if ( shared.isCompleted( unit ) ) {
+                continue;
+            }
+
+            List<TokenRange> group = ranges.subList( unit * rangesPerCheckpoint, Math.min( ( unit + 1 ) * rangesPerCheckpoint, ranges.size() ) );
+            int thisUnit = unit;
+            AtomicLong names = new AtomicLong();
+            Callable<Boolean> work = () -> {
+                // claimed when the unit starts, so shards that never start hold no lease
+                LeaseCoordinator.Lease unitLease = shared.claim( thisUnit );
+                if ( unitLease == null ) {
+                    heldByOthers.set( true );
+                    return true;
+                }
+                try {
+                    // another node might have finished it since this task looked
+                    shared.refresh();
+                    if ( shared.isCompleted( thisUnit ) ) {
+                        return true;
+                    }
+                    if ( !scanRanges( database, target, checkpoint, thisUnit, group, names ) ) {
+                        return false;
+                    }
+                    // the task runs under an uncoordinated lease for shared tables, so check the unit's own
+                    if ( !unitLease.confirm() ) {
+                        log.info( "Lost the lease of unit {} of {}, leaving it to the node that took it over", thisUnit, table );
+                        heldByOthers.set( true );
+                        return true;
+                    }
+                    shared.completed( thisUnit );
+                    return true;
+                } finally {
+                    unitLease.release();
+                }
+            };
+            if ( sharded ) {
+                if ( !submitShard( shards, work ) ) {
+                    return false;
+                }
+                continue;
+            }
+            if ( !call( work ) ) {
+                return false;
+            }
+            if ( levelSettings.shardThreshold() > 0 && !sampled ) {
+                sampled = true;
+                sharded = names.get() * units > levelSettings.shardThreshold();
+                if ( sharded ) {
+                    log.info( "Sharding {}, it holds about {} names", table, names.get() * units );
+                }
+            }
+        }
+        if ( !joinShards( shards, 0 ) ) {
+            return false;
+        }
+
+        if ( shared.isShared() ) {
+            shared.refresh();
+            if ( heldByOthers.get() || shared.completedUnits().size() < units ) {
+                log.info( "{} of {} units of {} are done, the rest is left to the other nodes", shared.completedUnits().size(), units, table );
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean scanRanges( CassandraAccessLayer database, RetentionTable target, TableCheckpoint checkpoint, int unit, List<TokenRange> group,
+            AtomicLong names ) throws InterruptedException, IOException {
+        database.scanTable(
+                table,
+                group,
+                levelSettings.scanParallelism(),
+                levelSettings.fetchSize(),
+                ( name, metrics ) -> {
+                    names.incrementAndGet();
+                    handleMetrics( table, target, unit, name, metrics );
+                } );
+        return reachCheckpoint( database, target, checkpoint, unit, group.get( group.size() - 1 ).toString() );
+    }
+
+    /**
+     * Submits the work to the shard pool, and waits for the oldest shards while more than MAX_QUEUED_SHARDS are not joined yet.
+     *
+     * @return false if a shard stopped before finishing its unit, every shard is joined then
+     */
+    private boolean submitShard( Deque<Future<Boolean>> shards, Callable<Boolean> work ) throws InterruptedException {
+        // shards still queued at a shutdown do not start anymore
+        shards.add( shardPool.submit( () -> !stopRequested.getAsBoolean() && work.call() ) );
+        if ( !joinShards( shards, MAX_QUEUED_SHARDS ) ) {
+            joinShards( shards, 0 );
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean call( Callable<Boolean> work ) throws InterruptedException, IOException {
+        try {
+            return work.call();
+        } catch( InterruptedException | IOException | RuntimeException e ) {
+            throw e;
+        } catch( Exception e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * Waits for the oldest shards until only keep of them are left. After one of them
+     * failed, waits for every shard, so no shard of this table is still running afterwards.
+     *
+     * @return false if any of the joined shards stopped before finishing its unit
+     */
+    private boolean joinShards( Deque<Future<Boolean>> shards, int keep ) throws InterruptedException {
+        boolean finished = true;
+        RuntimeException failure = null;
+        while ( shards.size() > keep || ( failure != null && !shards.isEmpty() ) ) {
+            Future<Boolean> shard = shards.poll();
+            try {
+                finished &= shard.get();
+            } catch( InterruptedException e ) {
+                shard.cancel( false );
+                shards.forEach( s -> s.cancel( false ) );
+                throw e;
+            } catch( ExecutionException e ) {
+                RuntimeException cause = e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause()
+                        : new IllegalStateException( "Aggregating a shard of " + table + " failed", e.getCause() );
+                if ( failure == null ) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed( cause );
+                }
+            }
+        }
+        if ( failure != null ) {
+            throw failure;
+        }
+        return finished;
+    }
+
+    /**
+     * @return false if the task must not continue
+     */
+    private boolean reachCheckpoint( CassandraAccessLayer database, RetentionTable target, TableCheckpoint checkpoint, int unit, String position )
+            throws InterruptedException, IOException {
+        // Only record progress, and eventually drop the source, once the aggregates are safely stored
+        if ( !database.awaitWrites( writes ) ) {
+            log.warn( "Writes into {} failed, keeping {} for the next run", target, table );
+            writesFailed = true;
+            return false;
+        }
+        if ( contribution != null ) {
+            contribution.unitCompleted( unit );
+        }
+        checkpoint.completed( unit, position );
+
+        if ( stopRequested.getAsBoolean() ) {
+            log.info( "Stopping aggregation of {} at checkpoint {}", table, unit );
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Keeps the queries for the next names running while the current name is aggregated and written.
+     */
+    private void handleMetricsWithReadAhead( CassandraAccessLayer database, RetentionTable target, int unit, Iterator<String> names ) {
+        Deque<PrefetchedMetrics> window = new ArrayDeque<>( levelSettings.readAhead() + 1 );
+
+        while ( true ) {
+            while ( window.size() <= levelSettings.readAhead() && names.hasNext() ) {
+                String name = names.next();
+                window.add( new PrefetchedMetrics( name, database.prefetchUnorderedMetrics( table, name, levelSettings.fetchSize() ) ) );
+            }
+            if ( window.isEmpty() ) {
+                return;
+            }
+
+            PrefetchedMetrics current = window.poll();
+            handleMetrics( table, target, unit, current.name, current.metrics );
+        }
+    }
+
+    /**
+     * Adds up the time spent waiting for the points of a lazily read series,
+     * which the driver fetches page by page while the series is aggregated.
+     * Iterated by one thread.
+     */
+    private static final class TimedMetrics implements Iterable<Metric> {
+        private final Iterable<Metric> metrics;
+        private long nanos;
+
+        TimedMetrics( Iterable<Metric> metrics ) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Iterator<Metric> iterator() {
+            long start = System.nanoTime();
+            Iterator<Metric> iterator = metrics.iterator();
+            nanos += System.nanoTime() - start;
+            return new Iterator<Metric>() {
+
+                @Override
+                public boolean hasNext() {
+                    long start = System.nanoTime();
+                    try {
+                        return iterator.hasNext();
+                    } finally {
+                        nanos += System.nanoTime() - start;
+                    }
+                }
+
+                @Override
+                public Metric next() {
+                    long start = System.nanoTime();
+                    try {
+                        return iterator.next();
+                    } finally {
+                        nanos += System.nanoTime() - start;
+                    }
+                }
+            };
+        }
+    }
+
+    private static final class PrefetchedMetrics {
+        private final String name;
+        private final Iterable<Metric> metrics;
+
+        PrefetchedMetrics( String name, Iterable<Metric> metrics ) {
+            this.name = name;
+            this.metrics = metrics;
+        }
+    }
+
+    private RetentionTable targetTable( RetentionLevel targetLevel ) {
         if ( targetLevel.blockSize() % targetLevel.frequency() != 0 ) {
             throw new IllegalStateException( String.format(
                     "targetLevel.frequency(%d) does not divide targetLevel.blockSize(%d)",
@@ -70,18 +659,80 @@ public class AggregatorTask<E extends EnvironmentWithCassandra & EnvironmentWith
                     table.level().frequency() ) );
         }
 
-        RetentionTable target = new RetentionTable( targetLevel, table.getInterval().start() / targetLevel.blockSize() );
+        return new RetentionTable( targetLevel, table.getInterval().start() / targetLevel.blockSize() );
+    }
+
+    /**
+     * Aggregates one metric on primitive columns if there is a kernel for its
+     * aggregation function, and on Metric objects otherwise.
+     */
+    private void handlePoints( CassandraAccessLayer database, RetentionTable target, int unit, String name ) {
+        Optional<AggregationKernel> kernel = AggregationKernel.forFunction( environment.retentions().findFunctionForMetric( name ) );
+        if ( !kernel.isPresent() ) {
+            handleMetrics( table, target, unit, name, levelSettings.fetchSize() > 0
+                    ? database.loadUnorderedMetrics( table, name, levelSettings.fetchSize() )
+                    : database.loadUnorderedMetrics( table, name ) );
+            return;
+        }
+
+        ColumnarAggregation columns = ColumnarAggregation.ofCurrentThread();
+        long read = System.nanoTime();
+        database.loadPoints( table, name, levelSettings.fetchSize(), columns );
+        record( AggregationPhase.READ, read );
+        long aggregate = System.nanoTime();
+        int aggregated = columns.aggregate( kernel.get(), table.getInterval(), target.level().frequency() );
+        record( AggregationPhase.AGGREGATE, aggregate );
+
+        createTarget( database, target );
+        long write = System.nanoTime();
+        database.insertPoints( target, name, columns.outTimestamps(), columns.outValues(), aggregated, writes );
+        record( AggregationPhase.WRITE, write );
+        if ( contribution != null ) {
+            contribution.add( unit, name, kernel.get(), columns.outTimestamps(), columns.outValues(), aggregated );
+        }
+        nameAggregated( name, target, aggregated );
+    }
+
+    private void handleMetrics( RetentionTable source, RetentionTable target, int unit, String name, Iterable<Metric> metrics ) {
         CassandraAccessLayer database = environment.cassandraAccessLayer();
+        // lazy series are read while they are aggregated, collections were already read, e.g. by a range scan
+        TimedMetrics timed = metrics instanceof Collection ? null : new TimedMetrics( metrics );
+
+        long aggregate = System.nanoTime();
         Collection<Metric> aggregatedMetrics = io.bifroest.retentions.Aggregator.aggregate(
                 name,
-                database.loadUnorderedMetrics( source, name ),
+                timed == null ? metrics : timed,
                 source.getInterval(),
-                targetLevel.frequency(),
+                target.level().frequency(),
                 environment.retentions()
                 );
+        long readNanos = timed == null ? 0 : timed.nanos;
+        if ( timed != null ) {
+            recordNanos( AggregationPhase.READ, readNanos );
+        }
+        recordNanos( AggregationPhase.AGGREGATE, System.nanoTime() - aggregate - readNanos );
 
-        database.createTableIfNecessary( target );
-        database.insertMetrics( target, aggregatedMetrics );
-        EventBusManager.fire( new AggregationEvent( clock.instant(), name, target, aggregatedMetrics.size() ) );
+        createTarget( database, target );
+        long write = System.nanoTime();
+        database.insertMetrics( target, aggregatedMetrics, writes );
+        record( AggregationPhase.WRITE, write );
+        if ( contribution != null ) {
+            contribute( unit, name, aggregatedMetrics );
+        }
+        nameAggregated( name, target, aggregatedMetrics.size() );
+    }
+
+    private void contribute( int unit, String name, Collection<Metric> aggregatedMetrics ) {
+        long[] timestamps = new long[aggregatedMetrics.size()];
+        double[] values = new double[aggregatedMetrics.size()];
+        int count = 0;
+        for ( Metric metric : aggregatedMetrics ) {
+            timestamps[count] = metric.timestamp();
+            values[count] = metric.value();
+            count++;
+        }
+        // names without a kernel cannot be cascaded, their targets are aggregated the regular way
+        AggregationKernel kernel = AggregationKernel.forFunction( environment.retentions().findFunctionForMetric( name ) ).orElse( null );
+        contribution.add( unit, name, kernel, timestamps, values, count );
     }
 }
@@ -0,0 +1,379 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+import java.util.TreeSet;
+import java.util.function.BooleanSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.bifroest.aggregator.systems.aggregation.statistics.AggregationPlanEvent;
+import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
+import io.bifroest.commons.model.Metric;
+import io.bifroest.commons.statistics.eventbus.EventBusManager;
+import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * Estimates the rows, bytes, requests and wall time of the next runs of the
+ * aggregator per retention level, without writing or dropping anything.
+ *
+ * A table is planned in the run it first becomes eligible in, i.e. expires or
+ * is closed for the grace period of its level. Existing tables are sampled,
+ * tables that do not exist yet are assumed to be like the sampled tables of
+ * their level, unless planned tables of the level before write into them:
+ * those are assumed to hold a full series for every name written, and are
+ * planned in the first run after they were written. The wall time of a level
+ * is the most of its seconds spread over the pool, its longest table, and its
+ * requests at the current rate of the throttle. The seconds per table come
+ * from the cost history.
+ */
+final class CapacityPlanner {
+    private static final Logger log = LogManager.getLogger();
+
+    // the page size of the driver for levels without a fetch-size
+    private static final int DEFAULT_PAGE_SIZE = 5000;
+
+    private final RetentionConfiguration retentions;
+    private final CassandraAccessLayer database;
+    private final AggregationSettings settings;
+    private final PlanningSettings planning;
+    private final CostModel costs;
+    private final BooleanSupplier stopRequested;
+    // read with the first table that is not sampled
+    private Map<String, Long> nameEstimates;
+
+    CapacityPlanner( RetentionConfiguration retentions, CassandraAccessLayer database, AggregationSettings settings, PlanningSettings planning,
+            CostModel costs, BooleanSupplier stopRequested ) {
+        this.retentions = retentions;
+        this.database = database;
+        this.settings = settings;
+        this.planning = planning;
+        this.costs = costs;
+        this.stopRequested = stopRequested;
+    }
+
+    /**
+     * Logs the plan of every run and sends an AggregationPlanEvent per level.
+     */
+    void report( long now ) {
+        Map<RetentionLevel, Estimate[]> plan = plan( now );
+
+        for ( int run = 0; run < planning.runs(); run++ ) {
+            Estimate all = new Estimate();
+            for ( Map.Entry<RetentionLevel, Estimate[]> level : plan.entrySet() ) {
+                Estimate estimate = level.getValue()[run];
+                if ( estimate.tables > 0 ) {
+                    log.info( "Run {} at {}, {}: {}", run, Instant.ofEpochSecond( now + run * planning.runEvery().getSeconds() ), level.getKey().name(),
+                            describe( estimate ) );
+                }
+                all.add( estimate );
+            }
+            if ( all.tables > 0 ) {
+                log.info( "Run {}: {}", run, describe( all ) );
+            }
+        }
+
+        for ( Map.Entry<RetentionLevel, Estimate[]> level : plan.entrySet() ) {
+            Estimate total = new Estimate();
+            double seconds = 0;
+            double maxRunSeconds = 0;
+            for ( Estimate run : level.getValue() ) {
+                total.add( run );
+                seconds += wallSeconds( run );
+                maxRunSeconds = Math.max( maxRunSeconds, wallSeconds( run ) );
+            }
+            EventBusManager.fire( new AggregationPlanEvent( Instant.ofEpochSecond( now ), level.getKey().name(), planning.runs(), total.tables,
+                    Math.round( total.names ), Math.round( total.rows ), Math.round( total.bytes ), Math.round( total.readRequests ),
+                    Math.round( total.writeRequests ), Math.round( seconds ), Math.round( maxRunSeconds ) ) );
+        }
+    }
+
+    /**
+     * @return per level in topological order, the estimate of each run
+     */
+    Map<RetentionLevel, Estimate[]> plan( long now ) {
+        Map<RetentionLevel, Estimate[]> plan = new LinkedHashMap<>();
+        // per level, what the planned tables of the level before write into each of its blocks
+        Map<RetentionLevel, Map<Long, Written>> writtenInto = new HashMap<>();
+        for ( RetentionLevel level : retentions.getTopologicalSort() ) {
+            Optional<RetentionLevel> next = retentions.getNextLevel( level );
+            LevelSettings levelSettings = settings.forLevel( level );
+            Map<Long, Written> written = writtenInto.getOrDefault( level, Collections.<Long, Written> emptyMap() );
+            NavigableSet<Long> existing = new TreeSet<>();
+            for ( RetentionTable table : database.loadTables( level ) ) {
+                existing.add( table.block() );
+            }
+
+            Estimate[] runs = new Estimate[planning.runs()];
+            Map<Long, Estimate> sampled = new HashMap<>();
+            NavigableSet<Long> created = new TreeSet<>();
+            long planned = Long.MIN_VALUE;
+            for ( int run = 0; run < runs.length; run++ ) {
+                runs[run] = new Estimate();
+                long eligible = lastEligibleBlock( level, levelSettings, now + run * planning.runEvery().getSeconds() );
+                // tables created by an earlier run are only known to the runs after it
+                for ( Iterator<Long> blocks = created.iterator(); blocks.hasNext(); ) {
+                    long block = blocks.next();
+                    if ( written.get( block ).run < run ) {
+                        blocks.remove();
+                        RetentionTable table = new RetentionTable( level, block );
+                        plan( runs, run, table, fromWritten( table, next, levelSettings, written.get( block ) ), next, writtenInto );
+                    }
+                }
+                if ( eligible <= planned ) {
+                    continue;
+                }
+                for ( long block : existing.subSet( planned, false, eligible, true ) ) {
+                    if ( stopRequested.getAsBoolean() ) {
+                        log.info( "Stopping the plan at {}, shutting down", level );
+                        return plan;
+                    }
+                    RetentionTable table = new RetentionTable( level, block );
+                    plan( runs, run, table, sampled.computeIfAbsent( block, b -> estimate( table, next, levelSettings ) ), next, writtenInto );
+                }
+                if ( run == 0 ) {
+                    // blocks eligible now but missing never got any data, unless the first run writes into them
+                    for ( long block : new TreeSet<>( written.keySet() ).headSet( eligible, true ) ) {
+                        if ( !existing.contains( block ) ) {
+                            created.add( block );
+                        }
+                    }
+                } else {
+                    // later ones are still to come
+                    for ( long block = planned + 1; block <= eligible; block++ ) {
+                        if ( existing.contains( block ) ) {
+                            continue;
+                        }
+                        RetentionTable table = new RetentionTable( level, block );
+                        if ( !written.containsKey( block ) ) {
+                            plan( runs, run, table, typical( level, next, levelSettings, existing, sampled ), next, writtenInto );
+                        } else if ( written.get( block ).run < run ) {
+                            plan( runs, run, table, fromWritten( table, next, levelSettings, written.get( block ) ), next, writtenInto );
+                        } else {
+                            // planned with what the level before writes into it, once the table exists
+                            created.add( block );
+                        }
+                    }
+                }
+                planned = eligible;
+            }
+            plan.put( level, runs );
+        }
+        return plan;
+    }
+
+    /**
+     * Adds the table to its run, and what it writes to the block of the next level it falls into.
+     */
+    private static void plan( Estimate[] runs, int run, RetentionTable table, Estimate estimate, Optional<RetentionLevel> next,
+            Map<RetentionLevel, Map<Long, Written>> writtenInto ) {
+        runs[run].add( estimate );
+        if ( next.isPresent() ) {
+            long target = table.getInterval().start() / next.get().blockSize();
+            writtenInto.computeIfAbsent( next.get(), l -> new HashMap<>() ).computeIfAbsent( target, b -> new Written() ).add( estimate, run );
+        }
+    }
+
+    /**
+     * @return the newest block of the level that the run at the given time aggregates
+     */
+    private static long lastEligibleBlock( RetentionLevel level, LevelSettings levelSettings, long at ) {
+        long expired = level.indexOf( at ) - level.blocks();
+        long closed = levelSettings.aggregateAfter().map( grace -> ( at - grace.getSeconds() ) / level.blockSize() - 1 ).orElse( Long.MIN_VALUE );
+        return Math.max( expired, closed );
+    }
+
+    /**
+     * @return the average of the sampled tables of the level, sampling its newest table if none was sampled yet
+     */
+    private Estimate typical( RetentionLevel level, Optional<RetentionLevel> next, LevelSettings levelSettings, NavigableSet<Long> existing,
+            Map<Long, Estimate> sampled ) {
+        if ( sampled.isEmpty() && !existing.isEmpty() ) {
+            sampled.put( existing.last(), estimate( new RetentionTable( level, existing.last() ), next, levelSettings ) );
+        }
+        Estimate typical = new Estimate();
+        for ( Estimate table : sampled.values() ) {
+            typical.add( table );
+        }
+        typical.scale( sampled.isEmpty() ? 0 : 1.0 / sampled.size() );
+        typical.tables = 1;
+        typical.longest = typical.seconds;
+        return typical;
+    }
+
+    Estimate estimate( RetentionTable table, Optional<RetentionLevel> next, LevelSettings levelSettings ) {
+        Estimate estimate = new Estimate();
+        estimate.tables = 1;
+        // tables without a next level are only dropped
+        if ( !next.isPresent() ) {
+            return estimate;
+        }
+
+        if ( planning.sampleFraction() > 0 ) {
+            sample( table, next.get(), estimate );
+        } else {
+            if ( nameEstimates == null ) {
+                nameEstimates = database.estimateNames();
+            }
+            double names = CassandraAccessLayer.namesOf( nameEstimates, table ).orElse( 0 );
+            fullSeries( table, next.get(), names, names * ( table.level().blockSize() / table.level().frequency() ), estimate );
+        }
+        return withRequests( table, levelSettings, estimate );
+    }
+
+    /**
+     * @return the estimate of a table that does not exist yet, from what the planned tables of the level before write into it
+     */
+    private Estimate fromWritten( RetentionTable table, Optional<RetentionLevel> next, LevelSettings levelSettings, Written written ) {
+        Estimate estimate = new Estimate();
+        estimate.tables = 1;
+        if ( !next.isPresent() ) {
+            return estimate;
+        }
+        fullSeries( table, next.get(), written.names, written.points, estimate );
+        return withRequests( table, levelSettings, estimate );
+    }
+
+    /**
+     * Assumes every name of the table is aggregated into a full series of the next level.
+     */
+    private void fullSeries( RetentionTable table, RetentionLevel next, double names, double rows, Estimate estimate ) {
+        estimate.names = names;
+        estimate.rows = rows;
+        long points = table.level().blockSize() / next.frequency();
+        estimate.points = names * points;
+        estimate.bytes = names * TableProgress.bytesOf( "", points );
+        estimate.writeRequests = names * database.writeRequests( (int)points );
+    }
+
+    /**
+     * Adds the read requests and seconds of the rows and names of the table.
+     */
+    private Estimate withRequests( RetentionTable table, LevelSettings levelSettings, Estimate estimate ) {
+        int pageSize = levelSettings.fetchSize() > 0 ? levelSettings.fetchSize() : DEFAULT_PAGE_SIZE;
+        if ( levelSettings.readMode() == ReadMode.TOKEN_RANGE ) {
+            estimate.readRequests = levelSettings.tokenRanges() * Math.max( 1, Math.ceil( estimate.rows / levelSettings.tokenRanges() / pageSize ) );
+        } else if ( estimate.names > 0 ) {
+            estimate.readRequests = estimate.names * Math.max( 1, Math.ceil( estimate.rows / estimate.names / pageSize ) );
+        }
+        estimate.seconds = costs.estimate( table.level(), OptionalLong.of( Math.round( estimate.names ) ) );
+        estimate.longest = estimate.seconds;
+        return estimate;
+    }
+
+    /**
+     * Reads and aggregates the sampled names, and scales them to all names of the table.
+     */
+    private void sample( RetentionTable table, RetentionLevel next, Estimate estimate ) {
+        long stride = Math.max( 1, Math.round( 1 / planning.sampleFraction() ) );
+        long names = 0;
+        long sampled = 0;
+        for ( String name : database.loadMetricNames( table ) ) {
+            if ( stopRequested.getAsBoolean() ) {
+                log.info( "Stopping the sample of {} after {} names, shutting down", table, names );
+                break;
+            }
+            if ( names++ % stride != 0 ) {
+                continue;
+            }
+            Collection<Metric> metrics = new ArrayList<>();
+            database.loadUnorderedMetrics( table, name ).forEach( metrics::add );
+            Collection<Metric> aggregated = io.bifroest.retentions.Aggregator.aggregate( name, metrics, table.getInterval(), next.frequency(), retentions );
+            estimate.rows += metrics.size();
+            estimate.points += aggregated.size();
+            estimate.bytes += TableProgress.bytesOf( name, aggregated.size() );
+            estimate.writeRequests += database.writeRequests( aggregated.size() );
+            sampled++;
+        }
+        estimate.scale( sampled == 0 ? 0 : (double)names / sampled );
+        estimate.names = names;
+    }
+
+    private double wallSeconds( Estimate estimate ) {
+        if ( estimate.tables == 0 ) {
+            return 0;
+        }
+        int workers = settings.executorMode() == ExecutorMode.FIXED ? settings.poolsize() : (int)estimate.tables;
+        double seconds = Math.max( estimate.seconds / Math.min( workers, estimate.tables ), estimate.longest );
+        OptionalDouble rate = database.requestRate();
+        if ( rate.isPresent() ) {
+            seconds = Math.max( seconds, ( estimate.readRequests + estimate.writeRequests ) / rate.getAsDouble() );
+        }
+        return seconds;
+    }
+
+    private String describe( Estimate estimate ) {
+        return String.format( "%d tables, %.0f names, %.0f rows, %.0f points, %.0f bytes, %.0f read and %.0f write requests, %.0fs",
+                estimate.tables, estimate.names, estimate.rows, estimate.points, estimate.bytes, estimate.readRequests, estimate.writeRequests,
+                wallSeconds( estimate ) );
+    }
+
+    /**
+     * What the planned tables of a level write into one block of the next level.
+     */
+    private static final class Written {
+        // the names of the sources mostly overlap, so the most of them
+        double names;
+        double points;
+        // the last run writing into it
+        int run;
+
+        void add( Estimate source, int sourceRun ) {
+            names = Math.max( names, source.names );
+            points += source.points;
+            run = Math.max( run, sourceRun );
+        }
+    }
+
+    /**
+     * What aggregating one table or all tables of a run is estimated to cost.
+     */
+    static final class Estimate {
+        long tables;
+        double names;
+        double rows;
+        double points;
+        double bytes;
+        double readRequests;
+        double writeRequests;
+        // the sum of the seconds of the tables, and the most of them
+        double seconds;
+        double longest;
+
+        void add( Estimate other ) {
+            tables += other.tables;
+            names += other.names;
+            rows += other.rows;
+            points += other.points;
+            bytes += other.bytes;
+            readRequests += other.readRequests;
+            writeRequests += other.writeRequests;
+            seconds += other.seconds;
+            longest = Math.max( longest, other.longest );
+        }
+
+        void scale( double factor ) {
+            names *= factor;
+            rows *= factor;
+            points *= factor;
+            bytes *= factor;
+            readRequests *= factor;
+            writeRequests *= factor;
+            seconds *= factor;
+            longest *= factor;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
+import io.bifroest.aggregator.systems.cassandra.WriteWindow;
+import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * Cascading aggregation: a task aggregating a table of a cascading level into
+ * the next level also collects partial aggregates for the level after that.
+ * Once no table of the cascading level can contribute to a partial any more,
+ * it is written and fed into the partial of the following level, and so on.
+ *
+ * Tables whose target was written completely this way are marked as covered,
+ * and are only dropped once they age out instead of being read again.
+ *
+ * All state lives in files in the directory:
+ * <ul>
+ * <li>enabled-since: targets starting before this were not fully cascaded and are ignored</li>
+ * <li>*.partial: the partial aggregate of a target table, appended to once per source</li>
+ * <li>*.cascade-log: the contributions of the completed units of a running task</li>
+ * <li>*.covered: marks a table as covered</li>
+ * </ul>
+ */
+public class Cascade {
+    private static final Logger log = LogManager.getLogger();
+
+    private static final String ENABLED_SINCE = "enabled-since";
+    private static final String PARTIAL = ".partial";
+    private static final String LOG = ".cascade-log";
+    private static final String COVERED = ".covered";
+
+    private final Optional<Path> directory;
+    private final RetentionConfiguration retentions;
+    private final Set<String> originLevels;
+    private final long enabledSince;
+
+    private Cascade( Optional<Path> directory, RetentionConfiguration retentions, Set<String> originLevels, long enabledSince ) {
+        this.directory = directory;
+        this.retentions = retentions;
+        this.originLevels = originLevels;
+        this.enabledSince = enabledSince;
+    }
+
+    public static Cascade disabled() {
+        return new Cascade( Optional.empty(), null, Collections.emptySet(), Long.MAX_VALUE );
+    }
+
+    /**
+     * Opens the cascade state in the directory, starting a fresh state if there is none.
+     *
+     * @param originLevels the names of the levels whose tables collect partial aggregates
+     * @param now in seconds
+     */
+    public static Cascade open( Path directory, RetentionConfiguration retentions, Set<String> originLevels, long now ) {
+        try {
+            Files.createDirectories( directory );
+            Path enabledSinceFile = directory.resolve( ENABLED_SINCE );
+            if ( !Files.exists( enabledSinceFile ) ) {
+                Files.write( enabledSinceFile, Long.toString( now ).getBytes( StandardCharsets.UTF_8 ) );
+            }
+            long enabledSince = Long.parseLong( new String( Files.readAllBytes( enabledSinceFile ), StandardCharsets.UTF_8 ).trim() );
+            return new Cascade( Optional.of( directory ), retentions, originLevels, enabledSince );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( "Cannot open cascade state in " + directory, e );
+        }
+    }
+
+    /**
+     * Forgets the cascade state, so enabling the cascade again later starts over.
+     */
+    public static void reset( Path directory ) {
+        try {
+            Files.deleteIfExists( directory.resolve( ENABLED_SINCE ) );
+            if ( Files.isDirectory( directory ) ) {
+                try ( DirectoryStream<Path> files = Files.newDirectoryStream( directory, "*{" + PARTIAL + "," + LOG + "," + COVERED + "}" ) ) {
+                    for ( Path file : files ) {
+                        Files.delete( file );
+                    }
+                }
+            }
+        } catch( IOException e ) {
+            log.warn( "Cannot reset cascade state in " + directory, e );
+        }
+    }
+
+    /**
+     * @return whether tables of the level collect partial aggregates
+     */
+    public boolean isOrigin( RetentionLevel level ) {
+        return directory.isPresent() && originLevels.contains( level.name() );
+    }
+
+    /**
+     * @param cascadeLevel the level two levels above the source table
+     */
+    CascadeContribution contributionOf( RetentionTable source, RetentionLevel cascadeLevel, TableCheckpoint checkpoint ) {
+        return new CascadeContribution( source, cascadeLevel, enabledSince, file( source.tableName() + LOG ), checkpoint );
+    }
+
+    /**
+     * Appends the contribution of a completely aggregated source table to its targets, before the table is dropped.
+     * The partial aggregates are only read again once they are complete.
+     */
+    synchronized void sourceFinished( CascadeContribution contribution ) throws IOException {
+        String source = contribution.source().tableName();
+        for ( PartialAggregate part : contribution.partials() ) {
+            part.appendTo( file( part.target + PARTIAL ), source );
+        }
+        contribution.deleteLog();
+    }
+
+    public boolean isCovered( RetentionTable table ) {
+        return directory.isPresent() && Files.exists( file( table.tableName() + COVERED ) );
+    }
+
+    public void coveredTableDropped( RetentionTable table ) {
+        try {
+            Files.deleteIfExists( file( table.tableName() + COVERED ) );
+        } catch( IOException e ) {
+            log.warn( "Cannot remove covered marker of " + table, e );
+        }
+    }
+
+    /**
+     * Writes every partial aggregate no table of its origin level can contribute to any more.
+     *
+     * @param now in seconds
+     */
+    public synchronized void flushCompleted( CassandraAccessLayer database, long now ) throws IOException, InterruptedException {
+        if ( !directory.isPresent() ) {
+            return;
+        }
+        // target table name to origin level, only one partial aggregate is read at a time
+        Map<String, String> open = openTargets();
+
+        List<RetentionLevel> order = retentions.getTopologicalSort();
+        List<String> candidates = new ArrayList<>( open.keySet() );
+        candidates.sort( Comparator.comparingInt( ( String target ) -> order.indexOf( tableOf( target ).level() ) )
+                .thenComparingLong( target -> tableOf( target ).block() ) );
+
+        for ( String target : candidates ) {
+            if ( isComplete( target, open.get( target ), open.keySet(), database, now ) ) {
+                flush( PartialAggregate.readFrom( file( target + PARTIAL ) ), database, open );
+            }
+        }
+    }
+
+    private boolean isComplete( String targetName, String originLevel, Set<String> open, CassandraAccessLayer database, long now ) {
+        RetentionTable target = tableOf( targetName );
+        RetentionLevel origin = levelNamed( originLevel );
+
+        long firstBlock = target.getInterval().start() / origin.blockSize();
+        long lastBlock = ( target.getInterval().end() - 1 ) / origin.blockSize();
+        if ( lastBlock > origin.indexOf( now ) - origin.blocks() ) {
+            return false;
+        }
+        for ( long block = firstBlock; block <= lastBlock; block++ ) {
+            if ( database.tableExists( new RetentionTable( origin, block ) ) ) {
+                return false;
+            }
+        }
+
+        // partials of the level below must have been flushed into this one first
+        for ( String other : open ) {
+            RetentionTable table = tableOf( other );
+            if ( retentions.getNextLevel( table.level() ).map( target.level()::equals ).orElse( false )
+                    && table.getInterval().start() < target.getInterval().end() && target.getInterval().start() < table.getInterval().end() ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void flush( PartialAggregate partial, CassandraAccessLayer database, Map<String, String> open ) throws IOException, InterruptedException {
+        RetentionTable target = tableOf( partial.target );
+        log.info( "Writing cascaded aggregates into {}", target );
+
+        // what the target contributes to the partial of the next level, appended once its points are written
+        Optional<RetentionLevel> next = retentions.getNextLevel( target.level() );
+        PartialAggregate fed = null;
+        if ( next.isPresent() ) {
+            RetentionTable nextTable = new RetentionTable( next.get(), target.getInterval().start() / next.get().blockSize() );
+            if ( nextTable.getInterval().start() >= enabledSince ) {
+                fed = new PartialAggregate( nextTable.tableName(), partial.originLevel );
+                fed.incomplete = partial.incomplete;
+            }
+        }
+
+        if ( !partial.isEmpty() ) {
+            database.createTableIfNecessary( target );
+        }
+        WriteWindow writes = database.newWriteWindow();
+        for ( String name : partial.names() ) {
+            AggregationKernel kernel = partial.kernelOf( name );
+            TreeMap<Long, Accumulator> slots = partial.slotsOf( name );
+            long[] timestamps = new long[slots.size()];
+            double[] values = new double[slots.size()];
+            int i = 0;
+            for ( Map.Entry<Long, Accumulator> slot : slots.entrySet() ) {
+                timestamps[i] = slot.getKey();
+                values[i] = kernel.finish( slot.getValue().value, slot.getValue().count );
+                if ( fed != null ) {
+                    fed.add( name, kernel, timestamps[i] - Math.floorMod( timestamps[i], next.get().frequency() ), values[i], 1, timestamps[i] );
+                }
+                i++;
+            }
+            database.insertPoints( target, name, timestamps, values, i, writes );
+        }
+
+        if ( !database.awaitWrites( writes ) ) {
+            log.warn( "Writes into {} failed, keeping its cascaded aggregates for the next run", target );
+            return;
+        }
+
+        if ( fed != null ) {
+            // fed again after a crash before the file below was removed, the next partial only counts it once
+            fed.appendTo( file( fed.target + PARTIAL ), partial.target );
+            open.putIfAbsent( fed.target, fed.originLevel );
+        }
+        if ( !partial.incomplete ) {
+            markCovered( target, partial.originLevel, database );
+        }
+        Files.deleteIfExists( file( partial.target + PARTIAL ) );
+        open.remove( partial.target );
+    }
+
+    /**
+     * Marks the tables of the level below whose aggregates went into the given target. Only
+     * the level on the chain of the origin level went into it, other sources are read as usual.
+     */
+    private void markCovered( RetentionTable target, String originLevel, CassandraAccessLayer database ) throws IOException {
+        RetentionLevel below = levelNamed( originLevel );
+        Optional<RetentionLevel> next = retentions.getNextLevel( below );
+        while ( next.isPresent() && !next.get().equals( target.level() ) ) {
+            below = next.get();
+            next = retentions.getNextLevel( below );
+        }
+        if ( !next.isPresent() ) {
+            return;
+        }
+        for ( RetentionTable table : database.loadTables( below ) ) {
+            if ( table.getInterval().start() / target.level().blockSize() == target.block() ) {
+                Files.write( file( table.tableName() + COVERED ), new byte[0] );
+            }
+        }
+    }
+
+    private Map<String, String> openTargets() throws IOException {
+        Map<String, String> open = new HashMap<>();
+        try ( DirectoryStream<Path> files = Files.newDirectoryStream( directory.get(), "*" + PARTIAL ) ) {
+            for ( Path file : files ) {
+                String name = file.getFileName().toString();
+                open.put( name.substring( 0, name.length() - PARTIAL.length() ), PartialAggregate.originLevelOf( file ) );
+            }
+        }
+        return open;
+    }
+
+    private RetentionTable tableOf( String tableName ) {
+        return new RetentionTable( tableName, retentions );
+    }
+
+    private RetentionLevel levelNamed( String name ) {
+        for ( RetentionLevel level : retentions.getTopologicalSort() ) {
+            if ( level.name().equals( name ) ) {
+                return level;
+            }
+        }
+        throw new IllegalStateException( "Cascade state refers to unknown level " + name );
+    }
+
+    private Path file( String name ) {
+        return directory.get().resolve( name );
+    }
+}
@@ -0,0 +1,180 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * What one source table contributes to the tables two levels up, collected
+ * from the points it writes into the next level.
+ *
+ * The contribution of every completed unit is appended to a log before the
+ * unit's checkpoint, so a resumed task starts with the contributions of the
+ * units it skips. Only units the checkpoint knows as completed count, and a
+ * unit logged twice keeps its last entries.
+ */
+final class CascadeContribution {
+    private static final Logger log = LogManager.getLogger();
+
+    private final RetentionTable source;
+    private final RetentionLevel level;
+    private final long enabledSince;
+    private final Path logFile;
+
+    private final Map<String, PartialAggregate> completed = new HashMap<>();
+    // per running unit, the partial aggregates by block of the cascade level
+    private final Map<Integer, Map<Long, PartialAggregate>> current = new HashMap<>();
+
+    CascadeContribution( RetentionTable source, RetentionLevel level, long enabledSince, Path logFile, TableCheckpoint checkpoint ) {
+        this.source = source;
+        this.level = level;
+        this.enabledSince = enabledSince;
+        this.logFile = logFile;
+        load( checkpoint );
+    }
+
+    RetentionTable source() {
+        return source;
+    }
+
+    /**
+     * Folds points written into the next level into the partial aggregates of the cascade level.
+     *
+     * @param kernel the kernel of the name, null if it has none
+     */
+    synchronized void add( int unit, String name, AggregationKernel kernel, long[] timestamps, double[] values, int count ) {
+        Map<Long, PartialAggregate> partials = current.computeIfAbsent( unit, u -> new HashMap<>() );
+        for ( int i = 0; i < count; i++ ) {
+            long block = timestamps[i] / level.blockSize();
+            // targets that might have seen data before the cascade was enabled are aggregated the regular way
+            if ( block * level.blockSize() < enabledSince ) {
+                continue;
+            }
+            PartialAggregate partial = partials.computeIfAbsent( block,
+                    b -> new PartialAggregate( new RetentionTable( level, b ).tableName(), source.level().name() ) );
+            if ( kernel == null ) {
+                partial.incomplete = true;
+            } else {
+                partial.add( name, kernel, timestamps[i] - Math.floorMod( timestamps[i], level.frequency() ), values[i], 1, timestamps[i] );
+            }
+        }
+    }
+
+    /**
+     * Logs the contribution of the unit, must be called before the unit's checkpoint is recorded.
+     */
+    synchronized void unitCompleted( int unit ) throws IOException {
+        Collection<PartialAggregate> partials = current.getOrDefault( unit, new HashMap<>() ).values();
+        StringWriter lines = new StringWriter();
+        try ( BufferedWriter out = new BufferedWriter( lines ) ) {
+            for ( PartialAggregate partial : partials ) {
+                if ( partial.incomplete ) {
+                    out.write( unit + "\tincomplete\t" + partial.target + "\n" );
+                }
+                partial.writeAccumulators( out, unit + "\t" + partial.target + "\t" );
+            }
+            out.write( unit + "\tend\n" );
+        }
+        Files.write( logFile, lines.toString().getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+
+        for ( PartialAggregate partial : partials ) {
+            completed.computeIfAbsent( partial.target, name -> new PartialAggregate( name, source.level().name() ) ).mergeFrom( partial );
+        }
+        current.remove( unit );
+    }
+
+    synchronized Collection<PartialAggregate> partials() {
+        return new ArrayList<>( completed.values() );
+    }
+
+    void deleteLog() throws IOException {
+        Files.deleteIfExists( logFile );
+    }
+
+    private void load( TableCheckpoint checkpoint ) {
+        if ( !Files.exists( logFile ) ) {
+            if ( checkpoint.completedUnits() > 0 ) {
+                markLost();
+            }
+            return;
+        }
+
+        Map<Integer, List<String[]>> entries = new HashMap<>();
+        Map<Integer, Boolean> ended = new HashMap<>();
+        try {
+            for ( String line : Files.readAllLines( logFile, StandardCharsets.UTF_8 ) ) {
+                String[] fields = line.split( "\t" );
+                if ( fields.length < 2 ) {
+                    // torn by a crash, its unit has no end
+                    continue;
+                }
+                int unit = Integer.parseInt( fields[0] );
+                if ( ended.getOrDefault( unit, false ) ) {
+                    // the unit was done again after a crash
+                    entries.remove( unit );
+                    ended.remove( unit );
+                }
+                if ( fields[1].equals( "end" ) ) {
+                    ended.put( unit, true );
+                } else {
+                    entries.computeIfAbsent( unit, u -> new ArrayList<>() ).add( fields );
+                }
+            }
+        } catch( IOException | RuntimeException e ) {
+            log.warn( "Cannot read cascade log of " + source + ", its targets will be aggregated the regular way", e );
+            markLost();
+            return;
+        }
+
+        int restored = 0;
+        for ( Map.Entry<Integer, List<String[]>> unit : entries.entrySet() ) {
+            if ( !ended.getOrDefault( unit.getKey(), false ) || !checkpoint.isCompleted( unit.getKey() ) ) {
+                continue;
+            }
+            restored++;
+            for ( String[] fields : unit.getValue() ) {
+                String target = fields[1].equals( "incomplete" ) ? fields[2] : fields[1];
+                PartialAggregate partial = completed.computeIfAbsent( target, t -> new PartialAggregate( t, source.level().name() ) );
+                if ( fields[1].equals( "incomplete" ) ) {
+                    partial.incomplete = true;
+                } else {
+                    partial.readAccumulator( fields, 2 );
+                }
+            }
+        }
+        // units without a logged end contributed nothing, a unit without any points still logs its end
+        if ( restored < checkpoint.completedUnits() ) {
+            markLost();
+        }
+    }
+
+    /**
+     * Completed units contributed points we no longer know, so every target they might
+     * have contributed to must not replace the regular aggregation.
+     */
+    private void markLost() {
+        long firstBlock = source.getInterval().start() / level.blockSize();
+        long lastBlock = ( source.getInterval().end() - 1 ) / level.blockSize();
+        for ( long block = firstBlock; block <= lastBlock; block++ ) {
+            RetentionTable target = new RetentionTable( level, block );
+            if ( target.getInterval().start() >= enabledSince ) {
+                completed.computeIfAbsent( target.tableName(), name -> new PartialAggregate( name, source.level().name() ) ).incomplete = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * Hands out the checkpoints of the source tables.
+ *
+ * With a directory, every table gets an append-only file there, so an
+ * aggregation interrupted by a restart resumes where it stopped. Without a
+ * directory, checkpoints only live as long as the task.
+ *
+ * It also remembers the tables aggregated before they expired, those are
+ * only dropped once they do. Without a directory, a restart forgets them
+ * and they are simply aggregated again.
+ */
+public class CheckpointStore {
+    private static final Logger log = LogManager.getLogger();
+
+    private static final String SUFFIX = ".checkpoint";
+    private static final String AGGREGATED_SUFFIX = ".aggregated";
+
+    private final Optional<Path> directory;
+    private final Set<RetentionTable> aggregated = ConcurrentHashMap.newKeySet();
+
+    public CheckpointStore( Optional<Path> directory ) {
+        this.directory = directory;
+        directory.ifPresent( dir -> {
+            try {
+                Files.createDirectories( dir );
+            } catch( IOException e ) {
+                throw new UncheckedIOException( "Cannot create checkpoint directory " + dir, e );
+            }
+        } );
+    }
+
+    public static CheckpointStore inMemory() {
+        return new CheckpointStore( Optional.empty() );
+    }
+
+    /**
+     * Loads the checkpoint of the table. Progress recorded with a different layout,
+     * e.g. after changing names-per-checkpoint, cannot be mapped and is discarded.
+     *
+     * @param layout describes how the table is split into units of work
+     */
+    public TableCheckpoint open( RetentionTable table, String layout ) {
+        return new TableCheckpoint( table, directory.map( dir -> dir.resolve( table.tableName() + SUFFIX ) ), layout );
+    }
+
+    /**
+     * Remembers that all aggregates of the table are written, while the table itself is kept until it expires.
+     */
+    public void markAggregated( RetentionTable table ) {
+        aggregated.add( table );
+        if ( directory.isPresent() ) {
+            try {
+                Files.write( aggregatedFile( table ), new byte[0] );
+            } catch( IOException e ) {
+                log.warn( "Cannot remember that " + table + " is aggregated, it will be aggregated again", e );
+            }
+        }
+    }
+
+    public boolean isAggregated( RetentionTable table ) {
+        return aggregated.contains( table ) || ( directory.isPresent() && Files.exists( aggregatedFile( table ) ) );
+    }
+
+    public void aggregatedTableDropped( RetentionTable table ) {
+        aggregated.remove( table );
+        if ( directory.isPresent() ) {
+            try {
+                Files.deleteIfExists( aggregatedFile( table ) );
+            } catch( IOException e ) {
+                log.warn( "Cannot remove aggregated marker of " + table, e );
+            }
+        }
+    }
+
+    private Path aggregatedFile( RetentionTable table ) {
+        return directory.get().resolve( table.tableName() + AGGREGATED_SUFFIX );
+    }
+}
@@ -0,0 +1,111 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.util.Arrays;
+
+import io.bifroest.aggregator.systems.aggregation.AggregationKernel.Buckets;
+import io.bifroest.aggregator.systems.cassandra.PointHandler;
+import io.bifroest.commons.model.Interval;
+
+/**
+ * Reusable column buffers for aggregating one metric at a time. The source
+ * points are decoded straight into the input columns, folded into buckets by
+ * a kernel and handed to the writes from the output columns, so reading and
+ * aggregating create no objects per point once the buffers are warm. Writing
+ * still does, see CassandraAccessLayer.insertPoints.
+ *
+ * The buffers grow with the largest metric, and are given up again once they
+ * exceed MAX_RETAINED_CAPACITY, so a single huge metric does not pin its
+ * buffers on every pool thread for good.
+ *
+ * Not thread-safe, every aggregation thread uses its own instance.
+ */
+final class ColumnarAggregation implements PointHandler {
+    private static final int INITIAL_CAPACITY = 1024;
+    // points, about 1MB for the input columns
+    static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<ColumnarAggregation> perThread = ThreadLocal.withInitial( ColumnarAggregation::new );
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int size;
+
+    private final Buckets buckets = new Buckets();
+    private long[] outTimestamps = new long[0];
+    private double[] outValues = new double[0];
+    private int outSize;
+
+    static ColumnarAggregation ofCurrentThread() {
+        ColumnarAggregation aggregation = perThread.get();
+        aggregation.clear();
+        return aggregation;
+    }
+
+    void clear() {
+        if ( timestamps.length > MAX_RETAINED_CAPACITY ) {
+            timestamps = new long[INITIAL_CAPACITY];
+            values = new double[INITIAL_CAPACITY];
+        }
+        if ( outTimestamps.length > MAX_RETAINED_CAPACITY ) {
+            outTimestamps = new long[0];
+            outValues = new double[0];
+        }
+        buckets.trim( MAX_RETAINED_CAPACITY );
+        size = 0;
+        outSize = 0;
+    }
+
+    @Override
+    public void handle( long timestamp, double value ) {
+        if ( size == timestamps.length ) {
+            timestamps = Arrays.copyOf( timestamps, size * 2 );
+            values = Arrays.copyOf( values, size * 2 );
+        }
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return how many points fit into the input columns before they grow
+     */
+    int capacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * Aggregates the loaded points of the source interval into slots of the given frequency.
+     *
+     * @return the number of aggregated points in the output columns
+     */
+    int aggregate( AggregationKernel kernel, Interval source, long frequency ) {
+        buckets.reset( source.start(), source.end(), frequency );
+        kernel.accumulate( timestamps, values, size, buckets );
+
+        if ( outTimestamps.length < buckets.size ) {
+            outTimestamps = new long[buckets.size];
+            outValues = new double[buckets.size];
+        }
+        outSize = 0;
+        for ( int b = 0; b < buckets.size; b++ ) {
+            if ( buckets.counts[b] > 0 ) {
+                outTimestamps[outSize] = buckets.firstSlot + b * frequency;
+                outValues[outSize] = kernel.finish( buckets.values[b], buckets.counts[b] );
+                outSize++;
+            }
+        }
+        return outSize;
+    }
+
+    long[] outTimestamps() {
+        return outTimestamps;
+    }
+
+    double[] outValues() {
+        return outValues;
+    }
+}
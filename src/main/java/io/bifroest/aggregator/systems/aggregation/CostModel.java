@@ -0,0 +1,116 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.bifroest.retentions.RetentionLevel;
+
+/**
+ * Estimates how long aggregating a table takes, from the seconds per name and
+ * per table of the previous runs of its level. Both are moving averages, so
+ * the estimates follow when the cluster gets faster or slower.
+ *
+ * With a directory, the history is kept in a file there and survives restarts.
+ */
+final class CostModel {
+    private static final Logger log = LogManager.getLogger();
+
+    static final String FILE = "cost-history";
+
+    // before there is any history, guess what a name costs on a healthy cluster
+    static final double DEFAULT_SECONDS_PER_NAME = 0.002;
+    // the weight of the latest run in the averages
+    private static final double WEIGHT = 0.3;
+
+    private final Optional<Path> file;
+    private final Map<String, double[]> history = new HashMap<>();
+
+    private CostModel( Optional<Path> file ) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the history from the directory, starting without one if it cannot be read.
+     */
+    static CostModel open( Optional<Path> directory ) {
+        CostModel costs = new CostModel( directory.map( dir -> dir.resolve( FILE ) ) );
+        if ( costs.file.isPresent() && Files.exists( costs.file.get() ) ) {
+            try {
+                for ( String line : Files.readAllLines( costs.file.get(), StandardCharsets.UTF_8 ) ) {
+                    String[] fields = line.split( "\t" );
+                    costs.history.put( fields[0], new double[] { Double.parseDouble( fields[1] ), Double.parseDouble( fields[2] ) } );
+                }
+            } catch( IOException | RuntimeException e ) {
+                log.warn( "Cannot read cost history " + costs.file.get() + ", starting without one", e );
+                costs.history.clear();
+            }
+        }
+        return costs;
+    }
+
+    /**
+     * @param names the estimated number of names in the table, if known
+     * @return the estimated seconds to aggregate a table of the level
+     */
+    synchronized double estimate( RetentionLevel level, OptionalLong names ) {
+        double[] averages = history.get( level.name() );
+        boolean knowsNames = names.isPresent() && names.getAsLong() > 0;
+        if ( averages == null ) {
+            return knowsNames ? names.getAsLong() * DEFAULT_SECONDS_PER_NAME : 0;
+        }
+        if ( knowsNames && averages[0] > 0 ) {
+            return names.getAsLong() * averages[0];
+        }
+        return averages[1];
+    }
+
+    /**
+     * Records how long aggregating a table of the level took.
+     *
+     * @param names the estimated number of names in the table, if known
+     */
+    synchronized void record( RetentionLevel level, OptionalLong names, double seconds ) {
+        boolean knowsNames = names.isPresent() && names.getAsLong() > 0;
+        double[] averages = history.get( level.name() );
+        if ( averages == null ) {
+            history.put( level.name(), new double[] { knowsNames ? seconds / names.getAsLong() : 0, seconds } );
+            return;
+        }
+        if ( knowsNames ) {
+            double perName = seconds / names.getAsLong();
+            averages[0] = averages[0] > 0 ? averages[0] + WEIGHT * ( perName - averages[0] ) : perName;
+        }
+        averages[1] += WEIGHT * ( seconds - averages[1] );
+    }
+
+    /**
+     * Replaces the history file atomically, does nothing without a directory.
+     */
+    synchronized void save() {
+        if ( !file.isPresent() ) {
+            return;
+        }
+        Path temp = file.get().resolveSibling( FILE + ".tmp" );
+        try {
+            try ( BufferedWriter out = Files.newBufferedWriter( temp, StandardCharsets.UTF_8 ) ) {
+                for ( Map.Entry<String, double[]> level : history.entrySet() ) {
+                    out.write( level.getKey() + "\t" + level.getValue()[0] + "\t" + level.getValue()[1] + "\n" );
+                }
+            }
+            Files.move( temp, file.get(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        } catch( IOException e ) {
+            log.warn( "Cannot save cost history " + file.get(), e );
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.util.Locale;
+
+public enum ExecutorMode {
+    /**
+     * Run the tables on poolsize platform threads, and the units of big tables on a pool of shard-poolsize platform threads.
+     */
+    FIXED,
+
+    /**
+     * Run every table and every unit of work on its own virtual thread, the concurrency is
+     * bounded by max-outstanding-requests of the cassandra block. Needs Java 21 or newer.
+     */
+    VIRTUAL;
+
+    public static ExecutorMode parse( String name ) {
+        return valueOf( name.trim().toUpperCase( Locale.ROOT ).replace( '-', '_' ) );
+    }
+}
@@ -0,0 +1,304 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import org.json.JSONObject;
+
+import io.bifroest.commons.statistics.units.parse.DurationParser;
+
+/**
+ * How the tables of one retention level are read during aggregation.
+ */
+public final class LevelSettings {
+    private static final DurationParser parser = new DurationParser();
+
+    private final ReadMode readMode;
+    private final int tokenRanges;
+    private final int scanParallelism;
+    private final int fetchSize;
+    private final int readAhead;
+    private final int namesPerCheckpoint;
+    private final int rangesPerCheckpoint;
+    private final boolean columnar;
+    private final boolean cascade;
+    private final long shardThreshold;
+    private final Optional<Duration> aggregateAfter;
+    private final boolean distributed;
+    private final Duration progressInterval;
+    private final boolean traceNames;
+
+    private LevelSettings( Builder builder ) {
+        if ( builder.tokenRanges <= 0 || builder.scanParallelism <= 0 ) {
+            throw new IllegalArgumentException( "token-ranges and scan-parallelism must be positive" );
+        }
+        if ( builder.fetchSize < 0 || builder.readAhead < 0 ) {
+            throw new IllegalArgumentException( "fetch-size and read-ahead must not be negative" );
+        }
+        if ( builder.namesPerCheckpoint <= 0 || builder.rangesPerCheckpoint <= 0 ) {
+            throw new IllegalArgumentException( "names-per-checkpoint and ranges-per-checkpoint must be positive" );
+        }
+        if ( builder.shardThreshold < 0 ) {
+            throw new IllegalArgumentException( "shard-threshold must not be negative" );
+        }
+        if ( builder.distributed && builder.readMode != ReadMode.TOKEN_RANGE ) {
+            throw new IllegalArgumentException( "distributed requires the token-range read mode" );
+        }
+        if ( builder.progressInterval.isNegative() ) {
+            throw new IllegalArgumentException( "progress-interval must not be negative" );
+        }
+        this.readMode = builder.readMode;
+        this.tokenRanges = builder.tokenRanges;
+        this.scanParallelism = builder.scanParallelism;
+        this.fetchSize = builder.fetchSize;
+        this.readAhead = builder.readAhead;
+        this.namesPerCheckpoint = builder.namesPerCheckpoint;
+        this.rangesPerCheckpoint = builder.rangesPerCheckpoint;
+        this.columnar = builder.columnar;
+        this.cascade = builder.cascade;
+        this.shardThreshold = builder.shardThreshold;
+        this.aggregateAfter = builder.aggregateAfter;
+        this.distributed = builder.distributed;
+        this.progressInterval = builder.progressInterval;
+        this.traceNames = builder.traceNames;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static LevelSettings defaults() {
+        return builder().build();
+    }
+
+    /**
+     * Reads the settings from the config, keys missing in the config are taken from the fallback.
+     */
+    public static LevelSettings fromConfig( JSONObject config, LevelSettings fallback ) {
+        return fallback.toBuilder()
+                .readMode( config.has( "read-mode" ) ? ReadMode.parse( config.getString( "read-mode" ) ) : fallback.readMode )
+                .tokenRanges( config.optInt( "token-ranges", fallback.tokenRanges ) )
+                .scanParallelism( config.optInt( "scan-parallelism", fallback.scanParallelism ) )
+                .fetchSize( config.optInt( "fetch-size", fallback.fetchSize ) )
+                .readAhead( config.optInt( "read-ahead", fallback.readAhead ) )
+                .namesPerCheckpoint( config.optInt( "names-per-checkpoint", fallback.namesPerCheckpoint ) )
+                .rangesPerCheckpoint( config.optInt( "ranges-per-checkpoint", fallback.rangesPerCheckpoint ) )
+                .columnar( config.optBoolean( "columnar", fallback.columnar ) )
+                .cascade( config.optBoolean( "cascade", fallback.cascade ) )
+                .shardThreshold( config.optLong( "shard-threshold", fallback.shardThreshold ) )
+                .aggregateAfter( config.has( "aggregate-after" ) ? Optional.of( parser.parse( config.getString( "aggregate-after" ) ) ) : fallback.aggregateAfter )
+                .distributed( config.optBoolean( "distributed", fallback.distributed ) )
+                .progressInterval( config.has( "progress-interval" ) ? parser.parse( config.getString( "progress-interval" ) ) : fallback.progressInterval )
+                .traceNames( config.optBoolean( "trace-names", fallback.traceNames ) )
+                .build();
+    }
+
+    public Builder toBuilder() {
+        return builder()
+                .readMode( readMode )
+                .tokenRanges( tokenRanges )
+                .scanParallelism( scanParallelism )
+                .fetchSize( fetchSize )
+                .readAhead( readAhead )
+                .namesPerCheckpoint( namesPerCheckpoint )
+                .rangesPerCheckpoint( rangesPerCheckpoint )
+                .columnar( columnar )
+                .cascade( cascade )
+                .shardThreshold( shardThreshold )
+                .aggregateAfter( aggregateAfter )
+                .distributed( distributed )
+                .progressInterval( progressInterval )
+                .traceNames( traceNames );
+    }
+
+    public ReadMode readMode() {
+        return readMode;
+    }
+
+    public int tokenRanges() {
+        return tokenRanges;
+    }
+
+    public int scanParallelism() {
+        return scanParallelism;
+    }
+
+    /**
+     * @return the page size for reads, 0 for the driver default
+     */
+    public int fetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * @return how many names are queried ahead of the one being aggregated, 0 disables read-ahead
+     */
+    public int readAhead() {
+        return readAhead;
+    }
+
+    /**
+     * @return how many names are aggregated between two checkpoints in per-name mode
+     */
+    public int namesPerCheckpoint() {
+        return namesPerCheckpoint;
+    }
+
+    /**
+     * @return how many token ranges are scanned between two checkpoints in token-range mode
+     */
+    public int rangesPerCheckpoint() {
+        return rangesPerCheckpoint;
+    }
+
+    /**
+     * @return whether per-name reads aggregate the built-in functions on primitive columns, without read-ahead
+     */
+    public boolean columnar() {
+        return columnar;
+    }
+
+    /**
+     * @return whether aggregating a table of this level also collects the aggregates of every level after the next
+     */
+    public boolean cascade() {
+        return cascade;
+    }
+
+    /**
+     * @return how many names a table may hold before its units run in parallel on the shard pool, 0 never shards
+     */
+    public long shardThreshold() {
+        return shardThreshold;
+    }
+
+    /**
+     * @return the grace period after which a closed block is aggregated, instead of right before it expires
+     */
+    public Optional<Duration> aggregateAfter() {
+        return aggregateAfter;
+    }
+
+    /**
+     * @return whether the units of a table are claimed by all coordinated nodes, instead of one node running the whole table
+     */
+    public boolean distributed() {
+        return distributed;
+    }
+
+    /**
+     * @return how often a task publishes what it aggregated since its last progress event
+     */
+    public Duration progressInterval() {
+        return progressInterval;
+    }
+
+    /**
+     * @return whether an AggregationEvent is sent for every aggregated name, on top of the progress events
+     */
+    public boolean traceNames() {
+        return traceNames;
+    }
+
+    public static final class Builder {
+        private static final int DEFAULT_TOKEN_RANGES = 256;
+        private static final int DEFAULT_SCAN_PARALLELISM = 4;
+        private static final int DEFAULT_FETCH_SIZE = 0;
+        private static final int DEFAULT_READ_AHEAD = 0;
+        private static final int DEFAULT_NAMES_PER_CHECKPOINT = 10000;
+        private static final int DEFAULT_RANGES_PER_CHECKPOINT = 16;
+        private static final Duration DEFAULT_PROGRESS_INTERVAL = Duration.ofSeconds( 1 );
+
+        private ReadMode readMode = ReadMode.PER_NAME;
+        private int tokenRanges = DEFAULT_TOKEN_RANGES;
+        private int scanParallelism = DEFAULT_SCAN_PARALLELISM;
+        private int fetchSize = DEFAULT_FETCH_SIZE;
+        private int readAhead = DEFAULT_READ_AHEAD;
+        private int namesPerCheckpoint = DEFAULT_NAMES_PER_CHECKPOINT;
+        private int rangesPerCheckpoint = DEFAULT_RANGES_PER_CHECKPOINT;
+        private boolean columnar = false;
+        private boolean cascade = false;
+        private long shardThreshold = 0;
+        private Optional<Duration> aggregateAfter = Optional.empty();
+        private boolean distributed = false;
+        private Duration progressInterval = DEFAULT_PROGRESS_INTERVAL;
+        private boolean traceNames = false;
+
+        private Builder() {
+        }
+
+        public Builder readMode( ReadMode readMode ) {
+            this.readMode = readMode;
+            return this;
+        }
+
+        public Builder tokenRanges( int tokenRanges ) {
+            this.tokenRanges = tokenRanges;
+            return this;
+        }
+
+        public Builder scanParallelism( int scanParallelism ) {
+            this.scanParallelism = scanParallelism;
+            return this;
+        }
+
+        public Builder fetchSize( int fetchSize ) {
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        public Builder readAhead( int readAhead ) {
+            this.readAhead = readAhead;
+            return this;
+        }
+
+        public Builder namesPerCheckpoint( int namesPerCheckpoint ) {
+            this.namesPerCheckpoint = namesPerCheckpoint;
+            return this;
+        }
+
+        public Builder rangesPerCheckpoint( int rangesPerCheckpoint ) {
+            this.rangesPerCheckpoint = rangesPerCheckpoint;
+            return this;
+        }
+
+        public Builder columnar( boolean columnar ) {
+            this.columnar = columnar;
+            return this;
+        }
+
+        public Builder cascade( boolean cascade ) {
+            this.cascade = cascade;
+            return this;
+        }
+
+        public Builder shardThreshold( long shardThreshold ) {
+            this.shardThreshold = shardThreshold;
+            return this;
+        }
+
+        public Builder aggregateAfter( Optional<Duration> aggregateAfter ) {
+            this.aggregateAfter = aggregateAfter;
+            return this;
+        }
+
+        public Builder distributed( boolean distributed ) {
+            this.distributed = distributed;
+            return this;
+        }
+
+        public Builder progressInterval( Duration progressInterval ) {
+            this.progressInterval = progressInterval;
+            return this;
+        }
+
+        public Builder traceNames( boolean traceNames ) {
+            this.traceNames = traceNames;
+            return this;
+        }
+
+        public LevelSettings build() {
+            return new LevelSettings( this );
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The aggregates of one cascade target table collected so far, per name and slot.
+ *
+ * Sources lists the tables already folded in, so merging a source twice
+ * after a crash has no effect. Incomplete means some of the merged names had
+ * no kernel, so the table below must still be aggregated the regular way.
+ *
+ * The file of a target is only appended to, one block per source:
+ *
+ * <pre>
+ * partial  [target] [origin level]
+ * begin    [source]
+ * acc      [name] [kernel] [slot] [value] [count] [latest]
+ * incomplete
+ * end      [source]
+ * </pre>
+ *
+ * with tab separated fields. Every block starts on a line of its own, so a
+ * block torn by a crash has no end and is skipped, as is a second block of
+ * the same source. Names are escaped, see escape.
+ */
+final class PartialAggregate {
+    final String target;
+    final String originLevel;
+    final Set<String> sources = new HashSet<>();
+    boolean incomplete;
+
+    private final Map<String, AggregationKernel> kernels = new HashMap<>();
+    private final Map<String, TreeMap<Long, Accumulator>> slots = new HashMap<>();
+
+    PartialAggregate( String target, String originLevel ) {
+        this.target = target;
+        this.originLevel = originLevel;
+    }
+
+    void add( String name, AggregationKernel kernel, long slot, double value, long count, long latest ) {
+        kernels.putIfAbsent( name, kernel );
+        Accumulator accumulator = slots.computeIfAbsent( name, n -> new TreeMap<>() ).get( slot );
+        if ( accumulator == null ) {
+            slots.get( name ).put( slot, new Accumulator( value, count, latest ) );
+        } else {
+            kernel.combine( accumulator, value, count, latest );
+        }
+    }
+
+    void mergeFrom( PartialAggregate other ) {
+        incomplete |= other.incomplete;
+        for ( Map.Entry<String, TreeMap<Long, Accumulator>> name : other.slots.entrySet() ) {
+            AggregationKernel kernel = other.kernels.get( name.getKey() );
+            for ( Map.Entry<Long, Accumulator> slot : name.getValue().entrySet() ) {
+                Accumulator accumulator = slot.getValue();
+                add( name.getKey(), kernel, slot.getKey(), accumulator.value, accumulator.count, accumulator.latest );
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return slots.isEmpty();
+    }
+
+    Set<String> names() {
+        return slots.keySet();
+    }
+
+    AggregationKernel kernelOf( String name ) {
+        return kernels.get( name );
+    }
+
+    /**
+     * @return the slots of the name in ascending order
+     */
+    TreeMap<Long, Accumulator> slotsOf( String name ) {
+        return slots.get( name );
+    }
+
+    /**
+     * Writes the accumulator lines, prefixed with the given fields.
+     */
+    void writeAccumulators( BufferedWriter out, String prefix ) throws IOException {
+        for ( Map.Entry<String, TreeMap<Long, Accumulator>> name : slots.entrySet() ) {
+            for ( Map.Entry<Long, Accumulator> slot : name.getValue().entrySet() ) {
+                Accumulator accumulator = slot.getValue();
+                out.write( prefix + "acc\t" + escape( name.getKey() ) + "\t" + kernels.get( name.getKey() ) + "\t" + slot.getKey() + "\t"
+                        + accumulator.value + "\t" + accumulator.count + "\t" + accumulator.latest + "\n" );
+            }
+        }
+    }
+
+    /**
+     * Parses the fields of an accumulator line, starting at the given offset.
+     */
+    void readAccumulator( String[] fields, int offset ) {
+        add( unescape( fields[offset + 1] ),
+                AggregationKernel.valueOf( fields[offset + 2] ),
+                Long.parseLong( fields[offset + 3] ),
+                Double.parseDouble( fields[offset + 4] ),
+                Long.parseLong( fields[offset + 5] ),
+                Long.parseLong( fields[offset + 6] ) );
+    }
+
+    /**
+     * Appends this partial aggregate to the file as the contribution of the source, creating the file if necessary.
+     */
+    void appendTo( Path file, String source ) throws IOException {
+        StringWriter lines = new StringWriter();
+        try ( BufferedWriter out = new BufferedWriter( lines ) ) {
+            if ( !Files.exists( file ) ) {
+                out.write( "partial\t" + target + "\t" + originLevel + "\n" );
+            }
+            // the last block might have been torn in the middle of a line
+            out.write( "\nbegin\t" + source + "\n" );
+            writeAccumulators( out, "" );
+            if ( incomplete ) {
+                out.write( "incomplete\n" );
+            }
+            out.write( "end\t" + source + "\n" );
+        }
+        Files.write( file, lines.toString().getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+    }
+
+    /**
+     * @return the origin level in the header of the file, without reading the aggregates
+     */
+    static String originLevelOf( Path file ) throws IOException {
+        try ( BufferedReader in = Files.newBufferedReader( file, StandardCharsets.UTF_8 ) ) {
+            String header = in.readLine();
+            if ( header == null ) {
+                throw new IOException( "Empty partial aggregate " + file );
+            }
+            return header.split( "\t" )[2];
+        }
+    }
+
+    static PartialAggregate readFrom( Path file ) throws IOException {
+        List<String> lines = Files.readAllLines( file, StandardCharsets.UTF_8 );
+        String[] header = lines.get( 0 ).split( "\t" );
+        PartialAggregate partial = new PartialAggregate( header[1], header[2] );
+
+        String source = null;
+        List<String[]> block = new ArrayList<>();
+        for ( String line : lines.subList( 1, lines.size() ) ) {
+            String[] fields = line.split( "\t" );
+            switch ( fields[0] ) {
+                case "begin":
+                    source = fields.length > 1 ? fields[1] : null;
+                    block.clear();
+                    break;
+                case "end":
+                    if ( fields.length > 1 && fields[1].equals( source ) && partial.sources.add( source ) ) {
+                        partial.merge( block, file );
+                    }
+                    source = null;
+                    block.clear();
+                    break;
+                default:
+                    // lines outside of a block are left over from a torn block
+                    if ( source != null ) {
+                        block.add( fields );
+                    }
+            }
+        }
+        return partial;
+    }
+
+    private void merge( List<String[]> block, Path file ) throws IOException {
+        for ( String[] fields : block ) {
+            switch ( fields[0] ) {
+                case "incomplete":
+                    incomplete = true;
+                    break;
+                case "acc":
+                    readAccumulator( fields, 0 );
+                    break;
+                default:
+                    throw new IOException( "Unexpected line in " + file + ": " + String.join( "\t", fields ) );
+            }
+        }
+    }
+
+    /**
+     * Escapes backslashes, tabs and line breaks, so any name fits into one field of a line.
+     */
+    static String escape( String name ) {
+        StringBuilder escaped = null;
+        for ( int i = 0; i < name.length(); i++ ) {
+            char c = name.charAt( i );
+            String replacement = c == '\\' ? "\\\\" : c == '\t' ? "\\t" : c == '\n' ? "\\n" : c == '\r' ? "\\r" : null;
+            if ( replacement != null && escaped == null ) {
+                escaped = new StringBuilder( name.length() + 8 ).append( name, 0, i );
+            }
+            if ( escaped != null ) {
+                if ( replacement != null ) {
+                    escaped.append( replacement );
+                } else {
+                    escaped.append( c );
+                }
+            }
+        }
+        return escaped == null ? name : escaped.toString();
+    }
+
+    static String unescape( String field ) {
+        if ( field.indexOf( '\\' ) < 0 ) {
+            return field;
+        }
+        StringBuilder name = new StringBuilder( field.length() );
+        for ( int i = 0; i < field.length(); i++ ) {
+            char c = field.charAt( i );
+            if ( c != '\\' || i + 1 == field.length() ) {
+                name.append( c );
+                continue;
+            }
+            char escaped = field.charAt( ++i );
+            name.append( escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped );
+        }
+        return name.toString();
+    }
+}
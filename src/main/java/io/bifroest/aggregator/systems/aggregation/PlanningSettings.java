@@ -0,0 +1,79 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.time.Duration;
+
+import org.json.JSONObject;
+
+import io.bifroest.commons.statistics.units.parse.DurationParser;
+
+/**
+ * The planning block in the aggregator config. With it, the first run of the
+ * aggregator estimates what the next runs will cost, and then aggregates as
+ * usual. The runs after it do not plan again:
+ *
+ * <pre>
+ * "planning" : {
+ *     "sample-fraction" : 0.01,
+ *     "runs" : 24,
+ *     "run-every" : "1h"
+ * }
+ * </pre>
+ *
+ * A sample-fraction of the names of every table is read and aggregated,
+ * evenly spread in token order. With a sample-fraction of 0 only the size
+ * estimates of the cluster are asked, and every series is assumed full.
+ * run-every defaults to the frequency of the aggregator.
+ */
+public final class PlanningSettings {
+    private static final double DEFAULT_SAMPLE_FRACTION = 0.01;
+    private static final int DEFAULT_RUNS = 24;
+
+    private static final DurationParser parser = new DurationParser();
+
+    private final double sampleFraction;
+    private final int runs;
+    private final Duration runEvery;
+
+    public PlanningSettings( double sampleFraction, int runs, Duration runEvery ) {
+        if ( sampleFraction < 0 || sampleFraction > 1 ) {
+            throw new IllegalArgumentException( "sample-fraction must be between 0 and 1, got " + sampleFraction );
+        }
+        if ( runs <= 0 ) {
+            throw new IllegalArgumentException( "runs must be positive, got " + runs );
+        }
+        if ( runEvery.getSeconds() < 1 ) {
+            throw new IllegalArgumentException( "run-every must be at least 1s, got " + runEvery );
+        }
+        this.sampleFraction = sampleFraction;
+        this.runs = runs;
+        this.runEvery = runEvery;
+    }
+
+    /**
+     * @param frequency how often the aggregator runs
+     */
+    public static PlanningSettings fromConfig( JSONObject config, Duration frequency ) {
+        return new PlanningSettings(
+                config.optDouble( "sample-fraction", DEFAULT_SAMPLE_FRACTION ),
+                config.optInt( "runs", DEFAULT_RUNS ),
+                config.has( "run-every" ) ? parser.parse( config.getString( "run-every" ) ) : frequency );
+    }
+
+    /**
+     * @return the share of the names of a table that is read, 0 to use the size estimates of the cluster
+     */
+    public double sampleFraction() {
+        return sampleFraction;
+    }
+
+    /**
+     * @return how many runs ahead are estimated, the first one being the run that plans
+     */
+    public int runs() {
+        return runs;
+    }
+
+    public Duration runEvery() {
+        return runEvery;
+    }
+}
@@ -0,0 +1,54 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A task for an executor with a priority queue: the one with the least slack
+ * runs first, ties go to the one planned first.
+ */
+final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+    // only ever compares PrioritizedTasks, the pool rejects everything else
+    private static final Comparator<Runnable> ORDER = ( a, b ) -> ( (PrioritizedTask)a ).compareTo( (PrioritizedTask)b );
+
+    private final Runnable task;
+    private final double slack;
+    private final long sequence;
+
+    PrioritizedTask( Runnable task, double slack, long sequence ) {
+        this.task = task;
+        this.slack = slack;
+        this.sequence = sequence;
+    }
+
+    @Override
+    public void run() {
+        task.run();
+    }
+
+    @Override
+    public int compareTo( PrioritizedTask other ) {
+        int bySlack = Double.compare( slack, other.slack );
+        return bySlack != 0 ? bySlack : Long.compare( sequence, other.sequence );
+    }
+
+    /**
+     * @return a pool of poolsize threads taking the queued PrioritizedTasks in their order,
+     *         which rejects any other task, like the futures created by submit()
+     */
+    static ExecutorService newFixedPool( int poolsize ) {
+        return new ThreadPoolExecutor( poolsize, poolsize, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>( 11, ORDER ) ) {
+            @Override
+            public void execute( Runnable command ) {
+                if ( !( command instanceof PrioritizedTask ) ) {
+                    throw new RejectedExecutionException( "Only prioritized tasks can be queued, got " + command );
+                }
+                super.execute( command );
+            }
+        };
+    }
+}
@@ -0,0 +1,19 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.util.Locale;
+
+public enum ReadMode {
+    /**
+     * Load the distinct names of a table and query every name on its own.
+     */
+    PER_NAME,
+
+    /**
+     * Split the token ring into ranges and page through them in parallel.
+     */
+    TOKEN_RANGE;
+
+    public static ReadMode parse( String name ) {
+        return valueOf( name.trim().toUpperCase( Locale.ROOT ).replace( '-', '_' ) );
+    }
+}
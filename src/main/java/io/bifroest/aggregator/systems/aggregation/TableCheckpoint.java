@@ -0,0 +1,123 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * The units of work of one source table whose aggregates are safely written.
+ *
+ * The file starts with the layout, followed by one line per completed unit:
+ * its index, the last name or token range it covered and an end marker. Every
+ * append starts on a fresh line, so a line torn by a crash is not glued to the
+ * next one, and lines without their end marker are ignored. That unit is
+ * simply done again.
+ */
+public final class TableCheckpoint {
+    private static final Logger log = LogManager.getLogger();
+
+    private static final String END = "\tend";
+
+    private final RetentionTable table;
+    private final Optional<Path> file;
+    private final String layout;
+    private final BitSet completed = new BitSet();
+
+    TableCheckpoint( RetentionTable table, Optional<Path> file, String layout ) {
+        this.table = table;
+        this.file = file;
+        this.layout = layout;
+        file.ifPresent( this::load );
+    }
+
+    private void load( Path path ) {
+        if ( !Files.exists( path ) ) {
+            return;
+        }
+        try {
+            List<String> lines = Files.readAllLines( path, StandardCharsets.UTF_8 );
+            if ( lines.isEmpty() || !lines.get( 0 ).equals( layout ) ) {
+                log.info( "Discarding checkpoint of {}, it was written with a different layout", table );
+                Files.delete( path );
+                return;
+            }
+            for ( String line : lines.subList( 1, lines.size() ) ) {
+                if ( line.isEmpty() ) {
+                    continue;
+                }
+                int tab = line.indexOf( '\t' );
+                if ( tab <= 0 || !line.endsWith( END ) ) {
+                    log.debug( "Ignoring broken checkpoint line of {}: {}", table, line );
+                    continue;
+                }
+                try {
+                    completed.set( Integer.parseInt( line.substring( 0, tab ) ) );
+                } catch( NumberFormatException e ) {
+                    log.debug( "Ignoring broken checkpoint line of {}: {}", table, line );
+                }
+            }
+            if ( !completed.isEmpty() ) {
+                log.info( "Resuming aggregation of {}, {} units are already done", table, completed.cardinality() );
+            }
+        } catch( IOException e ) {
+            log.warn( "Cannot read checkpoint of " + table + ", starting over", e );
+            completed.clear();
+        }
+    }
+
+    public synchronized boolean isCompleted( int unit ) {
+        return completed.get( unit );
+    }
+
+    public synchronized int completedUnits() {
+        return completed.cardinality();
+    }
+
+    /**
+     * Must only be called once the writes of the unit are acknowledged.
+     *
+     * @param position the last name or token range of the unit, for humans reading the file
+     */
+    public synchronized void completed( int unit, String position ) {
+        completed.set( unit );
+        if ( !file.isPresent() ) {
+            return;
+        }
+        try {
+            // the last line might have been torn by a crash
+            String line = "\n" + unit + "\t" + position + END + "\n";
+            if ( !Files.exists( file.get() ) ) {
+                line = layout + "\n" + line;
+            }
+            Files.write( file.get(), line.getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+        } catch( IOException e ) {
+            // only costs repeated work after a restart
+            log.warn( "Cannot write checkpoint of " + table, e );
+        }
+    }
+
+    /**
+     * Forgets the progress, called once the source table is dropped.
+     */
+    public synchronized void remove() {
+        completed.clear();
+        if ( !file.isPresent() ) {
+            return;
+        }
+        try {
+            Files.deleteIfExists( file.get() );
+        } catch( IOException e ) {
+            log.warn( "Cannot remove checkpoint of " + table, e );
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import io.bifroest.aggregator.systems.aggregation.statistics.AggregationPhase;
+import io.bifroest.aggregator.systems.aggregation.statistics.AggregationProgressEvent;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * Counts what a task aggregates and publishes it as one AggregationProgressEvent
+ * per progress-interval, instead of an event per name.
+ *
+ * The units of sharded tables and the handlers of range scans count from
+ * several threads at once. The counts since the last event are one immutable
+ * snapshot that is replaced as a whole, so publishing swaps it for an empty
+ * one without losing a racing count or splitting a name over two events.
+ * Whichever thread counts first after the interval has passed publishes the
+ * event.
+ */
+final class TableProgress {
+    // the timestamp and the value of a point
+    private static final int BYTES_PER_POINT = 16;
+
+    private final RetentionTable source;
+    private final RetentionTable target;
+    private final long intervalNanos;
+    private final Consumer<AggregationProgressEvent> publisher;
+    private final Clock clock;
+    private final LongSupplier nanoTime;
+
+    private final AtomicReference<Counts> counts = new AtomicReference<>( Counts.NONE );
+    private final AtomicLong lastPublished;
+
+    TableProgress( RetentionTable source, RetentionTable target, Duration interval, Consumer<AggregationProgressEvent> publisher ) {
+        this( source, target, interval, publisher, Clock.systemUTC(), System::nanoTime );
+    }
+
+    TableProgress( RetentionTable source, RetentionTable target, Duration interval, Consumer<AggregationProgressEvent> publisher, Clock clock,
+            LongSupplier nanoTime ) {
+        this.source = source;
+        this.target = target;
+        this.intervalNanos = interval.toNanos();
+        this.publisher = publisher;
+        this.clock = clock;
+        this.nanoTime = nanoTime;
+        this.lastPublished = new AtomicLong( nanoTime.getAsLong() );
+    }
+
+    /**
+     * Counts a name with its aggregated points, and publishes the progress if the interval has passed.
+     */
+    void nameAggregated( String name, int aggregatedPoints ) {
+        long aggregatedBytes = bytesOf( name, aggregatedPoints );
+        counts.updateAndGet( current -> current.plusName( aggregatedPoints, aggregatedBytes ) );
+
+        long now = nanoTime.getAsLong();
+        long last = lastPublished.get();
+        if ( now - last >= intervalNanos && lastPublished.compareAndSet( last, now ) ) {
+            publish( false );
+        }
+    }
+
+    /**
+     * @return the estimated payload of writing the points of the named metric
+     */
+    static long bytesOf( String name, long points ) {
+        return name.length() + points * BYTES_PER_POINT;
+    }
+
+    void phase( AggregationPhase phase, long nanos ) {
+        counts.updateAndGet( current -> current.plusPhase( phase, nanos ) );
+    }
+
+    /**
+     * Publishes what was counted since the last event as the last event of the task.
+     */
+    void finish() {
+        publish( true );
+    }
+
+    private void publish( boolean last ) {
+        Counts published = counts.getAndSet( Counts.NONE );
+        publisher.accept( new AggregationProgressEvent( clock.instant(), source, target, published.names, published.points, published.bytes,
+                published.phaseNanos.clone(), last ) );
+    }
+
+    private static final class Counts {
+        static final Counts NONE = new Counts( 0, 0, 0, new long[AggregationPhase.values().length] );
+
+        final long names;
+        final long points;
+        final long bytes;
+        // never modified once the snapshot is shared
+        final long[] phaseNanos;
+
+        Counts( long names, long points, long bytes, long[] phaseNanos ) {
+            this.names = names;
+            this.points = points;
+            this.bytes = bytes;
+            this.phaseNanos = phaseNanos;
+        }
+
+        Counts plusName( long addedPoints, long addedBytes ) {
+            return new Counts( names + 1, points + addedPoints, bytes + addedBytes, phaseNanos );
+        }
+
+        Counts plusPhase( AggregationPhase phase, long nanos ) {
+            long[] added = phaseNanos.clone();
+            added[phase.ordinal()] += nanos;
+            return new Counts( names, points, bytes, added );
+        }
+    }
+}
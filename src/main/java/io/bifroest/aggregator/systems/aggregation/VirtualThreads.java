@@ -0,0 +1,34 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual threads, looked up at runtime so the aggregator still runs on Java 8 with the fixed executor.
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        try {
+            Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+            return true;
+        } catch( NoSuchMethodException e ) {
+            return false;
+        }
+    }
+
+    /**
+     * @return an executor starting a new virtual thread for every task
+     */
+    static ExecutorService newPerTaskExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+        } catch( NoSuchMethodException e ) {
+            throw new IllegalStateException( "The virtual executor needs Java 21 or newer, running on " + System.getProperty( "java.version" ), e );
+        } catch( ReflectiveOperationException e ) {
+            throw new IllegalStateException( "Cannot create a virtual thread executor", e );
+        }
+    }
+}
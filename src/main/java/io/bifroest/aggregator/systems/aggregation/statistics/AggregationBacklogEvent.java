@@ -0,0 +1,48 @@
+package io.bifroest.aggregator.systems.aggregation.statistics;
+
+import java.time.Instant;
+
+import io.bifroest.commons.statistics.EventWithInstant;
+
+/**
+ * The backlog of an aggregation run as planned, before any table has started.
+ */
+public class AggregationBacklogEvent implements EventWithInstant {
+    private final Instant when;
+    private final int tables;
+    private final long estimatedSeconds;
+    private final int tablesAtRisk;
+
+    /**
+     * @param estimatedSeconds how long the whole backlog is expected to take
+     * @param tablesAtRisk the tables expected to finish only after their target expires
+     */
+    public AggregationBacklogEvent( Instant when, int tables, long estimatedSeconds, int tablesAtRisk ) {
+        this.when = when;
+        this.tables = tables;
+        this.estimatedSeconds = estimatedSeconds;
+        this.tablesAtRisk = tablesAtRisk;
+    }
+
+    public Instant when() {
+        return when;
+    }
+
+    public int tables() {
+        return tables;
+    }
+
+    public long estimatedSeconds() {
+        return estimatedSeconds;
+    }
+
+    public int tablesAtRisk() {
+        return tablesAtRisk;
+    }
+
+    @Override
+    public String toString() {
+        return "AggregationBacklogEvent [when=" + when + ", tables=" + tables + ", estimatedSeconds=" + estimatedSeconds + ", tablesAtRisk="
+                + tablesAtRisk + "]";
+    }
+}
@@ -0,0 +1,27 @@
+package io.bifroest.aggregator.systems.aggregation.statistics;
+
+import java.util.Locale;
+
+import io.bifroest.aggregator.systems.statistics.LatencyHistogram;
+import io.bifroest.aggregator.systems.statistics.LatencyHistograms;
+import io.bifroest.retentions.RetentionLevel;
+
+/**
+ * The phases of aggregating a table, timed per name in the histograms
+ * aggregation.[phase].[level of the source table].
+ *
+ * Writes only take the time to hand the aggregates to the access layer, for
+ * asynchronous writes including the wait for a free slot in the in-flight
+ * window. Create and drop are only timed when a table is actually created
+ * or dropped. Partitions found by a range scan are read before their name
+ * is handled, their reads are timed by the histograms of scanTokenRange.
+ */
+public enum AggregationPhase {
+    READ, AGGREGATE, WRITE, CREATE, DROP;
+
+    public static final String GROUP = "aggregation";
+
+    public LatencyHistogram of( RetentionLevel level ) {
+        return LatencyHistograms.of( GROUP, name().toLowerCase( Locale.ROOT ), level.name() );
+    }
+}
@@ -0,0 +1,96 @@
+package io.bifroest.aggregator.systems.aggregation.statistics;
+
+import java.time.Instant;
+
+import io.bifroest.commons.statistics.EventWithInstant;
+
+/**
+ * What aggregating the tables of one level is estimated to cost over the
+ * next planned runs, sent once by the first run of an aggregator with a
+ * planning block.
+ */
+public class AggregationPlanEvent implements EventWithInstant {
+    private final Instant when;
+    private final String level;
+    private final int runs;
+    private final long tables;
+    private final long names;
+    private final long rows;
+    private final long bytes;
+    private final long readRequests;
+    private final long writeRequests;
+    private final long seconds;
+    private final long maxRunSeconds;
+
+    /**
+     * @param rows the points read from the tables of the level
+     * @param bytes the estimated payload of the aggregates written into the next level
+     * @param seconds the wall time of the level over all runs, as if it ran alone
+     * @param maxRunSeconds the wall time of the level in its most expensive run
+     */
+    public AggregationPlanEvent( Instant when, String level, int runs, long tables, long names, long rows, long bytes, long readRequests,
+            long writeRequests, long seconds, long maxRunSeconds ) {
+        this.when = when;
+        this.level = level;
+        this.runs = runs;
+        this.tables = tables;
+        this.names = names;
+        this.rows = rows;
+        this.bytes = bytes;
+        this.readRequests = readRequests;
+        this.writeRequests = writeRequests;
+        this.seconds = seconds;
+        this.maxRunSeconds = maxRunSeconds;
+    }
+
+    public Instant when() {
+        return when;
+    }
+
+    public String level() {
+        return level;
+    }
+
+    public int runs() {
+        return runs;
+    }
+
+    public long tables() {
+        return tables;
+    }
+
+    public long names() {
+        return names;
+    }
+
+    public long rows() {
+        return rows;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public long readRequests() {
+        return readRequests;
+    }
+
+    public long writeRequests() {
+        return writeRequests;
+    }
+
+    public long seconds() {
+        return seconds;
+    }
+
+    public long maxRunSeconds() {
+        return maxRunSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return "AggregationPlanEvent [when=" + when + ", level=" + level + ", runs=" + runs + ", tables=" + tables + ", names=" + names + ", rows="
+                + rows + ", bytes=" + bytes + ", readRequests=" + readRequests + ", writeRequests=" + writeRequests + ", seconds=" + seconds
+                + ", maxRunSeconds=" + maxRunSeconds + "]";
+    }
+}
@@ -0,0 +1,82 @@
+package io.bifroest.aggregator.systems.aggregation.statistics;
+
+import java.time.Instant;
+
+import io.bifroest.commons.statistics.EventWithInstant;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * What a task aggregated from its source table since its previous progress
+ * event. The last event of a task is sent when it ends, finished or not.
+ */
+public class AggregationProgressEvent implements EventWithInstant {
+    private final Instant when;
+    private final RetentionTable source;
+    private final RetentionTable target;
+    private final long names;
+    private final long points;
+    private final long bytes;
+    private final long[] phaseNanos;
+    private final boolean last;
+
+    /**
+     * @param points the aggregated points written into the target
+     * @param bytes the estimated payload of those points
+     * @param phaseNanos the time spent in each phase, indexed by the ordinal of the AggregationPhase
+     */
+    public AggregationProgressEvent( Instant when, RetentionTable source, RetentionTable target, long names, long points, long bytes,
+            long[] phaseNanos, boolean last ) {
+        if ( phaseNanos.length != AggregationPhase.values().length ) {
+            throw new IllegalArgumentException( "expected a time for each of the " + AggregationPhase.values().length + " phases, got " + phaseNanos.length );
+        }
+        this.when = when;
+        this.source = source;
+        this.target = target;
+        this.names = names;
+        this.points = points;
+        this.bytes = bytes;
+        this.phaseNanos = phaseNanos;
+        this.last = last;
+    }
+
+    public Instant when() {
+        return when;
+    }
+
+    public RetentionTable source() {
+        return source;
+    }
+
+    /**
+     * @return the table the aggregates were written into, the source itself for tables without a next level
+     */
+    public RetentionTable target() {
+        return target;
+    }
+
+    public long names() {
+        return names;
+    }
+
+    public long points() {
+        return points;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public long nanos( AggregationPhase phase ) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    public boolean last() {
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return "AggregationProgressEvent [when=" + when + ", source=" + source + ", target=" + target + ", names=" + names + ", points=" + points
+                + ", bytes=" + bytes + ", last=" + last + "]";
+    }
+}
@@ -1,14 +1,19 @@
 package io.bifroest.aggregator.systems.aggregation.statistics;
 
 import java.time.Duration;
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.kohsuke.MetaInfServices;
 
+import io.bifroest.aggregator.systems.statistics.SlidingWindowRate;
 import io.bifroest.commons.statistics.WriteToStorageEvent;
 import io.bifroest.commons.statistics.eventbus.EventBusManager;
 import io.bifroest.commons.statistics.eventbus.EventBusRegistrationPoint;
@@ -20,6 +25,16 @@ import io.bifroest.commons.util.stopwatch.AsyncClock;
 import io.bifroest.commons.util.stopwatch.Stopwatch;
 import io.bifroest.retentions.RetentionTable;
 
+/**
+ * Counts the aggregated values per level and table, and the rates of points,
+ * names and tables over sliding windows with their peaks of the current run.
+ *
+ * Counts come from the progress events of the tasks, the per-name events of
+ * levels with trace-names are only logged. The events are handled by several
+ * threads of the event bus at once, so every counter is a LongAdder. Rates are
+ * counted when a progress event arrives, with the default progress-interval of
+ * one second their peaks are accurate to about a second.
+ */
 @MetaInfServices
 public class AggregationStatusReporter implements StatisticGatherer {
     private static final Logger log = LogManager.getLogger();
@@ -27,15 +42,33 @@ public class AggregationStatusReporter implements StatisticGatherer {
     private static final SiFormatter siFormatter = new SiFormatter();
     private static final DurationFormatter durationFormatter = new DurationFormatter();
 
+    private static final Duration SECOND = Duration.ofSeconds( 1 );
+    private static final Duration MINUTE = Duration.ofMinutes( 1 );
+
     private AsyncClock clock = new AsyncClock();
     private Stopwatch total = new Stopwatch( clock );
     private Stopwatch thisAggregation = new Stopwatch( clock );
-    private long totalValues;
-    private final Map<String, Long> values = new HashMap<>();
-    private final Map<RetentionTable, Long> tables = new HashMap<>();
-    private long aggregationsSubmitted;
-    private long aggregationsTerminated;
-    private long aggregationsRemaining;
+    private final LongAdder totalValues = new LongAdder();
+    private final ConcurrentMap<String, LevelCounters> levels = new ConcurrentHashMap<>();
+    private final ConcurrentMap<RetentionTable, LongAdder> tables = new ConcurrentHashMap<>();
+    private final LongAdder aggregationsSubmitted = new LongAdder();
+    private final LongAdder aggregationsTerminated = new LongAdder();
+    private final LongAdder aggregationsRemaining = new LongAdder();
+    private final Map<TaskOutcome, LongAdder> outcomes = new EnumMap<>( TaskOutcome.class );
+    private volatile long backlogTables;
+    private volatile long backlogSeconds;
+    private volatile long backlogTablesAtRisk;
+    private final ConcurrentMap<String, AggregationPlanEvent> plans = new ConcurrentHashMap<>();
+
+    private final SlidingWindowRate pointRate = new SlidingWindowRate( SECOND, 60 );
+    private final SlidingWindowRate nameRate = new SlidingWindowRate( SECOND, 60 );
+    private final SlidingWindowRate tableRate = new SlidingWindowRate( MINUTE, 15 );
+
+    public AggregationStatusReporter() {
+        for ( TaskOutcome outcome : TaskOutcome.values() ) {
+            outcomes.put( outcome, new LongAdder() );
+        }
+    }
 
     @Override
     public void init() {
@@ -48,61 +81,139 @@ public class AggregationStatusReporter implements StatisticGatherer {
             thisAggregation.start();
 
             log.info( "Aggregation started" );
-            aggregationsRemaining = 0;
+            aggregationsRemaining.reset();
             tables.clear();
+            pointRate.resetPeak();
+            nameRate.resetPeak();
+            tableRate.resetPeak();
         } );
 
         registrationPoint.subscribe( AggregationFinishedEvent.class, event -> {
-            log.info( "Unfinished Aggregations: " + aggregationsRemaining );
+            log.info( "Unfinished Aggregations: " + aggregationsRemaining.sum() );
 
             clock.setInstant( event.when() );
             total.stop();
             thisAggregation.stop();
             Duration duration = thisAggregation.duration();
             if ( event.success() ) {
-                log.info( "Aggregation finished - took " + durationFormatter.format( duration ) );
+                log.info( "Aggregation finished - took " + durationFormatter.format( duration ) + ", peaks " + siFormatter.format( (long)pointRate.peak( SECOND ) )
+                        + " points/s, " + siFormatter.format( (long)nameRate.peak( SECOND ) ) + " names/s, " + siFormatter.format( (long)tableRate.peak( MINUTE ) )
+                        + " tables/min" );
             } else {
                 log.info( "Aggregation failed" );
             }
         } );
 
-        registrationPoint.subscribe( AggregationEvent.class, event -> {
-            if ( tables.containsKey( event.table() ) ) {
-                tables.put( event.table(), tables.get( event.table() ) + event.numValues() );
-                log.trace( "Writing to table " + event.table().tableName() );
-            } else {
-                tables.put( event.table(), (long)event.numValues() );
-                // log info only once per table
-                log.info( "Writing to table " + event.table().tableName() );
+        registrationPoint.subscribe( AggregationProgressEvent.class, event -> {
+            RetentionTable table = event.target();
+            LongAdder tableValues = tables.get( table );
+            if ( tableValues == null ) {
+                LongAdder added = new LongAdder();
+                tableValues = tables.putIfAbsent( table, added );
+                if ( tableValues == null ) {
+                    tableValues = added;
+                    // log info only once per table
+                    log.info( "Writing to table " + table.tableName() );
+                }
+            }
+            tableValues.add( event.points() );
+
+            String levelName = table.level().name();
+            LevelCounters level = levels.get( levelName );
+            if ( level == null ) {
+                level = levels.computeIfAbsent( levelName, name -> new LevelCounters() );
+            }
+            level.values.add( event.points() );
+            level.names.add( event.names() );
+            totalValues.add( event.points() );
+            pointRate.add( event.points() );
+            nameRate.add( event.names() );
+            if ( log.isDebugEnabled() ) {
+                log.debug( "Aggregated {} names, {} values, {} bytes from {}{}, read {}ms, aggregate {}ms, write {}ms", event.names(), event.points(),
+                        event.bytes(), event.source(), event.last() ? " (done)" : "", event.nanos( AggregationPhase.READ ) / 1000000,
+                        event.nanos( AggregationPhase.AGGREGATE ) / 1000000, event.nanos( AggregationPhase.WRITE ) / 1000000 );
             }
-            String levelName = event.table().level().name();
-            long value = values.containsKey( levelName ) ? values.get( levelName ) : 0;
-            values.put( levelName, value + event.numValues() );
-            totalValues += event.numValues();
-            log.trace( "Aggregated " + siFormatter.format( event.numValues() ) + " values on level" + levelName + " for metric " + event.metricName() );
+        } );
+
+        registrationPoint.subscribe( AggregationEvent.class, event -> {
+            log.trace( "Aggregated {} values on level {} for metric {}", event.numValues(), event.table().level().name(), event.metricName() );
+        } );
+
+        registrationPoint.subscribe( AggregationBacklogEvent.class, e -> {
+            backlogTables = e.tables();
+            backlogSeconds = e.estimatedSeconds();
+            backlogTablesAtRisk = e.tablesAtRisk();
+            log.info( "Backlog: " + e.tables() + " tables, estimated " + durationFormatter.format( Duration.ofSeconds( e.estimatedSeconds() ) ) );
+        } );
+
+        registrationPoint.subscribe( AggregationPlanEvent.class, e -> {
+            plans.put( e.level(), e );
+            log.info( "Plan for " + e.level() + " over the next " + e.runs() + " runs: " + e.tables() + " tables, " + siFormatter.format( e.rows() )
+                    + " rows, " + siFormatter.format( e.writeRequests() ) + " write requests, " + durationFormatter.format( Duration.ofSeconds( e.seconds() ) )
+                    + ", at most " + durationFormatter.format( Duration.ofSeconds( e.maxRunSeconds() ) ) + " per run" );
         } );
 
         registrationPoint.subscribe( SingleAggregationSubmitted.class, e -> {
-            aggregationsSubmitted++;
-            aggregationsRemaining++;
+            aggregationsSubmitted.increment();
+            aggregationsRemaining.increment();
         } );
 
         registrationPoint.subscribe( SingleAggregationTerminated.class, e -> {
-            aggregationsTerminated++;
-            aggregationsRemaining--;
+            aggregationsTerminated.increment();
+            aggregationsRemaining.decrement();
+            outcomes.get( e.outcome() ).increment();
+            // tables that stopped half way would inflate the rate
+            if ( e.outcome() == TaskOutcome.DONE ) {
+                tableRate.add( 1 );
+            }
         } );
 
         registrationPoint.subscribe( WriteToStorageEvent.class, e -> {
             MetricStorage storage = e.storageToWriteTo();
 
             storage.store( "duration", total.duration().toNanos() );
-            storage.store( "totalAggregations", totalValues );
+            storage.store( "totalAggregations", totalValues.sum() );
             MetricStorage sub = storage.getSubStorageCalled( "aggregations" );
-            for ( Entry<String, Long> entry : values.entrySet() ) {
-                sub.store( entry.getKey(), entry.getValue() );
+            MetricStorage names = storage.getSubStorageCalled( "names" );
+            for ( Entry<String, LevelCounters> entry : levels.entrySet() ) {
+                sub.store( entry.getKey(), entry.getValue().values.sum() );
+                names.store( entry.getKey(), entry.getValue().names.sum() );
+            }
+            storage.store( "aggregationsSubmitted", aggregationsSubmitted.sum() );
+            storage.store( "aggregationsTerminated", aggregationsTerminated.sum() );
+            MetricStorage terminated = storage.getSubStorageCalled( "terminated" );
+            for ( Entry<TaskOutcome, LongAdder> outcome : outcomes.entrySet() ) {
+                terminated.store( outcome.getKey().name().toLowerCase( Locale.ROOT ), outcome.getValue().sum() );
+            }
+            MetricStorage backlog = storage.getSubStorageCalled( "backlog" );
+            backlog.store( "tables", backlogTables );
+            backlog.store( "estimatedSeconds", backlogSeconds );
+            backlog.store( "tablesAtRisk", backlogTablesAtRisk );
+            MetricStorage rates = storage.getSubStorageCalled( "rates" );
+            rates.store( "pointsPerSecond", pointRate.rate( SECOND ) );
+            rates.store( "namesPerSecond", nameRate.rate( SECOND ) );
+            rates.store( "tablesPerMinute", tableRate.rate( MINUTE ) );
+            MetricStorage peaks = storage.getSubStorageCalled( "peaks" );
+            peaks.store( "pointsPerSecond", pointRate.peak( SECOND ) );
+            peaks.store( "namesPerSecond", nameRate.peak( SECOND ) );
+            peaks.store( "tablesPerMinute", tableRate.peak( MINUTE ) );
+            MetricStorage plan = storage.getSubStorageCalled( "plan" );
+            for ( AggregationPlanEvent levelPlan : plans.values() ) {
+                MetricStorage level = plan.getSubStorageCalled( levelPlan.level() );
+                level.store( "tables", levelPlan.tables() );
+                level.store( "names", levelPlan.names() );
+                level.store( "rows", levelPlan.rows() );
+                level.store( "bytes", levelPlan.bytes() );
+                level.store( "readRequests", levelPlan.readRequests() );
+                level.store( "writeRequests", levelPlan.writeRequests() );
+                level.store( "seconds", levelPlan.seconds() );
+                level.store( "maxRunSeconds", levelPlan.maxRunSeconds() );
             }
-            storage.store( "aggregationsSubmitted", aggregationsSubmitted );
-            storage.store( "aggregationsTerminated", aggregationsTerminated );
         } );
     }
+
+    private static final class LevelCounters {
+        private final LongAdder values = new LongAdder();
+        private final LongAdder names = new LongAdder();
+    }
 }
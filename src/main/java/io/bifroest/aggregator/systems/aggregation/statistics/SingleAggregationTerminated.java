@@ -4,8 +4,18 @@ import java.time.Clock;
 
 import io.bifroest.commons.statistics.process.ProcessFinishedEvent;
 
+/**
+ * A submitted table is done, only tables that are DONE count as a success.
+ */
 public class SingleAggregationTerminated extends ProcessFinishedEvent {
-    public SingleAggregationTerminated( Clock clock, boolean success ) {
-        super( clock, success );
+    private final TaskOutcome outcome;
+
+    public SingleAggregationTerminated( Clock clock, TaskOutcome outcome ) {
+        super( clock, outcome == TaskOutcome.DONE );
+        this.outcome = outcome;
+    }
+
+    public TaskOutcome outcome() {
+        return outcome;
     }
 }
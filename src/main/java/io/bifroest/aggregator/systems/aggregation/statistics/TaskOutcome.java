@@ -0,0 +1,28 @@
+package io.bifroest.aggregator.systems.aggregation.statistics;
+
+/**
+ * How the task of a table ended.
+ */
+public enum TaskOutcome {
+    /**
+     * The table was aggregated, or only had to be dropped.
+     */
+    DONE,
+    /**
+     * The task stopped at a checkpoint on shutdown, or after losing its lease. The next run resumes it.
+     */
+    STOPPED,
+    /**
+     * This node did its units of a distributed table, other nodes still have units to do.
+     * Or another node holds the table, or a table writing into it.
+     */
+    LEFT_TO_OTHERS,
+    /**
+     * The table was not touched: it did not exist any more, or could not be aggregated early yet.
+     */
+    SKIPPED,
+    /**
+     * The table is kept for the next run, since its aggregates could not be written.
+     */
+    FAILED
+}
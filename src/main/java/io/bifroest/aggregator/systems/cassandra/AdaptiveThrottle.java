@@ -0,0 +1,164 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.ReadTimeoutException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.bifroest.aggregator.systems.cassandra.statistics.ThrottleRateEvent;
+import io.bifroest.commons.statistics.eventbus.EventBusManager;
+
+/**
+ * Paces the requests of all aggregation tasks to a common rate, which is
+ * adjusted once per window: if the 99th percentile of the latencies or the
+ * ratio of timeouts in the window was too high, the rate is cut
+ * multiplicatively, otherwise it grows additively.
+ *
+ * acquire() blocks the calling thread until its request may be sent.
+ */
+class AdaptiveThrottle {
+    private static final Logger log = LogManager.getLogger();
+
+    private static final int MAX_SAMPLES_PER_WINDOW = 1024;
+
+    private final ThrottleSettings settings;
+    private final long windowNanos;
+
+    private double rate;
+    private long nextFreeNanos;
+
+    private final long[] latencies = new long[MAX_SAMPLES_PER_WINDOW];
+    private int samples;
+    private long requests;
+    private long timeouts;
+    private long windowStartNanos;
+
+    AdaptiveThrottle( ThrottleSettings settings ) {
+        this.settings = settings;
+        this.windowNanos = settings.window().toNanos();
+        this.rate = settings.initialRate();
+        this.nextFreeNanos = System.nanoTime();
+        this.windowStartNanos = nextFreeNanos;
+    }
+
+    static boolean isOverload( Throwable t ) {
+        return t instanceof ReadTimeoutException || t instanceof WriteTimeoutException || t instanceof NoHostAvailableException;
+    }
+
+    /**
+     * Blocks until the next request may be sent at the current rate.
+     */
+    void acquire() {
+        if ( !settings.enabled() ) {
+            return;
+        }
+
+        long waitNanos;
+        synchronized ( this ) {
+            long now = System.nanoTime();
+            // unused capacity is not saved up, so an idle period is not followed by a burst
+            long slot = Math.max( nextFreeNanos, now );
+            nextFreeNanos = slot + (long)( TimeUnit.SECONDS.toNanos( 1 ) / rate );
+            waitNanos = slot - now;
+        }
+        if ( waitNanos > 0 ) {
+            Uninterruptibles.sleepUninterruptibly( waitNanos, TimeUnit.NANOSECONDS );
+        }
+    }
+
+    void succeeded( long startNanos ) {
+        record( System.nanoTime() - startNanos, false );
+    }
+
+    void failed( long startNanos, Throwable t ) {
+        record( System.nanoTime() - startNanos, isOverload( t ) );
+    }
+
+    /**
+     * Records the outcome of the request once the future completes.
+     */
+    <T> ListenableFuture<T> track( ListenableFuture<T> future, long startNanos ) {
+        if ( !settings.enabled() ) {
+            return future;
+        }
+        Futures.addCallback( future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess( T result ) {
+                succeeded( startNanos );
+            }
+
+            @Override
+            public void onFailure( Throwable t ) {
+                failed( startNanos, t );
+            }
+        } );
+        return future;
+    }
+
+    synchronized double rate() {
+        return rate;
+    }
+
+    private void record( long latencyNanos, boolean timedOut ) {
+        if ( !settings.enabled() ) {
+            return;
+        }
+
+        ThrottleRateEvent event;
+        synchronized ( this ) {
+            requests++;
+            if ( timedOut ) {
+                timeouts++;
+            }
+            // reservoir sampling keeps the percentile estimate cheap under high rates
+            if ( samples < MAX_SAMPLES_PER_WINDOW ) {
+                latencies[samples++] = latencyNanos;
+            } else {
+                long slot = ThreadLocalRandom.current().nextLong( requests );
+                if ( slot < MAX_SAMPLES_PER_WINDOW ) {
+                    latencies[(int)slot] = latencyNanos;
+                }
+            }
+
+            long now = System.nanoTime();
+            if ( now - windowStartNanos < windowNanos ) {
+                return;
+            }
+            event = adjust( now );
+        }
+        EventBusManager.fire( event );
+    }
+
+    private ThrottleRateEvent adjust( long now ) {
+        long[] sorted = Arrays.copyOf( latencies, samples );
+        Arrays.sort( sorted );
+        long p99 = sorted[Math.min( sorted.length - 1, (int)Math.ceil( sorted.length * 0.99 ) - 1 )];
+        double timeoutRatio = (double)timeouts / requests;
+
+        double previous = rate;
+        if ( timeoutRatio > settings.maxTimeoutRatio() || p99 > settings.targetLatency().toNanos() ) {
+            rate = Math.max( settings.minRate(), rate * settings.decreaseFactor() );
+        } else {
+            rate = Math.min( settings.maxRate(), rate + settings.increase() );
+        }
+        if ( rate < previous ) {
+            log.info( "Throttling Cassandra requests to {}/s (p99 latency {}ms, {} timeouts in {} requests)",
+                    String.format( "%.1f", rate ), TimeUnit.NANOSECONDS.toMillis( p99 ), timeouts, requests );
+        }
+
+        samples = 0;
+        requests = 0;
+        timeouts = 0;
+        windowStartNanos = now;
+        return new ThrottleRateEvent( System.currentTimeMillis(), rate, p99, timeoutRatio );
+    }
+}
@@ -2,19 +2,41 @@ package io.bifroest.aggregator.systems.cassandra;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import io.bifroest.commons.model.Metric;
 import io.bifroest.commons.statistics.eventbus.EventBusManager;
 import io.bifroest.aggregator.systems.cassandra.statistics.CreateTableEvent;
 import io.bifroest.aggregator.systems.cassandra.statistics.DropTableEvent;
+import io.bifroest.aggregator.systems.cassandra.statistics.DryRunWriteEvent;
 import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
 import io.bifroest.retentions.RetentionTable;
 
 public class CassandraAccessLayer {
@@ -25,16 +47,38 @@ public class CassandraAccessLayer {
     static final String COL_TIME = "timestamp";
     static final String COL_VALUE = "value";
 
+    static final String LEASE_TABLE = "aggregator_leases";
+    static final String UNIT_TABLE = "aggregator_units";
+
     private final RetentionConfiguration retention;
     private final CassandraClusterWrapper wrappedCluster;
     private CassandraSession cassandraSession;
 
     private final boolean dryRun;
+    private final CassandraSettings settings;
+
+    private final Semaphore inFlightWrites;
+    private final Semaphore outstandingRequests;
+    private final ExecutorService scanExecutor = Executors.newCachedThreadPool();
+    private final SchemaCatalog catalog;
+    private final AtomicBoolean catalogListening = new AtomicBoolean();
+    private final WriteRetryQueue retries;
+    private final AdaptiveThrottle throttle;
 
     public CassandraAccessLayer( CassandraClusterWrapper wrappedCluster, RetentionConfiguration retention, boolean dryRun)  {
+        this( wrappedCluster, retention, dryRun, CassandraSettings.defaults() );
+    }
+
+    public CassandraAccessLayer( CassandraClusterWrapper wrappedCluster, RetentionConfiguration retention, boolean dryRun, CassandraSettings settings )  {
         this.retention = retention;
         this.dryRun = dryRun;
         this.wrappedCluster = wrappedCluster;
+        this.settings = settings;
+        this.inFlightWrites = new Semaphore( settings.maxInFlightWrites() );
+        this.outstandingRequests = new Semaphore( settings.maxOutstandingRequests() );
+        this.catalog = new SchemaCatalog( retention );
+        this.retries = new WriteRetryQueue( settings );
+        this.throttle = new AdaptiveThrottle( settings.throttle() );
 
         if ( dryRun ) {
             log.warn( "Running with dryRun, NOT ACTUALLY DOING ANYTHING!!!" );
@@ -42,10 +86,16 @@ public class CassandraAccessLayer {
     }
 
     public void open() {
-        cassandraSession = wrappedCluster.open();
+        cassandraSession = new InstrumentedCassandraSession( wrappedCluster.open() );
+        // the wrapper keeps its listeners when it reconnects
+        if ( catalogListening.compareAndSet( false, true ) ) {
+            wrappedCluster.addSchemaListener( catalog );
+        }
     }
 
     public void close() {
+        scanExecutor.shutdownNow();
+        retries.shutdown();
         if (cassandraSession != null ) {
             cassandraSession.close();
             cassandraSession = null;
@@ -55,27 +105,53 @@ public class CassandraAccessLayer {
         }
     }
 
+    /**
+     * Reloads the schema catalog from the cluster and returns all retention tables.
+     */
     public Collection<RetentionTable> loadTables() {
-        List<RetentionTable> ret = new ArrayList<>();
+        catalog.reload( wrappedCluster.getTableNames() );
+        return catalog.tables();
+    }
 
-        Collection<String> tableNames = wrappedCluster.getTableNames();
+    /**
+     * @return the known tables of the level ordered by block, without asking the cluster
+     */
+    public Collection<RetentionTable> loadTables( RetentionLevel level ) {
+        ensureCatalogLoaded();
+        return catalog.tables( level );
+    }
 
-        for ( String tableName : tableNames ) {
-            if ( RetentionTable.canCreateTable( tableName, retention ) ) {
-                ret.add( new RetentionTable( tableName, retention ) );
-            } else {
-                log.warn( "Table " + tableName + " doesn't match format." );
-            }
+    /**
+     * Asks the cluster whether the table exists, and updates the catalog for this table alone.
+     */
+    public boolean refreshTable( RetentionTable table ) {
+        boolean exists = wrappedCluster.getTableNames().stream().anyMatch( name -> name.equalsIgnoreCase( table.tableName() ) );
+        ensureCatalogLoaded();
+        if ( exists ) {
+            catalog.tableCreated( table );
+        } else {
+            catalog.tableDropped( table );
         }
+        return exists;
+    }
+
+    public boolean tableExists( RetentionTable table ) {
+        ensureCatalogLoaded();
+        return catalog.contains( table );
+    }
 
-        return ret;
+    private void ensureCatalogLoaded() {
+        if ( !catalog.isLoaded() ) {
+            catalog.reload( wrappedCluster.getTableNames() );
+        }
     }
 
     public Iterable<String> loadMetricNames( RetentionTable table ) {
         if (cassandraSession == null ) {
             open();
         }
-        final Iterator<Row> iter = cassandraSession.loadNamesFromTable(table);
+        final Iterator<Row> iter = throttled( () -> cassandraSession.loadNamesFromTable(table) );
+        final PagePacer pacer = new PagePacer( throttle, 0 );
         return new Iterable<String>() {
 
             @Override
@@ -89,6 +165,7 @@ public class CassandraAccessLayer {
 
                     @Override
                     public String next() {
+                        pacer.row();
                         Row row = iter.next();
                         return row.getString( COL_NAME );
                     }
@@ -102,41 +179,284 @@ public class CassandraAccessLayer {
         };
     }
 
+    /**
+     * Reads the estimates of every table in the keyspace with a single request, so
+     * a run plans all of its tables from one call.
+     *
+     * @return the number of names per table estimated by Cassandra, see namesOf
+     */
+    public Map<String, Long> estimateNames() {
+        if (cassandraSession == null ) {
+            open();
+        }
+        return throttled( () -> cassandraSession.estimatePartitions() );
+    }
+
+    /**
+     * @return the number of names in the table from the estimates, empty if Cassandra keeps none for it
+     */
+    public static OptionalLong namesOf( Map<String, Long> estimates, RetentionTable table ) {
+        Long names = estimates.get( table.tableName().toLowerCase( Locale.ROOT ) );
+        return names == null ? OptionalLong.empty() : OptionalLong.of( names );
+    }
+
     public Iterable<Metric> loadUnorderedMetrics( RetentionTable table, String name ) {
         if (cassandraSession == null ) {
             open();
         }
-        final Iterator<Row> iter = cassandraSession.loadMetricsFromTable(table, name);
-        return new Iterable<Metric>() {
+        final Iterator<Row> iter = throttled( () -> cassandraSession.loadMetricsFromTable(table, name) );
+        return () -> metricsOf( iter, new PagePacer( throttle, 0 ) );
+    }
 
-            @Override
-            public Iterator<Metric> iterator() {
-                return new Iterator<Metric>() {
+    public Iterable<Metric> loadUnorderedMetrics( RetentionTable table, String name, int fetchSize ) {
+        return prefetchUnorderedMetrics( table, name, fetchSize );
+    }
 
-                    @Override
-                    public boolean hasNext() {
-                        return iter.hasNext();
-                    }
+    /**
+     * Starts loading the metrics right away, iterating the result blocks until
+     * the first page has arrived. The result can only be iterated once.
+     *
+     * @param fetchSize the page size, 0 to use the driver default
+     */
+    public Iterable<Metric> prefetchUnorderedMetrics( RetentionTable table, String name, int fetchSize ) {
+        if (cassandraSession == null ) {
+            open();
+        }
+        outstandingRequests.acquireUninterruptibly();
+        final ListenableFuture<Iterator<Row>> rows;
+        try {
+            throttle.acquire();
+            long start = System.nanoTime();
+            rows = throttle.track( cassandraSession.loadMetricsFromTableAsync( table, name, fetchSize ), start );
+        } catch( RuntimeException e ) {
+            outstandingRequests.release();
+            throw e;
+        }
+        rows.addListener( outstandingRequests::release, MoreExecutors.sameThreadExecutor() );
+        return () -> metricsOf( await( rows ), new PagePacer( throttle, fetchSize ) );
+    }
 
-                    @Override
-                    public Metric next() {
-                        Row row = iter.next();
-                        return new Metric( row.getString( COL_NAME ), row.getLong( COL_TIME ), row.getDouble( COL_VALUE ) );
-                    }
+    /**
+     * Sends a synchronous request at the rate permitted by the throttle and reports its latency.
+     * Further pages of paged reads are charged by a PagePacer.
+     */
+    private <T> T throttled( Supplier<T> request ) {
+        outstandingRequests.acquireUninterruptibly();
+        try {
+            throttle.acquire();
+            long start = System.nanoTime();
+            try {
+                T result = request.get();
+                throttle.succeeded( start );
+                return result;
+            } catch( RuntimeException e ) {
+                throttle.failed( start, e );
+                throw e;
+            }
+        } finally {
+            outstandingRequests.release();
+        }
+    }
 
-                    @Override
-                    public void remove() {
-                        throw new UnsupportedOperationException();
+    /**
+     * Passes the points of one metric to the handler without creating an object per point.
+     *
+     * Only the wait for the first page is reported as the latency of the request, like
+     * the iterator of loadUnorderedMetrics. The further pages are charged by a PagePacer,
+     * and neither its waits nor the handler are part of the latency.
+     *
+     * @param fetchSize the page size, 0 to use the driver default
+     */
+    public void loadPoints( RetentionTable table, String name, int fetchSize, PointHandler handler ) {
+        if (cassandraSession == null ) {
+            open();
+        }
+        PagePacer pacer = new PagePacer( throttle, fetchSize );
+        outstandingRequests.acquireUninterruptibly();
+        try {
+            throttle.acquire();
+            long start = System.nanoTime();
+            boolean[] arrived = { false };
+            // when the handler was done with the last row, the wait for a later page starts there
+            long[] waitingSince = { start };
+            try {
+                cassandraSession.loadPoints( table, name, fetchSize, ( timestamp, value ) -> {
+                    if ( !arrived[0] ) {
+                        arrived[0] = true;
+                        throttle.succeeded( start );
                     }
-                };
+                    pacer.row();
+                    handler.handle( timestamp, value );
+                    waitingSince[0] = System.nanoTime();
+                } );
+                if ( !arrived[0] ) {
+                    throttle.succeeded( start );
+                }
+            } catch( RuntimeException e ) {
+                if ( !arrived[0] ) {
+                    throttle.failed( start, e );
+                } else if ( AdaptiveThrottle.isOverload( e ) ) {
+                    // a later page timed out, only the wait for that page is reported
+                    throttle.failed( waitingSince[0], e );
+                }
+                throw e;
+            }
+        } finally {
+            outstandingRequests.release();
+        }
+    }
+
+    private static <T> T await( ListenableFuture<T> future ) {
+        try {
+            return Uninterruptibles.getUninterruptibly( future );
+        } catch( ExecutionException e ) {
+            if ( e.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IllegalStateException( e.getCause() );
+        }
+    }
+
+    private static Iterator<Metric> metricsOf( Iterator<Row> iter, PagePacer pacer ) {
+        return new Iterator<Metric>() {
+
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            @Override
+            public Metric next() {
+                pacer.row();
+                Row row = iter.next();
+                return new Metric( row.getString( COL_NAME ), row.getLong( COL_TIME ), row.getDouble( COL_VALUE ) );
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
             }
         };
     }
 
+    /**
+     * Reads the whole table by paging through the given token ranges, at most
+     * parallelism ranges at a time. The rows of every partition are passed to
+     * the consumer as one list, which is only valid during the call.
+     *
+     * The consumer is called concurrently from several threads. A range takes one
+     * of the max-outstanding-requests while it is read, but gives it up while the
+     * consumer runs, so the consumer can write with it.
+     */
+    public void scanTable( RetentionTable table, List<TokenRange> ranges, int parallelism, int fetchSize, BiConsumer<String, List<Metric>> consumer )
+            throws InterruptedException {
+        if (cassandraSession == null ) {
+            open();
+        }
+
+        AtomicInteger nextRange = new AtomicInteger();
+        List<Future<?>> scanners = new ArrayList<>();
+        for ( int i = 0; i < Math.min( parallelism, ranges.size() ); i++ ) {
+            scanners.add( scanExecutor.submit( () -> {
+                for ( int r = nextRange.getAndIncrement(); r < ranges.size(); r = nextRange.getAndIncrement() ) {
+                    // a range spans many pages, so it takes a slot per page without reporting a latency
+                    outstandingRequests.acquireUninterruptibly();
+                    try {
+                        throttle.acquire();
+                        PartitionCollector collector = new PartitionCollector( consumer, new PagePacer( throttle, fetchSize ), outstandingRequests );
+                        cassandraSession.scanTokenRange( table, ranges.get( r ), fetchSize, collector );
+                        collector.flush();
+                    } finally {
+                        outstandingRequests.release();
+                    }
+                }
+                return null;
+            } ) );
+        }
+
+        try {
+            for ( Future<?> scanner : scanners ) {
+                scanner.get();
+            }
+        } catch( ExecutionException e ) {
+            scanners.forEach( scanner -> scanner.cancel( true ) );
+            if ( e.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IllegalStateException( "Scanning " + table + " failed", e.getCause() );
+        } catch( InterruptedException e ) {
+            scanners.forEach( scanner -> scanner.cancel( true ) );
+            throw e;
+        }
+    }
+
+    private static final class PartitionCollector implements MetricRowHandler {
+        private final BiConsumer<String, List<Metric>> consumer;
+        private final PagePacer pacer;
+        private final Semaphore outstandingRequests;
+        private final List<Metric> partition = new ArrayList<>();
+        private String currentName;
+
+        /**
+         * @param outstandingRequests held by the scan, released while the consumer runs
+         */
+        PartitionCollector( BiConsumer<String, List<Metric>> consumer, PagePacer pacer, Semaphore outstandingRequests ) {
+            this.consumer = consumer;
+            this.pacer = pacer;
+            this.outstandingRequests = outstandingRequests;
+        }
+
+        @Override
+        public void handle( String name, long timestamp, double value ) {
+            pacer.row();
+            if ( !name.equals( currentName ) ) {
+                flush();
+                currentName = name;
+            }
+            partition.add( new Metric( currentName, timestamp, value ) );
+        }
+
+        void flush() {
+            if ( !partition.isEmpty() ) {
+                // the consumer writes, which would wait forever for a slot held by this scan
+                outstandingRequests.release();
+                try {
+                    consumer.accept( currentName, partition );
+                } finally {
+                    outstandingRequests.acquireUninterruptibly();
+                }
+                partition.clear();
+            }
+        }
+    }
+
 
+    /**
+     * @return a window for the writes of one task, holding at most max-in-flight-writes-per-task of them
+     */
+    public WriteWindow newWriteWindow() {
+        return new WriteWindow( settings.maxInFlightWritesPerTask() );
+    }
+
+    /**
+     * Writes the metrics in a window of their own.
+     */
     public void insertMetrics( RetentionTable table, Collection<Metric> metrics ) {
+        insertMetrics( table, metrics, newWriteWindow() );
+    }
+
+    /**
+     * @param window the window of the task writing the metrics
+     */
+    public void insertMetrics( RetentionTable table, Collection<Metric> metrics, WriteWindow window ) {
+        if ( metrics.isEmpty() ) {
+            return;
+        }
+
         if ( dryRun ) {
-            log.debug( "Inserting " + metrics.toString() + " into " + table );
+            int requests = settings.batchSize() > 1 ? partitionIntoBatches( metrics ).size() : metrics.size();
+            log.debug( "Inserting " + metrics.toString() + " into " + table + " using " + requests + " requests" );
+            EventBusManager.fire( new DryRunWriteEvent( System.currentTimeMillis(), table, metrics.size(), requests ) );
             return;
         }
 
@@ -144,20 +464,293 @@ public class CassandraAccessLayer {
             open();
         }
 
+        if ( settings.batchSize() > 1 ) {
+            for ( List<Metric> batch : partitionIntoBatches( metrics ) ) {
+                insert( table, window,
+                        () -> cassandraSession.insertBatch( table, batch ),
+                        () -> cassandraSession.insertBatchAsync( table, batch ) );
+            }
+        } else {
+            for ( Metric metric : metrics ) {
+                insert( table, window,
+                        () -> cassandraSession.insertMetric( table, metric ),
+                        () -> cassandraSession.insertMetricAsync( table, metric ) );
+            }
+        }
+    }
+
+    /**
+     * @return how many requests writing the points of one metric takes with the configured batch-size
+     */
+    public int writeRequests( int points ) {
+        return settings.batchSize() > 1 ? ( points + settings.batchSize() - 1 ) / settings.batchSize() : points;
+    }
+
+    /**
+     * @return the requests per second the throttle currently permits, empty without a throttle
+     */
+    public OptionalDouble requestRate() {
+        return settings.throttle().enabled() ? OptionalDouble.of( throttle.rate() ) : OptionalDouble.empty();
+    }
+
+    /**
+     * Writes the points in a window of their own.
+     */
+    public void insertPoints( RetentionTable table, String name, long[] timestamps, double[] values, int count ) {
+        insertPoints( table, name, timestamps, values, count, newWriteWindow() );
+    }
+
+    /**
+     * Writes the first count points of the arrays as points of the named
+     * metric. The arrays may be reused once this method returns.
+     *
+     * This is not free of allocations: every request creates its bound or
+     * batch statement and the write callbacks, and batches copy their slice
+     * of the arrays, since retries may send them after the arrays were reused.
+     * Per point this is a BoundStatement, or a share of the batch.
+     *
+     * @param window the window of the task writing the points
+     */
+    public void insertPoints( RetentionTable table, String name, long[] timestamps, double[] values, int count, WriteWindow window ) {
+        if ( count == 0 ) {
+            return;
+        }
+
+        if ( dryRun ) {
+            int requests = writeRequests( count );
+            log.debug( "Inserting " + count + " points of " + name + " into " + table + " using " + requests + " requests" );
+            EventBusManager.fire( new DryRunWriteEvent( System.currentTimeMillis(), table, count, requests ) );
+            return;
+        }
+
+        if (cassandraSession == null ) {
+            open();
+        }
+
+        if ( settings.batchSize() > 1 ) {
+            for ( int from = 0; from < count; from += settings.batchSize() ) {
+                // copied, retries may run after the arrays have been reused
+                long[] batchTimestamps = Arrays.copyOfRange( timestamps, from, Math.min( from + settings.batchSize(), count ) );
+                double[] batchValues = Arrays.copyOfRange( values, from, Math.min( from + settings.batchSize(), count ) );
+                insert( table, window,
+                        () -> cassandraSession.insertPoints( table, name, batchTimestamps, batchValues ),
+                        () -> cassandraSession.insertPointsAsync( table, name, batchTimestamps, batchValues ) );
+            }
+        } else {
+            for ( int i = 0; i < count; i++ ) {
+                long timestamp = timestamps[i];
+                double value = values[i];
+                insert( table, window,
+                        () -> cassandraSession.insertPoint( table, name, timestamp, value ),
+                        () -> cassandraSession.insertPointAsync( table, name, timestamp, value ) );
+            }
+        }
+    }
+
+    /**
+     * Sends one write request. Timed out writes are handed to the retry queue,
+     * which always retries asynchronously.
+     */
+    private void insert( RetentionTable table, WriteWindow window, Runnable syncWrite, Supplier<ListenableFuture<?>> asyncWrite ) {
+        // retries are measured as well, but do not wait for the throttle on the retry thread
+        Supplier<ListenableFuture<?>> trackedWrite = () -> {
+            long start = System.nanoTime();
+            return throttle.track( asyncWrite.get(), start );
+        };
+        if ( settings.asyncWrites() ) {
+            insertAsync( table, window, trackedWrite );
+            return;
+        }
+
+        try {
+            throttled( () -> {
+                syncWrite.run();
+                return null;
+            } );
+        } catch( RuntimeException e ) {
+            if ( !WriteRetryQueue.isRetryable( e ) ) {
+                throw e;
+            }
+            log.info( "Write into {} timed out, retrying: {}", table, e.getMessage() );
+            // the retry is asynchronous, so it has to fit into the windows like any other asynchronous write
+            writeStarted( window );
+            retries.retry( table, trackedWrite, 1, success -> writeFinished( window, success ) );
+        }
+    }
+
+    /**
+     * Groups the metrics by name, i.e. by partition, and splits every group
+     * into batches of at most batch-size points.
+     */
+    private List<List<Metric>> partitionIntoBatches( Collection<Metric> metrics ) {
+        Map<String, List<Metric>> byName = new LinkedHashMap<>();
         for ( Metric metric : metrics ) {
-            cassandraSession.insertMetric(table, metric);
+            byName.computeIfAbsent( metric.name(), name -> new ArrayList<>() ).add( metric );
+        }
+
+        List<List<Metric>> batches = new ArrayList<>();
+        for ( List<Metric> partition : byName.values() ) {
+            for ( int from = 0; from < partition.size(); from += settings.batchSize() ) {
+                batches.add( partition.subList( from, Math.min( from + settings.batchSize(), partition.size() ) ) );
+            }
+        }
+        return batches;
+    }
+
+    private void insertAsync( RetentionTable table, WriteWindow window, Supplier<ListenableFuture<?>> write ) {
+        writeStarted( window );
+        throttle.acquire();
+
+        ListenableFuture<?> future;
+        try {
+            future = write.get();
+        } catch( RuntimeException e ) {
+            writeFinished( window, false );
+            throw e;
+        }
+
+        Futures.addCallback( future, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess( Object result ) {
+                writeFinished( window, true );
+            }
+
+            @Override
+            public void onFailure( Throwable t ) {
+                if ( WriteRetryQueue.isRetryable( t ) ) {
+                    // the write keeps its place in the windows until the retries are done,
+                    // so a timeout storm cannot pile up more writes than the windows hold
+                    retries.retry( table, write, 1, success -> writeFinished( window, success ) );
+                } else {
+                    log.warn( "Asynchronous write into " + table + " failed", t );
+                    writeFinished( window, false );
+                }
+            }
+        } );
+    }
+
+    private void writeStarted( WriteWindow window ) {
+        window.acquire();
+        inFlightWrites.acquireUninterruptibly();
+        outstandingRequests.acquireUninterruptibly();
+    }
+
+    private void writeFinished( WriteWindow window, boolean success ) {
+        inFlightWrites.release();
+        outstandingRequests.release();
+        window.release( success );
+    }
+
+    /**
+     * Blocks until every write sent with the given window has been acknowledged,
+     * including the retries of timed out writes. Writes of other windows, even
+     * into the same table, are not waited for.
+     *
+     * @return true if all writes of the window succeeded
+     */
+    public boolean awaitWrites( WriteWindow window ) throws InterruptedException {
+        return window.await();
+    }
+
+    /**
+     * Creates the lease and unit tables, so several aggregator nodes can share the keyspace.
+     */
+    public void createCoordinationTables() {
+        if (cassandraSession == null ) {
+            open();
+        }
+        if ( dryRun ) {
+            log.debug( "Creating coordination tables" );
+            return;
         }
+        cassandraSession.createCoordinationTables();
+    }
+
+    /**
+     * Like all statements of the coordination, the lease statements go straight to the
+     * session, past the throttle and the max-outstanding-requests. A renewal stuck behind
+     * the data traffic would lose the lease to another node, and their round trips are
+     * not latencies of the data.
+     *
+     * @return whether the owner holds the lease now, a dry run always gets it
+     */
+    public boolean tryAcquireLease( String resource, String owner, Duration duration ) {
+        if (cassandraSession == null ) {
+            open();
+        }
+        if ( dryRun ) {
+            return true;
+        }
+        int ttl = ttlOf( duration );
+        return cassandraSession.insertLeaseIfAbsent( resource, owner, ttl ) || cassandraSession.updateLeaseIfOwner( resource, owner, ttl );
+    }
+
+    /**
+     * @return whether the owner still held the lease and it was extended
+     */
+    public boolean renewLease( String resource, String owner, Duration duration ) {
+        if (cassandraSession == null ) {
+            open();
+        }
+        if ( dryRun ) {
+            return true;
+        }
+        return cassandraSession.updateLeaseIfOwner( resource, owner, ttlOf( duration ) );
+    }
+
+    public void releaseLease( String resource, String owner ) {
+        if ( dryRun ) {
+            return;
+        }
+        if (cassandraSession == null ) {
+            open();
+        }
+        cassandraSession.deleteLeaseIfOwner( resource, owner );
+    }
+
+    /**
+     * Records that a unit of work of the resource is done, for all nodes to see.
+     */
+    public void markUnitCompleted( String resource, int unit, String owner ) {
+        if ( dryRun ) {
+            return;
+        }
+        if (cassandraSession == null ) {
+            open();
+        }
+        cassandraSession.insertCompletedUnit( resource, unit, owner );
+    }
+
+    public List<Integer> loadCompletedUnits( String resource ) {
+        if ( dryRun ) {
+            return new ArrayList<>();
+        }
+        if (cassandraSession == null ) {
+            open();
+        }
+        return cassandraSession.selectCompletedUnits( resource );
+    }
+
+    public void forgetCompletedUnits( String resource ) {
+        if ( dryRun ) {
+            return;
+        }
+        if (cassandraSession == null ) {
+            open();
+        }
+        cassandraSession.deleteCompletedUnits( resource );
+    }
+
+    private static int ttlOf( Duration duration ) {
+        return (int)Math.max( 1, Math.min( Integer.MAX_VALUE, duration.getSeconds() ) );
     }
 
     public void createTableIfNecessary( RetentionTable table ) {
         if (cassandraSession == null ) {
             open();
         }
-        Collection<String> tableNames = wrappedCluster.getTableNames();
-        for ( String tableName : tableNames ) {
-            if ( tableName.equalsIgnoreCase( table.tableName() ) ) {
-                return;
-            }
+        if ( tableExists( table ) ) {
+            return;
         }
 
         if ( dryRun ) {
@@ -166,6 +759,7 @@ public class CassandraAccessLayer {
         }
 
         cassandraSession.createTable(table);
+        catalog.tableCreated( table );
         EventBusManager.fire( new CreateTableEvent( System.currentTimeMillis(), table ) );
     }
 
@@ -179,6 +773,7 @@ public class CassandraAccessLayer {
             open();
         }
         cassandraSession.dropTableInDatabase(table);
+        catalog.tableDropped( table );
         EventBusManager.fire( new DropTableEvent( System.currentTimeMillis(), table ) );
     }
 }
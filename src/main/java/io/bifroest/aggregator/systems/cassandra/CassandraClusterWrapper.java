@@ -13,5 +13,6 @@ import com.datastax.driver.core.TableMetadata;
 public interface CassandraClusterWrapper {
     CassandraSession open();
     Collection<String> getTableNames();
+    void addSchemaListener(SchemaListener listener);
     void close();
 }
@@ -1,8 +1,11 @@
 package io.bifroest.aggregator.systems.cassandra;
 
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.bifroest.commons.model.Metric;
 import io.bifroest.retentions.RetentionTable;
 
@@ -15,7 +18,79 @@ public interface CassandraSession {
 
     Iterator<Row> loadMetricsFromTable(RetentionTable table, String name);
 
+    /**
+     * @param fetchSize the page size, 0 to use the driver default
+     */
+    ListenableFuture<Iterator<Row>> loadMetricsFromTableAsync(RetentionTable table, String name, int fetchSize);
+
+    /**
+     * Pages through all rows with a token in the given range. Rows of one
+     * partition are passed to the handler consecutively.
+     *
+     * @param fetchSize the page size, 0 to use the driver default
+     */
+    void scanTokenRange(RetentionTable table, TokenRange range, int fetchSize, MetricRowHandler handler);
+
+    /**
+     * Pages through the points of one metric, reading only the time and value columns.
+     *
+     * @param fetchSize the page size, 0 to use the driver default
+     */
+    void loadPoints(RetentionTable table, String name, int fetchSize, PointHandler handler);
+
+    /**
+     * Extrapolates the partition estimates in system.size_estimates to the whole ring, for every table of the keyspace at once.
+     *
+     * @return the estimated number of partitions, i.e. names, by lower case table name, without the tables Cassandra keeps no estimates for
+     */
+    Map<String, Long> estimatePartitions();
+
+    /**
+     * Creates the tables holding the leases and the completed units of the aggregator nodes, if they do not exist yet.
+     */
+    void createCoordinationTables();
+
+    /**
+     * Takes the lease with a lightweight transaction, if nobody holds it.
+     *
+     * @return whether the lease was free and now belongs to the owner
+     */
+    boolean insertLeaseIfAbsent(String resource, String owner, int ttlSeconds);
+
+    /**
+     * @return whether the owner still held the lease and it was extended
+     */
+    boolean updateLeaseIfOwner(String resource, String owner, int ttlSeconds);
+
+    void deleteLeaseIfOwner(String resource, String owner);
+
+    void insertCompletedUnit(String resource, int unit, String owner);
+
+    List<Integer> selectCompletedUnits(String resource);
+
+    void deleteCompletedUnits(String resource);
+
     void insertMetric(RetentionTable table, Metric metric);
 
+    ListenableFuture<?> insertMetricAsync(RetentionTable table, Metric metric);
+
+    /**
+     * Inserts all metrics in one unlogged batch, so they must belong to the same partition.
+     */
+    void insertBatch(RetentionTable table, List<Metric> metrics);
+
+    ListenableFuture<?> insertBatchAsync(RetentionTable table, List<Metric> metrics);
+
+    void insertPoint(RetentionTable table, String name, long timestamp, double value);
+
+    ListenableFuture<?> insertPointAsync(RetentionTable table, String name, long timestamp, double value);
+
+    /**
+     * Inserts all points of the metric in one unlogged batch.
+     */
+    void insertPoints(RetentionTable table, String name, long[] timestamps, double[] values);
+
+    ListenableFuture<?> insertPointsAsync(RetentionTable table, String name, long[] timestamps, double[] values);
+
     void close();
 }
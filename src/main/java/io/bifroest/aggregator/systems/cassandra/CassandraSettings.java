@@ -0,0 +1,243 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.time.Duration;
+
+import org.json.JSONObject;
+
+import io.bifroest.commons.statistics.units.parse.DurationParser;
+
+/**
+ * Tuning knobs of the CassandraAccessLayer, read from the cassandra config block:
+ *
+ * <pre>
+ * "cassandra" : {
+ *     "async-writes" : true,
+ *     "max-in-flight-writes" : 1024,
+ *     "max-in-flight-writes-per-task" : 128,
+ *     "max-outstanding-requests" : 512,
+ *     "batch-size" : 50,
+ *     "write-retry" : {
+ *         "max-retries" : 5,
+ *         "initial-backoff" : "100ms",
+ *         "max-backoff" : "10s",
+ *         "queue-size-per-table" : 10000
+ *     },
+ *     "throttle" : { ... }
+ * }
+ * </pre>
+ *
+ * max-retries counts the retries after the first attempt, a write is sent at most
+ * max-retries + 1 times.
+ *
+ * See ThrottleSettings for the throttle block, requests are throttled with its defaults without it.
+ */
+public final class CassandraSettings {
+    private static final DurationParser parser = new DurationParser();
+
+    private final boolean asyncWrites;
+    private final int maxInFlightWrites;
+    private final int maxInFlightWritesPerTask;
+    private final int maxOutstandingRequests;
+    private final int batchSize;
+    private final int maxWriteRetries;
+    private final Duration initialRetryBackoff;
+    private final Duration maxRetryBackoff;
+    private final int retryQueueSizePerTable;
+    private final ThrottleSettings throttle;
+
+    private CassandraSettings( Builder builder ) {
+        if ( builder.maxInFlightWrites <= 0 || builder.maxInFlightWritesPerTask <= 0 ) {
+            throw new IllegalArgumentException( "In-flight write limits must be positive" );
+        }
+        if ( builder.maxOutstandingRequests <= 0 ) {
+            throw new IllegalArgumentException( "max-outstanding-requests must be positive" );
+        }
+        if ( builder.batchSize <= 0 ) {
+            throw new IllegalArgumentException( "batch-size must be positive" );
+        }
+        if ( builder.maxWriteRetries < 0 || builder.retryQueueSizePerTable < 0 ) {
+            throw new IllegalArgumentException( "Write retry limits must not be negative" );
+        }
+        this.asyncWrites = builder.asyncWrites;
+        this.maxInFlightWrites = builder.maxInFlightWrites;
+        this.maxInFlightWritesPerTask = builder.maxInFlightWritesPerTask;
+        this.maxOutstandingRequests = builder.maxOutstandingRequests;
+        this.batchSize = builder.batchSize;
+        this.maxWriteRetries = builder.maxWriteRetries;
+        this.initialRetryBackoff = builder.initialRetryBackoff;
+        this.maxRetryBackoff = builder.maxRetryBackoff;
+        this.retryQueueSizePerTable = builder.retryQueueSizePerTable;
+        this.throttle = builder.throttle;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static CassandraSettings defaults() {
+        return builder().build();
+    }
+
+    public static CassandraSettings fromConfig( JSONObject config ) {
+        Builder builder = builder()
+                .asyncWrites( config.optBoolean( "async-writes", false ) )
+                .maxInFlightWrites( config.optInt( "max-in-flight-writes", Builder.DEFAULT_MAX_IN_FLIGHT_WRITES ) )
+                .maxInFlightWritesPerTask( config.optInt( "max-in-flight-writes-per-task", Builder.DEFAULT_MAX_IN_FLIGHT_WRITES_PER_TASK ) )
+                .maxOutstandingRequests( config.optInt( "max-outstanding-requests", Builder.DEFAULT_MAX_OUTSTANDING_REQUESTS ) )
+                .batchSize( config.optInt( "batch-size", Builder.DEFAULT_BATCH_SIZE ) );
+
+        // the old fixed sleep after a write timeout is the natural first backoff
+        if ( config.has( "wait-after-write-timeout" ) ) {
+            builder.initialRetryBackoff( parser.parse( config.getString( "wait-after-write-timeout" ) ) );
+        }
+
+        JSONObject retry = config.optJSONObject( "write-retry" );
+        if ( retry != null ) {
+            builder.maxWriteRetries( retry.optInt( "max-retries", Builder.DEFAULT_MAX_WRITE_RETRIES ) );
+            builder.retryQueueSizePerTable( retry.optInt( "queue-size-per-table", Builder.DEFAULT_RETRY_QUEUE_SIZE_PER_TABLE ) );
+            if ( retry.has( "initial-backoff" ) ) {
+                builder.initialRetryBackoff( parser.parse( retry.getString( "initial-backoff" ) ) );
+            }
+            if ( retry.has( "max-backoff" ) ) {
+                builder.maxRetryBackoff( parser.parse( retry.getString( "max-backoff" ) ) );
+            }
+        }
+
+        JSONObject throttle = config.optJSONObject( "throttle" );
+        if ( throttle != null ) {
+            builder.throttle( ThrottleSettings.fromConfig( throttle ) );
+        }
+
+        return builder.build();
+    }
+
+    public boolean asyncWrites() {
+        return asyncWrites;
+    }
+
+    public int maxInFlightWrites() {
+        return maxInFlightWrites;
+    }
+
+    public int maxInFlightWritesPerTask() {
+        return maxInFlightWritesPerTask;
+    }
+
+    /**
+     * How many reads and writes may wait for Cassandra at the same time, over all tasks.
+     * This bounds the concurrency when every task runs on its own virtual thread.
+     */
+    public int maxOutstandingRequests() {
+        return maxOutstandingRequests;
+    }
+
+    /**
+     * Maximum number of points of one metric sent in a single unlogged batch, 1 disables batching.
+     */
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * How often a timed out write is retried before it counts as failed, not counting its first attempt.
+     */
+    public int maxWriteRetries() {
+        return maxWriteRetries;
+    }
+
+    public Duration initialRetryBackoff() {
+        return initialRetryBackoff;
+    }
+
+    public Duration maxRetryBackoff() {
+        return maxRetryBackoff;
+    }
+
+    /**
+     * How many writes into one table may wait for a retry, further timed out writes fail immediately.
+     */
+    public int retryQueueSizePerTable() {
+        return retryQueueSizePerTable;
+    }
+
+    public ThrottleSettings throttle() {
+        return throttle;
+    }
+
+    public static final class Builder {
+        private static final int DEFAULT_MAX_IN_FLIGHT_WRITES = 1024;
+        private static final int DEFAULT_MAX_IN_FLIGHT_WRITES_PER_TASK = 128;
+        private static final int DEFAULT_MAX_OUTSTANDING_REQUESTS = 512;
+        private static final int DEFAULT_BATCH_SIZE = 1;
+        private static final int DEFAULT_MAX_WRITE_RETRIES = 5;
+        private static final int DEFAULT_RETRY_QUEUE_SIZE_PER_TABLE = 10000;
+
+        private boolean asyncWrites = false;
+        private int maxInFlightWrites = DEFAULT_MAX_IN_FLIGHT_WRITES;
+        private int maxInFlightWritesPerTask = DEFAULT_MAX_IN_FLIGHT_WRITES_PER_TASK;
+        private int maxOutstandingRequests = DEFAULT_MAX_OUTSTANDING_REQUESTS;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private int maxWriteRetries = DEFAULT_MAX_WRITE_RETRIES;
+        private Duration initialRetryBackoff = Duration.ofMillis( 100 );
+        private Duration maxRetryBackoff = Duration.ofSeconds( 10 );
+        private int retryQueueSizePerTable = DEFAULT_RETRY_QUEUE_SIZE_PER_TABLE;
+        private ThrottleSettings throttle = ThrottleSettings.defaults();
+
+        private Builder() {
+        }
+
+        public Builder asyncWrites( boolean asyncWrites ) {
+            this.asyncWrites = asyncWrites;
+            return this;
+        }
+
+        public Builder maxInFlightWrites( int maxInFlightWrites ) {
+            this.maxInFlightWrites = maxInFlightWrites;
+            return this;
+        }
+
+        public Builder maxInFlightWritesPerTask( int maxInFlightWritesPerTask ) {
+            this.maxInFlightWritesPerTask = maxInFlightWritesPerTask;
+            return this;
+        }
+
+        public Builder maxOutstandingRequests( int maxOutstandingRequests ) {
+            this.maxOutstandingRequests = maxOutstandingRequests;
+            return this;
+        }
+
+        public Builder batchSize( int batchSize ) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder maxWriteRetries( int maxWriteRetries ) {
+            this.maxWriteRetries = maxWriteRetries;
+            return this;
+        }
+
+        public Builder initialRetryBackoff( Duration initialRetryBackoff ) {
+            this.initialRetryBackoff = initialRetryBackoff;
+            return this;
+        }
+
+        public Builder maxRetryBackoff( Duration maxRetryBackoff ) {
+            this.maxRetryBackoff = maxRetryBackoff;
+            return this;
+        }
+
+        public Builder retryQueueSizePerTable( int retryQueueSizePerTable ) {
+            this.retryQueueSizePerTable = retryQueueSizePerTable;
+            return this;
+        }
+
+        public Builder throttle( ThrottleSettings throttle ) {
+            this.throttle = throttle;
+            return this;
+        }
+
+        public CassandraSettings build() {
+            return new CassandraSettings( this );
+        }
+    }
+}
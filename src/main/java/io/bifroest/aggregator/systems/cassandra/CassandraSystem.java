@@ -1,6 +1,5 @@
 package io.bifroest.aggregator.systems.cassandra;
 
-import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collection;
 
@@ -8,7 +7,6 @@ import org.json.JSONObject;
 import org.kohsuke.MetaInfServices;
 
 import io.bifroest.commons.boot.interfaces.Subsystem;
-import io.bifroest.commons.statistics.units.parse.DurationParser;
 import io.bifroest.commons.util.json.JSONUtils;
 import io.bifroest.aggregator.systems.AggregatorIdentifiers;
 import io.bifroest.commons.SystemIdentifiers;
@@ -44,10 +42,8 @@ public class CassandraSystem<E extends EnvironmentWithJSONConfiguration & Enviro
         String keyspace = config.getString( "keyspace" );
         String[] seeds = JSONUtils.getStringArray( "seeds", config );
         boolean dryRun = config.optBoolean( "dry-run", false );
-        Duration readTimeout = config.has( "read-timeout" ) ? new DurationParser().parse( config.getString( "read-timeout" ) ) : Duration.ofSeconds( 12 );
-        Duration waitAfterWriteTimeout = config.has( "wait-after-write-timeout" ) ? new DurationParser().parse( config.getString( "wait-after-write-timeout" ) ) : Duration.ZERO;
-        CassandraClusterWrapper wrappedCluster = new DirectClusterWrapper(seeds, keyspace, username, password, readTimeout, waitAfterWriteTimeout);
-        cassandra = new CassandraAccessLayer( wrappedCluster, environment.retentions(), dryRun);
+        CassandraClusterWrapper wrappedCluster = new DirectClusterWrapper(seeds, keyspace, username, password, ClusterSettings.fromConfig( config ));
+        cassandra = new CassandraAccessLayer( wrappedCluster, environment.retentions(), dryRun, CassandraSettings.fromConfig( config ) );
 
         cassandra.open();
         environment.setCassandraAccessLayer( cassandra );
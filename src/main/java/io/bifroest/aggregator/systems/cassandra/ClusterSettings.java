@@ -0,0 +1,277 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.time.Duration;
+import java.util.Locale;
+
+import org.json.JSONObject;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.ProtocolOptions.Compression;
+import io.bifroest.commons.statistics.units.parse.DurationParser;
+
+/**
+ * Connection settings of the DirectClusterWrapper and the consistency levels
+ * the WrappedCassandraSession uses, read from the cassandra config block:
+ *
+ * <pre>
+ * "cassandra" : {
+ *     "read-timeout" : "12s",
+ *     "schema-poll-interval" : "30s",
+ *     "routing" : {
+ *         "token-aware" : true,
+ *         "local-dc" : "dc1",
+ *         "used-hosts-per-remote-dc" : 0
+ *     },
+ *     "pooling" : {
+ *         "core-connections-per-host" : 2,
+ *         "max-connections-per-host" : 8,
+ *         "max-requests-per-connection" : 100
+ *     },
+ *     "compression" : "lz4",
+ *     "consistency" : {
+ *         "read" : "LOCAL_ONE",
+ *         "write" : "LOCAL_QUORUM",
+ *         "ddl" : "ALL"
+ *     }
+ * }
+ * </pre>
+ *
+ * Without a routing block the driver keeps its default load balancing policy.
+ * Pooling settings that are missing or 0 keep the driver defaults, they only apply to hosts in the local DC.
+ * Compression is one of "none", "lz4" or "snappy".
+ */
+public final class ClusterSettings {
+    private static final DurationParser parser = new DurationParser();
+
+    private final Duration readTimeout;
+    private final Duration schemaPollInterval;
+    private final boolean tokenAware;
+    private final String localDc;
+    private final int usedHostsPerRemoteDc;
+    private final int coreConnectionsPerHost;
+    private final int maxConnectionsPerHost;
+    private final int maxRequestsPerConnection;
+    private final Compression compression;
+    private final ConsistencyLevel readConsistency;
+    private final ConsistencyLevel writeConsistency;
+    private final ConsistencyLevel ddlConsistency;
+
+    private ClusterSettings( Builder builder ) {
+        if ( builder.coreConnectionsPerHost < 0 || builder.maxConnectionsPerHost < 0 || builder.maxRequestsPerConnection < 0 ) {
+            throw new IllegalArgumentException( "Pooling settings must not be negative" );
+        }
+        if ( builder.maxConnectionsPerHost > 0 && builder.coreConnectionsPerHost > builder.maxConnectionsPerHost ) {
+            throw new IllegalArgumentException( "core-connections-per-host must not exceed max-connections-per-host" );
+        }
+        this.readTimeout = builder.readTimeout;
+        this.schemaPollInterval = builder.schemaPollInterval;
+        this.tokenAware = builder.tokenAware;
+        this.localDc = builder.localDc;
+        this.usedHostsPerRemoteDc = builder.usedHostsPerRemoteDc;
+        this.coreConnectionsPerHost = builder.coreConnectionsPerHost;
+        this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+        this.maxRequestsPerConnection = builder.maxRequestsPerConnection;
+        this.compression = builder.compression;
+        this.readConsistency = builder.readConsistency;
+        this.writeConsistency = builder.writeConsistency;
+        this.ddlConsistency = builder.ddlConsistency;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static ClusterSettings defaults() {
+        return builder().build();
+    }
+
+    public static ClusterSettings fromConfig( JSONObject config ) {
+        Builder builder = builder();
+        if ( config.has( "read-timeout" ) ) {
+            builder.readTimeout( parser.parse( config.getString( "read-timeout" ) ) );
+        }
+        if ( config.has( "schema-poll-interval" ) ) {
+            builder.schemaPollInterval( parser.parse( config.getString( "schema-poll-interval" ) ) );
+        }
+
+        JSONObject routing = config.optJSONObject( "routing" );
+        if ( routing != null ) {
+            builder.tokenAware( routing.optBoolean( "token-aware", false ) );
+            builder.localDc( routing.optString( "local-dc", null ), routing.optInt( "used-hosts-per-remote-dc", 0 ) );
+        }
+
+        JSONObject pooling = config.optJSONObject( "pooling" );
+        if ( pooling != null ) {
+            builder.coreConnectionsPerHost( pooling.optInt( "core-connections-per-host", 0 ) );
+            builder.maxConnectionsPerHost( pooling.optInt( "max-connections-per-host", 0 ) );
+            builder.maxRequestsPerConnection( pooling.optInt( "max-requests-per-connection", 0 ) );
+        }
+
+        if ( config.has( "compression" ) ) {
+            builder.compression( Compression.valueOf( config.getString( "compression" ).toUpperCase( Locale.ROOT ) ) );
+        }
+
+        JSONObject consistency = config.optJSONObject( "consistency" );
+        if ( consistency != null ) {
+            builder.readConsistency( consistencyLevel( consistency, "read", Builder.DEFAULT_CONSISTENCY ) );
+            builder.writeConsistency( consistencyLevel( consistency, "write", Builder.DEFAULT_CONSISTENCY ) );
+            builder.ddlConsistency( consistencyLevel( consistency, "ddl", Builder.DEFAULT_CONSISTENCY ) );
+        }
+
+        return builder.build();
+    }
+
+    private static ConsistencyLevel consistencyLevel( JSONObject config, String key, ConsistencyLevel fallback ) {
+        return config.has( key ) ? ConsistencyLevel.valueOf( config.getString( key ).toUpperCase( Locale.ROOT ) ) : fallback;
+    }
+
+    public Duration readTimeout() {
+        return readTimeout;
+    }
+
+    public Duration schemaPollInterval() {
+        return schemaPollInterval;
+    }
+
+    /**
+     * Whether requests are sent to a replica of their partition instead of any coordinator.
+     */
+    public boolean tokenAware() {
+        return tokenAware;
+    }
+
+    /**
+     * Whether token-aware routing or a local DC replace the default load balancing policy of the driver.
+     */
+    public boolean routingConfigured() {
+        return tokenAware || localDc != null;
+    }
+
+    /**
+     * @return the DC to prefer, null to balance over all hosts
+     */
+    public String localDc() {
+        return localDc;
+    }
+
+    public int usedHostsPerRemoteDc() {
+        return usedHostsPerRemoteDc;
+    }
+
+    public int coreConnectionsPerHost() {
+        return coreConnectionsPerHost;
+    }
+
+    public int maxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public int maxRequestsPerConnection() {
+        return maxRequestsPerConnection;
+    }
+
+    public Compression compression() {
+        return compression;
+    }
+
+    /**
+     * Consistency of the bulk reads of the source tables.
+     */
+    public ConsistencyLevel readConsistency() {
+        return readConsistency;
+    }
+
+    /**
+     * Consistency of the writes of aggregated points.
+     */
+    public ConsistencyLevel writeConsistency() {
+        return writeConsistency;
+    }
+
+    /**
+     * Consistency of creating and dropping tables.
+     */
+    public ConsistencyLevel ddlConsistency() {
+        return ddlConsistency;
+    }
+
+    public static final class Builder {
+        private static final ConsistencyLevel DEFAULT_CONSISTENCY = ConsistencyLevel.ONE;
+
+        private Duration readTimeout = Duration.ofSeconds( 12 );
+        private Duration schemaPollInterval = Duration.ofSeconds( 30 );
+        private boolean tokenAware = false;
+        private String localDc = null;
+        private int usedHostsPerRemoteDc = 0;
+        private int coreConnectionsPerHost = 0;
+        private int maxConnectionsPerHost = 0;
+        private int maxRequestsPerConnection = 0;
+        private Compression compression = Compression.NONE;
+        private ConsistencyLevel readConsistency = DEFAULT_CONSISTENCY;
+        private ConsistencyLevel writeConsistency = DEFAULT_CONSISTENCY;
+        private ConsistencyLevel ddlConsistency = DEFAULT_CONSISTENCY;
+
+        private Builder() {
+        }
+
+        public Builder readTimeout( Duration readTimeout ) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        public Builder schemaPollInterval( Duration schemaPollInterval ) {
+            this.schemaPollInterval = schemaPollInterval;
+            return this;
+        }
+
+        public Builder tokenAware( boolean tokenAware ) {
+            this.tokenAware = tokenAware;
+            return this;
+        }
+
+        public Builder localDc( String localDc, int usedHostsPerRemoteDc ) {
+            this.localDc = localDc;
+            this.usedHostsPerRemoteDc = usedHostsPerRemoteDc;
+            return this;
+        }
+
+        public Builder coreConnectionsPerHost( int coreConnectionsPerHost ) {
+            this.coreConnectionsPerHost = coreConnectionsPerHost;
+            return this;
+        }
+
+        public Builder maxConnectionsPerHost( int maxConnectionsPerHost ) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        public Builder maxRequestsPerConnection( int maxRequestsPerConnection ) {
+            this.maxRequestsPerConnection = maxRequestsPerConnection;
+            return this;
+        }
+
+        public Builder compression( Compression compression ) {
+            this.compression = compression;
+            return this;
+        }
+
+        public Builder readConsistency( ConsistencyLevel readConsistency ) {
+            this.readConsistency = readConsistency;
+            return this;
+        }
+
+        public Builder writeConsistency( ConsistencyLevel writeConsistency ) {
+            this.writeConsistency = writeConsistency;
+            return this;
+        }
+
+        public Builder ddlConsistency( ConsistencyLevel ddlConsistency ) {
+            this.ddlConsistency = ddlConsistency;
+            return this;
+        }
+
+        public ClusterSettings build() {
+            return new ClusterSettings( this );
+        }
+    }
+}
@@ -1,15 +1,23 @@
 package io.bifroest.aggregator.systems.cassandra;
 
-import java.time.Duration;
 import java.util.Collection;
-import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Cluster.Builder;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.QueryOptions;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.SocketOptions;
 import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.datastax.driver.core.policies.Policies;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 
 /**
  * Productive implementation of the CassandraClusterWrapper.
@@ -22,19 +30,21 @@ public final class DirectClusterWrapper implements CassandraClusterWrapper {
     private final String user;
     private final String pass;
     private final String[] hosts;
-    private final Duration readTimeout;
-    private final Duration waitAfterWriteTimeout;
+    private final ClusterSettings settings;
+
+    private SchemaPoller schemaPoller;
+    private ScheduledExecutorService schemaPolls;
 
     private Cluster cluster;
     private Session session;
+    private PreparedStatementCache statements;
 
-    public DirectClusterWrapper(String[] hosts, String keyspace, String user, String pass, Duration readTimeout, Duration waitAfterWriteTimeout) {
+    public DirectClusterWrapper(String[] hosts, String keyspace, String user, String pass, ClusterSettings settings) {
         this.keyspace = keyspace;
         this.user = user;
         this.pass = pass;
         this.hosts = hosts;
-        this.readTimeout = readTimeout;
-        this.waitAfterWriteTimeout = waitAfterWriteTimeout;
+        this.settings = settings;
     }
 
     @Override
@@ -42,14 +52,46 @@ public final class DirectClusterWrapper implements CassandraClusterWrapper {
         if ( cluster == null || session == null ) {
             Builder builder = Cluster.builder();
             builder.addContactPoints( hosts );
-            builder.withSocketOptions( ( new SocketOptions().setReadTimeoutMillis( (int)readTimeout.toMillis() ) ) );
+            builder.withSocketOptions( ( new SocketOptions().setReadTimeoutMillis( (int)settings.readTimeout().toMillis() ) ) );
+            if ( settings.routingConfigured() ) {
+                builder.withLoadBalancingPolicy( loadBalancingPolicy() );
+            }
+            builder.withPoolingOptions( poolingOptions() );
+            builder.withCompression( settings.compression() );
+            builder.withQueryOptions( new QueryOptions().setConsistencyLevel( settings.readConsistency() ) );
             if ( user != null && pass != null && !user.isEmpty() && !pass.isEmpty() ) {
                 builder = builder.withCredentials( user, pass );
             }
             cluster = builder.build();
             session = cluster.connect( keyspace );
+            // tables changed by others must not be queried with their old statements
+            statements = new PreparedStatementCache(session, settings);
+            addSchemaListener(statements);
+        }
+        return new WrappedCassandraSession(session, keyspace, settings, statements);
+    }
+
+    private LoadBalancingPolicy loadBalancingPolicy() {
+        LoadBalancingPolicy policy = settings.localDc() == null
+                ? Policies.defaultLoadBalancingPolicy()
+                : new DCAwareRoundRobinPolicy(settings.localDc(), settings.usedHostsPerRemoteDc());
+        return settings.tokenAware() ? new TokenAwarePolicy(policy) : policy;
+    }
+
+    private PoolingOptions poolingOptions() {
+        PoolingOptions options = new PoolingOptions();
+        // raise the maximum first, the driver rejects a core size above it
+        if (settings.maxConnectionsPerHost() > 0) {
+            options.setMaxConnectionsPerHost(HostDistance.LOCAL, settings.maxConnectionsPerHost());
         }
-        return new WrappedCassandraSession(session, waitAfterWriteTimeout);
+        if (settings.coreConnectionsPerHost() > 0) {
+            options.setCoreConnectionsPerHost(HostDistance.LOCAL, settings.coreConnectionsPerHost());
+        }
+        if (settings.maxRequestsPerConnection() > 0) {
+            // this driver version opens another connection beyond this many requests on every connection
+            options.setMaxSimultaneousRequestsPerConnectionThreshold(HostDistance.LOCAL, settings.maxRequestsPerConnection());
+        }
+        return options;
     }
 
     @Override
@@ -57,8 +99,31 @@ public final class DirectClusterWrapper implements CassandraClusterWrapper {
        return cluster.getMetadata().getKeyspace( keyspace ).getTables().stream().map(TableMetadata::getName).collect(Collectors.toList());
     }
 
+    /**
+     * This driver version offers no callback for schema changes, so the
+     * metadata is polled by a SchemaPoller.
+     */
     @Override
-    public void close() {
+    public synchronized void addSchemaListener(SchemaListener listener) {
+        if (schemaPoller == null) {
+            schemaPoller = new SchemaPoller(this::getTableNames);
+            schemaPolls = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "cassandra-schema-poller");
+                thread.setDaemon(true);
+                return thread;
+            });
+            schemaPolls.scheduleWithFixedDelay(schemaPoller::poll, settings.schemaPollInterval().toMillis(), settings.schemaPollInterval().toMillis(), TimeUnit.MILLISECONDS);
+        }
+        schemaPoller.addListener(listener);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (schemaPolls != null) {
+            schemaPolls.shutdownNow();
+            schemaPolls = null;
+            schemaPoller = null;
+        }
         cluster.close();
     }
 }
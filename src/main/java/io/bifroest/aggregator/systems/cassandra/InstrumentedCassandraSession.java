@@ -0,0 +1,208 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.bifroest.commons.model.Metric;
+import io.bifroest.aggregator.systems.statistics.LatencyHistograms;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * Records the latency of every call of the session in the histogram
+ * cassandra.[method].[level of the table], calls without a table under
+ * the level all. Asynchronous calls are recorded when they complete.
+ * Calls returning rows are recorded when the first page has arrived.
+ */
+final class InstrumentedCassandraSession implements CassandraSession {
+    static final String GROUP = "cassandra";
+
+    private final CassandraSession session;
+
+    InstrumentedCassandraSession( CassandraSession session ) {
+        this.session = session;
+    }
+
+    @Override
+    public void dropTableInDatabase( RetentionTable table ) {
+        timed( "dropTableInDatabase", table, () -> {
+            session.dropTableInDatabase( table );
+            return null;
+        } );
+    }
+
+    @Override
+    public void createTable( RetentionTable table ) {
+        timed( "createTable", table, () -> {
+            session.createTable( table );
+            return null;
+        } );
+    }
+
+    @Override
+    public Iterator<Row> loadNamesFromTable( RetentionTable table ) {
+        return timed( "loadNamesFromTable", table, () -> session.loadNamesFromTable( table ) );
+    }
+
+    @Override
+    public Iterator<Row> loadMetricsFromTable( RetentionTable table, String name ) {
+        return timed( "loadMetricsFromTable", table, () -> session.loadMetricsFromTable( table, name ) );
+    }
+
+    @Override
+    public ListenableFuture<Iterator<Row>> loadMetricsFromTableAsync( RetentionTable table, String name, int fetchSize ) {
+        return timedAsync( "loadMetricsFromTable", table, () -> session.loadMetricsFromTableAsync( table, name, fetchSize ) );
+    }
+
+    @Override
+    public void scanTokenRange( RetentionTable table, TokenRange range, int fetchSize, MetricRowHandler handler ) {
+        timed( "scanTokenRange", table, () -> {
+            session.scanTokenRange( table, range, fetchSize, handler );
+            return null;
+        } );
+    }
+
+    @Override
+    public void loadPoints( RetentionTable table, String name, int fetchSize, PointHandler handler ) {
+        timed( "loadPoints", table, () -> {
+            session.loadPoints( table, name, fetchSize, handler );
+            return null;
+        } );
+    }
+
+    @Override
+    public Map<String, Long> estimatePartitions() {
+        return timed( "estimatePartitions", null, session::estimatePartitions );
+    }
+
+    @Override
+    public void createCoordinationTables() {
+        timed( "createCoordinationTables", null, () -> {
+            session.createCoordinationTables();
+            return null;
+        } );
+    }
+
+    @Override
+    public boolean insertLeaseIfAbsent( String resource, String owner, int ttlSeconds ) {
+        return timed( "insertLeaseIfAbsent", null, () -> session.insertLeaseIfAbsent( resource, owner, ttlSeconds ) );
+    }
+
+    @Override
+    public boolean updateLeaseIfOwner( String resource, String owner, int ttlSeconds ) {
+        return timed( "updateLeaseIfOwner", null, () -> session.updateLeaseIfOwner( resource, owner, ttlSeconds ) );
+    }
+
+    @Override
+    public void deleteLeaseIfOwner( String resource, String owner ) {
+        timed( "deleteLeaseIfOwner", null, () -> {
+            session.deleteLeaseIfOwner( resource, owner );
+            return null;
+        } );
+    }
+
+    @Override
+    public void insertCompletedUnit( String resource, int unit, String owner ) {
+        timed( "insertCompletedUnit", null, () -> {
+            session.insertCompletedUnit( resource, unit, owner );
+            return null;
+        } );
+    }
+
+    @Override
+    public List<Integer> selectCompletedUnits( String resource ) {
+        return timed( "selectCompletedUnits", null, () -> session.selectCompletedUnits( resource ) );
+    }
+
+    @Override
+    public void deleteCompletedUnits( String resource ) {
+        timed( "deleteCompletedUnits", null, () -> {
+            session.deleteCompletedUnits( resource );
+            return null;
+        } );
+    }
+
+    @Override
+    public void insertMetric( RetentionTable table, Metric metric ) {
+        timed( "insertMetric", table, () -> {
+            session.insertMetric( table, metric );
+            return null;
+        } );
+    }
+
+    @Override
+    public ListenableFuture<?> insertMetricAsync( RetentionTable table, Metric metric ) {
+        return timedAsync( "insertMetric", table, () -> session.insertMetricAsync( table, metric ) );
+    }
+
+    @Override
+    public void insertBatch( RetentionTable table, List<Metric> metrics ) {
+        timed( "insertBatch", table, () -> {
+            session.insertBatch( table, metrics );
+            return null;
+        } );
+    }
+
+    @Override
+    public ListenableFuture<?> insertBatchAsync( RetentionTable table, List<Metric> metrics ) {
+        return timedAsync( "insertBatch", table, () -> session.insertBatchAsync( table, metrics ) );
+    }
+
+    @Override
+    public void insertPoint( RetentionTable table, String name, long timestamp, double value ) {
+        timed( "insertPoint", table, () -> {
+            session.insertPoint( table, name, timestamp, value );
+            return null;
+        } );
+    }
+
+    @Override
+    public ListenableFuture<?> insertPointAsync( RetentionTable table, String name, long timestamp, double value ) {
+        return timedAsync( "insertPoint", table, () -> session.insertPointAsync( table, name, timestamp, value ) );
+    }
+
+    @Override
+    public void insertPoints( RetentionTable table, String name, long[] timestamps, double[] values ) {
+        timed( "insertPoints", table, () -> {
+            session.insertPoints( table, name, timestamps, values );
+            return null;
+        } );
+    }
+
+    @Override
+    public ListenableFuture<?> insertPointsAsync( RetentionTable table, String name, long[] timestamps, double[] values ) {
+        return timedAsync( "insertPoints", table, () -> session.insertPointsAsync( table, name, timestamps, values ) );
+    }
+
+    @Override
+    public void close() {
+        session.close();
+    }
+
+    private static <T> T timed( String call, RetentionTable table, Supplier<T> request ) {
+        long start = System.nanoTime();
+        try {
+            return request.get();
+        } finally {
+            LatencyHistograms.of( GROUP, call, levelOf( table ) ).recordSince( start );
+        }
+    }
+
+    private static <T extends ListenableFuture<?>> T timedAsync( String call, RetentionTable table, Supplier<T> request ) {
+        long start = System.nanoTime();
+        T result = request.get();
+        if ( result != null ) {
+            result.addListener( () -> LatencyHistograms.of( GROUP, call, levelOf( table ) ).recordSince( start ),
+                    MoreExecutors.sameThreadExecutor() );
+        }
+        return result;
+    }
+
+    private static String levelOf( RetentionTable table ) {
+        return table == null ? LatencyHistograms.ALL_LEVELS : table.level().name();
+    }
+}
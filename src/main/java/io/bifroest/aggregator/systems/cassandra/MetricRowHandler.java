@@ -0,0 +1,13 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+/**
+ * Receives the rows of a metric table column by column, without handing
+ * out the rows of the driver.
+ *
+ * Whether an object is created per row is up to the handler. The range
+ * scans of CassandraAccessLayer collect a Metric per row, because the
+ * partitions are aggregated as Metrics.
+ */
+public interface MetricRowHandler {
+    void handle( String name, long timestamp, double value );
+}
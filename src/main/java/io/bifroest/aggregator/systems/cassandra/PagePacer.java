@@ -0,0 +1,35 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+/**
+ * Charges the throttle for every page of a paged read after the first one,
+ * which was paid for by the request itself. The driver fetches further pages
+ * in the background, so they are charged when their first row is consumed.
+ *
+ * Counts the rows of one request on one thread.
+ */
+final class PagePacer {
+    // the driver fetches this many rows per page unless a fetch-size is set
+    static final int DRIVER_FETCH_SIZE = 5000;
+
+    private final AdaptiveThrottle throttle;
+    private final int pageSize;
+    private long rows;
+
+    /**
+     * @param fetchSize the page size, 0 for the driver default
+     */
+    PagePacer( AdaptiveThrottle throttle, int fetchSize ) {
+        this.throttle = throttle;
+        this.pageSize = fetchSize > 0 ? fetchSize : DRIVER_FETCH_SIZE;
+    }
+
+    /**
+     * Blocks before the first row of every further page until the throttle permits another request.
+     */
+    void row() {
+        if ( rows > 0 && rows % pageSize == 0 ) {
+            throttle.acquire();
+        }
+        rows++;
+    }
+}
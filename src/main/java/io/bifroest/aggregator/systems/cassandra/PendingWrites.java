@@ -0,0 +1,60 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Book-keeping of the asynchronous writes of one WriteWindow.
+ *
+ * Failures are sticky until the window is discarded, so the task keeps its
+ * source table for the next run once any of its writes failed.
+ *
+ * Uses a lock instead of monitors so a virtual thread waiting for its writes
+ * does not pin its carrier.
+ */
+class PendingWrites {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition idle = lock.newCondition();
+
+    private long inFlight;
+    private long failed;
+
+    void started() {
+        lock.lock();
+        try {
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void finished( boolean success ) {
+        lock.lock();
+        try {
+            inFlight--;
+            if ( !success ) {
+                failed++;
+            }
+            if ( inFlight == 0 ) {
+                idle.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if none of the writes failed
+     */
+    boolean await() throws InterruptedException {
+        lock.lock();
+        try {
+            while ( inFlight > 0 ) {
+                idle.await();
+            }
+            return failed == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+/**
+ * Receives the points of a single metric, without its name.
+ */
+public interface PointHandler {
+    void handle( long timestamp, double value );
+}
@@ -0,0 +1,48 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.util.Iterator;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+/**
+ * Iterates a result set and requests the next page once half of the
+ * current page is used up, instead of waiting until it is exhausted.
+ */
+final class PrefetchingRowIterator implements Iterator<Row> {
+    private final ResultSet resultSet;
+    private final Iterator<Row> rows;
+    private int threshold = -1;
+
+    PrefetchingRowIterator( ResultSet resultSet ) {
+        this.resultSet = resultSet;
+        this.rows = resultSet.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        prefetch();
+        return rows.hasNext();
+    }
+
+    @Override
+    public Row next() {
+        prefetch();
+        return rows.next();
+    }
+
+    private void prefetch() {
+        if ( resultSet.isFullyFetched() ) {
+            return;
+        }
+
+        int available = resultSet.getAvailableWithoutFetching();
+        if ( threshold < 0 ) {
+            threshold = available / 2;
+        }
+        if ( available <= threshold ) {
+            // Returns the pending fetch if one is already running
+            resultSet.fetchMoreResults();
+        }
+    }
+}
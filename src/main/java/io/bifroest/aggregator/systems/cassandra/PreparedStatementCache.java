@@ -0,0 +1,118 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * Caches the prepared statements for the per-table queries, so the
+ * coordinators do not have to parse the same CQL for every single point.
+ *
+ * Entries must be invalidated whenever the schema of a table changes,
+ * i.e. when the table is dropped or (re-)created. Our own DDL does so right
+ * away, changes by others arrive as schema notifications.
+ *
+ * Statements the nodes merely forgot are re-prepared by the driver itself.
+ * Only a statement prepared against a table or columns that no longer exist
+ * is stale, every other rejected query is a real error.
+ */
+class PreparedStatementCache implements SchemaListener {
+    enum Operation {
+        INSERT_METRIC( true ) {
+            @Override
+            RegularStatement statementFor( String tableName ) {
+                return QueryBuilder.insertInto( tableName )
+                        .value( CassandraAccessLayer.COL_NAME, QueryBuilder.bindMarker() )
+                        .value( CassandraAccessLayer.COL_TIME, QueryBuilder.bindMarker() )
+                        .value( CassandraAccessLayer.COL_VALUE, QueryBuilder.bindMarker() );
+            }
+        },
+        SELECT_METRICS( false ) {
+            @Override
+            RegularStatement statementFor( String tableName ) {
+                return QueryBuilder.select().all().from( tableName )
+                        .where( QueryBuilder.eq( CassandraAccessLayer.COL_NAME, QueryBuilder.bindMarker() ) );
+            }
+        },
+        SELECT_POINTS( false ) {
+            @Override
+            RegularStatement statementFor( String tableName ) {
+                return QueryBuilder.select( CassandraAccessLayer.COL_TIME, CassandraAccessLayer.COL_VALUE ).from( tableName )
+                        .where( QueryBuilder.eq( CassandraAccessLayer.COL_NAME, QueryBuilder.bindMarker() ) );
+            }
+        },
+        SCAN_TOKEN_RANGE( false ) {
+            @Override
+            RegularStatement statementFor( String tableName ) {
+                String token = "token(" + CassandraAccessLayer.COL_NAME + ")";
+                return new SimpleStatement( "SELECT " + CassandraAccessLayer.COL_NAME + ", " + CassandraAccessLayer.COL_TIME + ", " + CassandraAccessLayer.COL_VALUE
+                        + " FROM " + tableName
+                        + " WHERE " + token + " > ? AND " + token + " <= ?;" );
+            }
+        };
+
+        private final boolean write;
+
+        private Operation( boolean write ) {
+            this.write = write;
+        }
+
+        abstract RegularStatement statementFor( String tableName );
+    }
+
+    private final Session session;
+    private final ClusterSettings settings;
+    // lower case, because cassandra table names are case insensitive
+    private final ConcurrentMap<String, ConcurrentMap<Operation, PreparedStatement>> statements = new ConcurrentHashMap<>();
+
+    PreparedStatementCache( Session session, ClusterSettings settings ) {
+        this.session = session;
+        this.settings = settings;
+    }
+
+    PreparedStatement get( RetentionTable table, Operation operation ) {
+        ConcurrentMap<Operation, PreparedStatement> perTable = statements.computeIfAbsent( normalize( table.tableName() ), name -> new ConcurrentHashMap<>() );
+        return perTable.computeIfAbsent( operation, op -> prepare( table, op ) );
+    }
+
+    private PreparedStatement prepare( RetentionTable table, Operation operation ) {
+        PreparedStatement statement = session.prepare( operation.statementFor( table.tableName() ) );
+        // bound statements inherit the consistency level
+        statement.setConsistencyLevel( operation.write ? settings.writeConsistency() : settings.readConsistency() );
+        return statement;
+    }
+
+    /**
+     * @return whether the statement was rejected because the schema of its table changed since it was prepared
+     */
+    static boolean isStale( InvalidQueryException e ) {
+        String message = e.getMessage() == null ? "" : e.getMessage().toLowerCase( Locale.ROOT );
+        return message.startsWith( "unconfigured" ) || message.contains( "unknown identifier" ) || message.contains( "undefined column name" );
+    }
+
+    void invalidate( RetentionTable table ) {
+        statements.remove( normalize( table.tableName() ) );
+    }
+
+    @Override
+    public void tableCreated( String tableName ) {
+        statements.remove( normalize( tableName ) );
+    }
+
+    @Override
+    public void tableDropped( String tableName ) {
+        statements.remove( normalize( tableName ) );
+    }
+
+    private static String normalize( String tableName ) {
+        return tableName.toLowerCase( Locale.ROOT );
+    }
+}
@@ -0,0 +1,127 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * In-memory view of the tables in the keyspace, indexed by retention level and block.
+ *
+ * The catalog is loaded completely by reload() and kept up to date incrementally
+ * by our own create and drop calls and by schema change notifications.
+ */
+public class SchemaCatalog implements SchemaListener {
+    private static final Logger log = LogManager.getLogger();
+
+    private final RetentionConfiguration retention;
+
+    // lower case, because cassandra table names are case insensitive
+    private final Set<String> tableNames = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, ConcurrentSkipListMap<Long, RetentionTable>> tablesByLevel = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded = false;
+
+    public SchemaCatalog( RetentionConfiguration retention ) {
+        this.retention = retention;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public synchronized void reload( Collection<String> currentTableNames ) {
+        Set<String> current = new HashSet<>();
+        for ( String tableName : currentTableNames ) {
+            current.add( normalize( tableName ) );
+            if ( !tableNames.contains( normalize( tableName ) ) ) {
+                add( tableName, true );
+            }
+        }
+        for ( String tableName : new ArrayList<>( tableNames ) ) {
+            if ( !current.contains( tableName ) ) {
+                tableDropped( tableName );
+            }
+        }
+        loaded = true;
+    }
+
+    public boolean contains( RetentionTable table ) {
+        return tableNames.contains( normalize( table.tableName() ) );
+    }
+
+    public Collection<RetentionTable> tables() {
+        List<RetentionTable> ret = new ArrayList<>();
+        for ( ConcurrentSkipListMap<Long, RetentionTable> level : tablesByLevel.values() ) {
+            ret.addAll( level.values() );
+        }
+        return ret;
+    }
+
+    /**
+     * @return the tables of the level, ordered by block
+     */
+    public Collection<RetentionTable> tables( RetentionLevel level ) {
+        ConcurrentSkipListMap<Long, RetentionTable> tables = tablesByLevel.get( level.name() );
+        return tables == null ? Collections.emptyList() : new ArrayList<>( tables.values() );
+    }
+
+    public void tableCreated( RetentionTable table ) {
+        tableNames.add( normalize( table.tableName() ) );
+        tablesByLevel.computeIfAbsent( table.level().name(), name -> new ConcurrentSkipListMap<>() ).put( table.block(), table );
+    }
+
+    public void tableDropped( RetentionTable table ) {
+        tableNames.remove( normalize( table.tableName() ) );
+        ConcurrentSkipListMap<Long, RetentionTable> tables = tablesByLevel.get( table.level().name() );
+        if ( tables != null ) {
+            tables.remove( table.block() );
+        }
+    }
+
+    @Override
+    public void tableCreated( String tableName ) {
+        add( tableName, false );
+    }
+
+    @Override
+    public void tableDropped( String tableName ) {
+        if ( RetentionTable.canCreateTable( tableName, retention ) ) {
+            tableDropped( new RetentionTable( tableName, retention ) );
+        } else {
+            tableNames.remove( normalize( tableName ) );
+        }
+    }
+
+    private void add( String tableName, boolean warnIfForeign ) {
+        if ( RetentionTable.canCreateTable( tableName, retention ) ) {
+            tableCreated( new RetentionTable( tableName, retention ) );
+        } else {
+            tableNames.add( normalize( tableName ) );
+            if ( warnIfForeign && !isCoordinationTable( tableName ) ) {
+                log.warn( "Table " + tableName + " doesn't match format." );
+            }
+        }
+    }
+
+    private static boolean isCoordinationTable( String tableName ) {
+        return normalize( tableName ).equals( CassandraAccessLayer.LEASE_TABLE ) || normalize( tableName ).equals( CassandraAccessLayer.UNIT_TABLE );
+    }
+
+    private static String normalize( String tableName ) {
+        return tableName.toLowerCase( Locale.ROOT );
+    }
+}
@@ -0,0 +1,10 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+/**
+ * Notified about tables appearing in or disappearing from the keyspace.
+ */
+public interface SchemaListener {
+    void tableCreated( String tableName );
+
+    void tableDropped( String tableName );
+}
@@ -0,0 +1,60 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Compares the tables of the keyspace with those of the last poll, and tells
+ * the listeners which tables appeared and disappeared in between.
+ *
+ * For cluster wrappers whose driver offers no callback for schema changes.
+ */
+final class SchemaPoller {
+    private static final Logger log = LogManager.getLogger();
+
+    private final Supplier<Collection<String>> tableNames;
+    private final CopyOnWriteArrayList<SchemaListener> listeners = new CopyOnWriteArrayList<>();
+    private Set<String> knownTables;
+
+    /**
+     * @param tableNames reads the current tables of the keyspace, the first poll compares with those of now
+     */
+    SchemaPoller( Supplier<Collection<String>> tableNames ) {
+        this.tableNames = tableNames;
+        this.knownTables = new HashSet<>( tableNames.get() );
+    }
+
+    /**
+     * Adding a listener that is already registered has no effect.
+     */
+    void addListener( SchemaListener listener ) {
+        listeners.addIfAbsent( listener );
+    }
+
+    synchronized void poll() {
+        Set<String> tables;
+        try {
+            tables = new HashSet<>( tableNames.get() );
+        } catch( RuntimeException e ) {
+            log.warn( "Cannot read the tables of the keyspace", e );
+            return;
+        }
+        for ( String table : tables ) {
+            if ( !knownTables.contains( table ) ) {
+                listeners.forEach( listener -> listener.tableCreated( table ) );
+            }
+        }
+        for ( String table : knownTables ) {
+            if ( !tables.contains( table ) ) {
+                listeners.forEach( listener -> listener.tableDropped( table ) );
+            }
+        }
+        knownTables = tables;
+    }
+}
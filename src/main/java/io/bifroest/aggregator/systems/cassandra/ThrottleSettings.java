@@ -0,0 +1,127 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.time.Duration;
+
+import org.json.JSONObject;
+
+import io.bifroest.commons.statistics.units.parse.DurationParser;
+
+/**
+ * Settings of the AdaptiveThrottle, read from the "throttle" object in the cassandra config block:
+ *
+ * <pre>
+ * "throttle" : {
+ *     "enabled" : true,
+ *     "initial-rate" : 1000,
+ *     "min-rate" : 50,
+ *     "max-rate" : 100000,
+ *     "increase" : 50,
+ *     "decrease-factor" : 0.7,
+ *     "target-latency" : "50ms",
+ *     "max-timeout-ratio" : 0.01,
+ *     "window" : "1s"
+ * }
+ * </pre>
+ *
+ * Rates are requests per second over all aggregation tasks. Every page of a
+ * paged read counts as a request. Without a throttle block the defaults
+ * above apply, "enabled" : false turns the throttle off.
+ */
+public final class ThrottleSettings {
+    private static final DurationParser parser = new DurationParser();
+
+    private final boolean enabled;
+    private final double initialRate;
+    private final double minRate;
+    private final double maxRate;
+    private final double increase;
+    private final double decreaseFactor;
+    private final Duration targetLatency;
+    private final double maxTimeoutRatio;
+    private final Duration window;
+
+    public ThrottleSettings( boolean enabled, double initialRate, double minRate, double maxRate, double increase, double decreaseFactor,
+            Duration targetLatency, double maxTimeoutRatio, Duration window ) {
+        if ( minRate <= 0 || maxRate < minRate || initialRate < minRate || initialRate > maxRate ) {
+            throw new IllegalArgumentException( "Throttle rates must satisfy 0 < min-rate <= initial-rate <= max-rate" );
+        }
+        if ( decreaseFactor <= 0 || decreaseFactor >= 1 ) {
+            throw new IllegalArgumentException( "decrease-factor must be between 0 and 1" );
+        }
+        this.enabled = enabled;
+        this.initialRate = initialRate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.increase = increase;
+        this.decreaseFactor = decreaseFactor;
+        this.targetLatency = targetLatency;
+        this.maxTimeoutRatio = maxTimeoutRatio;
+        this.window = window;
+    }
+
+    /**
+     * Requests are throttled unless the throttle block disables it, as the only pacing of the aggregator.
+     */
+    public static ThrottleSettings defaults() {
+        return new ThrottleSettings( true, 1000, 50, 100000, 50, 0.7, Duration.ofMillis( 50 ), 0.01, Duration.ofSeconds( 1 ) );
+    }
+
+    public static ThrottleSettings disabled() {
+        ThrottleSettings defaults = defaults();
+        return new ThrottleSettings( false, defaults.initialRate, defaults.minRate, defaults.maxRate, defaults.increase, defaults.decreaseFactor,
+                defaults.targetLatency, defaults.maxTimeoutRatio, defaults.window );
+    }
+
+    public static ThrottleSettings fromConfig( JSONObject config ) {
+        ThrottleSettings defaults = defaults();
+        return new ThrottleSettings(
+                config.optBoolean( "enabled", true ),
+                config.optDouble( "initial-rate", defaults.initialRate ),
+                config.optDouble( "min-rate", defaults.minRate ),
+                config.optDouble( "max-rate", defaults.maxRate ),
+                config.optDouble( "increase", defaults.increase ),
+                config.optDouble( "decrease-factor", defaults.decreaseFactor ),
+                config.has( "target-latency" ) ? parser.parse( config.getString( "target-latency" ) ) : defaults.targetLatency,
+                config.optDouble( "max-timeout-ratio", defaults.maxTimeoutRatio ),
+                config.has( "window" ) ? parser.parse( config.getString( "window" ) ) : defaults.window );
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public double initialRate() {
+        return initialRate;
+    }
+
+    public double minRate() {
+        return minRate;
+    }
+
+    public double maxRate() {
+        return maxRate;
+    }
+
+    public double increase() {
+        return increase;
+    }
+
+    public double decreaseFactor() {
+        return decreaseFactor;
+    }
+
+    /**
+     * The rate is cut once the 99th percentile of the request latencies in a window exceeds this.
+     */
+    public Duration targetLatency() {
+        return targetLatency;
+    }
+
+    public double maxTimeoutRatio() {
+        return maxTimeoutRatio;
+    }
+
+    public Duration window() {
+        return window;
+    }
+}
@@ -0,0 +1,85 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range (start, end] of the token ring of the Murmur3Partitioner.
+ */
+public final class TokenRange {
+    private static final BigInteger RING_START = BigInteger.valueOf( Long.MIN_VALUE );
+    private static final BigInteger RING_SIZE = BigInteger.valueOf( Long.MAX_VALUE ).subtract( RING_START );
+
+    private final long start;
+    private final long end;
+
+    public TokenRange( long start, long end ) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Splits the whole token ring into the given number of contiguous ranges of (almost) equal size.
+     */
+    public static List<TokenRange> splitRing( int count ) {
+        if ( count <= 0 ) {
+            throw new IllegalArgumentException( "Cannot split the token ring into " + count + " ranges" );
+        }
+
+        List<TokenRange> ranges = new ArrayList<>( count );
+        long start = Long.MIN_VALUE;
+        for ( int i = 1; i <= count; i++ ) {
+            long end = i == count
+                    ? Long.MAX_VALUE
+                    : RING_START.add( RING_SIZE.multiply( BigInteger.valueOf( i ) ).divide( BigInteger.valueOf( count ) ) ).longValue();
+            ranges.add( new TokenRange( start, end ) );
+            start = end;
+        }
+        return ranges;
+    }
+
+    /**
+     * @return the share of the ring covered by the range (start, end], which wraps around if end is not after start
+     */
+    static double ringFraction( long start, long end ) {
+        BigInteger width = BigInteger.valueOf( end ).subtract( BigInteger.valueOf( start ) );
+        if ( width.signum() <= 0 ) {
+            width = width.add( RING_SIZE );
+        }
+        return width.doubleValue() / RING_SIZE.doubleValue();
+    }
+
+    /**
+     * @return the exclusive lower bound of this range
+     */
+    public long start() {
+        return start;
+    }
+
+    /**
+     * @return the inclusive upper bound of this range
+     */
+    public long end() {
+        return end;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode( start ) * 31 + Long.hashCode( end );
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+        if ( !( obj instanceof TokenRange ) ) {
+            return false;
+        }
+        TokenRange other = (TokenRange)obj;
+        return start == other.start && end == other.end;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenRange [start=" + start + ", end=" + end + "]";
+    }
+}
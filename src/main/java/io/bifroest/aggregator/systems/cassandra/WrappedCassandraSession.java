@@ -1,14 +1,29 @@
 package io.bifroest.aggregator.systems.cassandra;
 
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
 
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
 import com.datastax.driver.core.Statement;
-import com.datastax.driver.core.exceptions.WriteTimeoutException;
-import com.datastax.driver.core.querybuilder.Clause;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.bifroest.aggregator.systems.cassandra.PreparedStatementCache.Operation;
 import io.bifroest.commons.model.Metric;
 import io.bifroest.retentions.RetentionTable;
 import org.apache.logging.log4j.LogManager;
@@ -16,24 +31,63 @@ import org.apache.logging.log4j.Logger;
 
 public class WrappedCassandraSession implements CassandraSession {
     private static final Logger log = LogManager.getLogger();
+    private static final Function<ResultSet, Iterator<Row>> PREFETCHING = PrefetchingRowIterator::new;
+
     private final Session session;
-    private final Duration waitAfterWriteTimeout;
+    private final String keyspace;
+    private final ClusterSettings settings;
+    private final PreparedStatementCache statements;
+
+    /**
+     * @param keyspace the keyspace the session is connected to
+     */
+    public WrappedCassandraSession(Session session, String keyspace, ClusterSettings settings) {
+        this(session, keyspace, settings, new PreparedStatementCache(session, settings));
+    }
 
-    public WrappedCassandraSession(Session session, Duration waitAfterWriteTimeout) {
+    /**
+     * @param statements the prepared statements of the session, shared by every wrapper of it
+     */
+    WrappedCassandraSession(Session session, String keyspace, ClusterSettings settings, PreparedStatementCache statements) {
         this.session = session;
-        this.waitAfterWriteTimeout = waitAfterWriteTimeout;
+        this.keyspace = keyspace;
+        this.settings = settings;
+        this.statements = statements;
     }
 
     @Override
     public void dropTableInDatabase(RetentionTable table) {
-        session.execute("DROP TABLE " + table.tableName() + ";");
+        statements.invalidate(table);
+        session.execute(ddl("DROP TABLE " + table.tableName() + ";"));
     }
 
     @Override
     public Iterator<Row> loadMetricsFromTable(RetentionTable table, String name) {
-        Clause cName = QueryBuilder.eq(CassandraAccessLayer.COL_NAME, name);
-        Statement stm = QueryBuilder.select().all().from(table.tableName()).where(cName);
-        return session.execute(stm).iterator();
+        return new PrefetchingRowIterator(executePrepared(table, Operation.SELECT_METRICS, name));
+    }
+
+    @Override
+    public ListenableFuture<Iterator<Row>> loadMetricsFromTableAsync(RetentionTable table, String name, int fetchSize) {
+        return Futures.transform(executeAsync(table, () -> bound(table, Operation.SELECT_METRICS, fetchSize, name)), PREFETCHING);
+    }
+
+    @Override
+    public void scanTokenRange(RetentionTable table, TokenRange range, int fetchSize, MetricRowHandler handler) {
+        Iterator<Row> rows = new PrefetchingRowIterator(execute(table, () -> bound(table, Operation.SCAN_TOKEN_RANGE, fetchSize, range.start(), range.end())));
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            handler.handle(row.getString(CassandraAccessLayer.COL_NAME), row.getLong(CassandraAccessLayer.COL_TIME), row.getDouble(CassandraAccessLayer.COL_VALUE));
+        }
+    }
+
+    @Override
+    public void loadPoints(RetentionTable table, String name, int fetchSize, PointHandler handler) {
+        Iterator<Row> rows = new PrefetchingRowIterator(execute(table, () -> bound(table, Operation.SELECT_POINTS, fetchSize, name)));
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            // by index, the columns are selected in this order
+            handler.handle(row.getLong(0), row.getDouble(1));
+        }
     }
 
     @Override
@@ -45,36 +99,212 @@ public class WrappedCassandraSession implements CassandraSession {
         query.append(CassandraAccessLayer.COL_VALUE).append(" double, ");
         query.append("PRIMARY KEY (").append(CassandraAccessLayer.COL_NAME).append(", ").append(CassandraAccessLayer.COL_TIME).append(")");
         query.append(");");
-        session.execute(query.toString());
+        session.execute(ddl(query.toString()));
+        // The table might have been re-created with a different schema
+        statements.invalidate(table);
     }
 
     @Override
     public Iterator<Row> loadNamesFromTable(RetentionTable table) {
-        Statement stm = QueryBuilder.select().distinct().column(CassandraAccessLayer.COL_NAME).from(table.tableName());
-        return session.execute(stm).iterator();
+        Statement stm = QueryBuilder.select().distinct().column(CassandraAccessLayer.COL_NAME).from(table.tableName())
+                .setConsistencyLevel(settings.readConsistency());
+        return new PrefetchingRowIterator(session.execute(stm));
+    }
+
+    @Override
+    public Map<String, Long> estimatePartitions() {
+        Statement stm = new SimpleStatement(
+                "SELECT table_name, range_start, range_end, partitions_count FROM system.size_estimates WHERE keyspace_name = ?",
+                keyspace.toLowerCase(Locale.ROOT));
+        ResultSet rows;
+        try {
+            rows = session.execute(stm.setConsistencyLevel(ConsistencyLevel.ONE));
+        } catch (InvalidQueryException e) {
+            log.debug("No size estimates for {}: {}", keyspace, e.getMessage());
+            return Collections.emptyMap();
+        }
+
+        // every node only keeps the estimates of its own ranges, so sum the partitions and the covered fraction of the ring per table
+        Map<String, double[]> sums = new HashMap<>();
+        for (Row row : rows) {
+            double[] sum = sums.computeIfAbsent(row.getString("table_name"), name -> new double[2]);
+            sum[0] += row.getLong("partitions_count");
+            long start = Long.parseLong(row.getString("range_start"));
+            long end = Long.parseLong(row.getString("range_end"));
+            sum[1] += TokenRange.ringFraction(start, end);
+        }
+        Map<String, Long> estimates = new HashMap<>();
+        sums.forEach((table, sum) -> {
+            if (sum[1] > 0) {
+                estimates.put(table.toLowerCase(Locale.ROOT), Math.round(sum[0] / sum[1]));
+            }
+        });
+        return estimates;
+    }
+
+    @Override
+    public void createCoordinationTables() {
+        session.execute(ddl("CREATE TABLE IF NOT EXISTS " + CassandraAccessLayer.LEASE_TABLE + " (resource text PRIMARY KEY, owner text);"));
+        session.execute(ddl("CREATE TABLE IF NOT EXISTS " + CassandraAccessLayer.UNIT_TABLE
+                + " (resource text, unit int, owner text, PRIMARY KEY (resource, unit));"));
+    }
+
+    @Override
+    public boolean insertLeaseIfAbsent(String resource, String owner, int ttlSeconds) {
+        return applied(new SimpleStatement(
+                "INSERT INTO " + CassandraAccessLayer.LEASE_TABLE + " (resource, owner) VALUES (?, ?) IF NOT EXISTS USING TTL " + ttlSeconds,
+                resource, owner));
+    }
+
+    @Override
+    public boolean updateLeaseIfOwner(String resource, String owner, int ttlSeconds) {
+        return applied(new SimpleStatement(
+                "UPDATE " + CassandraAccessLayer.LEASE_TABLE + " USING TTL " + ttlSeconds + " SET owner = ? WHERE resource = ? IF owner = ?",
+                owner, resource, owner));
+    }
+
+    @Override
+    public void deleteLeaseIfOwner(String resource, String owner) {
+        applied(new SimpleStatement("DELETE FROM " + CassandraAccessLayer.LEASE_TABLE + " WHERE resource = ? IF owner = ?", resource, owner));
+    }
+
+    @Override
+    public void insertCompletedUnit(String resource, int unit, String owner) {
+        session.execute(new SimpleStatement("INSERT INTO " + CassandraAccessLayer.UNIT_TABLE + " (resource, unit, owner) VALUES (?, ?, ?)",
+                resource, unit, owner).setConsistencyLevel(ConsistencyLevel.QUORUM));
+    }
+
+    @Override
+    public List<Integer> selectCompletedUnits(String resource) {
+        List<Integer> units = new ArrayList<>();
+        for (Row row : session.execute(new SimpleStatement("SELECT unit FROM " + CassandraAccessLayer.UNIT_TABLE + " WHERE resource = ?", resource)
+                .setConsistencyLevel(ConsistencyLevel.QUORUM))) {
+            units.add(row.getInt("unit"));
+        }
+        return units;
+    }
+
+    @Override
+    public void deleteCompletedUnits(String resource) {
+        session.execute(new SimpleStatement("DELETE FROM " + CassandraAccessLayer.UNIT_TABLE + " WHERE resource = ?", resource)
+                .setConsistencyLevel(ConsistencyLevel.QUORUM));
+    }
+
+    private boolean applied(Statement lightweightTransaction) {
+        // the paxos round runs at serial consistency, the commit needs a quorum so the next round sees it
+        Row row = session.execute(lightweightTransaction.setConsistencyLevel(ConsistencyLevel.QUORUM)).one();
+        return row != null && row.getBool("[applied]");
     }
 
     @Override
     public void insertMetric(RetentionTable table, Metric metric) {
-        String[] columns = {CassandraAccessLayer.COL_NAME, CassandraAccessLayer.COL_TIME, CassandraAccessLayer.COL_VALUE};
-        Object[] values = {metric.name(), metric.timestamp(), metric.value()};
-        Statement stm = QueryBuilder.insertInto(table.tableName()).values(columns, values);
+        executePrepared(table, Operation.INSERT_METRIC, metric.name(), metric.timestamp(), metric.value());
+    }
+
+    @Override
+    public ListenableFuture<?> insertMetricAsync(RetentionTable table, Metric metric) {
+        return executeAsync(table, () -> statements.get(table, Operation.INSERT_METRIC).bind(metric.name(), metric.timestamp(), metric.value()));
+    }
+
+    @Override
+    public void insertBatch(RetentionTable table, List<Metric> metrics) {
+        execute(table, () -> batchOf(table, metrics));
+    }
+
+    @Override
+    public ListenableFuture<?> insertBatchAsync(RetentionTable table, List<Metric> metrics) {
+        return executeAsync(table, () -> batchOf(table, metrics));
+    }
+
+    @Override
+    public void insertPoint(RetentionTable table, String name, long timestamp, double value) {
+        executePrepared(table, Operation.INSERT_METRIC, name, timestamp, value);
+    }
+
+    @Override
+    public ListenableFuture<?> insertPointAsync(RetentionTable table, String name, long timestamp, double value) {
+        return executeAsync(table, () -> statements.get(table, Operation.INSERT_METRIC).bind(name, timestamp, value));
+    }
+
+    @Override
+    public void insertPoints(RetentionTable table, String name, long[] timestamps, double[] values) {
+        execute(table, () -> batchOf(table, name, timestamps, values));
+    }
+
+    @Override
+    public ListenableFuture<?> insertPointsAsync(RetentionTable table, String name, long[] timestamps, double[] values) {
+        return executeAsync(table, () -> batchOf(table, name, timestamps, values));
+    }
+
+    private BatchStatement batchOf(RetentionTable table, String name, long[] timestamps, double[] values) {
+        PreparedStatement insert = statements.get(table, Operation.INSERT_METRIC);
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        batch.setConsistencyLevel(settings.writeConsistency());
+        for (int i = 0; i < timestamps.length; i++) {
+            batch.add(insert.bind(name, timestamps[i], values[i]));
+        }
+        return batch;
+    }
+
+    private BatchStatement batchOf(RetentionTable table, List<Metric> metrics) {
+        PreparedStatement insert = statements.get(table, Operation.INSERT_METRIC);
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        batch.setConsistencyLevel(settings.writeConsistency());
+        for (Metric metric : metrics) {
+            batch.add(insert.bind(metric.name(), metric.timestamp(), metric.value()));
+        }
+        return batch;
+    }
 
+    private Statement ddl(String query) {
+        return new SimpleStatement(query).setConsistencyLevel(settings.ddlConsistency());
+    }
+
+    private BoundStatement bound(RetentionTable table, Operation operation, int fetchSize, Object... values) {
+        BoundStatement stm = statements.get(table, operation).bind(values);
+        if (fetchSize > 0) {
+            stm.setFetchSize(fetchSize);
+        }
+        return stm;
+    }
+
+    private ResultSet executePrepared(RetentionTable table, Operation operation, Object... values) {
+        return execute(table, () -> statements.get(table, operation).bind(values));
+    }
+
+    /**
+     * Executes a statement built from cached prepared statements. If cassandra
+     * rejects the statement because the schema of the table changed behind our
+     * back, the statements are prepared again and the statement is retried
+     * exactly once. Other invalid queries are thrown.
+     */
+    private ResultSet execute(RetentionTable table, Supplier<Statement> statement) {
         try {
-            session.execute(stm);
-        } catch (WriteTimeoutException e) {
-            log.info("WriteTimeoutException while sending Metrics to cassandra.");
-            log.info(e.getMessage());
-            log.info("According to http://www.datastax.com/dev/blog/how-cassandra-deals-with-replica-failure, this is harmless");
-
-            try {
-                Thread.sleep(waitAfterWriteTimeout.toMillis());
-            } catch (InterruptedException e1) {
-                // ignore
+            return session.execute(statement.get());
+        } catch (InvalidQueryException e) {
+            if (!PreparedStatementCache.isStale(e)) {
+                throw e;
             }
+            log.debug("Re-preparing the statements of {} after: {}", table, e.getMessage());
+            statements.invalidate(table);
+            return session.execute(statement.get());
         }
     }
 
+    /**
+     * Like execute, but the retry is chained to the failed future.
+     */
+    private ListenableFuture<ResultSet> executeAsync(RetentionTable table, Supplier<Statement> statement) {
+        return Futures.withFallback(session.executeAsync(statement.get()), t -> {
+            if (!(t instanceof InvalidQueryException) || !PreparedStatementCache.isStale((InvalidQueryException) t)) {
+                return Futures.immediateFailedFuture(t);
+            }
+            log.debug("Re-preparing the statements of {} after: {}", table, t.getMessage());
+            statements.invalidate(table);
+            return session.executeAsync(statement.get());
+        });
+    }
+
     @Override
     public void close() {
         session.close();
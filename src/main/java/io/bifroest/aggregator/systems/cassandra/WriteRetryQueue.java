@@ -0,0 +1,132 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.bifroest.aggregator.systems.cassandra.statistics.WriteRetryEvent;
+import io.bifroest.aggregator.systems.cassandra.statistics.WriteRetryFinishedEvent;
+import io.bifroest.aggregator.systems.cassandra.statistics.WriteRetryFinishedEvent.Outcome;
+import io.bifroest.commons.statistics.eventbus.EventBusManager;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * Retries timed out writes with exponential backoff and jitter.
+ *
+ * A write stays pending until it finally succeeds or fails, so the source
+ * tables are not dropped in between. Its caller learns the outcome once,
+ * and keeps the write in its windows until then.
+ */
+class WriteRetryQueue {
+    private static final Logger log = LogManager.getLogger();
+
+    private final CassandraSettings settings;
+    private final ConcurrentMap<RetentionTable, AtomicInteger> queuedPerTable = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+        Thread thread = new Thread( r, "cassandra-write-retry" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+
+    WriteRetryQueue( CassandraSettings settings ) {
+        this.settings = settings;
+    }
+
+    static boolean isRetryable( Throwable t ) {
+        return t instanceof WriteTimeoutException;
+    }
+
+    /**
+     * Schedules the given attempt of a write that already timed out.
+     *
+     * @param finished called exactly once, with whether the write finally succeeded
+     */
+    void retry( RetentionTable table, Supplier<ListenableFuture<?>> write, int attempt, Consumer<Boolean> finished ) {
+        if ( attempt > settings.maxWriteRetries() ) {
+            finish( table, finished, attempt - 1, Outcome.FAILED );
+            return;
+        }
+
+        AtomicInteger queued = queuedPerTable.computeIfAbsent( table, t -> new AtomicInteger() );
+        if ( queued.incrementAndGet() > settings.retryQueueSizePerTable() ) {
+            queued.decrementAndGet();
+            finish( table, finished, attempt - 1, Outcome.REJECTED );
+            return;
+        }
+
+        EventBusManager.fire( new WriteRetryEvent( System.currentTimeMillis(), table, attempt ) );
+        scheduler.schedule( () -> {
+            queued.decrementAndGet();
+            send( table, write, attempt, finished );
+        }, backoff( attempt ), TimeUnit.MILLISECONDS );
+    }
+
+    private void send( RetentionTable table, Supplier<ListenableFuture<?>> write, int attempt, Consumer<Boolean> finished ) {
+        ListenableFuture<?> future;
+        try {
+            future = write.get();
+        } catch( RuntimeException e ) {
+            onFailure( table, write, attempt, finished, e );
+            return;
+        }
+
+        Futures.addCallback( future, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess( Object result ) {
+                finish( table, finished, attempt, Outcome.SUCCEEDED );
+            }
+
+            @Override
+            public void onFailure( Throwable t ) {
+                WriteRetryQueue.this.onFailure( table, write, attempt, finished, t );
+            }
+        } );
+    }
+
+    private void onFailure( RetentionTable table, Supplier<ListenableFuture<?>> write, int attempt, Consumer<Boolean> finished, Throwable t ) {
+        if ( isRetryable( t ) ) {
+            retry( table, write, attempt + 1, finished );
+        } else {
+            log.warn( "Retrying a write into " + table + " failed", t );
+            finish( table, finished, attempt, Outcome.FAILED );
+        }
+    }
+
+    private void finish( RetentionTable table, Consumer<Boolean> finished, int attempts, Outcome outcome ) {
+        if ( outcome != Outcome.SUCCEEDED ) {
+            log.warn( "Giving up on a write into {} after {} retries: {}", table, attempts, outcome );
+        }
+        finished.accept( outcome == Outcome.SUCCEEDED );
+        EventBusManager.fire( new WriteRetryFinishedEvent( System.currentTimeMillis(), table, attempts, outcome ) );
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the delay is fixed, the other half random.
+     */
+    private long backoff( int attempt ) {
+        long initial = settings.initialRetryBackoff().toMillis();
+        long max = settings.maxRetryBackoff().toMillis();
+        long delay = Math.min( max, initial << Math.min( attempt - 1, 30 ) );
+        if ( delay <= 0 ) {
+            return 0;
+        }
+        return delay / 2 + ThreadLocalRandom.current().nextLong( delay / 2 + 1 );
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,46 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds the asynchronous writes of one aggregation task that are in flight
+ * at the same time, see CassandraAccessLayer.newWriteWindow(), and keeps
+ * track of them until the task awaits them.
+ *
+ * A task passes the same window to all of its writes, whichever thread sends
+ * them: the scanners of its token ranges, its shards, or its virtual thread.
+ * So a task only waits for its own writes at its checkpoints, and only its own
+ * failures keep its source table.
+ */
+public final class WriteWindow {
+    private final Semaphore inFlight;
+    private final PendingWrites pending = new PendingWrites();
+
+    WriteWindow( int maxInFlight ) {
+        this.inFlight = new Semaphore( maxInFlight );
+    }
+
+    void acquire() {
+        inFlight.acquireUninterruptibly();
+        pending.started();
+    }
+
+    void release( boolean success ) {
+        inFlight.release();
+        pending.finished( success );
+    }
+
+    /**
+     * @return how many more writes may be sent before the window is full
+     */
+    int available() {
+        return inFlight.availablePermits();
+    }
+
+    /**
+     * @return true if none of the writes of the window failed
+     */
+    boolean await() throws InterruptedException {
+        return pending.await();
+    }
+}
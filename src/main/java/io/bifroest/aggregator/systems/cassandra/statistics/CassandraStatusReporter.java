@@ -1,12 +1,17 @@
 package io.bifroest.aggregator.systems.cassandra.statistics;
 
+import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.kohsuke.MetaInfServices;
 
+import io.bifroest.aggregator.systems.cassandra.statistics.WriteRetryFinishedEvent.Outcome;
 import io.bifroest.commons.statistics.WriteToStorageEvent;
 import io.bifroest.commons.statistics.eventbus.EventBusManager;
 import io.bifroest.commons.statistics.eventbus.EventBusRegistrationPoint;
@@ -23,6 +28,20 @@ public class CassandraStatusReporter implements StatisticGatherer {
 
     private volatile long dropped = 0;
     private volatile long created = 0;
+    // reported by every aggregation task, or from the callbacks of the driver, i.e. from several threads at once
+    private final LongAdder dryRunPoints = new LongAdder();
+    private final LongAdder dryRunWriteRequests = new LongAdder();
+    private final LongAdder writeRetries = new LongAdder();
+    private volatile double throttleRate = 0;
+    private volatile long throttleP99LatencyNanos = 0;
+    // filled up front, so the map itself is never modified while it is read
+    private final Map<Outcome, LongAdder> writeRetryOutcomes = new EnumMap<>( Outcome.class );
+
+    public CassandraStatusReporter() {
+        for ( Outcome outcome : Outcome.values() ) {
+            writeRetryOutcomes.put( outcome, new LongAdder() );
+        }
+    }
 
     @Override
     public void init() {
@@ -46,11 +65,36 @@ public class CassandraStatusReporter implements StatisticGatherer {
             log.info( "===============================================================" );
         } );
 
+        registrationPoint.subscribe( DryRunWriteEvent.class, event -> {
+            dryRunPoints.add( event.points() );
+            dryRunWriteRequests.add( event.requests() );
+            log.debug( "Would have written {} points into {} using {} requests", event.points(), event.table(), event.requests() );
+        } );
+
+        registrationPoint.subscribe( WriteRetryEvent.class, event -> {
+            writeRetries.increment();
+            log.debug( "Retrying write into {}, attempt {}", event.table(), event.attempt() );
+        } );
+
+        registrationPoint.subscribe( WriteRetryFinishedEvent.class, event -> writeRetryOutcomes.get( event.outcome() ).increment() );
+
+        registrationPoint.subscribe( ThrottleRateEvent.class, event -> {
+            throttleRate = event.rate();
+            throttleP99LatencyNanos = event.p99LatencyNanos();
+        } );
+
         registrationPoint.subscribe( WriteToStorageEvent.class, e -> {
             MetricStorage storage = e.storageToWriteTo();
 
             storage.store( "createdTables", created );
             storage.store( "droppedTables", dropped );
+            storage.store( "dryRunPoints", dryRunPoints.sum() );
+            storage.store( "dryRunWriteRequests", dryRunWriteRequests.sum() );
+            storage.store( "writeRetries", writeRetries.sum() );
+            storage.store( "throttleRate", throttleRate );
+            storage.store( "throttleP99Latency", throttleP99LatencyNanos );
+            MetricStorage outcomes = storage.getSubStorageCalled( "writeRetryOutcomes" );
+            writeRetryOutcomes.forEach( ( outcome, count ) -> outcomes.store( outcome.name().toLowerCase( Locale.ROOT ), count.sum() ) );
         } );
     }
 }
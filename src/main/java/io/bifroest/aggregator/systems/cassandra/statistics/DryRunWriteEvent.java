@@ -0,0 +1,36 @@
+package io.bifroest.aggregator.systems.cassandra.statistics;
+
+import io.bifroest.retentions.RetentionTable;
+
+// Fired instead of writing, if the cassandra system runs with dry-run
+public class DryRunWriteEvent {
+
+    private final long timestamp;
+    private final RetentionTable table;
+    private final int points;
+    private final int requests;
+
+    public DryRunWriteEvent( long timestamp, RetentionTable table, int points, int requests ) {
+        this.timestamp = timestamp;
+        this.table = table;
+        this.points = points;
+        this.requests = requests;
+    }
+
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public RetentionTable table() {
+        return table;
+    }
+
+    public int points() {
+        return points;
+    }
+
+    public int requests() {
+        return requests;
+    }
+
+}
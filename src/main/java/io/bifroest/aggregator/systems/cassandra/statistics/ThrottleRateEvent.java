@@ -0,0 +1,37 @@
+package io.bifroest.aggregator.systems.cassandra.statistics;
+
+// Fired at the end of every throttle window
+public class ThrottleRateEvent {
+
+    private final long timestamp;
+    private final double rate;
+    private final long p99LatencyNanos;
+    private final double timeoutRatio;
+
+    public ThrottleRateEvent( long timestamp, double rate, long p99LatencyNanos, double timeoutRatio ) {
+        this.timestamp = timestamp;
+        this.rate = rate;
+        this.p99LatencyNanos = p99LatencyNanos;
+        this.timeoutRatio = timeoutRatio;
+    }
+
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the permitted requests per second for the next window
+     */
+    public double rate() {
+        return rate;
+    }
+
+    public long p99LatencyNanos() {
+        return p99LatencyNanos;
+    }
+
+    public double timeoutRatio() {
+        return timeoutRatio;
+    }
+
+}
@@ -0,0 +1,30 @@
+package io.bifroest.aggregator.systems.cassandra.statistics;
+
+import io.bifroest.retentions.RetentionTable;
+
+// Fired whenever a timed out write is scheduled for another attempt
+public class WriteRetryEvent {
+
+    private final long timestamp;
+    private final RetentionTable table;
+    private final int attempt;
+
+    public WriteRetryEvent( long timestamp, RetentionTable table, int attempt ) {
+        this.timestamp = timestamp;
+        this.table = table;
+        this.attempt = attempt;
+    }
+
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public RetentionTable table() {
+        return table;
+    }
+
+    public int attempt() {
+        return attempt;
+    }
+
+}
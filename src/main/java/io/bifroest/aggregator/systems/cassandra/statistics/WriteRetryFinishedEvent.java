@@ -0,0 +1,43 @@
+package io.bifroest.aggregator.systems.cassandra.statistics;
+
+import io.bifroest.retentions.RetentionTable;
+
+public class WriteRetryFinishedEvent {
+
+    public enum Outcome {
+        SUCCEEDED,
+        // all attempts timed out or the write failed otherwise
+        FAILED,
+        // the retry queue of the table was full
+        REJECTED
+    }
+
+    private final long timestamp;
+    private final RetentionTable table;
+    private final int attempts;
+    private final Outcome outcome;
+
+    public WriteRetryFinishedEvent( long timestamp, RetentionTable table, int attempts, Outcome outcome ) {
+        this.timestamp = timestamp;
+        this.table = table;
+        this.attempts = attempts;
+        this.outcome = outcome;
+    }
+
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public RetentionTable table() {
+        return table;
+    }
+
+    public int attempts() {
+        return attempts;
+    }
+
+    public Outcome outcome() {
+        return outcome;
+    }
+
+}
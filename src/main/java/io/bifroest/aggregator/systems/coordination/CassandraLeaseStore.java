@@ -0,0 +1,33 @@
+package io.bifroest.aggregator.systems.coordination;
+
+import java.time.Duration;
+
+import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
+
+/**
+ * Leases in a bookkeeping table of the keyspace, taken and renewed with
+ * lightweight transactions and expired by Cassandra through their TTL.
+ * The table is created by CassandraAccessLayer.createCoordinationTables().
+ */
+public class CassandraLeaseStore implements LeaseStore {
+    private final CassandraAccessLayer database;
+
+    public CassandraLeaseStore( CassandraAccessLayer database ) {
+        this.database = database;
+    }
+
+    @Override
+    public boolean tryAcquire( String resource, String owner, Duration duration ) {
+        return database.tryAcquireLease( resource, owner, duration );
+    }
+
+    @Override
+    public boolean renew( String resource, String owner, Duration duration ) {
+        return database.renewLease( resource, owner, duration );
+    }
+
+    @Override
+    public void release( String resource, String owner ) {
+        database.releaseLease( resource, owner );
+    }
+}
@@ -0,0 +1,33 @@
+package io.bifroest.aggregator.systems.coordination;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
+
+/**
+ * Completed units in a bookkeeping table of the keyspace, one partition per resource.
+ * The table is created by CassandraAccessLayer.createCoordinationTables().
+ */
+public class CassandraUnitRegistry implements UnitRegistry {
+    private final CassandraAccessLayer database;
+
+    public CassandraUnitRegistry( CassandraAccessLayer database ) {
+        this.database = database;
+    }
+
+    @Override
+    public void completed( String resource, int unit, String owner ) {
+        database.markUnitCompleted( resource, unit, owner );
+    }
+
+    @Override
+    public Set<Integer> completedUnits( String resource ) {
+        return new HashSet<>( database.loadCompletedUnits( resource ) );
+    }
+
+    @Override
+    public void forget( String resource ) {
+        database.forgetCompletedUnits( resource );
+    }
+}
@@ -0,0 +1,58 @@
+package io.bifroest.aggregator.systems.coordination;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+
+import org.json.JSONObject;
+
+import io.bifroest.commons.statistics.units.parse.DurationParser;
+
+/**
+ * The coordination block in the aggregator config. Every node sharing a
+ * keyspace needs it, and a node-id of its own:
+ *
+ * <pre>
+ * "coordination" : {
+ *     "node-id" : "aggregator-1",
+ *     "lease-duration" : "5m"
+ * }
+ * </pre>
+ *
+ * The node-id defaults to the pid and host name of the process. A node renews
+ * its leases three times per lease-duration, so a node that dies releases its
+ * tables after one lease-duration at most.
+ */
+public final class CoordinationSettings {
+    private static final Duration DEFAULT_LEASE_DURATION = Duration.ofMinutes( 5 );
+
+    private static final DurationParser parser = new DurationParser();
+
+    private final String nodeId;
+    private final Duration leaseDuration;
+
+    public CoordinationSettings( String nodeId, Duration leaseDuration ) {
+        if ( leaseDuration.getSeconds() < 3 ) {
+            throw new IllegalArgumentException( "lease-duration must be at least 3s, it is renewed every third of it" );
+        }
+        this.nodeId = nodeId;
+        this.leaseDuration = leaseDuration;
+    }
+
+    public static CoordinationSettings fromConfig( JSONObject config ) {
+        return new CoordinationSettings(
+                config.optString( "node-id", ManagementFactory.getRuntimeMXBean().getName() ),
+                config.has( "lease-duration" ) ? parser.parse( config.getString( "lease-duration" ) ) : DEFAULT_LEASE_DURATION );
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public Duration leaseDuration() {
+        return leaseDuration;
+    }
+
+    public Duration renewInterval() {
+        return leaseDuration.dividedBy( 3 );
+    }
+}
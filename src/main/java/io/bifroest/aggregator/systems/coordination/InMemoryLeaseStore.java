@@ -0,0 +1,59 @@
+package io.bifroest.aggregator.systems.coordination;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Leases shared by the nodes of one process, for tests and simulations.
+ */
+public class InMemoryLeaseStore implements LeaseStore {
+    private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<>();
+    private final LongSupplier currentMillis;
+
+    public InMemoryLeaseStore() {
+        this( System::currentTimeMillis );
+    }
+
+    public InMemoryLeaseStore( LongSupplier currentMillis ) {
+        this.currentMillis = currentMillis;
+    }
+
+    @Override
+    public boolean tryAcquire( String resource, String owner, Duration duration ) {
+        long now = currentMillis.getAsLong();
+        Lease lease = leases.compute( resource, ( r, current ) -> current == null || current.expired( now ) || current.owner.equals( owner )
+                ? new Lease( owner, now + duration.toMillis() )
+                : current );
+        return lease.owner.equals( owner );
+    }
+
+    @Override
+    public boolean renew( String resource, String owner, Duration duration ) {
+        long now = currentMillis.getAsLong();
+        Lease lease = leases.computeIfPresent( resource, ( r, current ) -> !current.expired( now ) && current.owner.equals( owner )
+                ? new Lease( owner, now + duration.toMillis() )
+                : current );
+        return lease != null && lease.owner.equals( owner ) && !lease.expired( now );
+    }
+
+    @Override
+    public void release( String resource, String owner ) {
+        leases.computeIfPresent( resource, ( r, current ) -> current.owner.equals( owner ) ? null : current );
+    }
+
+    private static final class Lease {
+        final String owner;
+        final long expiresAt;
+
+        Lease( String owner, long expiresAt ) {
+            this.owner = owner;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean expired( long now ) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package io.bifroest.aggregator.systems.coordination;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Completed units shared by the nodes of one process, for tests and simulations.
+ */
+public class InMemoryUnitRegistry implements UnitRegistry {
+    private final ConcurrentMap<String, Set<Integer>> units = new ConcurrentHashMap<>();
+
+    @Override
+    public void completed( String resource, int unit, String owner ) {
+        units.computeIfAbsent( resource, r -> ConcurrentHashMap.newKeySet() ).add( unit );
+    }
+
+    @Override
+    public Set<Integer> completedUnits( String resource ) {
+        return new HashSet<>( units.getOrDefault( resource, new HashSet<>() ) );
+    }
+
+    @Override
+    public void forget( String resource ) {
+        units.remove( resource );
+    }
+}
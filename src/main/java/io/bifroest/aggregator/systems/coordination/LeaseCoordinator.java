@@ -0,0 +1,195 @@
+package io.bifroest.aggregator.systems.coordination;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Hands out the leases of this node and renews the held ones in the background.
+ *
+ * A lease is lost when a renewal is rejected, i.e. it expired and another node
+ * took it, or when renewals keep failing for a whole lease duration. Whoever
+ * works under a lease must stop once it is lost.
+ */
+public class LeaseCoordinator {
+    private static final Logger log = LogManager.getLogger();
+
+    private final Optional<LeaseStore> store;
+    private final CoordinationSettings settings;
+    private final Set<Lease> held = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService renewer;
+
+    private LeaseCoordinator( Optional<LeaseStore> store, CoordinationSettings settings, boolean renewInBackground ) {
+        this.store = store;
+        this.settings = settings;
+        if ( renewInBackground ) {
+            this.renewer = Executors.newSingleThreadScheduledExecutor( r -> {
+                Thread thread = new Thread( r, "lease-renewer" );
+                thread.setDaemon( true );
+                return thread;
+            } );
+            long interval = settings.renewInterval().toMillis();
+            renewer.scheduleWithFixedDelay( this::renewAll, interval, interval, TimeUnit.MILLISECONDS );
+        } else {
+            this.renewer = null;
+        }
+    }
+
+    public LeaseCoordinator( LeaseStore store, CoordinationSettings settings ) {
+        this( Optional.of( store ), settings, true );
+    }
+
+    /**
+     * For a node working alone, every lease is granted and never lost.
+     */
+    public static LeaseCoordinator uncoordinated() {
+        return new LeaseCoordinator( Optional.empty(), null, false );
+    }
+
+    /**
+     * Without background renewals, call renewAll() instead.
+     */
+    static LeaseCoordinator withoutRenewer( LeaseStore store, CoordinationSettings settings ) {
+        return new LeaseCoordinator( Optional.of( store ), settings, false );
+    }
+
+    public boolean isCoordinated() {
+        return store.isPresent();
+    }
+
+    public String nodeId() {
+        return settings.nodeId();
+    }
+
+    /**
+     * @param layout how the table is split into units
+     * @return the units of the table, shared with the other nodes
+     */
+    public SharedTable share( String table, String layout, UnitRegistry registry ) {
+        return new SharedTable( table, layout, this, registry );
+    }
+
+    /**
+     * @return the lease of the resource, not acquired yet
+     */
+    public Lease leaseOf( String resource ) {
+        return new Lease( resource );
+    }
+
+    void renewAll() {
+        for ( Lease lease : held ) {
+            lease.renew();
+        }
+    }
+
+    public void shutdown() {
+        if ( renewer != null ) {
+            renewer.shutdownNow();
+        }
+    }
+
+    public final class Lease {
+        private final String resource;
+        private volatile boolean lost;
+        private volatile long renewedAt;
+
+        private Lease( String resource ) {
+            this.resource = resource;
+        }
+
+        /**
+         * @return whether this node holds the lease now, false if another node does or the store cannot be reached
+         */
+        public boolean acquire() {
+            if ( !store.isPresent() ) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            try {
+                if ( !store.get().tryAcquire( resource, settings.nodeId(), settings.leaseDuration() ) ) {
+                    return false;
+                }
+            } catch( RuntimeException e ) {
+                log.warn( "Cannot acquire the lease of " + resource, e );
+                return false;
+            }
+            renewedAt = now;
+            lost = false;
+            held.add( this );
+            return true;
+        }
+
+        public boolean isLost() {
+            return lost;
+        }
+
+        /**
+         * Renews the lease right away, as a fence before work that cannot be undone.
+         *
+         * @return whether this node still holds the lease, false if another node took it or the store cannot be reached
+         */
+        public boolean confirm() {
+            if ( !store.isPresent() ) {
+                return true;
+            }
+            if ( lost ) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            try {
+                if ( store.get().renew( resource, settings.nodeId(), settings.leaseDuration() ) ) {
+                    renewedAt = now;
+                    return true;
+                }
+            } catch( RuntimeException e ) {
+                log.warn( "Cannot confirm the lease of " + resource, e );
+                return false;
+            }
+            log.warn( "Lost the lease of {}, another node took it over", resource );
+            lost = true;
+            held.remove( this );
+            return false;
+        }
+
+        public void release() {
+            if ( !store.isPresent() || !held.remove( this ) ) {
+                return;
+            }
+            try {
+                store.get().release( resource, settings.nodeId() );
+            } catch( RuntimeException e ) {
+                log.warn( "Cannot release the lease of " + resource + ", it expires in " + settings.leaseDuration(), e );
+            }
+        }
+
+        private void renew() {
+            long now = System.currentTimeMillis();
+            try {
+                if ( store.get().renew( resource, settings.nodeId(), settings.leaseDuration() ) ) {
+                    renewedAt = now;
+                    return;
+                }
+                log.warn( "Lost the lease of {}, another node took it over", resource );
+            } catch( RuntimeException e ) {
+                if ( now - renewedAt < settings.leaseDuration().toMillis() ) {
+                    log.warn( "Cannot renew the lease of " + resource + ", trying again", e );
+                    return;
+                }
+                log.warn( "Cannot renew the lease of " + resource + " and it has expired", e );
+            }
+            lost = true;
+            held.remove( this );
+        }
+
+        @Override
+        public String toString() {
+            return "Lease [" + resource + "]";
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package io.bifroest.aggregator.systems.coordination;
+
+import java.time.Duration;
+
+/**
+ * Time-bounded leases shared by all aggregator nodes. A lease that is not
+ * renewed within its duration expires, so a node that dies loses its leases
+ * and other nodes can take them over.
+ */
+public interface LeaseStore {
+    /**
+     * @return whether the owner holds the lease now, either because it was free or because the owner held it already
+     */
+    boolean tryAcquire( String resource, String owner, Duration duration );
+
+    /**
+     * @return whether the owner still held the lease and it was extended by the duration
+     */
+    boolean renew( String resource, String owner, Duration duration );
+
+    /**
+     * Gives up the lease, does nothing if the owner does not hold it.
+     */
+    void release( String resource, String owner );
+}
@@ -0,0 +1,97 @@
+package io.bifroest.aggregator.systems.coordination;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The units of work of one table, shared by all coordinated nodes. A node
+ * works on a unit while it holds the unit's lease, and records it in the
+ * registry once its aggregates are written. The table is finished once
+ * every unit is recorded, no matter which nodes did them.
+ *
+ * A local table belongs to this node alone: every unit can be claimed and
+ * nothing is recorded.
+ */
+public final class SharedTable {
+    private static final SharedTable LOCAL = new SharedTable( null, null, null, null );
+
+    private final String table;
+    // the table and how it is split into units, units of different layouts do not match
+    private final String resource;
+    private final LeaseCoordinator leases;
+    private final UnitRegistry registry;
+    private final Set<Integer> completed = ConcurrentHashMap.newKeySet();
+
+    SharedTable( String table, String layout, LeaseCoordinator leases, UnitRegistry registry ) {
+        this.table = table;
+        this.resource = table + " " + layout;
+        this.leases = leases;
+        this.registry = registry;
+    }
+
+    public static SharedTable local() {
+        return LOCAL;
+    }
+
+    public boolean isShared() {
+        return registry != null;
+    }
+
+    /**
+     * Loads the units completed by any node.
+     */
+    public void refresh() {
+        if ( isShared() ) {
+            completed.addAll( registry.completedUnits( resource ) );
+        }
+    }
+
+    public boolean isCompleted( int unit ) {
+        return completed.contains( unit );
+    }
+
+    /**
+     * @return the units completed by any node, as of the last refresh
+     */
+    public Set<Integer> completedUnits() {
+        return Collections.unmodifiableSet( completed );
+    }
+
+    /**
+     * @return the acquired lease of the unit, null if another node holds it
+     */
+    public LeaseCoordinator.Lease claim( int unit ) {
+        return acquired( resource + "#" + unit );
+    }
+
+    /**
+     * Records the unit for all nodes, after its aggregates are written.
+     */
+    public void completed( int unit ) {
+        if ( isShared() && completed.add( unit ) ) {
+            registry.completed( resource, unit, leases.nodeId() );
+        }
+    }
+
+    /**
+     * @return the acquired lease of the whole table, to drop it without racing the other nodes, null if another node holds it
+     */
+    public LeaseCoordinator.Lease claimTable() {
+        return acquired( table );
+    }
+
+    /**
+     * Forgets the recorded units, once the table is dropped.
+     */
+    public void forget() {
+        if ( isShared() ) {
+            registry.forget( resource );
+        }
+    }
+
+    private LeaseCoordinator.Lease acquired( String name ) {
+        LeaseCoordinator.Lease lease = isShared() ? leases.leaseOf( name ) : LeaseCoordinator.uncoordinated().leaseOf( name );
+        return lease.acquire() ? lease : null;
+    }
+}
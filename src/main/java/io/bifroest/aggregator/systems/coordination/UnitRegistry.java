@@ -0,0 +1,14 @@
+package io.bifroest.aggregator.systems.coordination;
+
+import java.util.Set;
+
+/**
+ * The completed units of work of shared resources, as seen by all nodes.
+ */
+public interface UnitRegistry {
+    void completed( String resource, int unit, String owner );
+
+    Set<Integer> completedUnits( String resource );
+
+    void forget( String resource );
+}
@@ -0,0 +1,131 @@
+package io.bifroest.aggregator.systems.statistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Latencies in nanoseconds, counted in buckets of at most 1/32 of their value
+ * like a HdrHistogram with about two significant digits, from one nanosecond
+ * to Long.MAX_VALUE.
+ *
+ * Recording is one atomic increment, and a compare-and-set for a new maximum,
+ * so any number of threads can record at once without locks. A latency
+ * recorded while the histogram is reset may be lost.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = ( 64 - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS;
+
+    private final AtomicReference<Window> window = new AtomicReference<>( new Window() );
+
+    public void record( long nanos ) {
+        window.get().record( Math.max( 0, nanos ) );
+    }
+
+    /**
+     * Records the time since start, a value of System.nanoTime().
+     */
+    public void recordSince( long start ) {
+        record( System.nanoTime() - start );
+    }
+
+    /**
+     * @return the latencies since the last reset
+     */
+    public Snapshot snapshot() {
+        return window.get().snapshot();
+    }
+
+    /**
+     * @return the latencies since the last reset, which starts over now
+     */
+    public Snapshot snapshotAndReset() {
+        return window.getAndSet( new Window() ).snapshot();
+    }
+
+    private static int indexOf( long nanos ) {
+        if ( nanos < SUB_BUCKETS ) {
+            return (int)nanos;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros( nanos );
+        int sub = (int)( nanos >>> ( magnitude - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+        return ( magnitude - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf( int index ) {
+        if ( index < SUB_BUCKETS ) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        long bound = ( ( SUB_BUCKETS + sub + 1 ) << ( magnitude - SUB_BUCKET_BITS ) ) - 1;
+        // the last buckets reach beyond Long.MAX_VALUE
+        return bound < 0 ? Long.MAX_VALUE : bound;
+    }
+
+    private static final class Window {
+        private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+        private final AtomicLong max = new AtomicLong();
+
+        void record( long nanos ) {
+            counts.incrementAndGet( indexOf( nanos ) );
+            long current = max.get();
+            while ( nanos > current && !max.compareAndSet( current, nanos ) ) {
+                current = max.get();
+            }
+        }
+
+        Snapshot snapshot() {
+            long[] copy = new long[BUCKETS];
+            for ( int i = 0; i < BUCKETS; i++ ) {
+                copy[i] = counts.get( i );
+            }
+            return new Snapshot( copy, max.get() );
+        }
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+
+        private Snapshot( long[] counts, long max ) {
+            this.counts = counts;
+            long count = 0;
+            for ( long c : counts ) {
+                count += c;
+            }
+            this.count = count;
+            this.max = max;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long maxNanos() {
+            return max;
+        }
+
+        /**
+         * @param quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+         * @return the upper bound of the bucket holding the quantile, 0 without any latencies
+         */
+        public long percentileNanos( double quantile ) {
+            if ( count == 0 ) {
+                return 0;
+            }
+            long rank = Math.max( 1, (long)Math.ceil( quantile * count ) );
+            long seen = 0;
+            for ( int i = 0; i < counts.length; i++ ) {
+                seen += counts[i];
+                if ( seen >= rank ) {
+                    return Math.min( upperBoundOf( i ), max );
+                }
+            }
+            return max;
+        }
+    }
+}
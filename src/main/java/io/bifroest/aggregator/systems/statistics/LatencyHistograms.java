@@ -0,0 +1,50 @@
+package io.bifroest.aggregator.systems.statistics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The latency histograms of the process, by group, name and retention level,
+ * e.g. the read phase of the aggregation of the minutely tables. Looking up a
+ * histogram that exists does not allocate, so it can be done for every record.
+ */
+public final class LatencyHistograms {
+    /**
+     * The level of latencies not belonging to a retention level.
+     */
+    public static final String ALL_LEVELS = "all";
+
+    private static final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>>> histograms = new ConcurrentHashMap<>();
+
+    private LatencyHistograms() {
+    }
+
+    public static LatencyHistogram of( String group, String name, String level ) {
+        ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> names = histograms.get( group );
+        if ( names == null ) {
+            names = histograms.computeIfAbsent( group, g -> new ConcurrentHashMap<>() );
+        }
+        ConcurrentMap<String, LatencyHistogram> levels = names.get( name );
+        if ( levels == null ) {
+            levels = names.computeIfAbsent( name, n -> new ConcurrentHashMap<>() );
+        }
+        LatencyHistogram histogram = levels.get( level );
+        return histogram != null ? histogram : levels.computeIfAbsent( level, l -> new LatencyHistogram() );
+    }
+
+    public static void forEach( Visitor visitor ) {
+        for ( Map.Entry<String, ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>>> group : histograms.entrySet() ) {
+            for ( Map.Entry<String, ConcurrentMap<String, LatencyHistogram>> name : group.getValue().entrySet() ) {
+                for ( Map.Entry<String, LatencyHistogram> level : name.getValue().entrySet() ) {
+                    visitor.visit( group.getKey(), name.getKey(), level.getKey(), level.getValue() );
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Visitor {
+        void visit( String group, String name, String level, LatencyHistogram histogram );
+    }
+}
@@ -0,0 +1,36 @@
+package io.bifroest.aggregator.systems.statistics;
+
+import org.kohsuke.MetaInfServices;
+
+import io.bifroest.commons.statistics.WriteToStorageEvent;
+import io.bifroest.commons.statistics.eventbus.EventBusManager;
+import io.bifroest.commons.statistics.eventbus.EventBusRegistrationPoint;
+import io.bifroest.commons.statistics.gathering.StatisticGatherer;
+import io.bifroest.commons.statistics.storage.MetricStorage;
+
+/**
+ * Stores the percentiles of every latency histogram under
+ * latencies.[group].[name].[level], in nanoseconds. Each write covers the
+ * latencies recorded since the previous one.
+ */
+@MetaInfServices
+public class LatencyStatusReporter implements StatisticGatherer {
+    @Override
+    public void init() {
+        EventBusRegistrationPoint registrationPoint = EventBusManager.createRegistrationPoint();
+
+        registrationPoint.subscribe( WriteToStorageEvent.class, e -> {
+            MetricStorage latencies = e.storageToWriteTo().getSubStorageCalled( "latencies" );
+            LatencyHistograms.forEach( ( group, name, level, histogram ) -> {
+                LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+                MetricStorage storage = latencies.getSubStorageCalled( group ).getSubStorageCalled( name ).getSubStorageCalled( level );
+                storage.store( "count", snapshot.count() );
+                storage.store( "p50", snapshot.percentileNanos( 0.5 ) );
+                storage.store( "p90", snapshot.percentileNanos( 0.9 ) );
+                storage.store( "p99", snapshot.percentileNanos( 0.99 ) );
+                storage.store( "p999", snapshot.percentileNanos( 0.999 ) );
+                storage.store( "max", snapshot.maxNanos() );
+            } );
+        } );
+    }
+}
@@ -0,0 +1,121 @@
+package io.bifroest.aggregator.systems.statistics;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The rate of something counted over the last few complete slots of time,
+ * e.g. points per second over the last minute, and the busiest slot since
+ * the last reset of the peak.
+ *
+ * Counting is an add to a striped counter, so any number of threads can count
+ * at once without contending. The first count in a new slot moves the ring on
+ * by putting a fresh counter in place of the old one, so no count racing with
+ * it is lost. Only a thread stalled for the whole ring between reading the
+ * clock and counting adds to a counter that was already retired.
+ */
+public final class SlidingWindowRate {
+    private final long slotMillis;
+    private final int window;
+    private final LongSupplier clock;
+    private final AtomicReferenceArray<Slot> slots;
+    private final AtomicLong peak = new AtomicLong();
+    private volatile long peakSince = -1;
+
+    /**
+     * @param slot the resolution of the rate and of its peak
+     * @param window the number of complete slots the rate is averaged over
+     */
+    public SlidingWindowRate( Duration slot, int window ) {
+        this( slot, window, System::currentTimeMillis );
+    }
+
+    SlidingWindowRate( Duration slot, int window, LongSupplier clock ) {
+        if ( slot.toMillis() < 1 || window < 1 ) {
+            throw new IllegalArgumentException( "slot must be at least 1ms and window at least 1, got " + slot + " and " + window );
+        }
+        this.slotMillis = slot.toMillis();
+        this.window = window;
+        this.clock = clock;
+        // the slot being counted and the window before it
+        this.slots = new AtomicReferenceArray<>( window + 1 );
+        for ( int i = 0; i < slots.length(); i++ ) {
+            slots.set( i, new Slot( -1 ) );
+        }
+    }
+
+    public void add( long n ) {
+        long slot = clock.getAsLong() / slotMillis;
+        int index = (int)( slot % slots.length() );
+        Slot held = slots.get( index );
+        while ( held.slot < slot ) {
+            Slot next = new Slot( slot );
+            if ( slots.compareAndSet( index, held, next ) ) {
+                // late counts of the retired slot are still added to it, they only miss the peak
+                if ( held.slot >= peakSince ) {
+                    updatePeak( held.count.sum() );
+                }
+                held = next;
+            } else {
+                held = slots.get( index );
+            }
+        }
+        held.count.add( n );
+    }
+
+    /**
+     * @return the average count per the given duration over the complete slots of the window
+     */
+    public double rate( Duration per ) {
+        long current = clock.getAsLong() / slotMillis;
+        long sum = 0;
+        for ( int i = 0; i < slots.length(); i++ ) {
+            Slot slot = slots.get( i );
+            if ( slot.slot < current && slot.slot >= current - window ) {
+                sum += slot.count.sum();
+            }
+        }
+        return (double)sum * per.toMillis() / ( window * slotMillis );
+    }
+
+    /**
+     * @return the count of the busiest slot since the last reset, per the given duration
+     */
+    public double peak( Duration per ) {
+        for ( int i = 0; i < slots.length(); i++ ) {
+            // slots still in the ring, the one being counted is a lower bound of its final count
+            Slot slot = slots.get( i );
+            if ( slot.slot >= peakSince ) {
+                updatePeak( slot.count.sum() );
+            }
+        }
+        return (double)peak.get() * per.toMillis() / slotMillis;
+    }
+
+    /**
+     * Starts over with the peak, slots finishing later only count if they started after now.
+     */
+    public void resetPeak() {
+        peakSince = clock.getAsLong() / slotMillis;
+        peak.set( 0 );
+    }
+
+    private void updatePeak( long count ) {
+        long current = peak.get();
+        while ( count > current && !peak.compareAndSet( current, count ) ) {
+            current = peak.get();
+        }
+    }
+
+    private static final class Slot {
+        final long slot;
+        final LongAdder count = new LongAdder();
+
+        Slot( long slot ) {
+            this.slot = slot;
+        }
+    }
+}
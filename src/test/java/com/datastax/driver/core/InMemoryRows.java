@@ -0,0 +1,28 @@
+package com.datastax.driver.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Creates driver rows without a cluster. The factories of this driver
+ * version are package private, hence the package.
+ */
+public final class InMemoryRows {
+    private InMemoryRows() {
+    }
+
+    public static ColumnDefinitions columns( String keyspace, String table, String[] names, DataType[] types ) {
+        ColumnDefinitions.Definition[] definitions = new ColumnDefinitions.Definition[names.length];
+        for ( int i = 0; i < names.length; i++ ) {
+            definitions[i] = new ColumnDefinitions.Definition( keyspace, table, names[i], types[i] );
+        }
+        return new ColumnDefinitions( definitions );
+    }
+
+    /**
+     * @param values serialized with the types of the columns, see DataType.serialize
+     */
+    public static Row row( ColumnDefinitions columns, ByteBuffer... values ) {
+        return Row.fromData( columns, Arrays.asList( values ) );
+    }
+}
@@ -0,0 +1,137 @@
+package io.bifroest.aggregator.benchmarks;
+
+import static org.mockito.Mockito.RETURNS_MOCKS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+import io.bifroest.commons.statistics.eventbus.EventBusImpl;
+import io.bifroest.commons.statistics.eventbus.EventBusManager;
+import io.bifroest.commons.statistics.eventbus.EventBusManager.EventBusForce;
+import io.bifroest.commons.statistics.units.parse.DurationParser;
+import io.bifroest.aggregator.systems.AggregatorEnvironment;
+import io.bifroest.aggregator.systems.aggregation.AggregationSettings;
+import io.bifroest.aggregator.systems.aggregation.Aggregator;
+import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
+import io.bifroest.aggregator.systems.cassandra.CassandraSettings;
+import io.bifroest.aggregator.systems.cassandra.InMemoryCassandraSession;
+import io.bifroest.aggregator.systems.cassandra.InMemoryClusterWrapper;
+import io.bifroest.aggregator.systems.cassandra.LatencyDistribution;
+import io.bifroest.aggregator.systems.cassandra.SimulatedCassandraSession;
+import io.bifroest.aggregator.systems.cassandra.SimulatedCassandraSession.Operation;
+import io.bifroest.aggregator.systems.statistics.LatencyHistogram;
+import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
+
+/**
+ * Runs one whole aggregation against a simulated Cassandra filled by the
+ * {@link WorkloadGenerator}, and reports the throughput and the latencies of
+ * the requests. The levels are precise (1m for 6h) into hourly (1h for 7d)
+ * into daily (1d for a year). Not run by the build:
+ *
+ * <pre>
+ * java -cp ... io.bifroest.aggregator.benchmarks.AggregatorLoadRunner [key=value ...]
+ * </pre>
+ *
+ * with the keys and their defaults:
+ *
+ * <pre>
+ * names=10000 points=60 skew=1.0 tables=2 seed=42         the workload, see WorkloadGenerator
+ * read=1ms~20ms scan=2ms~40ms write=1ms~10ms              latencies, see LatencyDistribution.parse
+ * schema=200ms coordination=2ms~20ms
+ * read-timeouts=0 scan-timeouts=0 write-timeouts=0        the share of requests that time out
+ * timeout=2s                                              how long they take to do so
+ * aggregator={...} cassandra={...}                        the config blocks of the aggregator
+ * </pre>
+ */
+public class AggregatorLoadRunner {
+    private static final DurationParser parser = new DurationParser();
+
+    public static void main( String[] args ) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for ( String arg : args ) {
+            int separator = arg.indexOf( '=' );
+            if ( separator < 0 ) {
+                throw new IllegalArgumentException( "Expected key=value, got " + arg );
+            }
+            options.put( arg.substring( 0, separator ), arg.substring( separator + 1 ) );
+        }
+
+        EventBusManager.setEventBus( new EventBusImpl(), EventBusForce.VROOM );
+
+        RetentionLevel precise = new RetentionLevel( "precise", 60, 2, 6 * 60 * 60, "hourly" );
+        RetentionLevel hourly = new RetentionLevel( "hourly", 60 * 60, 2, 7 * 24 * 60 * 60, "daily" );
+        RetentionLevel daily = new RetentionLevel( "daily", 24 * 60 * 60, 2, 365 * 24 * 60 * 60, null );
+        List<RetentionLevel> levels = Arrays.asList( precise, hourly, daily );
+
+        InMemoryCassandraSession keyspace = new InMemoryCassandraSession();
+        long generated = WorkloadGenerator.builder()
+                .names( Integer.parseInt( options.getOrDefault( "names", "10000" ) ) )
+                .pointsPerSeries( Integer.parseInt( options.getOrDefault( "points", "60" ) ) )
+                .skew( Double.parseDouble( options.getOrDefault( "skew", "1.0" ) ) )
+                .tablesPerLevel( Integer.parseInt( options.getOrDefault( "tables", "2" ) ) )
+                .seed( Long.parseLong( options.getOrDefault( "seed", "42" ) ) )
+                .build()
+                .generate( keyspace, levels, System.currentTimeMillis() / 1000 );
+        System.out.printf( "generated %d tables with %d points%n", keyspace.tableNames().size(), generated );
+
+        SimulatedCassandraSession session = SimulatedCassandraSession.builder()
+                .latency( Operation.READ, LatencyDistribution.parse( options.getOrDefault( "read", "1ms~20ms" ) ) )
+                .latency( Operation.SCAN, LatencyDistribution.parse( options.getOrDefault( "scan", "2ms~40ms" ) ) )
+                .latency( Operation.WRITE, LatencyDistribution.parse( options.getOrDefault( "write", "1ms~10ms" ) ) )
+                .latency( Operation.SCHEMA, LatencyDistribution.parse( options.getOrDefault( "schema", "200ms" ) ) )
+                .latency( Operation.COORDINATION, LatencyDistribution.parse( options.getOrDefault( "coordination", "2ms~20ms" ) ) )
+                .timeoutRate( Operation.READ, Double.parseDouble( options.getOrDefault( "read-timeouts", "0" ) ) )
+                .timeoutRate( Operation.SCAN, Double.parseDouble( options.getOrDefault( "scan-timeouts", "0" ) ) )
+                .timeoutRate( Operation.WRITE, Double.parseDouble( options.getOrDefault( "write-timeouts", "0" ) ) )
+                .timeout( parser.parse( options.getOrDefault( "timeout", "2s" ) ) )
+                .build( keyspace );
+
+        RetentionConfiguration retentions = StubRetentions.of( StubRetentions.builtIn( "average" ), precise, hourly, daily );
+        CassandraAccessLayer database = new CassandraAccessLayer( new InMemoryClusterWrapper( keyspace, session ), retentions, false,
+                CassandraSettings.fromConfig( new JSONObject( options.getOrDefault( "cassandra", "{}" ) ) ) );
+        // the configuration loader is a mock as well, the run only reloads it
+        AggregatorEnvironment environment = mock( AggregatorEnvironment.class, withSettings().stubOnly().defaultAnswer( RETURNS_MOCKS ) );
+        when( environment.cassandraAccessLayer() ).thenReturn( database );
+        when( environment.retentions() ).thenReturn( retentions );
+
+        Aggregator<AggregatorEnvironment> aggregator = new Aggregator<>( environment,
+                AggregationSettings.fromConfig( new JSONObject( options.getOrDefault( "aggregator", "{}" ) ) ) );
+        long start = System.nanoTime();
+        aggregator.run();
+        Duration elapsed = Duration.ofNanos( System.nanoTime() - start );
+        aggregator.shutdown();
+        database.close();
+
+        report( session, elapsed );
+    }
+
+    private static void report( SimulatedCassandraSession session, Duration elapsed ) {
+        double seconds = elapsed.toNanos() / 1e9;
+        System.out.printf( "aggregated in %.1f s%n", seconds );
+        System.out.printf( "tables: %d dropped, %.2f/s%n", session.tablesDropped(), session.tablesDropped() / seconds );
+        System.out.printf( "names:  %d read, %.0f/s%n", session.namesRead(), session.namesRead() / seconds );
+        System.out.printf( "points: %d read, %.0f/s, %d written, %.0f/s%n", session.pointsRead(), session.pointsRead() / seconds,
+                session.pointsWritten(), session.pointsWritten() / seconds );
+        System.out.printf( "timeouts: %d%n", session.timeouts() );
+        System.out.printf( "%-12s %10s %10s %10s %10s %10s %10s%n", "latency", "requests", "p50", "p90", "p99", "p99.9", "max" );
+        for ( Operation operation : Operation.values() ) {
+            LatencyHistogram.Snapshot latencies = session.latencies( operation ).snapshot();
+            System.out.printf( "%-12s %10d %10s %10s %10s %10s %10s%n", operation.name().toLowerCase(), latencies.count(),
+                    millis( latencies.percentileNanos( 0.5 ) ), millis( latencies.percentileNanos( 0.9 ) ), millis( latencies.percentileNanos( 0.99 ) ),
+                    millis( latencies.percentileNanos( 0.999 ) ), millis( latencies.maxNanos() ) );
+        }
+    }
+
+    private static String millis( long nanos ) {
+        return String.format( "%.2fms", nanos / 1e6 );
+    }
+}
@@ -0,0 +1,69 @@
+package io.bifroest.aggregator.benchmarks;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import io.bifroest.commons.statistics.aggregation.AverageAggregation;
+import io.bifroest.commons.statistics.aggregation.LastAggregation;
+import io.bifroest.commons.statistics.aggregation.MaxAggregation;
+import io.bifroest.commons.statistics.aggregation.MinAggregation;
+import io.bifroest.commons.statistics.aggregation.SumAggregation;
+import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
+
+/**
+ * A retention configuration for benchmarks: one chain of levels, each one
+ * aggregated into the next, and one aggregation function for every name.
+ *
+ * The mock is stub only, it does not record the millions of invocations of a
+ * benchmark run.
+ */
+public final class StubRetentions {
+    private StubRetentions() {
+    }
+
+    /**
+     * @param function one of average, last, max, min and sum
+     */
+    public static Supplier<?> builtIn( String function ) {
+        switch ( function ) {
+        case "average":
+            return AverageAggregation::new;
+        case "last":
+            return LastAggregation::new;
+        case "max":
+            return MaxAggregation::new;
+        case "min":
+            return MinAggregation::new;
+        case "sum":
+            return SumAggregation::new;
+        default:
+            throw new IllegalArgumentException( "Unknown function " + function );
+        }
+    }
+
+    /**
+     * @param levels the chain, from the most precise level to the last one
+     */
+    public static RetentionConfiguration of( Supplier<?> function, RetentionLevel... levels ) {
+        RetentionConfiguration retentions = mock( RetentionConfiguration.class, withSettings().stubOnly() );
+        when( retentions.findFunctionForMetric( anyString() ) ).thenAnswer( invocation -> function.get() );
+        when( retentions.getTopologicalSort() ).thenReturn( Arrays.asList( levels ) );
+        when( retentions.getLevelForName( anyString() ) ).thenReturn( Optional.empty() );
+        when( retentions.getNextLevel( any( RetentionLevel.class ) ) ).thenReturn( Optional.empty() );
+        for ( int i = 0; i < levels.length; i++ ) {
+            when( retentions.getLevelForName( levels[i].name() ) ).thenReturn( Optional.of( levels[i] ) );
+            if ( i + 1 < levels.length ) {
+                when( retentions.getNextLevel( levels[i] ) ).thenReturn( Optional.of( levels[i + 1] ) );
+            }
+        }
+        return retentions;
+    }
+}
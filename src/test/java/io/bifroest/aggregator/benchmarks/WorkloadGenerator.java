@@ -0,0 +1,145 @@
+package io.bifroest.aggregator.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+
+import io.bifroest.aggregator.systems.cassandra.InMemoryCassandraSession;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * Fills a keyspace with the expired tables an aggregation run has to work off.
+ *
+ * Every table holds the same names, like the tables of a real keyspace. Their
+ * series have points-per-series points on average. With a skew above 0, the
+ * points are spread over the names by Zipf's law, so a few names have many
+ * points and most have few, up to one point every frequency of the level.
+ */
+public final class WorkloadGenerator {
+    private final int names;
+    private final int pointsPerSeries;
+    private final double skew;
+    private final int tablesPerLevel;
+    private final long seed;
+
+    private WorkloadGenerator( Builder builder ) {
+        this.names = builder.names;
+        this.pointsPerSeries = builder.pointsPerSeries;
+        this.skew = builder.skew;
+        this.tablesPerLevel = builder.tablesPerLevel;
+        this.seed = builder.seed;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates the tablesPerLevel newest expired tables of every level.
+     *
+     * @param now in seconds, like the aggregator
+     * @return the points written
+     */
+    public long generate( InMemoryCassandraSession keyspace, List<RetentionLevel> levels, long now ) {
+        Random random = new Random( seed );
+        double[] shares = shares();
+        long written = 0;
+        for ( RetentionLevel level : levels ) {
+            int capacity = (int) Math.max( 1, level.blockSize() / level.frequency() );
+            long newestExpired = level.indexOf( now ) - level.blocks();
+            for ( int t = 0; t < tablesPerLevel; t++ ) {
+                RetentionTable table = new RetentionTable( level, newestExpired - t );
+                keyspace.createTable( table );
+                for ( int n = 0; n < names; n++ ) {
+                    int points = (int) Math.min( capacity, Math.max( 1, Math.round( shares[n] * pointsPerSeries * names ) ) );
+                    keyspace.insertPoints( table, nameOf( n ), timestamps( table, capacity, points ), values( random, points ) );
+                    written += points;
+                }
+            }
+        }
+        return written;
+    }
+
+    public static String nameOf( int n ) {
+        return String.format( "servers.host%04d.metric%02d", n / 50, n % 50 );
+    }
+
+    /**
+     * @return the share of all points of every name, by Zipf's law with the skew as exponent
+     */
+    private double[] shares() {
+        double[] shares = new double[names];
+        double total = 0;
+        for ( int n = 0; n < names; n++ ) {
+            shares[n] = 1 / Math.pow( n + 1, skew );
+            total += shares[n];
+        }
+        for ( int n = 0; n < names; n++ ) {
+            shares[n] /= total;
+        }
+        return shares;
+    }
+
+    private static long[] timestamps( RetentionTable table, int capacity, int points ) {
+        long[] timestamps = new long[points];
+        long frequency = table.level().frequency();
+        for ( int i = 0; i < points; i++ ) {
+            // evenly spread over the slots of the block
+            timestamps[i] = table.getInterval().start() + ( (long) i * capacity / points ) * frequency;
+        }
+        return timestamps;
+    }
+
+    private static double[] values( Random random, int points ) {
+        double[] values = new double[points];
+        double value = random.nextDouble() * 100;
+        for ( int i = 0; i < points; i++ ) {
+            value += random.nextGaussian();
+            values[i] = value;
+        }
+        return values;
+    }
+
+    public static final class Builder {
+        private int names = 10000;
+        private int pointsPerSeries = 60;
+        private double skew = 0;
+        private int tablesPerLevel = 2;
+        private long seed = 42;
+
+        private Builder() {
+        }
+
+        public Builder names( int names ) {
+            this.names = names;
+            return this;
+        }
+
+        public Builder pointsPerSeries( int pointsPerSeries ) {
+            this.pointsPerSeries = pointsPerSeries;
+            return this;
+        }
+
+        /**
+         * @param skew 0 for the same number of points in every series, around 1 for a realistic long tail
+         */
+        public Builder skew( double skew ) {
+            this.skew = skew;
+            return this;
+        }
+
+        public Builder tablesPerLevel( int tablesPerLevel ) {
+            this.tablesPerLevel = tablesPerLevel;
+            return this;
+        }
+
+        public Builder seed( long seed ) {
+            this.seed = seed;
+            return this;
+        }
+
+        public WorkloadGenerator build() {
+            return new WorkloadGenerator( this );
+        }
+    }
+}
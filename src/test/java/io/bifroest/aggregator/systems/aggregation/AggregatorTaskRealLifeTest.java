@@ -1,12 +1,16 @@
 package io.bifroest.aggregator.systems.aggregation;
 
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
@@ -19,6 +23,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.hamcrest.Description;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -29,6 +34,8 @@ import io.bifroest.commons.statistics.eventbus.EventBusImpl;
 import io.bifroest.commons.statistics.eventbus.EventBusManager;
 import io.bifroest.aggregator.systems.AggregatorEnvironment;
 import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
+import io.bifroest.aggregator.systems.cassandra.PointHandler;
+import io.bifroest.aggregator.systems.cassandra.WriteWindow;
 import io.bifroest.retentions.RetentionConfiguration;
 import io.bifroest.retentions.RetentionLevel;
 import io.bifroest.retentions.RetentionTable;
@@ -70,12 +77,34 @@ public class AggregatorTaskRealLifeTest {
 
     @Test
     public void test() {
-        new AggregatorTask<AggregatorEnvironment>( environment, sourceTable, Optional.of( nextLevel ), Duration.ZERO ).run();
+        new AggregatorTask<AggregatorEnvironment>( environment, sourceTable, Optional.of( nextLevel ) ).run();
 
         verify( database, atLeastOnce() ).createTableIfNecessary( nextTable );
         MetricMatcher m = new MetricMatcher(
                 IntStream.range( 0, 24 ).mapToObj( i -> metricsInSource[12 * i + 11] ).collect( Collectors.toList() ) );
-        verify( database, atLeastOnce() ).insertMetrics( eq( nextTable ), argThat( m ) );
+        verify( database, atLeastOnce() ).insertMetrics( eq( nextTable ), argThat( m ), any( WriteWindow.class ) );
+    }
+
+    @Test
+    public void columnarAggregationWritesTheSamePoints() {
+        doAnswer( i -> {
+            PointHandler handler = (PointHandler)i.getArguments()[3];
+            for ( Metric metric : metricsInSource ) {
+                handler.handle( metric.timestamp(), metric.value() );
+            }
+            return null;
+        } ).when( database ).loadPoints( eq( sourceTable ), eq( METRIC_NAME ), anyInt(), any( PointHandler.class ) );
+
+        new AggregatorTask<AggregatorEnvironment>( environment, sourceTable, Optional.of( nextLevel ), LevelSettings.builder().columnar( true ).build() ).run();
+
+        ArgumentCaptor<long[]> timestamps = ArgumentCaptor.forClass( long[].class );
+        ArgumentCaptor<double[]> values = ArgumentCaptor.forClass( double[].class );
+        verify( database ).insertPoints( eq( nextTable ), eq( METRIC_NAME ), timestamps.capture(), values.capture(), eq( 24 ), any( WriteWindow.class ) );
+        for ( int i = 0; i < 24; i++ ) {
+            Metric expected = metricsInSource[12 * i + 11];
+            assertThat( timestamps.getValue()[i], is( expected.timestamp() - expected.timestamp() % nextLevel.frequency() ) );
+            assertThat( values.getValue()[i], is( expected.value() ) );
+        }
     }
 
     private class MetricMatcher extends ArgumentMatcher<Collection<Metric>> {
@@ -1,9 +1,19 @@
 package io.bifroest.aggregator.systems.aggregation;
 
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -13,13 +23,22 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hamcrest.Description;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -30,14 +49,30 @@ import io.bifroest.commons.statistics.aggregation.MaxAggregation;
 import io.bifroest.commons.statistics.eventbus.EventBusImpl;
 import io.bifroest.commons.statistics.eventbus.EventBusManager;
 import io.bifroest.commons.statistics.eventbus.EventBusManager.EventBusForce;
+import io.bifroest.aggregator.benchmarks.StubRetentions;
 import io.bifroest.aggregator.systems.AggregatorEnvironment;
+import io.bifroest.aggregator.systems.aggregation.statistics.AggregationPhase;
+import io.bifroest.aggregator.systems.aggregation.statistics.TaskOutcome;
 import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
+import io.bifroest.aggregator.systems.cassandra.CassandraSettings;
+import io.bifroest.aggregator.systems.cassandra.InMemoryCassandraSession;
+import io.bifroest.aggregator.systems.cassandra.InMemoryClusterWrapper;
+import io.bifroest.aggregator.systems.cassandra.TokenRange;
+import io.bifroest.aggregator.systems.cassandra.WriteWindow;
+import io.bifroest.aggregator.systems.coordination.CoordinationSettings;
+import io.bifroest.aggregator.systems.coordination.InMemoryLeaseStore;
+import io.bifroest.aggregator.systems.coordination.InMemoryUnitRegistry;
+import io.bifroest.aggregator.systems.coordination.LeaseCoordinator;
+import io.bifroest.aggregator.systems.coordination.SharedTable;
 import io.bifroest.retentions.RetentionConfiguration;
 import io.bifroest.retentions.RetentionLevel;
 import io.bifroest.retentions.RetentionTable;
 
 public class AggregatorTaskTest {
 
+    @Rule
+    public TemporaryFolder checkpointFolder = new TemporaryFolder();
+
     private final Random random = new Random( 0 );
 
     private final int NUM_TABLES = 10, NUM_METRICS = 20;
@@ -97,12 +132,13 @@ public class AggregatorTaskTest {
             }
         }
         when( database.loadTables() ).thenReturn( tables );
+        when( database.refreshTable( any( RetentionTable.class ) ) ).thenAnswer( invocation -> tables.contains( invocation.getArguments()[0] ) );
     }
 
     @Test
     public void testAggregatorTask() {
         for ( RetentionTable table : tables ) {
-            new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ), Duration.ZERO ).run();
+            new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ) ).run();
         }
 
         for ( Metric metric : metrics ) {
@@ -110,8 +146,279 @@ public class AggregatorTaskTest {
             MetricMatcher metricMatcher = new MetricMatcher( nextLevel, metric );
 
             verify( database, atLeastOnce() ).createTableIfNecessary( argThat( tableMatcher ) );
-            verify( database, atLeastOnce() ).insertMetrics( argThat( tableMatcher ), argThat( metricMatcher ) );
+            verify( database, atLeastOnce() ).insertMetrics( argThat( tableMatcher ), argThat( metricMatcher ), any( WriteWindow.class ) );
+        }
+    }
+
+    @Test
+    public void aggregationStopsAtACheckpointAndResumesThere() throws InterruptedException {
+        when( database.awaitWrites( any( WriteWindow.class ) ) ).thenReturn( true );
+        RetentionTable table = tables.get( 0 );
+        LevelSettings oneNamePerCheckpoint = LevelSettings.builder().namesPerCheckpoint( 1 ).build();
+        CheckpointStore checkpoints = new CheckpointStore( Optional.of( checkpointFolder.getRoot().toPath() ) );
+
+        // the first poll happens before the task starts
+        AtomicInteger polls = new AtomicInteger();
+        AggregatorTask<AggregatorEnvironment> stopped = new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ),
+                oneNamePerCheckpoint, checkpoints, () -> polls.incrementAndGet() > 1 );
+        stopped.run();
+
+        verify( database ).loadUnorderedMetrics( table, "name01" );
+        verify( database, never() ).loadUnorderedMetrics( table, "name02" );
+        verify( database, never() ).dropTable( table );
+        assertThat( stopped.outcome(), is( TaskOutcome.STOPPED ) );
+
+        AggregatorTask<AggregatorEnvironment> resumed = new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ),
+                oneNamePerCheckpoint, checkpoints, () -> false );
+        resumed.run();
+
+        verify( database, times( 1 ) ).loadUnorderedMetrics( table, "name01" );
+        verify( database ).loadUnorderedMetrics( table, "name02" );
+        verify( database ).loadUnorderedMetrics( table, "name03" );
+        verify( database ).dropTable( table );
+        assertThat( resumed.outcome(), is( TaskOutcome.DONE ) );
+    }
+
+    @Test
+    public void tablesWhoseWritesFailAreKeptAndReportedAsFailed() {
+        when( database.awaitWrites( any( WriteWindow.class ) ) ).thenReturn( false );
+        RetentionTable table = tables.get( 0 );
+        AggregatorTask<AggregatorEnvironment> task = new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ) );
+
+        task.run();
+
+        verify( database, never() ).dropTable( table );
+        assertThat( task.outcome(), is( TaskOutcome.FAILED ) );
+    }
+
+    @Test
+    public void tablesAboveTheShardThresholdAreAggregatedInParallelAndDroppedOnce() throws InterruptedException {
+        when( database.awaitWrites( any( WriteWindow.class ) ) ).thenReturn( true );
+        RetentionTable table = tables.get( 0 );
+        LevelSettings sharded = LevelSettings.builder().namesPerCheckpoint( 1 ).shardThreshold( 1 ).build();
+        CheckpointStore checkpoints = new CheckpointStore( Optional.of( checkpointFolder.getRoot().toPath() ) );
+        ExecutorService shardPool = Executors.newFixedThreadPool( 2 );
+
+        new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ), sharded, checkpoints, () -> false,
+                Cascade.disabled(), shardPool ).run();
+        shardPool.shutdown();
+
+        verify( database ).loadUnorderedMetrics( table, "name01" );
+        verify( database ).loadUnorderedMetrics( table, "name02" );
+        verify( database ).loadUnorderedMetrics( table, "name03" );
+        verify( database, times( 1 ) ).dropTable( table );
+    }
+
+    @Test
+    public void namesBelowTheShardThresholdAreAggregatedWhileTheyAreRead() throws InterruptedException {
+        when( database.awaitWrites( any( WriteWindow.class ) ) ).thenReturn( true );
+        RetentionTable table = tables.get( 0 );
+        Map<String, Thread> readBy = new ConcurrentHashMap<>();
+        when( database.loadUnorderedMetrics( eq( table ), anyString() ) ).thenAnswer( invocation -> {
+            readBy.put( (String)invocation.getArguments()[1], Thread.currentThread() );
+            return Collections.emptyList();
+        } );
+        LevelSettings sharded = LevelSettings.builder().namesPerCheckpoint( 1 ).shardThreshold( 2 ).build();
+        ExecutorService shardPool = Executors.newFixedThreadPool( 2 );
+
+        new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ), sharded, CheckpointStore.inMemory(), () -> false,
+                Cascade.disabled(), shardPool ).run();
+        shardPool.shutdown();
+
+        assertThat( readBy.get( "name01" ), is( Thread.currentThread() ) );
+        assertThat( readBy.get( "name02" ), is( Thread.currentThread() ) );
+        assertThat( readBy.get( "name03" ) == Thread.currentThread(), is( false ) );
+        verify( database ).dropTable( table );
+    }
+
+    @Test
+    public void everyPhaseIsTimedPerLevel() throws InterruptedException {
+        when( database.awaitWrites( any( WriteWindow.class ) ) ).thenReturn( true );
+        // a level of its own, the histograms are shared by the whole process
+        RetentionLevel level = new RetentionLevel( "timed", 5 * 60, 3, 60 * 60, "lvlb" );
+        RetentionTable table = new RetentionTable( level, 42 );
+        List<Metric> series = Arrays.asList( new Metric( "name01", table.getInterval().start(), 1.0 ) );
+        when( database.loadUnorderedMetrics( eq( table ), anyString() ) ).thenReturn( () -> series.iterator() );
+
+        new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ) ).run();
+
+        assertThat( AggregationPhase.READ.of( level ).snapshot().count(), is( 3L ) );
+        assertThat( AggregationPhase.AGGREGATE.of( level ).snapshot().count(), is( 3L ) );
+        assertThat( AggregationPhase.CREATE.of( level ).snapshot().count(), is( 3L ) );
+        assertThat( AggregationPhase.WRITE.of( level ).snapshot().count(), is( 3L ) );
+        assertThat( AggregationPhase.DROP.of( level ).snapshot().count(), is( 1L ) );
+    }
+
+    @Test
+    public void waitingForTheRowsOfALazySeriesIsTimedAsRead() throws InterruptedException {
+        when( database.awaitWrites( any( WriteWindow.class ) ) ).thenReturn( true );
+        RetentionLevel level = new RetentionLevel( "slowread", 5 * 60, 3, 60 * 60, "lvlb" );
+        RetentionTable table = new RetentionTable( level, 42 );
+        List<Metric> series = Arrays.asList( new Metric( "name01", table.getInterval().start(), 1.0 ) );
+        // every series waits for its page before the first point
+        when( database.loadUnorderedMetrics( eq( table ), anyString() ) ).thenAnswer( invocation -> (Iterable<Metric>)() -> {
+            try {
+                Thread.sleep( 50 );
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+            return series.iterator();
+        } );
+
+        new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ) ).run();
+
+        assertThat( AggregationPhase.READ.of( level ).snapshot().count(), is( 3L ) );
+        assertThat( AggregationPhase.READ.of( level ).snapshot().maxNanos() >= 50000000L, is( true ) );
+        assertThat( AggregationPhase.AGGREGATE.of( level ).snapshot().maxNanos() < 50000000L, is( true ) );
+    }
+
+    @Test
+    public void earlyAggregatedTablesAreOnlyDroppedWhenTheyExpire() throws InterruptedException {
+        when( database.awaitWrites( any( WriteWindow.class ) ) ).thenReturn( true );
+        RetentionTable table = tables.get( 0 );
+        CheckpointStore checkpoints = CheckpointStore.inMemory();
+        ForkJoinPool shardPool = ForkJoinPool.commonPool();
+
+        new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ), LevelSettings.defaults(), checkpoints, () -> false,
+                Cascade.disabled(), shardPool, true ).run();
+
+        verify( database ).loadUnorderedMetrics( table, "name01" );
+        verify( database, never() ).dropTable( table );
+        assertThat( checkpoints.isAggregated( table ), is( true ) );
+
+        new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ), LevelSettings.defaults(), checkpoints, () -> false,
+                Cascade.disabled(), shardPool, false ).run();
+
+        verify( database, times( 1 ) ).loadUnorderedMetrics( table, "name01" );
+        verify( database ).dropTable( table );
+        assertThat( checkpoints.isAggregated( table ), is( false ) );
+    }
+
+    @Test
+    public void unitsOfDistributedTablesHeldByAnotherNodeAreLeftToIt() throws InterruptedException {
+        when( database.awaitWrites( any( WriteWindow.class ) ) ).thenReturn( true );
+        RetentionTable table = tables.get( 0 );
+        LevelSettings distributed = LevelSettings.builder().readMode( ReadMode.TOKEN_RANGE ).tokenRanges( 4 ).rangesPerCheckpoint( 1 ).distributed( true )
+                .build();
+        String layout = "token-range 4 1";
+        List<TokenRange> ranges = TokenRange.splitRing( 4 );
+        InMemoryLeaseStore leaseStore = new InMemoryLeaseStore();
+        InMemoryUnitRegistry registry = new InMemoryUnitRegistry();
+        LeaseCoordinator node1 = new LeaseCoordinator( leaseStore, new CoordinationSettings( "node-1", Duration.ofMinutes( 1 ) ) );
+        LeaseCoordinator node2 = new LeaseCoordinator( leaseStore, new CoordinationSettings( "node-2", Duration.ofMinutes( 1 ) ) );
+        LeaseCoordinator.Lease heldByNode2 = node2.share( table.tableName(), layout, registry ).claim( 2 );
+
+        AggregatorTask<AggregatorEnvironment> partial = new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ),
+                distributed, CheckpointStore.inMemory(), () -> false, Cascade.disabled(), ForkJoinPool.commonPool(), false,
+                l -> node1.share( table.tableName(), l, registry ) );
+        partial.run();
+
+        assertThat( partial.outcome(), is( TaskOutcome.LEFT_TO_OTHERS ) );
+        verify( database, times( 3 ) ).scanTable( eq( table ), anyListOf( TokenRange.class ), anyInt(), anyInt(), any() );
+        verify( database, never() ).scanTable( eq( table ), eq( ranges.subList( 2, 3 ) ), anyInt(), anyInt(), any() );
+        verify( database, never() ).dropTable( table );
+
+        heldByNode2.release();
+        new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ), distributed, CheckpointStore.inMemory(), () -> false,
+                Cascade.disabled(), ForkJoinPool.commonPool(), false, l -> node1.share( table.tableName(), l, registry ) ).run();
+
+        verify( database, times( 4 ) ).scanTable( eq( table ), anyListOf( TokenRange.class ), anyInt(), anyInt(), any() );
+        verify( database ).scanTable( eq( table ), eq( ranges.subList( 2, 3 ) ), anyInt(), anyInt(), any() );
+        verify( database, times( 1 ) ).dropTable( table );
+        assertThat( registry.completedUnits( table.tableName() + " " + layout ).isEmpty(), is( true ) );
+
+        node1.shutdown();
+        node2.shutdown();
+    }
+
+    @Test
+    public void unitsWhoseLeaseWasTakenOverDuringTheScanAreLeftToTheOtherNode() throws InterruptedException {
+        when( database.awaitWrites( any( WriteWindow.class ) ) ).thenReturn( true );
+        RetentionTable table = tables.get( 0 );
+        LevelSettings distributed = LevelSettings.builder().readMode( ReadMode.TOKEN_RANGE ).tokenRanges( 4 ).rangesPerCheckpoint( 1 ).distributed( true )
+                .build();
+        String layout = "token-range 4 1";
+        List<TokenRange> ranges = TokenRange.splitRing( 4 );
+        InMemoryLeaseStore leaseStore = new InMemoryLeaseStore();
+        InMemoryUnitRegistry registry = new InMemoryUnitRegistry();
+        LeaseCoordinator node1 = new LeaseCoordinator( leaseStore, new CoordinationSettings( "node-1", Duration.ofMinutes( 1 ) ) );
+        LeaseCoordinator node2 = new LeaseCoordinator( leaseStore, new CoordinationSettings( "node-2", Duration.ofMinutes( 1 ) ) );
+        String unit1 = table.tableName() + " " + layout + "#1";
+        // the lease of unit 1 expires while node-1 scans it, and node-2 takes the unit over
+        doAnswer( invocation -> {
+            leaseStore.release( unit1, "node-1" );
+            assertThat( leaseStore.tryAcquire( unit1, "node-2", Duration.ofMinutes( 1 ) ), is( true ) );
+            return null;
+        } ).when( database ).scanTable( eq( table ), eq( ranges.subList( 1, 2 ) ), anyInt(), anyInt(), any() );
+
+        AggregatorTask<AggregatorEnvironment> task = new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ),
+                distributed, CheckpointStore.inMemory(), () -> false, Cascade.disabled(), ForkJoinPool.commonPool(), false,
+                l -> node1.share( table.tableName(), l, registry ) );
+        task.run();
+
+        assertThat( task.outcome(), is( TaskOutcome.LEFT_TO_OTHERS ) );
+        verify( database, times( 4 ) ).scanTable( eq( table ), anyListOf( TokenRange.class ), anyInt(), anyInt(), any() );
+        assertThat( registry.completedUnits( table.tableName() + " " + layout ), containsInAnyOrder( 0, 2, 3 ) );
+        verify( database, never() ).dropTable( table );
+
+        node1.shutdown();
+        node2.shutdown();
+    }
+
+    @Test
+    public void tablesWhoseLeaseWasTakenOverAreNotDropped() {
+        when( database.awaitWrites( any( WriteWindow.class ) ) ).thenReturn( true );
+        RetentionTable table = tables.get( 0 );
+        InMemoryLeaseStore leaseStore = new InMemoryLeaseStore();
+        LeaseCoordinator node1 = new LeaseCoordinator( leaseStore, new CoordinationSettings( "node-1", Duration.ofMinutes( 1 ) ) );
+        LeaseCoordinator node2 = new LeaseCoordinator( leaseStore, new CoordinationSettings( "node-2", Duration.ofMinutes( 1 ) ) );
+        LeaseCoordinator.Lease lease = node1.leaseOf( table.tableName() );
+        lease.acquire();
+        // the lease expired before a renewal noticed, and node-2 took the table over
+        leaseStore.release( table.tableName(), "node-1" );
+        node2.leaseOf( table.tableName() ).acquire();
+
+        AggregatorTask<AggregatorEnvironment> task = new AggregatorTask<AggregatorEnvironment>( environment, table, Optional.of( nextLevel ),
+                LevelSettings.defaults(), CheckpointStore.inMemory(), () -> false, Cascade.disabled(), ForkJoinPool.commonPool(), false,
+                l -> SharedTable.local(), lease );
+        task.run();
+
+        assertThat( task.outcome(), is( TaskOutcome.STOPPED ) );
+        assertThat( lease.isLost(), is( true ) );
+        verify( database, never() ).dropTable( table );
+
+        node1.shutdown();
+        node2.shutdown();
+    }
+
+    @Test( timeout = 10000 )
+    public void tokenRangeScansLeaveTheirRequestSlotToTheirWrites() throws InterruptedException {
+        RetentionLevel level = tables.get( 0 ).level();
+        RetentionTable table = new RetentionTable( level, 100 );
+        RetentionTable target = new RetentionTable( nextLevel, table.getInterval().start() / nextLevel.blockSize() );
+        InMemoryCassandraSession keyspace = new InMemoryCassandraSession();
+        keyspace.createTable( table );
+        for ( int i = 0; i < 5; i++ ) {
+            keyspace.insertPoint( table, "name0" + i, table.getInterval().start(), i );
+        }
+        // a single request at a time, the scan and the writes of its partitions share it
+        CassandraAccessLayer realDatabase = new CassandraAccessLayer( new InMemoryClusterWrapper( keyspace ),
+                StubRetentions.of( StubRetentions.builtIn( "max" ), level, nextLevel ), false,
+                CassandraSettings.builder().asyncWrites( true ).maxOutstandingRequests( 1 ).build() );
+        AggregatorEnvironment realEnvironment = mock( AggregatorEnvironment.class );
+        when( realEnvironment.cassandraAccessLayer() ).thenReturn( realDatabase );
+        when( realEnvironment.retentions() ).thenReturn( StubRetentions.of( StubRetentions.builtIn( "max" ), level, nextLevel ) );
+
+        AggregatorTask<AggregatorEnvironment> task = new AggregatorTask<AggregatorEnvironment>( realEnvironment, table, Optional.of( nextLevel ),
+                LevelSettings.builder().readMode( ReadMode.TOKEN_RANGE ).tokenRanges( 4 ).rangesPerCheckpoint( 1 ).build() );
+        task.run();
+
+        assertThat( task.outcome(), is( TaskOutcome.DONE ) );
+        for ( int i = 0; i < 5; i++ ) {
+            assertThat( keyspace.points( target, "name0" + i ).get( table.getInterval().start() ), is( (double)i ) );
         }
+        assertThat( realDatabase.tableExists( table ), is( false ) );
+        realDatabase.close();
     }
 
     private class TableMatcher extends ArgumentMatcher<RetentionTable> {
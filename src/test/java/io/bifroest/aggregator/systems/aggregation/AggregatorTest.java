@@ -0,0 +1,231 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.RETURNS_MOCKS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.bifroest.commons.statistics.eventbus.EventBusImpl;
+import io.bifroest.commons.statistics.eventbus.EventBusManager;
+import io.bifroest.commons.statistics.eventbus.EventBusManager.EventBusForce;
+import io.bifroest.aggregator.benchmarks.StubRetentions;
+import io.bifroest.aggregator.systems.AggregatorEnvironment;
+import io.bifroest.aggregator.systems.aggregation.statistics.AggregationBacklogEvent;
+import io.bifroest.aggregator.systems.aggregation.statistics.AggregationPlanEvent;
+import io.bifroest.aggregator.systems.aggregation.statistics.SingleAggregationTerminated;
+import io.bifroest.aggregator.systems.aggregation.statistics.TaskOutcome;
+import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
+import io.bifroest.aggregator.systems.cassandra.WriteWindow;
+import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+public class AggregatorTest {
+    private final RetentionLevel precise = new RetentionLevel( "precise", 60, 2, 60 * 60, "hourly" );
+    private final RetentionLevel hourly = new RetentionLevel( "hourly", 60 * 60, 2, 24 * 60 * 60, null );
+
+    // expired long ago, both write into the hourly table
+    private final RetentionTable precise0 = new RetentionTable( precise, 0 );
+    private final RetentionTable precise1 = new RetentionTable( precise, 1 );
+    private final RetentionTable hourly0 = new RetentionTable( hourly, 0 );
+
+    @Mock
+    private CassandraAccessLayer database;
+
+    private AggregatorEnvironment environment;
+    private final List<RetentionTable> dropped = Collections.synchronizedList( new ArrayList<>() );
+    private final Queue<TaskOutcome> outcomes = new ConcurrentLinkedQueue<>();
+
+    @Before
+    public void createMocks() {
+        EventBusManager.setEventBus( new EventBusImpl(), EventBusForce.VROOM );
+        EventBusManager.createRegistrationPoint().subscribe( SingleAggregationTerminated.class, e -> outcomes.add( e.outcome() ) );
+
+        MockitoAnnotations.initMocks( this );
+        // the configuration loader is a mock as well, the run only reloads it
+        environment = mock( AggregatorEnvironment.class, RETURNS_MOCKS );
+        when( environment.cassandraAccessLayer() ).thenReturn( database );
+        when( environment.retentions() ).thenReturn( StubRetentions.of( StubRetentions.builtIn( "max" ), precise, hourly ) );
+
+        when( database.loadTables( precise ) ).thenReturn( Arrays.asList( precise0, precise1 ) );
+        when( database.loadTables( hourly ) ).thenReturn( Arrays.asList( hourly0 ) );
+        when( database.tableExists( any( RetentionTable.class ) ) ).thenReturn( true );
+        when( database.loadMetricNames( any( RetentionTable.class ) ) ).thenReturn( Collections.<String> emptyList() );
+        when( database.awaitWrites( any( WriteWindow.class ) ) ).thenReturn( true );
+        doAnswer( invocation -> dropped.add( (RetentionTable)invocation.getArguments()[0] ) ).when( database ).dropTable( any( RetentionTable.class ) );
+    }
+
+    private Aggregator<AggregatorEnvironment> aggregator( int poolsize ) {
+        return new Aggregator<>( environment, new AggregationSettings( ExecutorMode.FIXED, poolsize, 1, Duration.ofSeconds( 10 ), Optional.empty(),
+                Optional.empty(), LevelSettings.defaults(), Collections.<String, LevelSettings> emptyMap() ) );
+    }
+
+    /**
+     * @return the outcomes of the given number of tables, the event bus delivers them asynchronously
+     */
+    private List<TaskOutcome> awaitOutcomes( int tables ) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( outcomes.size() < tables && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+        return new ArrayList<>( outcomes );
+    }
+
+    @Test
+    public void tablesStartOnceTheTablesWritingIntoThemAreDone() throws Exception {
+        Aggregator<AggregatorEnvironment> aggregator = aggregator( 2 );
+
+        aggregator.run();
+        aggregator.shutdown();
+
+        assertThat( dropped, containsInAnyOrder( precise0, precise1, hourly0 ) );
+        assertThat( dropped.indexOf( hourly0 ), is( greaterThan( dropped.indexOf( precise0 ) ) ) );
+        assertThat( dropped.indexOf( hourly0 ), is( greaterThan( dropped.indexOf( precise1 ) ) ) );
+        assertThat( awaitOutcomes( 3 ), containsInAnyOrder( TaskOutcome.DONE, TaskOutcome.DONE, TaskOutcome.DONE ) );
+    }
+
+    @Test
+    public void aFailingTableDoesNotHoldUpTheTablesWaitingForIt() throws Exception {
+        when( database.loadMetricNames( precise0 ) ).thenThrow( new RuntimeException( "test" ) );
+        Aggregator<AggregatorEnvironment> aggregator = aggregator( 2 );
+
+        aggregator.run();
+        aggregator.shutdown();
+
+        // the failed table is kept for the next run, its target expired anyway
+        assertThat( dropped, containsInAnyOrder( precise1, hourly0 ) );
+        assertThat( awaitOutcomes( 3 ), containsInAnyOrder( TaskOutcome.FAILED, TaskOutcome.DONE, TaskOutcome.DONE ) );
+    }
+
+    @Test
+    public void tablesThatAreGoneAreReportedAsSkipped() throws Exception {
+        when( database.tableExists( precise1 ) ).thenReturn( false );
+        Aggregator<AggregatorEnvironment> aggregator = aggregator( 2 );
+
+        aggregator.run();
+        aggregator.shutdown();
+
+        verify( database, never() ).loadMetricNames( precise1 );
+        assertThat( awaitOutcomes( 3 ), containsInAnyOrder( TaskOutcome.DONE, TaskOutcome.SKIPPED, TaskOutcome.DONE ) );
+    }
+
+    @Test
+    public void tablesExpectedToFinishAfterTheirAggregatesExpireAreReported() throws Exception {
+        Queue<AggregationBacklogEvent> backlogs = new ConcurrentLinkedQueue<>();
+        EventBusManager.createRegistrationPoint().subscribe( AggregationBacklogEvent.class, backlogs::add );
+        // expired just now, its hourly block is kept for at least another day
+        RetentionTable recent = new RetentionTable( precise, precise.indexOf( System.currentTimeMillis() / 1000 ) - precise.blocks() - 1 );
+        when( database.loadTables( precise ) ).thenReturn( Arrays.asList( precise0, recent ) );
+        when( database.estimateNames() ).thenReturn( Collections.singletonMap( recent.tableName().toLowerCase( Locale.ROOT ), 100000L ) );
+        Aggregator<AggregatorEnvironment> aggregator = aggregator( 2 );
+
+        aggregator.run();
+        aggregator.shutdown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( backlogs.isEmpty() && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+        AggregationBacklogEvent backlog = backlogs.peek();
+        assertThat( backlog.tables(), is( 3 ) );
+        assertThat( backlog.estimatedSeconds(), is( Math.round( 100000 * CostModel.DEFAULT_SECONDS_PER_NAME ) ) );
+        // only the hourly block of precise0 expired already
+        assertThat( backlog.tablesAtRisk(), is( 1 ) );
+    }
+
+    @Test
+    public void onlyTheFirstRunPlansTheNextRunsAndItStillAggregates() throws Exception {
+        Queue<String> planned = new ConcurrentLinkedQueue<>();
+        EventBusManager.createRegistrationPoint().subscribe( AggregationPlanEvent.class, e -> planned.add( e.level() ) );
+        when( database.requestRate() ).thenReturn( OptionalDouble.empty() );
+        Aggregator<AggregatorEnvironment> aggregator = new Aggregator<>( environment, new AggregationSettings( ExecutorMode.FIXED, 2, 1,
+                Duration.ofSeconds( 10 ), Optional.empty(), Optional.empty(), LevelSettings.defaults(), Collections.<String, LevelSettings> emptyMap(),
+                Optional.of( new PlanningSettings( 0, 2, Duration.ofHours( 1 ) ) ) ) );
+
+        aggregator.run();
+        aggregator.run();
+        aggregator.shutdown();
+
+        assertThat( awaitOutcomes( 6 ), everyItem( is( TaskOutcome.DONE ) ) );
+        assertThat( dropped, hasItems( precise0, precise1, hourly0 ) );
+        assertThat( planned, containsInAnyOrder( "precise", "hourly" ) );
+    }
+
+    @Test
+    public void levelsFedByOtherLevelsAsWellAreNotCascadedInto() {
+        RetentionLevel minutely = new RetentionLevel( "minutely", 10, 2, 60 * 60, "hourly" );
+        RetentionLevel cascading = new RetentionLevel( "fine", 60, 2, 60 * 60, "daily" );
+        RetentionLevel daily = new RetentionLevel( "daily", 24 * 60 * 60, 2, 7 * 24 * 60 * 60, null );
+        RetentionConfiguration retentions = StubRetentions.of( StubRetentions.builtIn( "max" ), precise, hourly );
+        when( retentions.getTopologicalSort() ).thenReturn( Arrays.asList( minutely, precise, cascading, hourly, daily ) );
+        when( retentions.getNextLevel( minutely ) ).thenReturn( Optional.of( hourly ) );
+        when( retentions.getNextLevel( cascading ) ).thenReturn( Optional.of( daily ) );
+        Map<String, LevelSettings> levels = new HashMap<>();
+        levels.put( precise.name(), LevelSettings.builder().cascade( true ).build() );
+        levels.put( cascading.name(), LevelSettings.builder().cascade( true ).build() );
+        AggregationSettings settings = new AggregationSettings( ExecutorMode.FIXED, 1, 1, Duration.ofSeconds( 10 ), Optional.of( Paths.get( "unused" ) ),
+                Optional.empty(), LevelSettings.defaults(), levels );
+
+        // the hourly tables also hold the aggregates of minutely, which never go into a partial
+        assertThat( Aggregator.cascadeOrigins( retentions, settings ), contains( "fine" ) );
+    }
+
+    @Test
+    public void tablesThatDidNotStartBeforeTheShutdownAreNotTouched() throws Exception {
+        Aggregator<AggregatorEnvironment> aggregator = aggregator( 1 );
+        Thread shutdown = new Thread( () -> {
+            try {
+                aggregator.shutdown();
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        } );
+        // the first table shuts the aggregator down, the second one is queued behind it by then
+        when( database.loadMetricNames( precise0 ) ).thenAnswer( invocation -> {
+            shutdown.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while ( shutdown.getState() != Thread.State.TIMED_WAITING && System.currentTimeMillis() < deadline ) {
+                Thread.sleep( 10 );
+            }
+            return Collections.<String> emptyList();
+        } );
+
+        aggregator.run();
+        shutdown.join();
+
+        verify( database, never() ).loadMetricNames( precise1 );
+        verify( database, never() ).dropTable( precise1 );
+        verify( database, never() ).dropTable( hourly0 );
+        assertThat( awaitOutcomes( 3 ), hasItem( TaskOutcome.STOPPED ) );
+    }
+}
@@ -0,0 +1,123 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalDouble;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.bifroest.aggregator.systems.aggregation.CapacityPlanner.Estimate;
+import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
+import io.bifroest.aggregator.systems.cassandra.WriteWindow;
+import io.bifroest.commons.model.Metric;
+import io.bifroest.commons.statistics.aggregation.MaxAggregation;
+import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+public class CapacityPlannerTest {
+    private static final int HOUR = 60 * 60;
+
+    @Mock
+    private RetentionConfiguration retentions;
+
+    @Mock
+    private CassandraAccessLayer database;
+
+    private RetentionLevel level;
+    private RetentionLevel nextLevel;
+    private RetentionLevel lastLevel;
+    private CapacityPlanner subject;
+
+    @Before
+    public void createMocks() {
+        MockitoAnnotations.initMocks( this );
+        level = new RetentionLevel( "lvla", 5 * 60, 3, HOUR, "lvlb" );
+        nextLevel = new RetentionLevel( "lvlb", HOUR, 2, 4 * HOUR, "lvlc" );
+        lastLevel = new RetentionLevel( "lvlc", 4 * HOUR, 2, HOUR * 24 * 7, null );
+        when( retentions.getTopologicalSort() ).thenReturn( Arrays.asList( level, nextLevel, lastLevel ) );
+        when( retentions.getNextLevel( level ) ).thenReturn( Optional.of( nextLevel ) );
+        when( retentions.getNextLevel( nextLevel ) ).thenReturn( Optional.of( lastLevel ) );
+        when( retentions.getNextLevel( lastLevel ) ).thenReturn( Optional.empty() );
+        when( retentions.findFunctionForMetric( anyString() ) ).thenReturn( new MaxAggregation() );
+
+        // blocks 6 and 7 expire now, 8 in an hour, 9 does not exist yet
+        List<RetentionTable> tables = new ArrayList<>();
+        for ( long block = 6; block <= 8; block++ ) {
+            RetentionTable table = new RetentionTable( level, block );
+            tables.add( table );
+            when( database.loadMetricNames( table ) ).thenReturn( Arrays.asList( "name01", "name02", "name03", "name04" ) );
+            List<Metric> series = new ArrayList<>();
+            for ( long timestamp = table.getInterval().start(); timestamp < table.getInterval().end(); timestamp += level.frequency() ) {
+                series.add( new Metric( "name", timestamp, 1.0 ) );
+            }
+            when( database.loadUnorderedMetrics( eq( table ), anyString() ) ).thenReturn( series );
+        }
+        when( database.loadTables( level ) ).thenReturn( tables );
+        when( database.loadTables( nextLevel ) ).thenReturn( Collections.<RetentionTable> emptyList() );
+        when( database.loadTables( lastLevel ) ).thenReturn( Collections.<RetentionTable> emptyList() );
+        when( database.writeRequests( anyInt() ) ).thenReturn( 1 );
+        when( database.requestRate() ).thenReturn( OptionalDouble.empty() );
+
+        AggregationSettings settings = new AggregationSettings( ExecutorMode.FIXED, 2, 2, Duration.ofMinutes( 1 ), Optional.empty(), Optional.empty(),
+                LevelSettings.defaults(), Collections.<String, LevelSettings> emptyMap() );
+        subject = new CapacityPlanner( retentions, database, settings, new PlanningSettings( 0.5, 3, Duration.ofHours( 1 ) ),
+                CostModel.open( Optional.empty() ), () -> false );
+    }
+
+    @Test
+    public void tablesArePlannedInTheRunTheyBecomeEligibleIn() {
+        Map<RetentionLevel, Estimate[]> plan = subject.plan( 10L * HOUR );
+
+        Estimate[] runs = plan.get( level );
+        assertThat( runs[0].tables, is( 2L ) );
+        assertThat( runs[1].tables, is( 1L ) );
+        // like the sampled tables, it does not exist yet
+        assertThat( runs[2].tables, is( 1L ) );
+        assertThat( runs[2].names, is( closeTo( 4, 0.001 ) ) );
+
+        // blocks 6 and 7 write into the first block of lvlb, which expires in the third run
+        Estimate[] next = plan.get( nextLevel );
+        assertThat( next[0].tables, is( 0L ) );
+        assertThat( next[1].tables, is( 0L ) );
+        assertThat( next[2].tables, is( 1L ) );
+        assertThat( next[2].names, is( closeTo( 4, 0.001 ) ) );
+        assertThat( next[2].rows, is( closeTo( 8, 0.001 ) ) );
+        assertThat( next[2].points, is( closeTo( 4, 0.001 ) ) );
+    }
+
+    @Test
+    public void samplesAreScaledToAllNamesOfTheTable() {
+        Estimate[] runs = subject.plan( 10L * HOUR ).get( level );
+
+        // every second name is read, each holds 12 points aggregated into 1
+        assertThat( runs[1].names, is( closeTo( 4, 0.001 ) ) );
+        assertThat( runs[1].rows, is( closeTo( 48, 0.001 ) ) );
+        assertThat( runs[1].points, is( closeTo( 4, 0.001 ) ) );
+        assertThat( runs[1].writeRequests, is( closeTo( 4, 0.001 ) ) );
+        assertThat( runs[1].readRequests, is( closeTo( 4, 0.001 ) ) );
+        verify( database, never() ).loadUnorderedMetrics( any( RetentionTable.class ), eq( "name02" ) );
+        verify( database, never() ).insertMetrics( any( RetentionTable.class ), anyCollectionOf( Metric.class ), any( WriteWindow.class ) );
+        verify( database, never() ).dropTable( any( RetentionTable.class ) );
+    }
+}
@@ -0,0 +1,134 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+public class CascadeContributionTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private CheckpointStore checkpoints;
+    private RetentionTable source;
+    private RetentionLevel cascadeLevel;
+
+    @Before
+    public void createTables() {
+        directory = folder.getRoot().toPath();
+        checkpoints = new CheckpointStore( Optional.of( directory ) );
+        source = new RetentionTable( new RetentionLevel( "precise", 60, 2, 60 * 60, "hourly" ), 10 );
+        cascadeLevel = new RetentionLevel( "daily", 60 * 60 * 24, 2, 60 * 60 * 24 * 7, null );
+    }
+
+    private CascadeContribution open() {
+        return new CascadeContribution( source, cascadeLevel, 0, directory.resolve( "precise.cascade-log" ), checkpoints.open( source, "per-name 1" ) );
+    }
+
+    private static PartialAggregate only( CascadeContribution contribution ) {
+        List<PartialAggregate> partials = new ArrayList<>( contribution.partials() );
+        assertThat( partials, hasSize( 1 ) );
+        return partials.get( 0 );
+    }
+
+    @Test
+    public void pointsAreFoldedIntoTheSlotsOfTheCascadeLevel() throws IOException {
+        CascadeContribution contribution = open();
+        contribution.add( 0, "name01", AggregationKernel.MAX, new long[] { 36000, 39600, 90000 }, new double[] { 1, 3, 2 }, 3 );
+        contribution.unitCompleted( 0 );
+
+        PartialAggregate partial = only( contribution );
+        assertThat( partial.target, is( new RetentionTable( cascadeLevel, 0 ).tableName() ) );
+        assertThat( partial.slotsOf( "name01" ).keySet(), contains( 0L, 86400L ) );
+        assertThat( partial.slotsOf( "name01" ).get( 0L ).value, is( 3.0 ) );
+        assertThat( partial.slotsOf( "name01" ).get( 86400L ).value, is( 2.0 ) );
+        assertThat( partial.incomplete, is( false ) );
+    }
+
+    @Test
+    public void onlyCheckpointedUnitsAreRestored() throws IOException {
+        CascadeContribution contribution = open();
+        contribution.add( 0, "name01", AggregationKernel.SUM, new long[] { 36000 }, new double[] { 1 }, 1 );
+        contribution.unitCompleted( 0 );
+        checkpoints.open( source, "per-name 1" ).completed( 0, "name01" );
+        contribution.add( 1, "name02", AggregationKernel.SUM, new long[] { 36000 }, new double[] { 2 }, 1 );
+        contribution.unitCompleted( 1 );
+
+        PartialAggregate partial = only( open() );
+
+        assertThat( partial.names(), containsInAnyOrder( "name01" ) );
+        assertThat( partial.slotsOf( "name01" ).get( 0L ).value, is( 1.0 ) );
+        assertThat( partial.incomplete, is( false ) );
+    }
+
+    @Test
+    public void unitsRunningInParallelLogOnlyTheirOwnPoints() throws IOException {
+        CascadeContribution contribution = open();
+        contribution.add( 0, "name01", AggregationKernel.SUM, new long[] { 36000 }, new double[] { 1 }, 1 );
+        contribution.add( 1, "name02", AggregationKernel.SUM, new long[] { 36000 }, new double[] { 2 }, 1 );
+        contribution.unitCompleted( 1 );
+        checkpoints.open( source, "per-name 1" ).completed( 1, "name02" );
+
+        assertThat( only( contribution ).names(), containsInAnyOrder( "name02" ) );
+        assertThat( only( open() ).names(), containsInAnyOrder( "name02" ) );
+    }
+
+    @Test
+    public void checkpointedUnitsWithoutLogMakeTheTargetsIncomplete() throws IOException {
+        checkpoints.open( source, "per-name 1" ).completed( 0, "name01" );
+
+        assertThat( only( open() ).incomplete, is( true ) );
+    }
+
+    @Test
+    public void namesWithoutKernelMakeTheTargetsIncomplete() throws IOException {
+        CascadeContribution contribution = open();
+        contribution.add( 0, "name01", null, new long[] { 36000 }, new double[] { 1 }, 1 );
+        contribution.unitCompleted( 0 );
+
+        assertThat( only( contribution ).incomplete, is( true ) );
+    }
+
+    @Test
+    public void targetsStartingBeforeTheCascadeWasEnabledAreSkipped() throws IOException {
+        CascadeContribution contribution = new CascadeContribution( source, cascadeLevel, 1, directory.resolve( "precise.cascade-log" ),
+                checkpoints.open( source, "per-name 1" ) );
+        contribution.add( 0, "name01", AggregationKernel.MAX, new long[] { 36000 }, new double[] { 1 }, 1 );
+        contribution.unitCompleted( 0 );
+
+        assertThat( contribution.partials(), hasSize( 0 ) );
+    }
+
+    @Test
+    public void partialAggregatesSurviveARestart() throws IOException {
+        PartialAggregate partial = new PartialAggregate( "daily_0", "precise" );
+        partial.add( "name01", AggregationKernel.AVERAGE, 0, 4, 2, 120 );
+        partial.add( "name01", AggregationKernel.AVERAGE, 0, 2, 1, 60 );
+        partial.appendTo( directory.resolve( "daily_0.partial" ), "precise_10" );
+
+        PartialAggregate restored = PartialAggregate.readFrom( directory.resolve( "daily_0.partial" ) );
+
+        assertThat( restored.originLevel, is( "precise" ) );
+        assertThat( restored.sources, contains( "precise_10" ) );
+        assertThat( restored.kernelOf( "name01" ), is( AggregationKernel.AVERAGE ) );
+        Accumulator accumulator = restored.slotsOf( "name01" ).get( 0L );
+        assertThat( AggregationKernel.AVERAGE.finish( accumulator.value, accumulator.count ), is( 2.0 ) );
+        assertThat( accumulator.latest, is( 120L ) );
+    }
+}
@@ -0,0 +1,240 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.bifroest.aggregator.benchmarks.StubRetentions;
+import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
+import io.bifroest.aggregator.systems.cassandra.WriteWindow;
+import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+public class CascadeTest {
+    // every precise table covering the first daily block has expired by then
+    private static final long DAILY_DONE = 8 * 24 * 60 * 60;
+    // and every precise table covering the first weekly block
+    private static final long WEEKLY_DONE = 200 * 24 * 60 * 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private CassandraAccessLayer database;
+
+    private final RetentionLevel precise = new RetentionLevel( "precise", 60, 2, 60 * 60, "hourly" );
+    private final RetentionLevel hourly = new RetentionLevel( "hourly", 60 * 60, 2, 24 * 60 * 60, "daily" );
+    private final RetentionLevel daily = new RetentionLevel( "daily", 24 * 60 * 60, 2, 7 * 24 * 60 * 60, "weekly" );
+    private final RetentionLevel weekly = new RetentionLevel( "weekly", 7 * 24 * 60 * 60, 2, 28 * 7 * 24 * 60 * 60, null );
+
+    private RetentionConfiguration retentions;
+    private Path directory;
+    private CheckpointStore checkpoints;
+    private RetentionTable source;
+    private RetentionTable hourlyTable;
+    private RetentionTable dailyTable;
+    private RetentionTable weeklyTable;
+
+    @Before
+    public void createMocks() throws InterruptedException {
+        MockitoAnnotations.initMocks( this );
+        retentions = StubRetentions.of( StubRetentions.builtIn( "max" ), precise, hourly, daily, weekly );
+        directory = folder.getRoot().toPath().resolve( "cascade" );
+        checkpoints = new CheckpointStore( Optional.of( folder.getRoot().toPath() ) );
+        source = new RetentionTable( precise, 10 );
+        hourlyTable = new RetentionTable( hourly, 0 );
+        dailyTable = new RetentionTable( daily, 0 );
+        weeklyTable = new RetentionTable( weekly, 0 );
+
+        when( database.awaitWrites( any( WriteWindow.class ) ) ).thenReturn( true );
+        when( database.loadTables( hourly ) ).thenReturn( Arrays.asList( hourlyTable ) );
+        when( database.loadTables( daily ) ).thenReturn( Collections.emptyList() );
+    }
+
+    private Cascade open() {
+        return Cascade.open( directory, retentions, Collections.singleton( precise.name() ), 0 );
+    }
+
+    private void finish( Cascade cascade, RetentionTable table, String name, AggregationKernel kernel, long timestamp, double value ) throws IOException {
+        CascadeContribution contribution = cascade.contributionOf( table, daily, checkpoints.open( table, "per-name 1" ) );
+        contribution.add( 0, name, kernel, new long[] { timestamp }, new double[] { value }, 1 );
+        contribution.unitCompleted( 0 );
+        cascade.sourceFinished( contribution );
+    }
+
+    private Path partialFile( RetentionTable target ) {
+        return directory.resolve( target.tableName() + ".partial" );
+    }
+
+    @Test
+    public void completedTargetsAreWrittenAndTheTablesBelowCovered() throws Exception {
+        Cascade cascade = open();
+        finish( cascade, source, "name01", AggregationKernel.MAX, 36000, 3 );
+        finish( cascade, new RetentionTable( precise, 11 ), "name01", AggregationKernel.MAX, 39600, 5 );
+
+        cascade.flushCompleted( database, DAILY_DONE );
+
+        ArgumentCaptor<long[]> timestamps = ArgumentCaptor.forClass( long[].class );
+        ArgumentCaptor<double[]> values = ArgumentCaptor.forClass( double[].class );
+        verify( database ).insertPoints( eq( dailyTable ), eq( "name01" ), timestamps.capture(), values.capture(), eq( 1 ), any( WriteWindow.class ) );
+        assertThat( timestamps.getValue()[0], is( 0L ) );
+        assertThat( values.getValue()[0], is( 5.0 ) );
+        assertThat( cascade.isCovered( hourlyTable ), is( true ) );
+        assertThat( Files.exists( partialFile( dailyTable ) ), is( false ) );
+    }
+
+    @Test
+    public void onlyTheTablesOfTheOriginChainAreCovered() throws Exception {
+        // a second source of the daily level, its tables never went into the partial
+        RetentionLevel other = new RetentionLevel( "other", 60 * 60, 2, 24 * 60 * 60, "daily" );
+        RetentionTable otherTable = new RetentionTable( other, 0 );
+        when( retentions.getTopologicalSort() ).thenReturn( Arrays.asList( precise, other, hourly, daily, weekly ) );
+        when( retentions.getLevelForName( other.name() ) ).thenReturn( Optional.of( other ) );
+        when( retentions.getNextLevel( other ) ).thenReturn( Optional.of( daily ) );
+        when( database.loadTables( other ) ).thenReturn( Arrays.asList( otherTable ) );
+        Cascade cascade = open();
+        finish( cascade, source, "name01", AggregationKernel.MAX, 36000, 3 );
+
+        cascade.flushCompleted( database, DAILY_DONE );
+
+        assertThat( cascade.isCovered( hourlyTable ), is( true ) );
+        assertThat( cascade.isCovered( otherTable ), is( false ) );
+    }
+
+    @Test
+    public void targetsWaitForTheTablesOfTheOriginLevel() throws Exception {
+        finish( open(), source, "name01", AggregationKernel.MAX, 36000, 3 );
+        when( database.tableExists( source ) ).thenReturn( true );
+
+        open().flushCompleted( database, DAILY_DONE );
+        open().flushCompleted( database, 0 );
+
+        verify( database, never() ).insertPoints( any( RetentionTable.class ), anyString(), any( long[].class ), any( double[].class ), anyInt(),
+                any( WriteWindow.class ) );
+        assertThat( open().isCovered( hourlyTable ), is( false ) );
+
+        // the next run reads the partial aggregate back from its file
+        when( database.tableExists( source ) ).thenReturn( false );
+        open().flushCompleted( database, DAILY_DONE );
+
+        verify( database ).insertPoints( eq( dailyTable ), eq( "name01" ), any( long[].class ), any( double[].class ), eq( 1 ), any( WriteWindow.class ) );
+        assertThat( open().isCovered( hourlyTable ), is( true ) );
+    }
+
+    @Test
+    public void targetsAreKeptWhenTheirWritesFail() throws Exception {
+        finish( open(), source, "name01", AggregationKernel.MAX, 36000, 3 );
+        when( database.awaitWrites( any( WriteWindow.class ) ) ).thenReturn( false );
+
+        open().flushCompleted( database, DAILY_DONE );
+
+        assertThat( Files.exists( partialFile( dailyTable ) ), is( true ) );
+        assertThat( Files.exists( partialFile( weeklyTable ) ), is( false ) );
+        assertThat( open().isCovered( hourlyTable ), is( false ) );
+    }
+
+    @Test
+    public void writtenTargetsAreFedIntoTheNextLevelInTheFollowingRun() throws Exception {
+        finish( open(), source, "name01", AggregationKernel.MAX, 36000, 3 );
+
+        open().flushCompleted( database, WEEKLY_DONE );
+
+        verify( database ).insertPoints( eq( dailyTable ), eq( "name01" ), any( long[].class ), any( double[].class ), eq( 1 ), any( WriteWindow.class ) );
+        verify( database, never() ).insertPoints( eq( weeklyTable ), anyString(), any( long[].class ), any( double[].class ), anyInt(),
+                any( WriteWindow.class ) );
+        PartialAggregate fed = PartialAggregate.readFrom( partialFile( weeklyTable ) );
+        assertThat( fed.sources, contains( dailyTable.tableName() ) );
+        assertThat( fed.originLevel, is( precise.name() ) );
+
+        open().flushCompleted( database, WEEKLY_DONE );
+
+        ArgumentCaptor<double[]> values = ArgumentCaptor.forClass( double[].class );
+        verify( database ).insertPoints( eq( weeklyTable ), eq( "name01" ), any( long[].class ), values.capture(), eq( 1 ), any( WriteWindow.class ) );
+        assertThat( values.getValue()[0], is( 3.0 ) );
+        assertThat( Files.exists( partialFile( weeklyTable ) ), is( false ) );
+    }
+
+    @Test
+    public void incompleteTargetsAreWrittenWithoutCoveringTheTablesBelow() throws Exception {
+        Cascade cascade = open();
+        finish( cascade, source, "name01", AggregationKernel.MAX, 36000, 3 );
+        finish( cascade, new RetentionTable( precise, 11 ), "name02", null, 39600, 5 );
+
+        cascade.flushCompleted( database, DAILY_DONE );
+
+        verify( database ).insertPoints( eq( dailyTable ), eq( "name01" ), any( long[].class ), any( double[].class ), eq( 1 ), any( WriteWindow.class ) );
+        assertThat( cascade.isCovered( hourlyTable ), is( false ) );
+        assertThat( PartialAggregate.readFrom( partialFile( weeklyTable ) ).incomplete, is( true ) );
+    }
+
+    @Test
+    public void aSourceAppendedTwiceIsMergedOnce() throws IOException {
+        Path file = partialFile( dailyTable );
+        Files.createDirectories( directory );
+        PartialAggregate part = new PartialAggregate( dailyTable.tableName(), precise.name() );
+        part.add( "name01", AggregationKernel.SUM, 0, 2, 1, 36000 );
+
+        part.appendTo( file, source.tableName() );
+        part.appendTo( file, source.tableName() );
+
+        PartialAggregate restored = PartialAggregate.readFrom( file );
+        assertThat( restored.sources, contains( source.tableName() ) );
+        assertThat( restored.slotsOf( "name01" ).get( 0L ).value, is( 2.0 ) );
+    }
+
+    @Test
+    public void blocksTornByACrashAreSkipped() throws IOException {
+        Path file = partialFile( dailyTable );
+        Files.createDirectories( directory );
+        PartialAggregate part = new PartialAggregate( dailyTable.tableName(), precise.name() );
+        part.add( "name01", AggregationKernel.SUM, 0, 2, 1, 36000 );
+
+        part.appendTo( file, "precise_10" );
+        Files.write( file, "\nbegin\tprecise_11\nacc\tname01\tSU".getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.APPEND );
+        part.appendTo( file, "precise_12" );
+
+        PartialAggregate restored = PartialAggregate.readFrom( file );
+        assertThat( restored.sources, containsInAnyOrder( "precise_10", "precise_12" ) );
+        assertThat( restored.slotsOf( "name01" ).get( 0L ).value, is( 4.0 ) );
+    }
+
+    @Test
+    public void namesWithTabsAndLineBreaksSurviveTheFile() throws IOException {
+        String name = "a\tb\nc\\td\r";
+        Path file = partialFile( dailyTable );
+        Files.createDirectories( directory );
+        PartialAggregate part = new PartialAggregate( dailyTable.tableName(), precise.name() );
+        part.add( name, AggregationKernel.MAX, 0, 1, 1, 36000 );
+
+        part.appendTo( file, source.tableName() );
+
+        assertThat( PartialAggregate.readFrom( file ).names(), contains( name ) );
+        assertThat( PartialAggregate.unescape( PartialAggregate.escape( name ) ), is( name ) );
+    }
+}
@@ -0,0 +1,116 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+public class CheckpointStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private RetentionTable table;
+
+    @Before
+    public void createTable() {
+        directory = folder.getRoot().toPath();
+        table = new RetentionTable( new RetentionLevel( "precise", 20, 10, 40, null ), 42 );
+    }
+
+    @Test
+    public void completedUnitsSurviveARestart() {
+        new CheckpointStore( Optional.of( directory ) ).open( table, "per-name 100" ).completed( 3, "name0300" );
+
+        TableCheckpoint checkpoint = new CheckpointStore( Optional.of( directory ) ).open( table, "per-name 100" );
+
+        assertThat( checkpoint.isCompleted( 3 ), is( true ) );
+        assertThat( checkpoint.isCompleted( 0 ), is( false ) );
+        assertThat( checkpoint.completedUnits(), is( 1 ) );
+    }
+
+    @Test
+    public void progressOfAnotherLayoutIsDiscarded() {
+        new CheckpointStore( Optional.of( directory ) ).open( table, "per-name 100" ).completed( 0, "name0100" );
+
+        TableCheckpoint checkpoint = new CheckpointStore( Optional.of( directory ) ).open( table, "per-name 50" );
+
+        assertThat( checkpoint.completedUnits(), is( 0 ) );
+    }
+
+    @Test
+    public void tornLinesAreIgnored() throws IOException {
+        CheckpointStore store = new CheckpointStore( Optional.of( directory ) );
+        store.open( table, "per-name 100" ).completed( 0, "name0100" );
+        Files.write( directory.resolve( table.tableName() + ".checkpoint" ), "1".getBytes( StandardCharsets.UTF_8 ),
+                StandardOpenOption.APPEND );
+
+        TableCheckpoint checkpoint = store.open( table, "per-name 100" );
+
+        assertThat( checkpoint.isCompleted( 0 ), is( true ) );
+        assertThat( checkpoint.isCompleted( 1 ), is( false ) );
+    }
+
+    @Test
+    public void tornLinesAreNotGluedToTheNextLine() throws IOException {
+        CheckpointStore store = new CheckpointStore( Optional.of( directory ) );
+        store.open( table, "per-name 100" ).completed( 0, "name0100" );
+        Files.write( directory.resolve( table.tableName() + ".checkpoint" ), "1".getBytes( StandardCharsets.UTF_8 ),
+                StandardOpenOption.APPEND );
+        store.open( table, "per-name 100" ).completed( 2, "name0300" );
+
+        TableCheckpoint checkpoint = store.open( table, "per-name 100" );
+
+        assertThat( checkpoint.isCompleted( 1 ), is( false ) );
+        assertThat( checkpoint.isCompleted( 12 ), is( false ) );
+        assertThat( checkpoint.isCompleted( 2 ), is( true ) );
+        assertThat( checkpoint.completedUnits(), is( 2 ) );
+    }
+
+    @Test
+    public void linesWithoutTheirEndAreIgnored() throws IOException {
+        CheckpointStore store = new CheckpointStore( Optional.of( directory ) );
+        store.open( table, "per-name 100" ).completed( 0, "name0100" );
+        Files.write( directory.resolve( table.tableName() + ".checkpoint" ), "\n1\tname02".getBytes( StandardCharsets.UTF_8 ),
+                StandardOpenOption.APPEND );
+
+        TableCheckpoint checkpoint = store.open( table, "per-name 100" );
+
+        assertThat( checkpoint.isCompleted( 0 ), is( true ) );
+        assertThat( checkpoint.isCompleted( 1 ), is( false ) );
+    }
+
+    @Test
+    public void removedCheckpointsStartOver() {
+        CheckpointStore store = new CheckpointStore( Optional.of( directory ) );
+        store.open( table, "per-name 100" ).completed( 0, "name0100" );
+        store.open( table, "per-name 100" ).remove();
+
+        assertThat( store.open( table, "per-name 100" ).completedUnits(), is( 0 ) );
+        assertThat( Files.exists( directory.resolve( table.tableName() + ".checkpoint" ) ), is( false ) );
+    }
+
+    @Test
+    public void aggregatedTablesAreRememberedUntilTheyAreDropped() {
+        new CheckpointStore( Optional.of( directory ) ).markAggregated( table );
+
+        CheckpointStore store = new CheckpointStore( Optional.of( directory ) );
+        assertThat( store.isAggregated( table ), is( true ) );
+
+        store.aggregatedTableDropped( table );
+        assertThat( new CheckpointStore( Optional.of( directory ) ).isAggregated( table ), is( false ) );
+    }
+}
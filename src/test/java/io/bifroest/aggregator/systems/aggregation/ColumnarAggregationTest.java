@@ -0,0 +1,106 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.bifroest.commons.model.Interval;
+import io.bifroest.commons.statistics.aggregation.LastAggregation;
+import io.bifroest.commons.statistics.aggregation.MaxAggregation;
+
+public class ColumnarAggregationTest {
+    private static final Interval SOURCE = new Interval( 1000, 1100 );
+
+    private ColumnarAggregation subject;
+
+    @Before
+    public void loadPoints() {
+        subject = ColumnarAggregation.ofCurrentThread();
+        // two slots of 50 seconds, the last point is outside the source interval
+        subject.handle( 1010, 3 );
+        subject.handle( 1000, 1 );
+        subject.handle( 1020, 2 );
+        subject.handle( 1060, 4 );
+        subject.handle( 1090, 8 );
+        subject.handle( 1100, 100 );
+    }
+
+    @Test
+    public void lastTakesTheLatestPoint() {
+        assertAggregated( AggregationKernel.LAST, 2, 8 );
+    }
+
+    @Test
+    public void maxTakesTheLargestValue() {
+        assertAggregated( AggregationKernel.MAX, 3, 8 );
+    }
+
+    @Test
+    public void minTakesTheSmallestValue() {
+        assertAggregated( AggregationKernel.MIN, 1, 4 );
+    }
+
+    @Test
+    public void sumAddsTheValues() {
+        assertAggregated( AggregationKernel.SUM, 6, 12 );
+    }
+
+    @Test
+    public void averageDividesByTheNumberOfPoints() {
+        assertAggregated( AggregationKernel.AVERAGE, 2, 6 );
+    }
+
+    @Test
+    public void emptySlotsAreNotWritten() {
+        subject = ColumnarAggregation.ofCurrentThread();
+        subject.handle( 1060, 4 );
+
+        assertThat( subject.aggregate( AggregationKernel.MAX, SOURCE, 50 ), is( 1 ) );
+        assertThat( subject.outTimestamps()[0], is( 1050L ) );
+    }
+
+    @Test
+    public void buffersGrowBeyondTheirInitialCapacity() {
+        subject = ColumnarAggregation.ofCurrentThread();
+        for ( int i = 0; i < 5000; i++ ) {
+            subject.handle( 1000 + i % 100, 1 );
+        }
+
+        assertThat( subject.size(), is( 5000 ) );
+        assertThat( subject.aggregate( AggregationKernel.SUM, SOURCE, 100 ), is( 1 ) );
+        assertThat( subject.outValues()[0], is( 5000.0 ) );
+    }
+
+    @Test
+    public void buffersOfHugeMetricsAreNotRetained() {
+        subject = ColumnarAggregation.ofCurrentThread();
+        for ( int i = 0; i <= ColumnarAggregation.MAX_RETAINED_CAPACITY; i++ ) {
+            subject.handle( 1000 + i % 100, 1 );
+        }
+        assertThat( subject.capacity() > ColumnarAggregation.MAX_RETAINED_CAPACITY, is( true ) );
+
+        subject = ColumnarAggregation.ofCurrentThread();
+
+        assertThat( subject.size(), is( 0 ) );
+        assertThat( subject.capacity() <= ColumnarAggregation.MAX_RETAINED_CAPACITY, is( true ) );
+    }
+
+    @Test
+    public void builtInFunctionsHaveKernels() {
+        assertThat( AggregationKernel.forFunction( new LastAggregation() ), is( Optional.of( AggregationKernel.LAST ) ) );
+        assertThat( AggregationKernel.forFunction( new MaxAggregation() ), is( Optional.of( AggregationKernel.MAX ) ) );
+        assertThat( AggregationKernel.forFunction( new Object() ), is( Optional.empty() ) );
+    }
+
+    private void assertAggregated( AggregationKernel kernel, double first, double second ) {
+        assertThat( subject.aggregate( kernel, SOURCE, 50 ), is( 2 ) );
+        assertThat( subject.outTimestamps()[0], is( 1000L ) );
+        assertThat( subject.outValues()[0], is( first ) );
+        assertThat( subject.outTimestamps()[1], is( 1050L ) );
+        assertThat( subject.outValues()[1], is( second ) );
+    }
+}
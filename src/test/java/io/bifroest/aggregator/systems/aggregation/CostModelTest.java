@@ -0,0 +1,64 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.bifroest.retentions.RetentionLevel;
+
+public class CostModelTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final RetentionLevel level = new RetentionLevel( "precise", 60, 2, 60 * 60, "hourly" );
+
+    @Test
+    public void withoutHistoryOnlyTheNamesCount() {
+        CostModel costs = CostModel.open( Optional.empty() );
+
+        assertThat( costs.estimate( level, OptionalLong.of( 1000 ) ), closeTo( 1000 * CostModel.DEFAULT_SECONDS_PER_NAME, 1e-9 ) );
+        assertThat( costs.estimate( level, OptionalLong.empty() ), is( 0.0 ) );
+    }
+
+    @Test
+    public void estimatesFollowTheRecordedRuns() {
+        CostModel costs = CostModel.open( Optional.empty() );
+        costs.record( level, OptionalLong.of( 100 ), 10 );
+
+        assertThat( costs.estimate( level, OptionalLong.of( 200 ) ), closeTo( 20, 1e-9 ) );
+        assertThat( costs.estimate( level, OptionalLong.empty() ), closeTo( 10, 1e-9 ) );
+
+        costs.record( level, OptionalLong.of( 100 ), 20 );
+
+        assertThat( costs.estimate( level, OptionalLong.of( 200 ) ), closeTo( 26, 1e-9 ) );
+        assertThat( costs.estimate( level, OptionalLong.empty() ), closeTo( 13, 1e-9 ) );
+    }
+
+    @Test
+    public void historySurvivesARestart() {
+        CostModel costs = CostModel.open( Optional.of( folder.getRoot().toPath() ) );
+        costs.record( level, OptionalLong.of( 100 ), 10 );
+        costs.save();
+
+        CostModel restored = CostModel.open( Optional.of( folder.getRoot().toPath() ) );
+
+        assertThat( restored.estimate( level, OptionalLong.of( 200 ) ), closeTo( 20, 1e-9 ) );
+    }
+
+    @Test
+    public void unreadableHistoryIsIgnored() throws Exception {
+        Files.write( folder.getRoot().toPath().resolve( CostModel.FILE ), "precise\tgarbage\n".getBytes( "UTF-8" ) );
+
+        CostModel costs = CostModel.open( Optional.of( folder.getRoot().toPath() ) );
+
+        assertThat( costs.estimate( level, OptionalLong.of( 1000 ) ), closeTo( 1000 * CostModel.DEFAULT_SECONDS_PER_NAME, 1e-9 ) );
+    }
+}
@@ -0,0 +1,121 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.bifroest.commons.statistics.eventbus.EventBusImpl;
+import io.bifroest.commons.statistics.eventbus.EventBusManager;
+import io.bifroest.commons.statistics.eventbus.EventBusManager.EventBusForce;
+import io.bifroest.aggregator.benchmarks.StubRetentions;
+import io.bifroest.aggregator.systems.AggregatorEnvironment;
+import io.bifroest.aggregator.systems.cassandra.CassandraAccessLayer;
+import io.bifroest.aggregator.systems.cassandra.CassandraSettings;
+import io.bifroest.aggregator.systems.cassandra.InMemoryCassandraSession;
+import io.bifroest.aggregator.systems.cassandra.InMemoryClusterWrapper;
+import io.bifroest.aggregator.systems.cassandra.LatencyDistribution;
+import io.bifroest.aggregator.systems.cassandra.SimulatedCassandraSession;
+import io.bifroest.aggregator.systems.cassandra.SimulatedCassandraSession.Operation;
+import io.bifroest.aggregator.systems.cassandra.ThrottleSettings;
+import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * Compares the throughput of the fixed and the virtual executor against a
+ * simulated Cassandra answering every request after a fixed latency. Both
+ * modes aggregate the same tables with the same level settings through the
+ * real CassandraAccessLayer, which allows at most max-outstanding-requests
+ * requests at a time. The throttle is off, so its adaption does not blur the
+ * comparison. Not run by the build:
+ *
+ * <pre>
+ * java -cp ... io.bifroest.aggregator.systems.aggregation.ExecutorModeBenchmark [tables] [names] [latency-ms] [max-outstanding-requests] [poolsize]
+ * </pre>
+ */
+public class ExecutorModeBenchmark {
+    public static void main( String[] args ) throws Exception {
+        int tables = args.length > 0 ? Integer.parseInt( args[0] ) : 4;
+        int names = args.length > 1 ? Integer.parseInt( args[1] ) : 2000;
+        long latency = args.length > 2 ? Long.parseLong( args[2] ) : 5;
+        int maxOutstandingRequests = args.length > 3 ? Integer.parseInt( args[3] ) : 512;
+        int poolsize = args.length > 4 ? Integer.parseInt( args[4] ) : 10;
+
+        EventBusManager.setEventBus( new EventBusImpl(), EventBusForce.VROOM );
+
+        LevelSettings levelSettings = LevelSettings.defaults();
+
+        report( "fixed", names * tables, run( tables, names, latency, maxOutstandingRequests,
+                Executors.newFixedThreadPool( poolsize ), Executors.newFixedThreadPool( poolsize ), levelSettings ) );
+
+        if ( VirtualThreads.isSupported() ) {
+            report( "virtual", names * tables, run( tables, names, latency, maxOutstandingRequests,
+                    VirtualThreads.newPerTaskExecutor(), VirtualThreads.newPerTaskExecutor(), levelSettings ) );
+        } else {
+            System.out.println( "virtual: needs Java 21 or newer" );
+        }
+    }
+
+    private static void report( String mode, int names, long nanos ) {
+        System.out.printf( "%s: %d names in %d ms, %.0f names/s%n", mode, names, nanos / 1000000, names / ( nanos / 1e9 ) );
+    }
+
+    private static long run( int tables, int names, long latency, int maxOutstandingRequests, ExecutorService executor, ExecutorService shardPool,
+            LevelSettings levelSettings ) throws Exception {
+        RetentionLevel level = new RetentionLevel( "lvla", 5 * 60, 3, 60 * 60, "lvlb" );
+        RetentionLevel nextLevel = new RetentionLevel( "lvlb", 60 * 60, 2, 60 * 60 * 24 * 7, null );
+
+        // every run gets its own keyspace, the tasks drop the tables they aggregated
+        InMemoryCassandraSession keyspace = new InMemoryCassandraSession();
+        for ( int block = 0; block < tables; block++ ) {
+            RetentionTable table = new RetentionTable( level, block );
+            keyspace.createTable( table );
+            long[] timestamps = new long[(int) ( level.blockSize() / level.frequency() )];
+            double[] values = new double[timestamps.length];
+            for ( int i = 0; i < timestamps.length; i++ ) {
+                timestamps[i] = table.getInterval().start() + i * level.frequency();
+                values[i] = i;
+            }
+            for ( int i = 0; i < names; i++ ) {
+                keyspace.insertPoints( table, String.format( "name%06d", i ), timestamps, values );
+            }
+        }
+
+        Duration requestLatency = Duration.ofMillis( latency );
+        SimulatedCassandraSession session = SimulatedCassandraSession.builder()
+                .latency( Operation.READ, LatencyDistribution.fixed( requestLatency ) )
+                .latency( Operation.SCAN, LatencyDistribution.fixed( requestLatency ) )
+                .latency( Operation.WRITE, LatencyDistribution.fixed( requestLatency ) )
+                .build( keyspace );
+
+        RetentionConfiguration retentions = StubRetentions.of( StubRetentions.builtIn( "max" ), level, nextLevel );
+        CassandraAccessLayer database = new CassandraAccessLayer( new InMemoryClusterWrapper( keyspace, session ), retentions, false,
+                CassandraSettings.builder().maxOutstandingRequests( maxOutstandingRequests ).throttle( ThrottleSettings.disabled() ).build() );
+        AggregatorEnvironment environment = mock( AggregatorEnvironment.class );
+        when( environment.cassandraAccessLayer() ).thenReturn( database );
+        when( environment.retentions() ).thenReturn( retentions );
+
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for ( int block = 0; block < tables; block++ ) {
+            futures.add( executor.submit( new AggregatorTask<AggregatorEnvironment>( environment, new RetentionTable( level, block ), Optional.of( nextLevel ),
+                    levelSettings, CheckpointStore.inMemory(), () -> false, Cascade.disabled(), shardPool ) ) );
+        }
+        for ( Future<?> future : futures ) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        executor.shutdown();
+        shardPool.shutdown();
+        database.close();
+        return elapsed;
+    }
+}
@@ -0,0 +1,52 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PrioritizedTaskTest {
+    private final ExecutorService pool = PrioritizedTask.newFixedPool( 1 );
+
+    @After
+    public void shutdownPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void queuedTasksRunByTheirSlackThenInTheOrderTheyWerePlanned() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch( 1 );
+        List<String> ran = new CopyOnWriteArrayList<>();
+        // keeps the only thread busy until everything else is queued
+        pool.execute( new PrioritizedTask( () -> {
+            try {
+                blocked.await();
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }, 0, 0 ) );
+
+        pool.execute( new PrioritizedTask( () -> ran.add( "relaxed" ), 300, 1 ) );
+        pool.execute( new PrioritizedTask( () -> ran.add( "urgent, planned later" ), -10, 3 ) );
+        pool.execute( new PrioritizedTask( () -> ran.add( "urgent" ), -10, 2 ) );
+        pool.execute( new PrioritizedTask( () -> ran.add( "soon" ), 60, 4 ) );
+        blocked.countDown();
+        pool.shutdown();
+        pool.awaitTermination( 10, TimeUnit.SECONDS );
+
+        assertThat( ran, contains( "urgent", "urgent, planned later", "soon", "relaxed" ) );
+    }
+
+    @Test( expected = RejectedExecutionException.class )
+    public void tasksWithoutAPriorityAreRejected() {
+        pool.submit( () -> { } );
+    }
+}
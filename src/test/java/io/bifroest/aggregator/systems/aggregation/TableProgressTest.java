@@ -0,0 +1,105 @@
+package io.bifroest.aggregator.systems.aggregation;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import io.bifroest.aggregator.systems.aggregation.statistics.AggregationPhase;
+import io.bifroest.aggregator.systems.aggregation.statistics.AggregationProgressEvent;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+public class TableProgressTest {
+    private final RetentionTable source = new RetentionTable( new RetentionLevel( "lvla", 5 * 60, 3, 60 * 60, "lvlb" ), 42 );
+    private final RetentionTable target = new RetentionTable( new RetentionLevel( "lvlb", 60 * 60, 2, 60 * 60 * 24 * 7, null ), 0 );
+    private final List<AggregationProgressEvent> events = new ArrayList<>();
+    private final AtomicLong nanos = new AtomicLong();
+    private final TableProgress subject = new TableProgress( source, target, Duration.ofSeconds( 10 ), events::add,
+            Clock.fixed( Instant.EPOCH, ZoneOffset.UTC ), nanos::get );
+
+    @Test
+    public void namesWithinTheIntervalAreCoalesced() {
+        for ( int name = 0; name < 1000; name++ ) {
+            subject.phase( AggregationPhase.READ, 5 );
+            subject.nameAggregated( "name" + name, 12 );
+        }
+
+        assertThat( events.size(), is( 0 ) );
+
+        subject.finish();
+
+        assertThat( events.size(), is( 1 ) );
+        AggregationProgressEvent event = events.get( 0 );
+        assertThat( event.source(), is( source ) );
+        assertThat( event.target(), is( target ) );
+        assertThat( event.names(), is( 1000L ) );
+        assertThat( event.points(), is( 12000L ) );
+        assertThat( event.nanos( AggregationPhase.READ ), is( 5000L ) );
+        assertThat( event.nanos( AggregationPhase.WRITE ), is( 0L ) );
+        assertThat( event.last(), is( true ) );
+    }
+
+    @Test
+    public void progressIsPublishedOncePerInterval() {
+        subject.nameAggregated( "name01", 3 );
+        nanos.addAndGet( Duration.ofSeconds( 10 ).toNanos() );
+        subject.nameAggregated( "name02", 4 );
+        subject.nameAggregated( "name03", 5 );
+        subject.finish();
+
+        assertThat( events.size(), is( 2 ) );
+        assertThat( events.get( 0 ).names(), is( 2L ) );
+        assertThat( events.get( 0 ).points(), is( 7L ) );
+        assertThat( events.get( 0 ).bytes(), is( 12L + 7 * 16 ) );
+        assertThat( events.get( 0 ).last(), is( false ) );
+        assertThat( events.get( 1 ).names(), is( 1L ) );
+        assertThat( events.get( 1 ).points(), is( 5L ) );
+        assertThat( events.get( 1 ).last(), is( true ) );
+    }
+
+    @Test
+    public void countsRacingAPublishAreNotLost() throws InterruptedException {
+        List<AggregationProgressEvent> published = Collections.synchronizedList( new ArrayList<>() );
+        // publishes on almost every name
+        TableProgress progress = new TableProgress( source, target, Duration.ZERO, published::add, Clock.systemUTC(), System::nanoTime );
+
+        List<Thread> threads = new ArrayList<>();
+        for ( int thread = 0; thread < 4; thread++ ) {
+            threads.add( new Thread( () -> {
+                for ( int name = 0; name < 10000; name++ ) {
+                    progress.phase( AggregationPhase.READ, 1 );
+                    progress.nameAggregated( "name", 3 );
+                }
+            } ) );
+        }
+        threads.forEach( Thread::start );
+        for ( Thread thread : threads ) {
+            thread.join();
+        }
+        progress.finish();
+
+        long names = 0;
+        long points = 0;
+        long readNanos = 0;
+        synchronized ( published ) {
+            for ( AggregationProgressEvent event : published ) {
+                names += event.names();
+                points += event.points();
+                readNanos += event.nanos( AggregationPhase.READ );
+            }
+        }
+        assertThat( names, is( 40000L ) );
+        assertThat( points, is( 120000L ) );
+        assertThat( readNanos, is( 40000L ) );
+    }
+}
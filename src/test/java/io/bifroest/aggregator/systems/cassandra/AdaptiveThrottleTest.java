@@ -0,0 +1,82 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.time.Duration;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.WriteType;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import io.bifroest.commons.statistics.eventbus.EventBusImpl;
+import io.bifroest.commons.statistics.eventbus.EventBusManager;
+import io.bifroest.commons.statistics.eventbus.EventBusManager.EventBusForce;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveThrottleTest {
+    public AdaptiveThrottle subject;
+
+    @Before
+    public void createSubject() {
+        EventBusManager.setEventBus(new EventBusImpl(), EventBusForce.VROOM);
+        // a zero window adjusts the rate after every request
+        subject = new AdaptiveThrottle(new ThrottleSettings(true, 100, 10, 120, 5, 0.5, Duration.ofSeconds(1), 0.01, Duration.ZERO));
+    }
+
+    @Test
+    public void requestsAreThrottledWithoutAThrottleBlock() {
+        assertThat(CassandraSettings.defaults().throttle().enabled(), is(true));
+        assertThat(CassandraSettings.fromConfig(new JSONObject()).throttle().enabled(), is(true));
+        assertThat(ThrottleSettings.fromConfig(new JSONObject("{ \"enabled\" : false }")).enabled(), is(false));
+    }
+
+    @Test
+    public void rateGrowsAdditivelyWhileRequestsAreFast() {
+        subject.succeeded(System.nanoTime());
+        subject.succeeded(System.nanoTime());
+
+        assertThat(subject.rate(), is(closeTo(110, 0.001)));
+    }
+
+    @Test
+    public void rateIsCappedAtTheMaximum() {
+        for (int i = 0; i < 10; i++) {
+            subject.succeeded(System.nanoTime());
+        }
+
+        assertThat(subject.rate(), is(closeTo(120, 0.001)));
+    }
+
+    @Test
+    public void rateIsCutMultiplicativelyOnTimeouts() {
+        subject.failed(System.nanoTime(), new WriteTimeoutException(ConsistencyLevel.ONE, WriteType.SIMPLE, 0, 1));
+
+        assertThat(subject.rate(), is(closeTo(50, 0.001)));
+    }
+
+    @Test
+    public void rateIsCutWhenLatencyExceedsTheTarget() {
+        subject.succeeded(System.nanoTime() - Duration.ofSeconds(2).toNanos());
+
+        assertThat(subject.rate(), is(closeTo(50, 0.001)));
+    }
+
+    @Test
+    public void rateNeverFallsBelowTheMinimum() {
+        for (int i = 0; i < 10; i++) {
+            subject.succeeded(System.nanoTime() - Duration.ofSeconds(2).toNanos());
+        }
+
+        assertThat(subject.rate(), is(closeTo(10, 0.001)));
+    }
+
+    @Test
+    public void otherFailuresDoNotCutTheRate() {
+        subject.failed(System.nanoTime(), new IllegalStateException());
+
+        assertThat(subject.rate(), is(closeTo(105, 0.001)));
+    }
+}
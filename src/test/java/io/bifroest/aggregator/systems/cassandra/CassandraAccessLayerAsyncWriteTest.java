@@ -0,0 +1,183 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.WriteType;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import io.bifroest.commons.model.Metric;
+import io.bifroest.commons.statistics.eventbus.EventBusImpl;
+import io.bifroest.commons.statistics.eventbus.EventBusManager;
+import io.bifroest.commons.statistics.eventbus.EventBusManager.EventBusForce;
+import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class CassandraAccessLayerAsyncWriteTest {
+    @Mock
+    public CassandraClusterWrapper cluster;
+
+    @Mock
+    public CassandraSession session;
+
+    @Mock
+    public RetentionConfiguration retentionConfiguration;
+
+    public RetentionTable someTable;
+
+    public CassandraAccessLayer subject;
+
+    @Before
+    public void createSubject() {
+        EventBusManager.setEventBus(new EventBusImpl(), EventBusForce.VROOM);
+        MockitoAnnotations.initMocks(this);
+        when(cluster.open()).thenReturn(session);
+
+        RetentionLevel retentionLevel = new RetentionLevel("precise", 20, 10, 40, null);
+        someTable = new RetentionTable(retentionLevel, 42);
+
+        boolean noDryRun = false;
+        subject = new CassandraAccessLayer(cluster, retentionConfiguration, noDryRun, CassandraSettings.builder().asyncWrites(true).maxInFlightWrites(16).maxInFlightWritesPerTask(4).initialRetryBackoff(Duration.ofMillis(1)).build());
+    }
+
+    @Test
+    public void metricsAreWrittenAsynchronously() throws InterruptedException {
+        when(session.insertMetricAsync(any(RetentionTable.class), any(Metric.class))).thenAnswer(i -> Futures.immediateFuture(null));
+
+        WriteWindow window = subject.newWriteWindow();
+
+        subject.insertMetrics(someTable, Arrays.asList(new Metric("a", 0, 1), new Metric("a", 20, 2)), window);
+
+        verify(session, times(2)).insertMetricAsync(any(RetentionTable.class), any(Metric.class));
+        verify(session, never()).insertMetric(any(RetentionTable.class), any(Metric.class));
+        assertThat(subject.awaitWrites(window), is(true));
+    }
+
+    @Test
+    public void failedWritesAreReportedByTheirWindowOnly() throws InterruptedException {
+        when(session.insertMetricAsync(any(RetentionTable.class), any(Metric.class)))
+                .thenReturn(Futures.immediateFailedFuture(new RuntimeException("timeout")))
+                .thenReturn(Futures.immediateFuture(null));
+        WriteWindow failing = subject.newWriteWindow();
+        WriteWindow other = subject.newWriteWindow();
+
+        subject.insertMetrics(someTable, Arrays.asList(new Metric("a", 0, 1)), failing);
+        subject.insertMetrics(someTable, Arrays.asList(new Metric("b", 0, 1)), other);
+
+        assertThat(subject.awaitWrites(failing), is(false));
+        assertThat(subject.awaitWrites(failing), is(false));
+        assertThat(subject.awaitWrites(other), is(true));
+    }
+
+    @Test
+    public void awaitWritesWaitsForThePendingWritesOfItsWindow() throws InterruptedException {
+        SettableFuture<Object> future = SettableFuture.create();
+        SettableFuture<Object> otherFuture = SettableFuture.create();
+        when(session.insertMetricAsync(any(RetentionTable.class), any(Metric.class))).thenAnswer(i -> future).thenAnswer(i -> otherFuture);
+        WriteWindow window = subject.newWriteWindow();
+        WriteWindow other = subject.newWriteWindow();
+
+        subject.insertMetrics(someTable, Arrays.asList(new Metric("a", 0, 1)), window);
+        subject.insertMetrics(someTable, Arrays.asList(new Metric("b", 0, 1)), other);
+
+        new Thread(() -> future.set(null)).start();
+
+        // the write of the other window into the same table is still pending
+        assertThat(subject.awaitWrites(window), is(true));
+        otherFuture.set(null);
+    }
+
+    @Test
+    public void theWindowOfATaskIsSharedByAllOfItsThreads() throws InterruptedException {
+        List<SettableFuture<Object>> futures = new ArrayList<>();
+        when(session.insertMetricAsync(any(RetentionTable.class), any(Metric.class))).thenAnswer(i -> {
+            SettableFuture<Object> future = SettableFuture.create();
+            synchronized (futures) {
+                futures.add(future);
+            }
+            return future;
+        });
+        WriteWindow window = subject.newWriteWindow();
+
+        subject.insertMetrics(someTable, Arrays.asList(new Metric("a", 0, 1), new Metric("a", 20, 2), new Metric("a", 40, 3), new Metric("a", 60, 4)), window);
+        Thread otherThread = new Thread(() -> subject.insertMetrics(someTable, Arrays.asList(new Metric("b", 0, 1)), window));
+        otherThread.start();
+        otherThread.join(100);
+
+        // the window of 4 writes is full, no matter which thread writes
+        assertThat(otherThread.isAlive(), is(true));
+        verify(session, times(4)).insertMetricAsync(any(RetentionTable.class), any(Metric.class));
+
+        synchronized (futures) {
+            futures.get(0).set(null);
+        }
+        otherThread.join();
+        verify(session, times(5)).insertMetricAsync(any(RetentionTable.class), any(Metric.class));
+        synchronized (futures) {
+            futures.forEach(future -> future.set(null));
+        }
+        assertThat(subject.awaitWrites(window), is(true));
+    }
+
+    @Test
+    public void timedOutWritesAreRetried() throws InterruptedException {
+        when(session.insertMetricAsync(any(RetentionTable.class), any(Metric.class)))
+                .thenReturn(Futures.immediateFailedFuture(new WriteTimeoutException(ConsistencyLevel.ONE, WriteType.SIMPLE, 0, 1)))
+                .thenReturn(Futures.immediateFuture(null));
+        WriteWindow window = subject.newWriteWindow();
+
+        subject.insertMetrics(someTable, Arrays.asList(new Metric("a", 0, 1)), window);
+
+        assertThat(subject.awaitWrites(window), is(true));
+        verify(session, times(2)).insertMetricAsync(any(RetentionTable.class), any(Metric.class));
+    }
+
+    @Test
+    public void retriedWritesKeepTheirPlaceInTheWindow() throws InterruptedException {
+        SettableFuture<Object> retry = SettableFuture.create();
+        when(session.insertMetricAsync(any(RetentionTable.class), any(Metric.class)))
+                .thenReturn(Futures.immediateFailedFuture(new WriteTimeoutException(ConsistencyLevel.ONE, WriteType.SIMPLE, 0, 1)))
+                .thenAnswer(i -> retry);
+        WriteWindow window = subject.newWriteWindow();
+
+        subject.insertMetrics(someTable, Arrays.asList(new Metric("a", 0, 1)), window);
+
+        verify(session, timeout(1000).times(2)).insertMetricAsync(any(RetentionTable.class), any(Metric.class));
+        assertThat(window.available(), is(3));
+
+        retry.set(null);
+        assertThat(subject.awaitWrites(window), is(true));
+        assertThat(window.available(), is(4));
+    }
+
+    @Test
+    public void writesFailAfterTheLastRetry() throws InterruptedException {
+        when(session.insertMetricAsync(any(RetentionTable.class), any(Metric.class)))
+                .thenReturn(Futures.immediateFailedFuture(new WriteTimeoutException(ConsistencyLevel.ONE, WriteType.SIMPLE, 0, 1)));
+        WriteWindow window = subject.newWriteWindow();
+
+        subject.insertMetrics(someTable, Arrays.asList(new Metric("a", 0, 1)), window);
+
+        assertThat(subject.awaitWrites(window), is(false));
+        // first attempt and 5 retries
+        verify(session, times(6)).insertMetricAsync(any(RetentionTable.class), any(Metric.class));
+    }
+}
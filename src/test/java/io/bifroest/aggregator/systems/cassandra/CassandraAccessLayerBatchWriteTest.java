@@ -0,0 +1,76 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.bifroest.commons.model.Metric;
+import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class CassandraAccessLayerBatchWriteTest {
+    @Mock
+    public CassandraClusterWrapper cluster;
+
+    @Mock
+    public CassandraSession session;
+
+    @Mock
+    public RetentionConfiguration retentionConfiguration;
+
+    public RetentionTable someTable;
+
+    public CassandraAccessLayer subject;
+
+    @Before
+    public void createSubject() {
+        MockitoAnnotations.initMocks(this);
+        when(cluster.open()).thenReturn(session);
+
+        RetentionLevel retentionLevel = new RetentionLevel("precise", 20, 10, 40, null);
+        someTable = new RetentionTable(retentionLevel, 42);
+
+        boolean noDryRun = false;
+        int batchSize = 2;
+        subject = new CassandraAccessLayer(cluster, retentionConfiguration, noDryRun, CassandraSettings.builder().batchSize(batchSize).build());
+    }
+
+    @Test
+    public void pointsAreBatchedPerName() {
+        subject.insertMetrics(someTable, Arrays.asList(
+                new Metric("a", 0, 1), new Metric("b", 0, 1), new Metric("a", 20, 2), new Metric("a", 40, 3)));
+
+        verify(session, times(3)).insertBatch(any(RetentionTable.class), argThat(new SingleNameMatcher()));
+        verify(session, never()).insertMetric(any(RetentionTable.class), any(Metric.class));
+    }
+
+    @Test
+    public void batchesRespectTheBatchSize() {
+        subject.insertMetrics(someTable, Arrays.asList(
+                new Metric("a", 0, 1), new Metric("a", 20, 2), new Metric("a", 40, 3), new Metric("a", 60, 4), new Metric("a", 80, 5)));
+
+        verify(session, times(3)).insertBatch(any(RetentionTable.class), anyListOf(Metric.class));
+    }
+
+    private static class SingleNameMatcher extends ArgumentMatcher<List<Metric>> {
+        @SuppressWarnings("unchecked")
+        @Override
+        public boolean matches(Object argument) {
+            List<Metric> batch = (List<Metric>) argument;
+            return batch.size() <= 2 && batch.stream().map(Metric::name).distinct().count() == 1;
+        }
+    }
+}
@@ -1,8 +1,15 @@
 package io.bifroest.aggregator.systems.cassandra;
 
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -11,8 +18,14 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import com.datastax.driver.core.Session;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.bifroest.commons.statistics.eventbus.EventBusImpl;
+import io.bifroest.commons.statistics.eventbus.EventBusManager;
+import io.bifroest.commons.statistics.eventbus.EventBusManager.EventBusForce;
 import io.bifroest.retentions.RetentionConfiguration;
 import io.bifroest.retentions.RetentionLevel;
 import io.bifroest.retentions.RetentionTable;
@@ -43,6 +56,62 @@ public class CassandraAccessLayerReadOnlyTest {
         subject = new CassandraAccessLayer(cluster, retentionConfiguration, anyDryRunValue);
     }
 
+    @Test
+    public void theCatalogListensToTheSchemaOnlyOnce() {
+        when(cluster.open()).thenReturn(session);
+
+        subject.open();
+        subject.open();
+
+        verify(cluster, times(1)).addSchemaListener(any(SchemaListener.class));
+    }
+
+    @Test
+    public void onlyTheFirstPageOfPointsCountsAsTheLatencyOfTheRequest() {
+        EventBusManager.setEventBus(new EventBusImpl(), EventBusForce.VROOM);
+        // a zero window adjusts the rate after every request
+        ThrottleSettings throttle = new ThrottleSettings(true, 100, 10, 120, 5, 0.5, Duration.ofMillis(50), 0.01, Duration.ZERO);
+        CassandraAccessLayer throttled = new CassandraAccessLayer(cluster, retentionConfiguration, anyDryRunValue,
+                CassandraSettings.builder().throttle(throttle).build());
+        RetentionTable table = new RetentionTable(new RetentionLevel("level", 60, 2, 3600, null), 0);
+        when(cluster.open()).thenReturn(session);
+        doAnswer(invocation -> {
+            PointHandler handler = (PointHandler) invocation.getArguments()[3];
+            handler.handle(0, 1);
+            handler.handle(60, 2);
+            return null;
+        }).when(session).loadPoints(eq(table), anyString(), anyInt(), any(PointHandler.class));
+
+        // the handler is slower than the target latency
+        throttled.loadPoints(table, "name", 0, (timestamp, value) -> Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS));
+
+        assertThat(throttled.requestRate().getAsDouble(), is(closeTo(105, 0.001)));
+    }
+
+    @Test(timeout = 5000)
+    public void leasesAreRenewedWhileTheDataHoldsEveryRequestSlot() throws InterruptedException {
+        CassandraAccessLayer limited = new CassandraAccessLayer(cluster, retentionConfiguration, false,
+                CassandraSettings.builder().maxOutstandingRequests(1).build());
+        RetentionTable table = new RetentionTable(new RetentionLevel("level", 60, 2, 3600, null), 0);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch renewed = new CountDownLatch(1);
+        when(cluster.open()).thenReturn(session);
+        when(session.updateLeaseIfOwner("resource", "node", 60)).thenReturn(true);
+        doAnswer(invocation -> {
+            reading.countDown();
+            renewed.await();
+            return null;
+        }).when(session).loadPoints(eq(table), anyString(), anyInt(), any(PointHandler.class));
+        Thread reader = new Thread(() -> limited.loadPoints(table, "name", 0, (timestamp, value) -> { }));
+        reader.start();
+        reading.await();
+
+        assertThat(limited.renewLease("resource", "node", Duration.ofMinutes(1)), is(true));
+
+        renewed.countDown();
+        reader.join();
+    }
+
     @Test
     public void noTablesInCassandraResultInNoRetentionTables() {
         when(cluster.getTableNames()).thenReturn(Collections.emptyList());
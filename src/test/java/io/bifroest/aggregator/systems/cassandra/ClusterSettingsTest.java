@@ -0,0 +1,72 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.time.Duration;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.ProtocolOptions.Compression;
+
+public class ClusterSettingsTest {
+    @Test
+    public void missingSectionsUseTheDefaults() {
+        ClusterSettings settings = ClusterSettings.fromConfig(new JSONObject("{ \"keyspace\" : \"graphite\" }"));
+
+        assertThat(settings.readTimeout(), is(Duration.ofSeconds(12)));
+        assertThat(settings.routingConfigured(), is(false));
+        assertThat(settings.tokenAware(), is(false));
+        assertThat(settings.localDc(), is(nullValue()));
+        assertThat(settings.maxConnectionsPerHost(), is(0));
+        assertThat(settings.compression(), is(Compression.NONE));
+        assertThat(settings.writeConsistency(), is(ConsistencyLevel.ONE));
+    }
+
+    @Test
+    public void allSectionsAreRead() {
+        ClusterSettings settings = ClusterSettings.fromConfig(new JSONObject("{"
+                + "\"read-timeout\" : \"20s\","
+                + "\"routing\" : { \"token-aware\" : true, \"local-dc\" : \"dc1\", \"used-hosts-per-remote-dc\" : 2 },"
+                + "\"pooling\" : { \"core-connections-per-host\" : 2, \"max-connections-per-host\" : 8, \"max-requests-per-connection\" : 100 },"
+                + "\"compression\" : \"lz4\","
+                + "\"consistency\" : { \"read\" : \"local_one\", \"write\" : \"LOCAL_QUORUM\" }"
+                + "}"));
+
+        assertThat(settings.readTimeout(), is(Duration.ofSeconds(20)));
+        assertThat(settings.routingConfigured(), is(true));
+        assertThat(settings.tokenAware(), is(true));
+        assertThat(settings.localDc(), is("dc1"));
+        assertThat(settings.usedHostsPerRemoteDc(), is(2));
+        assertThat(settings.coreConnectionsPerHost(), is(2));
+        assertThat(settings.maxConnectionsPerHost(), is(8));
+        assertThat(settings.maxRequestsPerConnection(), is(100));
+        assertThat(settings.compression(), is(Compression.LZ4));
+        assertThat(settings.readConsistency(), is(ConsistencyLevel.LOCAL_ONE));
+        assertThat(settings.writeConsistency(), is(ConsistencyLevel.LOCAL_QUORUM));
+        assertThat(settings.ddlConsistency(), is(ConsistencyLevel.ONE));
+    }
+
+    @Test
+    public void tokenAwarenessAloneReplacesTheDefaultPolicy() {
+        ClusterSettings settings = ClusterSettings.fromConfig(new JSONObject("{ \"routing\" : { \"token-aware\" : true } }"));
+
+        assertThat(settings.routingConfigured(), is(true));
+        assertThat(settings.localDc(), is(nullValue()));
+    }
+
+    @Test
+    public void snappyCompressionIsRead() {
+        ClusterSettings settings = ClusterSettings.fromConfig(new JSONObject("{ \"compression\" : \"snappy\" }"));
+
+        assertThat(settings.compression(), is(Compression.SNAPPY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void coreConnectionsMustNotExceedTheMaximum() {
+        ClusterSettings.builder().coreConnectionsPerHost(4).maxConnectionsPerHost(2).build();
+    }
+}
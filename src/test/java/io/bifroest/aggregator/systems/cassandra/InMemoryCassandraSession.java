@@ -0,0 +1,275 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.InMemoryRows;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.bifroest.commons.model.Metric;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * A keyspace in memory, answering like a single Cassandra node without any latency.
+ *
+ * Partitions are ordered by a token of their name, so names come in token order
+ * and token range scans see every name exactly once. The token is not the one of
+ * the Murmur3Partitioner, it is only spread just as evenly over the ring.
+ *
+ * The rows of a metric are created on the first read and kept until it is written
+ * again, so repeated reads only pay for decoding them.
+ */
+public class InMemoryCassandraSession implements CassandraSession {
+    private static final String KEYSPACE = "in_memory";
+
+    private static final Comparator<String> TOKEN_ORDER = Comparator.comparingLong(InMemoryCassandraSession::token).thenComparing(Comparator.naturalOrder());
+
+    private final ConcurrentMap<String, ConcurrentSkipListMap<String, ConcurrentSkipListMap<Long, Double>>> tables = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, List<Row>> rowCache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentSkipListMap<Integer, String>> completedUnits = new ConcurrentHashMap<>();
+    private final List<SchemaListener> schemaListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return a token in (Long.MIN_VALUE, Long.MAX_VALUE], like the tokens of the Murmur3Partitioner
+     */
+    public static long token(String name) {
+        long hash = name.hashCode() * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 29;
+        return hash == Long.MIN_VALUE ? Long.MAX_VALUE : hash;
+    }
+
+    public void addSchemaListener(SchemaListener listener) {
+        schemaListeners.add(listener);
+    }
+
+    public Collection<String> tableNames() {
+        return new ArrayList<>(tables.keySet());
+    }
+
+    /**
+     * @return the points of the metric by timestamp, empty if the table or the metric does not exist
+     */
+    public Map<Long, Double> points(RetentionTable table, String name) {
+        ConcurrentSkipListMap<String, ConcurrentSkipListMap<Long, Double>> partitions = tables.get(normalize(table.tableName()));
+        ConcurrentSkipListMap<Long, Double> points = partitions == null ? null : partitions.get(name);
+        return points == null ? new ConcurrentSkipListMap<>() : points;
+    }
+
+    @Override
+    public void createTable(RetentionTable table) {
+        if (tables.putIfAbsent(normalize(table.tableName()), new ConcurrentSkipListMap<>(TOKEN_ORDER)) == null) {
+            schemaListeners.forEach(listener -> listener.tableCreated(normalize(table.tableName())));
+        }
+    }
+
+    @Override
+    public void dropTableInDatabase(RetentionTable table) {
+        if (tables.remove(normalize(table.tableName())) == null) {
+            throw new InvalidQueryException("Cannot drop non existing table '" + table.tableName() + "' in keyspace '" + KEYSPACE + "'.");
+        }
+        rowCache.keySet().removeIf(key -> key.startsWith(normalize(table.tableName()) + "/"));
+        schemaListeners.forEach(listener -> listener.tableDropped(normalize(table.tableName())));
+    }
+
+    @Override
+    public Iterator<Row> loadNamesFromTable(RetentionTable table) {
+        ColumnDefinitions columns = InMemoryRows.columns(KEYSPACE, table.tableName(), new String[] { CassandraAccessLayer.COL_NAME }, new DataType[] { DataType.text() });
+        List<Row> rows = new ArrayList<>();
+        for (String name : partitionsOf(table).keySet()) {
+            rows.add(InMemoryRows.row(columns, DataType.text().serialize(name)));
+        }
+        return rows.iterator();
+    }
+
+    @Override
+    public Iterator<Row> loadMetricsFromTable(RetentionTable table, String name) {
+        return rowsOf(table, name).iterator();
+    }
+
+    @Override
+    public ListenableFuture<Iterator<Row>> loadMetricsFromTableAsync(RetentionTable table, String name, int fetchSize) {
+        return Futures.immediateFuture(loadMetricsFromTable(table, name));
+    }
+
+    @Override
+    public void scanTokenRange(RetentionTable table, TokenRange range, int fetchSize, MetricRowHandler handler) {
+        for (Map.Entry<String, ConcurrentSkipListMap<Long, Double>> partition : partitionsOf(table).entrySet()) {
+            long token = token(partition.getKey());
+            if (token > range.start() && token <= range.end()) {
+                for (Map.Entry<Long, Double> point : partition.getValue().entrySet()) {
+                    handler.handle(partition.getKey(), point.getKey(), point.getValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void loadPoints(RetentionTable table, String name, int fetchSize, PointHandler handler) {
+        ConcurrentSkipListMap<Long, Double> points = partitionsOf(table).get(name);
+        if (points != null) {
+            points.forEach(handler::handle);
+        }
+    }
+
+    @Override
+    public Map<String, Long> estimatePartitions() {
+        Map<String, Long> estimates = new HashMap<>();
+        tables.forEach((table, partitions) -> estimates.put(table, (long)partitions.size()));
+        return estimates;
+    }
+
+    @Override
+    public void createCoordinationTables() {
+        // always there
+    }
+
+    @Override
+    public boolean insertLeaseIfAbsent(String resource, String owner, int ttlSeconds) {
+        long now = System.currentTimeMillis();
+        Lease lease = new Lease(owner, now + ttlSeconds * 1000L);
+        return leases.compute(resource, (r, current) -> current == null || current.expiresAt <= now ? lease : current) == lease;
+    }
+
+    @Override
+    public boolean updateLeaseIfOwner(String resource, String owner, int ttlSeconds) {
+        long now = System.currentTimeMillis();
+        Lease lease = new Lease(owner, now + ttlSeconds * 1000L);
+        return leases.computeIfPresent(resource, (r, current) -> current.expiresAt > now && current.owner.equals(owner) ? lease : current) == lease;
+    }
+
+    @Override
+    public void deleteLeaseIfOwner(String resource, String owner) {
+        leases.computeIfPresent(resource, (r, current) -> current.owner.equals(owner) ? null : current);
+    }
+
+    @Override
+    public void insertCompletedUnit(String resource, int unit, String owner) {
+        completedUnits.computeIfAbsent(resource, r -> new ConcurrentSkipListMap<>()).put(unit, owner);
+    }
+
+    @Override
+    public List<Integer> selectCompletedUnits(String resource) {
+        ConcurrentSkipListMap<Integer, String> units = completedUnits.get(resource);
+        return units == null ? new ArrayList<>() : new ArrayList<>(units.keySet());
+    }
+
+    @Override
+    public void deleteCompletedUnits(String resource) {
+        completedUnits.remove(resource);
+    }
+
+    @Override
+    public void insertMetric(RetentionTable table, Metric metric) {
+        insertPoint(table, metric.name(), metric.timestamp(), metric.value());
+    }
+
+    @Override
+    public ListenableFuture<?> insertMetricAsync(RetentionTable table, Metric metric) {
+        insertMetric(table, metric);
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public void insertBatch(RetentionTable table, List<Metric> metrics) {
+        for (Metric metric : metrics) {
+            insertMetric(table, metric);
+        }
+    }
+
+    @Override
+    public ListenableFuture<?> insertBatchAsync(RetentionTable table, List<Metric> metrics) {
+        insertBatch(table, metrics);
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public void insertPoint(RetentionTable table, String name, long timestamp, double value) {
+        partitionsOf(table).computeIfAbsent(name, n -> new ConcurrentSkipListMap<>()).put(timestamp, value);
+        rowCache.remove(rowKey(table, name));
+    }
+
+    @Override
+    public ListenableFuture<?> insertPointAsync(RetentionTable table, String name, long timestamp, double value) {
+        insertPoint(table, name, timestamp, value);
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public void insertPoints(RetentionTable table, String name, long[] timestamps, double[] values) {
+        ConcurrentSkipListMap<Long, Double> points = partitionsOf(table).computeIfAbsent(name, n -> new ConcurrentSkipListMap<>());
+        for (int i = 0; i < timestamps.length; i++) {
+            points.put(timestamps[i], values[i]);
+        }
+        rowCache.remove(rowKey(table, name));
+    }
+
+    @Override
+    public ListenableFuture<?> insertPointsAsync(RetentionTable table, String name, long[] timestamps, double[] values) {
+        insertPoints(table, name, timestamps, values);
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    private List<Row> rowsOf(RetentionTable table, String name) {
+        return rowCache.computeIfAbsent(rowKey(table, name), key -> {
+            ColumnDefinitions columns = InMemoryRows.columns(KEYSPACE, table.tableName(),
+                    new String[] { CassandraAccessLayer.COL_NAME, CassandraAccessLayer.COL_TIME, CassandraAccessLayer.COL_VALUE },
+                    new DataType[] { DataType.text(), DataType.bigint(), DataType.cdouble() });
+            List<Row> rows = new ArrayList<>();
+            ConcurrentSkipListMap<Long, Double> points = partitionsOf(table).get(name);
+            if (points != null) {
+                for (Map.Entry<Long, Double> point : points.entrySet()) {
+                    rows.add(InMemoryRows.row(columns, DataType.text().serialize(name), DataType.bigint().serialize(point.getKey()),
+                            DataType.cdouble().serialize(point.getValue())));
+                }
+            }
+            return rows;
+        });
+    }
+
+    private ConcurrentNavigableMap<String, ConcurrentSkipListMap<Long, Double>> partitionsOf(RetentionTable table) {
+        ConcurrentSkipListMap<String, ConcurrentSkipListMap<Long, Double>> partitions = tables.get(normalize(table.tableName()));
+        if (partitions == null) {
+            throw new InvalidQueryException("unconfigured columnfamily " + table.tableName());
+        }
+        return partitions;
+    }
+
+    private static String rowKey(RetentionTable table, String name) {
+        return normalize(table.tableName()) + "/" + name;
+    }
+
+    private static String normalize(String tableName) {
+        return tableName.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Lease {
+        final String owner;
+        final long expiresAt;
+
+        Lease(String owner, long expiresAt) {
+            this.owner = owner;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.util.Collection;
+
+/**
+ * A cluster of one {@link InMemoryCassandraSession}, every open returns the same session.
+ * The session may be put in front of the keyspace, like a {@link SimulatedCassandraSession}.
+ */
+public class InMemoryClusterWrapper implements CassandraClusterWrapper {
+    private final InMemoryCassandraSession keyspace;
+    private final CassandraSession session;
+
+    public InMemoryClusterWrapper() {
+        this(new InMemoryCassandraSession());
+    }
+
+    public InMemoryClusterWrapper(InMemoryCassandraSession keyspace) {
+        this(keyspace, keyspace);
+    }
+
+    /**
+     * @param session the session in front of the keyspace
+     */
+    public InMemoryClusterWrapper(InMemoryCassandraSession keyspace, CassandraSession session) {
+        this.keyspace = keyspace;
+        this.session = session;
+    }
+
+    public InMemoryCassandraSession keyspace() {
+        return keyspace;
+    }
+
+    @Override
+    public CassandraSession open() {
+        return session;
+    }
+
+    @Override
+    public Collection<String> getTableNames() {
+        return keyspace.tableNames();
+    }
+
+    @Override
+    public void addSchemaListener(SchemaListener listener) {
+        keyspace.addSchemaListener(listener);
+    }
+
+    @Override
+    public void close() {
+        // the keyspace outlives the cluster, so a closed aggregator can be inspected
+    }
+}
@@ -0,0 +1,59 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.time.Duration;
+import java.util.Random;
+
+import io.bifroest.commons.statistics.units.parse.DurationParser;
+
+/**
+ * How long a simulated request takes.
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+    long sampleNanos(Random random);
+
+    static LatencyDistribution none() {
+        return random -> 0;
+    }
+
+    static LatencyDistribution fixed(Duration latency) {
+        long nanos = latency.toNanos();
+        return random -> nanos;
+    }
+
+    static LatencyDistribution uniform(Duration min, Duration max) {
+        long from = min.toNanos();
+        long range = max.toNanos() - from;
+        return random -> from + (long) (random.nextDouble() * range);
+    }
+
+    /**
+     * The long tail of real requests: most take about the median, a few take much longer.
+     */
+    static LatencyDistribution logNormal(Duration median, Duration p99) {
+        double mu = Math.log(median.toNanos());
+        // the 99th percentile of the standard normal distribution
+        double sigma = (Math.log(p99.toNanos()) - mu) / 2.3263;
+        return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+    }
+
+    /**
+     * Parses "0" for none, "5ms" for a fixed latency, "1ms-10ms" for a uniform one
+     * and "2ms~50ms" for a log-normal one with the given median and 99th percentile.
+     */
+    static LatencyDistribution parse(String spec) {
+        DurationParser parser = new DurationParser();
+        String trimmed = spec.trim();
+        if (trimmed.equals("0")) {
+            return none();
+        } else if (trimmed.contains("~")) {
+            String[] parts = trimmed.split("~");
+            return logNormal(parser.parse(parts[0]), parser.parse(parts[1]));
+        } else if (trimmed.contains("-")) {
+            String[] parts = trimmed.split("-");
+            return uniform(parser.parse(parts[0]), parser.parse(parts[1]));
+        } else {
+            return fixed(parser.parse(trimmed));
+        }
+    }
+}
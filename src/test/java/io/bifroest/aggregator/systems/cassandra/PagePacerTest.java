@@ -0,0 +1,46 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Test;
+
+public class PagePacerTest {
+    private final AdaptiveThrottle throttle = mock(AdaptiveThrottle.class);
+
+    @Test
+    public void theFirstPageIsPaidForByTheRequest() {
+        PagePacer subject = new PagePacer(throttle, 3);
+
+        for (int i = 0; i < 3; i++) {
+            subject.row();
+        }
+
+        verify(throttle, never()).acquire();
+    }
+
+    @Test
+    public void everyFurtherPageTakesASlot() {
+        PagePacer subject = new PagePacer(throttle, 3);
+
+        for (int i = 0; i < 7; i++) {
+            subject.row();
+        }
+
+        // rows 4 and 7 start the second and third page
+        verify(throttle, times(2)).acquire();
+    }
+
+    @Test
+    public void pagesHaveTheDriverDefaultSizeWithoutAFetchSize() {
+        PagePacer subject = new PagePacer(throttle, 0);
+
+        for (int i = 0; i <= PagePacer.DRIVER_FETCH_SIZE; i++) {
+            subject.row();
+        }
+
+        verify(throttle, times(1)).acquire();
+    }
+}
@@ -0,0 +1,65 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Locale;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import io.bifroest.aggregator.systems.cassandra.PreparedStatementCache.Operation;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+
+public class PreparedStatementCacheTest {
+    @Test
+    public void statementsOfDroppedTablesAreStale() {
+        assertThat(PreparedStatementCache.isStale(new InvalidQueryException("unconfigured columnfamily precise_42")), is(true));
+        assertThat(PreparedStatementCache.isStale(new InvalidQueryException("unconfigured table precise_42")), is(true));
+    }
+
+    @Test
+    public void statementsOfChangedColumnsAreStale() {
+        assertThat(PreparedStatementCache.isStale(new InvalidQueryException("Unknown identifier value")), is(true));
+        assertThat(PreparedStatementCache.isStale(new InvalidQueryException("Undefined column name value")), is(true));
+    }
+
+    @Test
+    public void otherInvalidQueriesAreRealErrors() {
+        assertThat(PreparedStatementCache.isStale(new InvalidQueryException("Invalid amount of bind variables")), is(false));
+        assertThat(PreparedStatementCache.isStale(new InvalidQueryException("Batch too large")), is(false));
+        assertThat(PreparedStatementCache.isStale(new InvalidQueryException(null)), is(false));
+    }
+
+    @Test
+    public void schemaChangesOfOthersInvalidateTheStatementsOfTheirTable() {
+        Session session = mock(Session.class);
+        when(session.prepare(any(RegularStatement.class))).thenAnswer(invocation -> mock(PreparedStatement.class));
+        PreparedStatementCache subject = new PreparedStatementCache(session, ClusterSettings.defaults());
+        RetentionLevel level = new RetentionLevel("precise", 60, 2, 60 * 60, null);
+        RetentionTable table = new RetentionTable(level, 42);
+        RetentionTable other = new RetentionTable(level, 43);
+        PreparedStatement before = subject.get(table, Operation.SELECT_POINTS);
+        PreparedStatement untouched = subject.get(other, Operation.SELECT_POINTS);
+
+        // the metadata of the driver does not keep the case of our table names
+        subject.tableDropped(table.tableName().toLowerCase(Locale.ROOT));
+
+        assertThat(subject.get(table, Operation.SELECT_POINTS), not(sameInstance(before)));
+        assertThat(subject.get(other, Operation.SELECT_POINTS), sameInstance(untouched));
+
+        PreparedStatement recreated = subject.get(table, Operation.SELECT_POINTS);
+        subject.tableCreated(table.tableName());
+
+        assertThat(subject.get(table, Operation.SELECT_POINTS), not(sameInstance(recreated)));
+    }
+}
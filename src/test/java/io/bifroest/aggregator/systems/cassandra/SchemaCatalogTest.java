@@ -0,0 +1,80 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import io.bifroest.retentions.RetentionConfiguration;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class SchemaCatalogTest {
+    @Mock
+    public RetentionConfiguration retentionConfiguration;
+
+    public RetentionLevel precise;
+    public RetentionLevel coarse;
+
+    public SchemaCatalog subject;
+
+    @Before
+    public void createSubject() {
+        MockitoAnnotations.initMocks(this);
+
+        precise = new RetentionLevel("precise", 20, 10, 40, "coarse");
+        coarse = new RetentionLevel("coarse", 40, 10, 400, null);
+        when(retentionConfiguration.getLevelForName("precise")).thenReturn(Optional.of(precise));
+        when(retentionConfiguration.getLevelForName("coarse")).thenReturn(Optional.of(coarse));
+
+        subject = new SchemaCatalog(retentionConfiguration);
+    }
+
+    @Test
+    public void tablesAreIndexedByLevelAndOrderedByBlock() {
+        subject.reload(Arrays.asList(tableName("precise", 12), tableName("coarse", 1), tableName("precise", 3)));
+
+        assertThat(subject.tables(precise), contains(new RetentionTable(precise, 3), new RetentionTable(precise, 12)));
+        assertThat(subject.tables(coarse), contains(new RetentionTable(coarse, 1)));
+        assertThat(subject.tables().size(), is(3));
+    }
+
+    @Test
+    public void createdAndDroppedTablesAreTrackedIncrementally() {
+        subject.reload(Collections.emptyList());
+
+        subject.tableCreated(new RetentionTable(precise, 7));
+        subject.tableCreated(tableName("coarse", 2));
+
+        assertThat(subject.contains(new RetentionTable(precise, 7)), is(true));
+        assertThat(subject.contains(new RetentionTable(coarse, 2)), is(true));
+
+        subject.tableDropped(new RetentionTable(precise, 7));
+        subject.tableDropped(tableName("coarse", 2));
+
+        assertThat(subject.contains(new RetentionTable(precise, 7)), is(false));
+        assertThat(subject.tables(precise), is(empty()));
+        assertThat(subject.tables(coarse), is(empty()));
+    }
+
+    @Test
+    public void reloadForgetsTablesThatAreGone() {
+        subject.reload(Arrays.asList(tableName("precise", 1), tableName("precise", 2)));
+        subject.reload(Arrays.asList(tableName("precise", 2)));
+
+        assertThat(subject.tables(precise), contains(new RetentionTable(precise, 2)));
+    }
+
+    private static String tableName(String levelName, long block) {
+        return "g" + levelName + RetentionTable.SEPARATOR_OF_MADNESS + block;
+    }
+}
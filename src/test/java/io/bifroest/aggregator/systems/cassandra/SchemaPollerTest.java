@@ -0,0 +1,72 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class SchemaPollerTest {
+    @Mock
+    public SchemaListener listener;
+
+    public AtomicReference<Collection<String>> tables = new AtomicReference<>();
+
+    public SchemaPoller subject;
+
+    @Before
+    public void createSubject() {
+        MockitoAnnotations.initMocks(this);
+        tables.set(Arrays.asList("gprecise_1", "gprecise_2"));
+        subject = new SchemaPoller(tables::get);
+        subject.addListener(listener);
+    }
+
+    @Test
+    public void nothingIsReportedWhileTheSchemaStaysTheSame() {
+        subject.poll();
+
+        verifyZeroInteractions(listener);
+    }
+
+    @Test
+    public void createdAndDroppedTablesAreReportedOnce() {
+        tables.set(Arrays.asList("gprecise_2", "gprecise_3"));
+
+        subject.poll();
+        subject.poll();
+
+        verify(listener, times(1)).tableCreated("gprecise_3");
+        verify(listener, times(1)).tableDropped("gprecise_1");
+        verify(listener, never()).tableCreated("gprecise_2");
+    }
+
+    @Test
+    public void listenersAreOnlyAddedOnce() {
+        subject.addListener(listener);
+        tables.set(Arrays.asList("gprecise_1", "gprecise_2", "gprecise_3"));
+
+        subject.poll();
+
+        verify(listener, times(1)).tableCreated("gprecise_3");
+    }
+
+    @Test
+    public void aFailedPollIsComparedLater() {
+        tables.set(null);
+        subject.poll();
+        tables.set(Arrays.asList("gprecise_1"));
+
+        subject.poll();
+
+        verify(listener, times(1)).tableDropped("gprecise_2");
+    }
+}
@@ -0,0 +1,391 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.WriteType;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.datastax.driver.core.exceptions.ReadTimeoutException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.bifroest.commons.model.Metric;
+import io.bifroest.aggregator.systems.statistics.LatencyHistogram;
+import io.bifroest.retentions.RetentionTable;
+
+/**
+ * A CassandraSession in front of another one, usually an {@link InMemoryCassandraSession},
+ * that lets every request take a latency of its kind of operation and times out a share
+ * of them, after the timeout of the driver.
+ *
+ * Synchronous requests block the calling thread, asynchronous ones are completed by a
+ * scheduler. Range scans and point reads take the latency once per page of fetch-size rows.
+ *
+ * Counts what was read and written and the latency every request took as seen by the caller.
+ */
+public class SimulatedCassandraSession implements CassandraSession {
+    private static final int DEFAULT_FETCH_SIZE = 5000;
+
+    public enum Operation {
+        READ, SCAN, WRITE, SCHEMA, COORDINATION
+    }
+
+    private final CassandraSession delegate;
+    private final Map<Operation, LatencyDistribution> latencies;
+    private final Map<Operation, Double> timeoutRates;
+    private final long timeoutNanos;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<Operation, LatencyHistogram> recorders = new EnumMap<>(Operation.class);
+    private final AtomicLong namesRead = new AtomicLong();
+    private final AtomicLong pointsRead = new AtomicLong();
+    private final AtomicLong pointsWritten = new AtomicLong();
+    private final AtomicLong tablesDropped = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private SimulatedCassandraSession(CassandraSession delegate, Builder builder) {
+        this.delegate = delegate;
+        this.latencies = new EnumMap<>(builder.latencies);
+        this.timeoutRates = new EnumMap<>(builder.timeoutRates);
+        this.timeoutNanos = builder.timeout.toNanos();
+        this.scheduler = Executors.newScheduledThreadPool(builder.schedulerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "simulated-cassandra");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new LatencyHistogram());
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public LatencyHistogram latencies(Operation operation) {
+        return recorders.get(operation);
+    }
+
+    /**
+     * @return the partitions read by name or found by range scans
+     */
+    public long namesRead() {
+        return namesRead.get();
+    }
+
+    public long pointsRead() {
+        return pointsRead.get();
+    }
+
+    public long pointsWritten() {
+        return pointsWritten.get();
+    }
+
+    public long tablesDropped() {
+        return tablesDropped.get();
+    }
+
+    public long timeouts() {
+        return timeouts.get();
+    }
+
+    @Override
+    public void dropTableInDatabase(RetentionTable table) {
+        call(Operation.SCHEMA, () -> {
+            delegate.dropTableInDatabase(table);
+            tablesDropped.incrementAndGet();
+            return null;
+        });
+    }
+
+    @Override
+    public void createTable(RetentionTable table) {
+        call(Operation.SCHEMA, () -> {
+            delegate.createTable(table);
+            return null;
+        });
+    }
+
+    @Override
+    public Iterator<Row> loadNamesFromTable(RetentionTable table) {
+        return call(Operation.READ, () -> delegate.loadNamesFromTable(table));
+    }
+
+    @Override
+    public Iterator<Row> loadMetricsFromTable(RetentionTable table, String name) {
+        return call(Operation.READ, () -> countRows(delegate.loadMetricsFromTable(table, name)));
+    }
+
+    @Override
+    public ListenableFuture<Iterator<Row>> loadMetricsFromTableAsync(RetentionTable table, String name, int fetchSize) {
+        return callAsync(Operation.READ, () -> countRows(delegate.loadMetricsFromTable(table, name)));
+    }
+
+    @Override
+    public void scanTokenRange(RetentionTable table, TokenRange range, int fetchSize, MetricRowHandler handler) {
+        int pageSize = fetchSize > 0 ? fetchSize : DEFAULT_FETCH_SIZE;
+        List<Object[]> rows = new ArrayList<>();
+        delegate.scanTokenRange(table, range, fetchSize, (name, timestamp, value) -> rows.add(new Object[] { name, timestamp, value }));
+        String previous = null;
+        for (int i = 0; i < rows.size() || i == 0; i++) {
+            if (i % pageSize == 0) {
+                call(Operation.SCAN, () -> null);
+            }
+            if (i == rows.size()) {
+                break;
+            }
+            Object[] row = rows.get(i);
+            if (!row[0].equals(previous)) {
+                namesRead.incrementAndGet();
+                previous = (String) row[0];
+            }
+            pointsRead.incrementAndGet();
+            handler.handle((String) row[0], (Long) row[1], (Double) row[2]);
+        }
+    }
+
+    @Override
+    public void loadPoints(RetentionTable table, String name, int fetchSize, PointHandler handler) {
+        int pageSize = fetchSize > 0 ? fetchSize : DEFAULT_FETCH_SIZE;
+        List<Long> timestamps = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        delegate.loadPoints(table, name, fetchSize, (timestamp, value) -> {
+            timestamps.add(timestamp);
+            values.add(value);
+        });
+        namesRead.incrementAndGet();
+        for (int i = 0; i < timestamps.size() || i == 0; i++) {
+            if (i % pageSize == 0) {
+                call(Operation.READ, () -> null);
+            }
+            if (i == timestamps.size()) {
+                break;
+            }
+            pointsRead.incrementAndGet();
+            handler.handle(timestamps.get(i), values.get(i));
+        }
+    }
+
+    @Override
+    public Map<String, Long> estimatePartitions() {
+        return call(Operation.READ, delegate::estimatePartitions);
+    }
+
+    @Override
+    public void createCoordinationTables() {
+        call(Operation.SCHEMA, () -> {
+            delegate.createCoordinationTables();
+            return null;
+        });
+    }
+
+    @Override
+    public boolean insertLeaseIfAbsent(String resource, String owner, int ttlSeconds) {
+        return call(Operation.COORDINATION, () -> delegate.insertLeaseIfAbsent(resource, owner, ttlSeconds));
+    }
+
+    @Override
+    public boolean updateLeaseIfOwner(String resource, String owner, int ttlSeconds) {
+        return call(Operation.COORDINATION, () -> delegate.updateLeaseIfOwner(resource, owner, ttlSeconds));
+    }
+
+    @Override
+    public void deleteLeaseIfOwner(String resource, String owner) {
+        call(Operation.COORDINATION, () -> {
+            delegate.deleteLeaseIfOwner(resource, owner);
+            return null;
+        });
+    }
+
+    @Override
+    public void insertCompletedUnit(String resource, int unit, String owner) {
+        call(Operation.COORDINATION, () -> {
+            delegate.insertCompletedUnit(resource, unit, owner);
+            return null;
+        });
+    }
+
+    @Override
+    public List<Integer> selectCompletedUnits(String resource) {
+        return call(Operation.COORDINATION, () -> delegate.selectCompletedUnits(resource));
+    }
+
+    @Override
+    public void deleteCompletedUnits(String resource) {
+        call(Operation.COORDINATION, () -> {
+            delegate.deleteCompletedUnits(resource);
+            return null;
+        });
+    }
+
+    @Override
+    public void insertMetric(RetentionTable table, Metric metric) {
+        call(Operation.WRITE, () -> written(1, () -> delegate.insertMetric(table, metric)));
+    }
+
+    @Override
+    public ListenableFuture<?> insertMetricAsync(RetentionTable table, Metric metric) {
+        return callAsync(Operation.WRITE, () -> written(1, () -> delegate.insertMetric(table, metric)));
+    }
+
+    @Override
+    public void insertBatch(RetentionTable table, List<Metric> metrics) {
+        call(Operation.WRITE, () -> written(metrics.size(), () -> delegate.insertBatch(table, metrics)));
+    }
+
+    @Override
+    public ListenableFuture<?> insertBatchAsync(RetentionTable table, List<Metric> metrics) {
+        return callAsync(Operation.WRITE, () -> written(metrics.size(), () -> delegate.insertBatch(table, metrics)));
+    }
+
+    @Override
+    public void insertPoint(RetentionTable table, String name, long timestamp, double value) {
+        call(Operation.WRITE, () -> written(1, () -> delegate.insertPoint(table, name, timestamp, value)));
+    }
+
+    @Override
+    public ListenableFuture<?> insertPointAsync(RetentionTable table, String name, long timestamp, double value) {
+        return callAsync(Operation.WRITE, () -> written(1, () -> delegate.insertPoint(table, name, timestamp, value)));
+    }
+
+    @Override
+    public void insertPoints(RetentionTable table, String name, long[] timestamps, double[] values) {
+        call(Operation.WRITE, () -> written(timestamps.length, () -> delegate.insertPoints(table, name, timestamps, values)));
+    }
+
+    @Override
+    public ListenableFuture<?> insertPointsAsync(RetentionTable table, String name, long[] timestamps, double[] values) {
+        return callAsync(Operation.WRITE, () -> written(timestamps.length, () -> delegate.insertPoints(table, name, timestamps, values)));
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        delegate.close();
+    }
+
+    private <T> T call(Operation operation, Supplier<T> request) {
+        long start = System.nanoTime();
+        boolean timedOut = timesOut(operation);
+        Uninterruptibles.sleepUninterruptibly(timedOut ? timeoutNanos : latencies.get(operation).sampleNanos(ThreadLocalRandom.current()), TimeUnit.NANOSECONDS);
+        try {
+            if (timedOut) {
+                throw timeout(operation);
+            }
+            return request.get();
+        } finally {
+            recorders.get(operation).recordSince(start);
+        }
+    }
+
+    private <T> ListenableFuture<T> callAsync(Operation operation, Supplier<T> request) {
+        long start = System.nanoTime();
+        boolean timedOut = timesOut(operation);
+        long latency = timedOut ? timeoutNanos : latencies.get(operation).sampleNanos(ThreadLocalRandom.current());
+        SettableFuture<T> result = SettableFuture.create();
+        scheduler.schedule(() -> {
+            try {
+                if (timedOut) {
+                    result.setException(timeout(operation));
+                } else {
+                    result.set(request.get());
+                }
+            } catch (RuntimeException e) {
+                result.setException(e);
+            } finally {
+                recorders.get(operation).recordSince(start);
+            }
+        }, latency, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    private boolean timesOut(Operation operation) {
+        double rate = timeoutRates.get(operation);
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private DriverException timeout(Operation operation) {
+        timeouts.incrementAndGet();
+        if (operation == Operation.WRITE || operation == Operation.COORDINATION) {
+            return new WriteTimeoutException(ConsistencyLevel.ONE, WriteType.UNLOGGED_BATCH, 0, 1);
+        }
+        return new ReadTimeoutException(ConsistencyLevel.ONE, 0, 1, false);
+    }
+
+    private Iterator<Row> countRows(Iterator<Row> rows) {
+        namesRead.incrementAndGet();
+        List<Row> counted = new ArrayList<>();
+        rows.forEachRemaining(counted::add);
+        pointsRead.addAndGet(counted.size());
+        return counted.iterator();
+    }
+
+    private Void written(int points, Runnable write) {
+        write.run();
+        pointsWritten.addAndGet(points);
+        return null;
+    }
+
+    public static final class Builder {
+        private final Map<Operation, LatencyDistribution> latencies = new EnumMap<>(Operation.class);
+        private final Map<Operation, Double> timeoutRates = new EnumMap<>(Operation.class);
+        private Duration timeout = Duration.ofSeconds(2);
+        private int schedulerThreads = 4;
+
+        private Builder() {
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, LatencyDistribution.none());
+                timeoutRates.put(operation, 0.0);
+            }
+        }
+
+        public Builder latency(Operation operation, LatencyDistribution latency) {
+            this.latencies.put(operation, latency);
+            return this;
+        }
+
+        /**
+         * @param rate the share of requests that time out, between 0 and 1
+         */
+        public Builder timeoutRate(Operation operation, double rate) {
+            if (rate < 0 || rate > 1) {
+                throw new IllegalArgumentException("timeout rate must be between 0 and 1, was " + rate);
+            }
+            this.timeoutRates.put(operation, rate);
+            return this;
+        }
+
+        /**
+         * @param timeout how long a request takes before it times out
+         */
+        public Builder timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * @param schedulerThreads the threads completing asynchronous requests
+         */
+        public Builder schedulerThreads(int schedulerThreads) {
+            this.schedulerThreads = schedulerThreads;
+            return this;
+        }
+
+        public SimulatedCassandraSession build(CassandraSession delegate) {
+            return new SimulatedCassandraSession(delegate, this);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import com.datastax.driver.core.exceptions.ReadTimeoutException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.bifroest.retentions.RetentionLevel;
+import io.bifroest.retentions.RetentionTable;
+import io.bifroest.aggregator.systems.cassandra.SimulatedCassandraSession.Operation;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SimulatedCassandraSessionTest {
+    private InMemoryCassandraSession keyspace;
+    private RetentionTable table;
+
+    @Before
+    public void fillKeyspace() {
+        keyspace = new InMemoryCassandraSession();
+        table = new RetentionTable(new RetentionLevel("precise", 60, 2, 60 * 60, null), 42);
+        keyspace.createTable(table);
+        for (int name = 0; name < 100; name++) {
+            keyspace.insertPoints(table, "name" + name, new long[] { 1, 2, 3 }, new double[] { 1.0, 2.0, 3.0 });
+        }
+    }
+
+    @Test
+    public void requestsTakeTheirLatency() {
+        SimulatedCassandraSession subject = SimulatedCassandraSession.builder().latency(Operation.READ, LatencyDistribution.fixed(Duration.ofMillis(5))).build(keyspace);
+
+        subject.loadMetricsFromTable(table, "name1");
+
+        assertThat(subject.latencies(Operation.READ).snapshot().count(), is(1L));
+        assertThat(subject.latencies(Operation.READ).snapshot().maxNanos(), greaterThanOrEqualTo(Duration.ofMillis(5).toNanos()));
+        assertThat(subject.namesRead(), is(1L));
+        assertThat(subject.pointsRead(), is(3L));
+    }
+
+    @Test
+    public void injectedTimeoutsFailTheRequest() throws InterruptedException {
+        SimulatedCassandraSession subject = SimulatedCassandraSession.builder().timeoutRate(Operation.READ, 1).timeoutRate(Operation.WRITE, 1).timeout(Duration.ofMillis(1)).build(keyspace);
+
+        try {
+            subject.loadMetricsFromTable(table, "name1");
+            fail("expected a read timeout");
+        } catch (ReadTimeoutException e) {
+            // expected
+        }
+        ListenableFuture<?> write = subject.insertPointAsync(table, "name1", 4, 4.0);
+        try {
+            write.get();
+            fail("expected a write timeout");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(WriteTimeoutException.class));
+        }
+        assertThat(subject.timeouts(), is(2L));
+        assertThat(keyspace.points(table, "name1").size(), is(3));
+    }
+
+    @Test
+    public void rangeScansOfTheWholeRingSeeEveryNameOnce() {
+        SimulatedCassandraSession subject = SimulatedCassandraSession.builder().build(keyspace);
+        Set<String> names = new HashSet<>();
+
+        for (TokenRange range : TokenRange.splitRing(16)) {
+            subject.scanTokenRange(table, range, 10, (name, timestamp, value) -> names.add(name));
+        }
+
+        assertThat(names.size(), is(100));
+        assertThat(subject.namesRead(), is(100L));
+        assertThat(subject.pointsRead(), is(300L));
+    }
+}
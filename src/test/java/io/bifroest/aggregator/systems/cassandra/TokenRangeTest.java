@@ -0,0 +1,46 @@
+package io.bifroest.aggregator.systems.cassandra;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class TokenRangeTest {
+    @Test
+    public void singleRangeCoversTheWholeRing() {
+        List<TokenRange> ranges = TokenRange.splitRing(1);
+
+        assertThat(ranges.size(), is(1));
+        assertThat(ranges.get(0), is(new TokenRange(Long.MIN_VALUE, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void rangesAreContiguousAndCoverTheRing() {
+        List<TokenRange> ranges = TokenRange.splitRing(7);
+
+        assertThat(ranges.size(), is(7));
+        assertThat(ranges.get(0).start(), is(Long.MIN_VALUE));
+        assertThat(ranges.get(6).end(), is(Long.MAX_VALUE));
+        for (int i = 1; i < ranges.size(); i++) {
+            assertThat(ranges.get(i).start(), is(ranges.get(i - 1).end()));
+            assertThat(ranges.get(i).start() < ranges.get(i).end(), is(true));
+        }
+    }
+
+    @Test
+    public void twoRangesSplitAtZero() {
+        List<TokenRange> ranges = TokenRange.splitRing(2);
+
+        // (2^64 - 1) / 2 rounds down, so the split is one below zero
+        assertThat(ranges.get(0).end(), is(-1L));
+    }
+
+    @Test
+    public void ringFractionWrapsAround() {
+        assertThat(TokenRange.ringFraction(Long.MIN_VALUE, Long.MAX_VALUE), is(1.0));
+        assertThat(TokenRange.ringFraction(0, Long.MIN_VALUE), is(0.5));
+        assertThat(TokenRange.ringFraction(Long.MIN_VALUE, 0), is(0.5));
+    }
+}
@@ -0,0 +1,100 @@
+package io.bifroest.aggregator.systems.coordination;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class LeaseCoordinatorTest {
+    private static final Duration DURATION = Duration.ofMinutes( 1 );
+
+    private final AtomicLong now = new AtomicLong();
+    private final InMemoryLeaseStore store = new InMemoryLeaseStore( now::get );
+
+    private LeaseCoordinator node( String nodeId ) {
+        return LeaseCoordinator.withoutRenewer( store, new CoordinationSettings( nodeId, DURATION ) );
+    }
+
+    @Test
+    public void aLeaseIsHeldByOneNodeAtATime() {
+        LeaseCoordinator.Lease first = node( "node-1" ).leaseOf( "minutely_1" );
+        LeaseCoordinator.Lease second = node( "node-2" ).leaseOf( "minutely_1" );
+
+        assertThat( first.acquire(), is( true ) );
+        assertThat( second.acquire(), is( false ) );
+
+        first.release();
+
+        assertThat( second.acquire(), is( true ) );
+    }
+
+    @Test
+    public void leasesOfADeadNodeAreTakenOverOnceTheyExpire() {
+        LeaseCoordinator dead = node( "node-1" );
+        LeaseCoordinator.Lease lease = dead.leaseOf( "minutely_1" );
+        lease.acquire();
+        LeaseCoordinator.Lease takeover = node( "node-2" ).leaseOf( "minutely_1" );
+
+        now.addAndGet( DURATION.toMillis() - 1 );
+        assertThat( takeover.acquire(), is( false ) );
+
+        now.addAndGet( 1 );
+        assertThat( takeover.acquire(), is( true ) );
+
+        dead.renewAll();
+        assertThat( lease.isLost(), is( true ) );
+    }
+
+    @Test
+    public void renewedLeasesDoNotExpire() {
+        LeaseCoordinator node = node( "node-1" );
+        LeaseCoordinator.Lease lease = node.leaseOf( "minutely_1" );
+        lease.acquire();
+
+        for ( int i = 0; i < 5; i++ ) {
+            now.addAndGet( DURATION.toMillis() / 3 );
+            node.renewAll();
+        }
+
+        assertThat( lease.isLost(), is( false ) );
+        assertThat( node( "node-2" ).leaseOf( "minutely_1" ).acquire(), is( false ) );
+    }
+
+    @Test
+    public void confirmingALeaseTakenOverByAnotherNodeLosesIt() {
+        LeaseCoordinator.Lease lease = node( "node-1" ).leaseOf( "minutely_1" );
+        lease.acquire();
+        assertThat( lease.confirm(), is( true ) );
+
+        now.addAndGet( DURATION.toMillis() );
+        node( "node-2" ).leaseOf( "minutely_1" ).acquire();
+
+        assertThat( lease.confirm(), is( false ) );
+        assertThat( lease.isLost(), is( true ) );
+    }
+
+    @Test
+    public void anUnreachableStoreGrantsNothing() {
+        LeaseStore broken = mock( LeaseStore.class );
+        when( broken.tryAcquire( anyString(), anyString(), any( Duration.class ) ) ).thenThrow( new IllegalStateException( "no host available" ) );
+
+        LeaseCoordinator node = LeaseCoordinator.withoutRenewer( broken, new CoordinationSettings( "node-1", DURATION ) );
+
+        assertThat( node.leaseOf( "minutely_1" ).acquire(), is( false ) );
+    }
+
+    @Test
+    public void uncoordinatedLeasesAreAlwaysGranted() {
+        LeaseCoordinator.Lease lease = LeaseCoordinator.uncoordinated().leaseOf( "minutely_1" );
+
+        assertThat( lease.acquire(), is( true ) );
+        assertThat( lease.isLost(), is( false ) );
+    }
+}
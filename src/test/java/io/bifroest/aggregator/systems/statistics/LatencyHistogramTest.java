@@ -0,0 +1,84 @@
+package io.bifroest.aggregator.systems.statistics;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void percentilesAreWithinTheBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for ( long micros = 1; micros <= 1000; micros++ ) {
+            histogram.record( micros * 1000 );
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertThat( snapshot.count(), is( 1000L ) );
+        assertThat( snapshot.maxNanos(), is( 1000000L ) );
+        assertWithinPrecision( snapshot.percentileNanos( 0.5 ), 500000 );
+        assertWithinPrecision( snapshot.percentileNanos( 0.99 ), 990000 );
+        assertThat( snapshot.percentileNanos( 1 ), is( 1000000L ) );
+    }
+
+    @Test
+    public void smallAndHugeLatenciesAreKept() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record( -5 );
+        histogram.record( 3 );
+        histogram.record( Long.MAX_VALUE );
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertThat( snapshot.percentileNanos( 0.1 ), is( 0L ) );
+        assertThat( snapshot.percentileNanos( 0.5 ), is( 3L ) );
+        assertThat( snapshot.percentileNanos( 1 ), is( Long.MAX_VALUE ) );
+    }
+
+    @Test
+    public void aResetStartsOver() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record( 1000 );
+
+        assertThat( histogram.snapshotAndReset().count(), is( 1L ) );
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat( snapshot.count(), is( 0L ) );
+        assertThat( snapshot.maxNanos(), is( 0L ) );
+        assertThat( snapshot.percentileNanos( 0.99 ), is( 0L ) );
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for ( int t = 0; t < 4; t++ ) {
+            long offset = t;
+            threads.add( new Thread( () -> {
+                for ( int i = 0; i < 10000; i++ ) {
+                    histogram.record( i * 4 + offset );
+                }
+            } ) );
+        }
+        for ( Thread thread : threads ) {
+            thread.start();
+        }
+        for ( Thread thread : threads ) {
+            thread.join();
+        }
+
+        assertThat( histogram.snapshot().count(), is( 40000L ) );
+        assertThat( histogram.snapshot().maxNanos(), is( 39999L ) );
+    }
+
+    private static void assertWithinPrecision( long actual, long expected ) {
+        assertThat( actual, allOf( greaterThanOrEqualTo( expected ), lessThanOrEqualTo( expected + expected / 32 ) ) );
+    }
+}
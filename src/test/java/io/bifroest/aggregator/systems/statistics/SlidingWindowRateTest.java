@@ -0,0 +1,107 @@
+package io.bifroest.aggregator.systems.statistics;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class SlidingWindowRateTest {
+    private static final Duration SECOND = Duration.ofSeconds( 1 );
+
+    private final AtomicLong now = new AtomicLong( 1000000 );
+    private final SlidingWindowRate subject = new SlidingWindowRate( SECOND, 10, now::get );
+
+    @Test
+    public void theRateCoversTheCompleteSlotsOfTheWindow() {
+        for ( int second = 0; second < 10; second++ ) {
+            subject.add( 100 );
+            now.addAndGet( 1000 );
+        }
+        // the slot being counted is not part of the rate yet
+        subject.add( 5000 );
+
+        assertThat( subject.rate( SECOND ), is( closeTo( 100, 0.001 ) ) );
+        assertThat( subject.rate( Duration.ofMinutes( 1 ) ), is( closeTo( 6000, 0.001 ) ) );
+    }
+
+    @Test
+    public void slotsLeavingTheWindowAreForgotten() {
+        subject.add( 1000 );
+        now.addAndGet( 5000 );
+        subject.add( 10 );
+        now.addAndGet( 6000 );
+
+        assertThat( subject.rate( SECOND ), is( closeTo( 1, 0.001 ) ) );
+
+        now.addAndGet( 60000 );
+
+        assertThat( subject.rate( SECOND ), is( closeTo( 0, 0.001 ) ) );
+    }
+
+    @Test
+    public void thePeakIsTheBusiestSlotSinceTheReset() {
+        subject.add( 700 );
+        now.addAndGet( 1000 );
+        subject.resetPeak();
+        subject.add( 300 );
+        now.addAndGet( 1000 );
+        subject.add( 500 );
+        now.addAndGet( 1000 );
+        subject.add( 200 );
+
+        assertThat( subject.peak( SECOND ), is( closeTo( 500, 0.001 ) ) );
+
+        // long after the ring went round, the peak stays
+        for ( int second = 0; second < 30; second++ ) {
+            now.addAndGet( 1000 );
+            subject.add( 1 );
+        }
+
+        assertThat( subject.peak( SECOND ), is( closeTo( 500, 0.001 ) ) );
+    }
+
+    @Test( timeout = 10000 )
+    public void noCountIsLostWhileTheRingMovesOn() throws InterruptedException {
+        int threads = 4;
+        int addsPerThread = 100000;
+        // a slot per millisecond, the window holds every slot the test counts in
+        SlidingWindowRate rate = new SlidingWindowRate( Duration.ofMillis( 1 ), 1000, now::get );
+        CountDownLatch start = new CountDownLatch( 1 );
+        List<Thread> counters = new ArrayList<>();
+        for ( int t = 0; t < threads; t++ ) {
+            Thread counter = new Thread( () -> {
+                try {
+                    start.await();
+                } catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for ( int i = 0; i < addsPerThread; i++ ) {
+                    rate.add( 1 );
+                    // every so often a thread moves the clock on to the next slot while the others count
+                    if ( i % 1000 == 0 ) {
+                        now.incrementAndGet();
+                    }
+                }
+            } );
+            counter.start();
+            counters.add( counter );
+        }
+
+        start.countDown();
+        for ( Thread counter : counters ) {
+            counter.join();
+        }
+        // the last slot counted in is complete now
+        now.incrementAndGet();
+
+        assertThat( rate.rate( Duration.ofSeconds( 1 ) ), is( closeTo( threads * addsPerThread, 0.001 ) ) );
+    }
+}